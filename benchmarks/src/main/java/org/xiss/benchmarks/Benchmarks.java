@@ -0,0 +1,24 @@
+package org.xiss.benchmarks;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Benchmarks runs the benchmarks with the GC profiler, so every result comes with its
+ * allocation rate (gc.alloc.rate.norm is the number of bytes allocated per operation). It
+ * takes the same arguments as the JMH runner, for example:
+ *
+ * <pre>
+ * java -jar target/benchmarks.jar ParseBenchmark -p shape=WIDE -p elements=10000
+ * </pre>
+ *
+ * @author mschrag
+ */
+public class Benchmarks {
+  public static void main(String[] args) throws Exception {
+    CommandLineOptions commandLine = new CommandLineOptions(args);
+    new Runner(new OptionsBuilder().parent(commandLine).addProfiler(GCProfiler.class).build()).run();
+  }
+}
@@ -0,0 +1,104 @@
+package org.xiss.benchmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.xiss.XML;
+
+/**
+ * BinderBenchmark measures reading and writing the records of a WIDE document with an
+ * XML.Binder, against hand-written code that reads and writes the same fields with getInt,
+ * childInt, childFloat and the builder. The elements parameter is the size of the document
+ * (there are a fifth as many records).
+ *
+ * @author mschrag
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class BinderBenchmark {
+  @Param( { "1000", "10000", "100000" })
+  public int elements;
+
+  private List<XML.E> _elements;
+  private List<BinderBenchmark.Record> _records;
+  private XML.Binder<BinderBenchmark.Record> _binder;
+
+  @Setup(Level.Trial)
+  public void setUp() {
+    _elements = XML.doc(Documents.generate(Documents.Shape.WIDE, elements)).root().children("record");
+    _binder = XML.binder(BinderBenchmark.Record.class);
+    _records = _binder.read(_elements);
+  }
+
+  @Benchmark
+  public List<BinderBenchmark.Record> bindRead() {
+    return _binder.read(_elements);
+  }
+
+  @Benchmark
+  public List<BinderBenchmark.Record> handRead() {
+    List<BinderBenchmark.Record> records = new ArrayList<BinderBenchmark.Record>(_elements.size());
+    for (XML.E e : _elements) {
+      BinderBenchmark.Record record = new BinderBenchmark.Record();
+      record.id = e.getInt("id", 0);
+      record.name = e.child("name").text();
+      record.quantity = e.childInt("quantity", 0);
+      record.price = e.childFloat("price", 0);
+      records.add(record);
+    }
+    return records;
+  }
+
+  @Benchmark
+  public XML.E bindWrite() {
+    XML.E root = XML.e("records");
+    for (BinderBenchmark.Record record : _records) {
+      root.add(_binder.write(record));
+    }
+    return root;
+  }
+
+  @Benchmark
+  public XML.E handWrite() {
+    XML.E root = XML.e("records");
+    for (BinderBenchmark.Record record : _records) {
+      XML.E e = root.e("record").set("id", String.valueOf(record.id));
+      e.e("name", record.name);
+      e.e("quantity", String.valueOf(record.quantity));
+      e.e("price", String.valueOf(record.price));
+    }
+    return root;
+  }
+
+  /**
+   * Record is the bound form of a record element of a WIDE document.
+   */
+  @XML.Bind("record")
+  public static class Record {
+    @XML.Bind("@id")
+    public int id;
+    @XML.Bind
+    public String name;
+    @XML.Bind
+    public int quantity;
+    @XML.Bind
+    public float price;
+  }
+}
@@ -0,0 +1,67 @@
+package org.xiss.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.xiss.XML;
+
+/**
+ * BuildBenchmark measures building documents in code, with the varargs XML.e(..) builder and
+ * with the chained e(..)/set(..) builder.
+ *
+ * @author mschrag
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class BuildBenchmark {
+  @Param( { "100", "1000", "10000" })
+  public int records;
+
+  @Benchmark
+  public XML.Doc varargs() {
+    Object[] people = new Object[records];
+    for (int i = 0; i < records; i++) {
+      people[i] = XML.e("person",
+          XML.a("id", String.valueOf(i)),
+          XML.e("first-name", "Mike"),
+          XML.e("last-name", "Schrag"),
+          XML.e("address",
+              XML.a("location", "home"),
+              XML.e("city", "Richmond"),
+              XML.e("state", "VA")
+          ),
+          XML.cdata("notes <" + i + ">")
+      );
+    }
+    return XML.doc(XML.e("people", people));
+  }
+
+  @Benchmark
+  public XML.Doc chained() {
+    XML.Doc doc = XML.doc();
+    XML.E people = doc.root("people");
+    for (int i = 0; i < records; i++) {
+      XML.E person = people.e("person").set("id", String.valueOf(i));
+      person.e("first-name", "Mike");
+      person.e("last-name", "Schrag");
+      XML.E address = person.e("address").set("location", "home");
+      address.e("city", "Richmond");
+      address.e("state", "VA");
+      person.cdata("notes <" + i + ">");
+    }
+    return doc;
+  }
+}
@@ -0,0 +1,69 @@
+package org.xiss.benchmarks;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.xiss.XML;
+
+/**
+ * ColumnsBenchmark measures reading the id, quantity and price of every record of a WIDE
+ * document with XML.columns(..), against parsing the document and reading the fields of each
+ * record element with getInt, childInt and childFloat. The elements parameter is the size of
+ * the document (there are a fifth as many records).
+ *
+ * @author mschrag
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ColumnsBenchmark {
+  @Param( { "10000", "100000", "1500000" })
+  public int elements;
+
+  private String _xml;
+  private XML.Columns _columns;
+
+  @Setup(Level.Trial)
+  public void setUp() {
+    _xml = Documents.generate(Documents.Shape.WIDE, elements);
+    _columns = XML.columns("record").intColumn("@id", -1).intColumn("quantity", 0).doubleColumn("price", 0);
+  }
+
+  @Benchmark
+  public XML.Columns.Table columns() {
+    return _columns.read(_xml);
+  }
+
+  @Benchmark
+  public void doc(Blackhole blackhole) {
+    List<XML.E> records = XML.doc(_xml).root().children("record");
+    int[] ids = new int[records.size()];
+    int[] quantities = new int[records.size()];
+    double[] prices = new double[records.size()];
+    for (int i = 0; i < ids.length; i++) {
+      XML.E record = records.get(i);
+      ids[i] = record.getInt("id", -1);
+      quantities[i] = record.childInt("quantity", 0);
+      prices[i] = record.childFloat("price", 0);
+    }
+    blackhole.consume(ids);
+    blackhole.consume(quantities);
+    blackhole.consume(prices);
+  }
+}
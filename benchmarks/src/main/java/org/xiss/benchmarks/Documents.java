@@ -0,0 +1,85 @@
+package org.xiss.benchmarks;
+
+/**
+ * Documents generates the synthetic documents the benchmarks run over. Every shape has about
+ * the requested number of elements, so the sizes of the shapes are comparable.
+ *
+ * @author mschrag
+ */
+public class Documents {
+  /**
+   * The shapes of the generated documents.
+   */
+  public static enum Shape {
+    /**
+     * A root with a flat list of records, each of which has a few short children (like a
+     * table dump).
+     */
+    WIDE,
+
+    /**
+     * Chains of elements nested DEPTH levels deep under the root.
+     */
+    DEEP,
+
+    /**
+     * A root with a flat list of records that keep all of their values in attributes.
+     */
+    ATTRIBUTES
+  }
+
+  /**
+   * The nesting depth of the DEEP shape.
+   */
+  public static final int DEPTH = 64;
+
+  /**
+   * The number of attributes of each record of the ATTRIBUTES shape.
+   */
+  public static final int ATTRIBUTES = 16;
+
+  /**
+   * Returns a document of the given shape with about the given number of elements.
+   *
+   * @param shape the shape of the document
+   * @param elements the number of elements in the document
+   * @return the generated document
+   */
+  public static String generate(Documents.Shape shape, int elements) {
+    StringBuilder xml = new StringBuilder(elements * 48);
+    xml.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<records>\n");
+    if (shape == Documents.Shape.WIDE) {
+      for (int i = 0; i < elements / 5; i++) {
+        xml.append("  <record id=\"").append(i).append("\">\n");
+        xml.append("    <name>Record &amp; ").append(i).append("</name>\n");
+        xml.append("    <quantity>").append(i % 100).append("</quantity>\n");
+        xml.append("    <price>").append(i % 1000).append(".25</price>\n");
+        xml.append("    <city>Richmond</city>\n");
+        xml.append("  </record>\n");
+      }
+    }
+    else if (shape == Documents.Shape.DEEP) {
+      for (int i = 0; i < Math.max(elements / Documents.DEPTH, 1); i++) {
+        for (int depth = 0; depth < Documents.DEPTH; depth++) {
+          xml.append("<level depth=\"").append(depth).append("\">");
+        }
+        xml.append("<name>leaf ").append(i).append("</name>");
+        for (int depth = 0; depth < Documents.DEPTH; depth++) {
+          xml.append("</level>");
+        }
+        xml.append('\n');
+      }
+    }
+    else {
+      for (int i = 0; i < elements; i++) {
+        xml.append("  <record");
+        for (int attribute = 0; attribute < Documents.ATTRIBUTES; attribute++) {
+          xml.append(" a").append(attribute).append("=\"").append(i + attribute).append('"');
+        }
+        xml.append("/>\n");
+      }
+    }
+    xml.append("</records>\n");
+    return xml.toString();
+  }
+}
@@ -0,0 +1,127 @@
+package org.xiss.benchmarks;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.StringReader;
+import java.util.concurrent.TimeUnit;
+
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.xiss.XML;
+
+/**
+ * ParseBenchmark measures XML.doc(..) from a String, a Reader and a File, with the W3C DOM
+ * parser of the JDK as a baseline. docFile decodes UTF-8 straight from the bytes of the file,
+ * and docFileReader parses the same file through an InputStreamReader. readBinary reads the
+ * same document written with Doc.writeBinary.
+ *
+ * @author mschrag
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ParseBenchmark {
+  @Param( { "WIDE", "DEEP", "ATTRIBUTES" })
+  public Documents.Shape shape;
+
+  @Param( { "1000", "10000", "100000" })
+  public int elements;
+
+  private String _xml;
+  private byte[] _bytes;
+  private File _file;
+  private File _binaryFile;
+  private DocumentBuilder _documentBuilder;
+
+  @Setup(Level.Trial)
+  public void setUp() throws Exception {
+    _xml = Documents.generate(shape, elements);
+    _bytes = _xml.getBytes("UTF-8");
+    _file = File.createTempFile("xiss-benchmark", ".xml");
+    FileOutputStream out = new FileOutputStream(_file);
+    try {
+      out.write(_bytes);
+    }
+    finally {
+      out.close();
+    }
+    _binaryFile = File.createTempFile("xiss-benchmark", ".xissb");
+    out = new FileOutputStream(_binaryFile);
+    try {
+      XML.doc(_file).writeBinary(out);
+    }
+    finally {
+      out.close();
+    }
+    _documentBuilder = DocumentBuilderFactory.newInstance().newDocumentBuilder();
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    _file.delete();
+    _binaryFile.delete();
+  }
+
+  @Benchmark
+  public XML.Doc docString() {
+    return XML.doc(_xml);
+  }
+
+  @Benchmark
+  public XML.Doc docReader() {
+    return XML.doc(new StringReader(_xml));
+  }
+
+  @Benchmark
+  public XML.Doc docFile() {
+    return XML.doc(_file);
+  }
+
+  @Benchmark
+  public XML.Doc docFileReader() throws IOException {
+    InputStreamReader reader = new InputStreamReader(new FileInputStream(_file), "UTF-8");
+    try {
+      return XML.doc(reader);
+    }
+    finally {
+      reader.close();
+    }
+  }
+
+  @Benchmark
+  public XML.Doc readBinary() throws IOException {
+    FileInputStream in = new FileInputStream(_binaryFile);
+    try {
+      return XML.readBinary(in);
+    }
+    finally {
+      in.close();
+    }
+  }
+
+  @Benchmark
+  public org.w3c.dom.Document w3cParse() throws IOException, org.xml.sax.SAXException {
+    return _documentBuilder.parse(new ByteArrayInputStream(_bytes));
+  }
+}
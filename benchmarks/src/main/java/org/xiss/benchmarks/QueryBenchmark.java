@@ -0,0 +1,66 @@
+package org.xiss.benchmarks;
+
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.xiss.XML;
+
+/**
+ * QueryBenchmark measures the child(..), children(..) and descendents(..) lookups over a
+ * parsed document.
+ *
+ * @author mschrag
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class QueryBenchmark {
+  @Param( { "WIDE", "DEEP", "ATTRIBUTES" })
+  public Documents.Shape shape;
+
+  @Param( { "1000", "10000", "100000" })
+  public int elements;
+
+  private XML.E _root;
+  private String _leafName;
+
+  @Setup(Level.Trial)
+  public void setUp() {
+    _root = XML.parser().setIgnoringWhitespace(true).doc(Documents.generate(shape, elements)).root();
+    _leafName = (shape == Documents.Shape.WIDE) ? "city" : (shape == Documents.Shape.DEEP) ? "name" : "record";
+  }
+
+  @Benchmark
+  public void child(Blackhole blackhole) {
+    for (XML.Node node : _root.children()) {
+      blackhole.consume(((XML.E) node).child("name"));
+    }
+  }
+
+  @Benchmark
+  public List<XML.E> children() {
+    return _root.children((shape == Documents.Shape.DEEP) ? "level" : "record");
+  }
+
+  @Benchmark
+  public Set<XML.E> descendents() {
+    return _root.descendents(_leafName);
+  }
+}
@@ -0,0 +1,125 @@
+package org.xiss.benchmarks;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.xiss.XML;
+
+/**
+ * TapeBenchmark measures parsing a file into an XML.Tape against parsing it into an XML.Doc,
+ * and how much heap each of them keeps once it is built. The footprint benchmarks run one
+ * parse per iteration and report the retained heap in their "retainedBytes" counter.
+ *
+ * @author mschrag
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TapeBenchmark {
+  @Param( { "WIDE", "DEEP", "ATTRIBUTES" })
+  public Documents.Shape shape;
+
+  @Param( { "10000", "100000", "600000" })
+  public int elements;
+
+  private File _file;
+
+  @Setup(Level.Trial)
+  public void setUp() throws Exception {
+    _file = File.createTempFile("xiss-benchmark", ".xml");
+    FileOutputStream out = new FileOutputStream(_file);
+    try {
+      out.write(Documents.generate(shape, elements).getBytes("UTF-8"));
+    }
+    finally {
+      out.close();
+    }
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    _file.delete();
+  }
+
+  @Benchmark
+  public XML.Doc doc() {
+    return XML.doc(_file);
+  }
+
+  @Benchmark
+  public XML.Tape tape() {
+    return XML.tape(_file);
+  }
+
+  @Benchmark
+  @BenchmarkMode(Mode.SingleShotTime)
+  @Warmup(iterations = 2, batchSize = 1)
+  @Measurement(iterations = 1, batchSize = 1)
+  public XML.Doc docFootprint(TapeBenchmark.Footprint footprint) {
+    XML.Doc doc = XML.doc(_file);
+    footprint.retained();
+    return doc;
+  }
+
+  @Benchmark
+  @BenchmarkMode(Mode.SingleShotTime)
+  @Warmup(iterations = 2, batchSize = 1)
+  @Measurement(iterations = 1, batchSize = 1)
+  public XML.Tape tapeFootprint(TapeBenchmark.Footprint footprint) {
+    XML.Tape tape = XML.tape(_file);
+    footprint.retained();
+    return tape;
+  }
+
+  /**
+   * Footprint records the heap that is still in use after a parse, compared with the heap in
+   * use before it, with a full collection before each reading.
+   */
+  @State(Scope.Thread)
+  @AuxCounters(AuxCounters.Type.EVENTS)
+  public static class Footprint {
+    public long retainedBytes;
+
+    private long _before;
+
+    @Setup(Level.Iteration)
+    public void setUp() {
+      retainedBytes = 0;
+      _before = Footprint.used();
+    }
+
+    /**
+     * Records the heap retained since the start of the iteration. The result of the parse
+     * must still be reachable when this is called.
+     */
+    public void retained() {
+      retainedBytes = Footprint.used() - _before;
+    }
+
+    private static long used() {
+      Runtime runtime = Runtime.getRuntime();
+      for (int i = 0; i < 3; i++) {
+        System.gc();
+      }
+      return runtime.totalMemory() - runtime.freeMemory();
+    }
+  }
+}
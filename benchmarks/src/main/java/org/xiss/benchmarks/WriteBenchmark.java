@@ -0,0 +1,87 @@
+package org.xiss.benchmarks;
+
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.xiss.XML;
+
+/**
+ * WriteBenchmark measures writing a parsed document as text (toString(), write(..) and
+ * writeTo(..)) and converting it to a W3C DOM document with w3c().
+ *
+ * @author mschrag
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class WriteBenchmark {
+  @Param( { "WIDE", "DEEP", "ATTRIBUTES" })
+  public Documents.Shape shape;
+
+  @Param( { "1000", "10000", "100000" })
+  public int elements;
+
+  private XML.Doc _doc;
+
+  @Setup(Level.Trial)
+  public void setUp() {
+    _doc = XML.parser().setIgnoringWhitespace(true).doc(Documents.generate(shape, elements));
+  }
+
+  @Benchmark
+  public String toStringPretty() {
+    return _doc.toString();
+  }
+
+  @Benchmark
+  public String toStringCompact() {
+    return _doc.toString(XML.Profile.COMPACT);
+  }
+
+  @Benchmark
+  public StringWriter write() {
+    StringWriter writer = new StringWriter();
+    PrintWriter printWriter = new PrintWriter(writer);
+    _doc.write(printWriter, 0);
+    printWriter.flush();
+    return writer;
+  }
+
+  @Benchmark
+  public void writeTo(final Blackhole blackhole) {
+    _doc.writeTo(new OutputStream() {
+      @Override
+      public void write(int b) {
+        blackhole.consume(b);
+      }
+
+      @Override
+      public void write(byte[] bytes, int offset, int length) {
+        blackhole.consume(bytes);
+      }
+    });
+  }
+
+  @Benchmark
+  public org.w3c.dom.Document w3c() {
+    return _doc.w3c();
+  }
+}
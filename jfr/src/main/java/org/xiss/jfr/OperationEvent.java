@@ -0,0 +1,36 @@
+package org.xiss.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.StackTrace;
+
+/**
+ * OperationEvent is the superclass of the Flight Recorder events of XISS operations, with the
+ * counts of an XML.Operation as its fields.
+ *
+ * @author mschrag
+ */
+@Category("XISS")
+@StackTrace(true)
+public abstract class OperationEvent extends jdk.jfr.Event {
+  @Label("Size")
+  @Description("The number of characters (or bytes of a file) read or written, or -1 if it isn't known")
+  long size;
+
+  @Label("Elements")
+  @Description("The number of elements in the document")
+  int elements;
+
+  @Label("Attributes")
+  @Description("The number of attributes in the document")
+  int attributes;
+
+  @Label("Max Depth")
+  @Description("The maximum depth of the elements in the document")
+  int maxDepth;
+
+  @Label("Failure")
+  @Description("The failure of the operation, or null if it succeeded")
+  String failure;
+}
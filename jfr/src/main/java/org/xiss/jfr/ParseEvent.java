@@ -0,0 +1,16 @@
+package org.xiss.jfr;
+
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * ParseEvent records one XML.Operation.PARSE operation.
+ *
+ * @author mschrag
+ */
+@Name("org.xiss.Parse")
+@Label("XML Parse")
+@Description("Parsed an XML document")
+public class ParseEvent extends OperationEvent {
+}
@@ -0,0 +1,16 @@
+package org.xiss.jfr;
+
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * W3cEvent records one XML.Operation.W3C operation.
+ *
+ * @author mschrag
+ */
+@Name("org.xiss.W3c")
+@Label("XML W3C Conversion")
+@Description("Converted an XML document to a W3C DOM document")
+public class W3cEvent extends OperationEvent {
+}
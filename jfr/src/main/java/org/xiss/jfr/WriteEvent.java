@@ -0,0 +1,16 @@
+package org.xiss.jfr;
+
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * WriteEvent records one XML.Operation.WRITE operation.
+ *
+ * @author mschrag
+ */
+@Name("org.xiss.Write")
+@Label("XML Write")
+@Description("Wrote an XML document or element as text")
+public class WriteEvent extends OperationEvent {
+}
@@ -0,0 +1,75 @@
+package org.xiss.jfr;
+
+import org.xiss.XML;
+
+/**
+ * <p>
+ * XMLEvents records every parse, write and W3C conversion of a document as a Flight Recorder
+ * event (org.xiss.Parse, org.xiss.Write and org.xiss.W3c), with the duration, size, element
+ * and attribute counts and maximum depth of the operation. Register it once at startup:
+ * </p>
+ *
+ * <pre>
+ * XMLEvents.register();
+ * </pre>
+ *
+ * <p>
+ * While no recording has the events enabled, each operation only creates and drops an event
+ * object, and the document is never walked to count its elements.
+ * </p>
+ *
+ * @author mschrag
+ */
+public class XMLEvents implements XML.Listener {
+  private static final XMLEvents INSTANCE = new XMLEvents();
+
+  /**
+   * Starts recording XISS operations as Flight Recorder events.
+   */
+  public static void register() {
+    XML.Operation.removeListener(XMLEvents.INSTANCE);
+    XML.Operation.addListener(XMLEvents.INSTANCE);
+  }
+
+  /**
+   * Stops recording XISS operations as Flight Recorder events.
+   */
+  public static void unregister() {
+    XML.Operation.removeListener(XMLEvents.INSTANCE);
+  }
+
+  public Object started(XML.Operation operation) {
+    OperationEvent event;
+    switch (operation.kind()) {
+    case XML.Operation.PARSE:
+      event = new ParseEvent();
+      break;
+    case XML.Operation.WRITE:
+      event = new WriteEvent();
+      break;
+    default:
+      event = new W3cEvent();
+      break;
+    }
+    if (!event.isEnabled()) {
+      return null;
+    }
+    event.begin();
+    return event;
+  }
+
+  public void finished(XML.Operation operation, Object context) {
+    OperationEvent event = (OperationEvent) context;
+    if (event != null) {
+      event.end();
+      if (event.shouldCommit()) {
+        event.size = operation.size();
+        event.elements = operation.elements();
+        event.attributes = operation.attributes();
+        event.maxDepth = operation.maxDepth();
+        event.failure = (operation.failure() == null) ? null : String.valueOf(operation.failure());
+        event.commit();
+      }
+    }
+  }
+}
@@ -0,0 +1,61 @@
+package org.xiss.jfr;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import junit.framework.TestCase;
+
+import org.xiss.XML;
+
+public class XMLEventsTest extends TestCase {
+  public void testEvents() throws Exception {
+    File file = File.createTempFile("xiss", ".jfr");
+    XMLEvents.register();
+    try {
+      Recording recording = new Recording();
+      recording.enable(ParseEvent.class);
+      recording.enable(WriteEvent.class);
+      recording.enable(W3cEvent.class);
+      recording.start();
+      XML.Doc doc = XML.doc("<people><person id=\"1\"><name>Mike</name></person></people>");
+      String string = doc.toString(XML.Profile.COMPACT);
+      doc.w3c();
+      try {
+        XML.doc("<people>");
+        fail("should have failed");
+      }
+      catch (IllegalArgumentException e) {
+        // EXPECTED
+      }
+      recording.stop();
+      recording.dump(file.toPath());
+      recording.close();
+
+      List<RecordedEvent> events = new ArrayList<RecordedEvent>();
+      for (RecordedEvent event : RecordingFile.readAllEvents(file.toPath())) {
+        if (event.getEventType().getName().startsWith("org.xiss.")) {
+          events.add(event);
+        }
+      }
+      assertEquals(4, events.size());
+      assertEquals("org.xiss.Parse", events.get(0).getEventType().getName());
+      assertEquals(3, events.get(0).getInt("elements"));
+      assertEquals(1, events.get(0).getInt("attributes"));
+      assertEquals(3, events.get(0).getInt("maxDepth"));
+      assertNull(events.get(0).getString("failure"));
+      assertEquals("org.xiss.Write", events.get(1).getEventType().getName());
+      assertEquals(string.length(), events.get(1).getLong("size"));
+      assertEquals("org.xiss.W3c", events.get(2).getEventType().getName());
+      assertEquals("org.xiss.Parse", events.get(3).getEventType().getName());
+      assertNotNull(events.get(3).getString("failure"));
+    }
+    finally {
+      XMLEvents.unregister();
+      file.delete();
+    }
+  }
+}
@@ -1,20 +1,77 @@
 package org.xiss;
 
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.EOFException;
 import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
 import java.io.PrintWriter;
 import java.io.Reader;
 import java.io.StringReader;
-import java.io.StringWriter;
+import java.lang.annotation.ElementType;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.CoderResult;
+import java.nio.charset.MalformedInputException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
-import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
 import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
 
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
-import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.SAXParseException;
 
 /**
  * XML is the container class for all of the XISS XML builder classes and methods.
@@ -29,6 +86,8 @@ public class XML {
    */
   public static abstract class Item {
     private Item _parent;
+    private boolean _frozen;
+    private boolean _draft;
 
     /**
      * Constructs a new Item.
@@ -42,9 +101,35 @@ public class XML {
      * @param parent the parent of the this item
      */
     protected void setParent(Item parent) {
+      checkNotFrozen();
       _parent = parent;
     }
 
+    /**
+     * Returns whether or not this item belongs to a frozen document (see Doc.freeze()).
+     * 
+     * @return whether or not this item is frozen
+     */
+    public boolean isFrozen() {
+      return _frozen;
+    }
+
+    /**
+     * Marks this item as frozen. Frozen items can't be frozen again.
+     */
+    protected void markFrozen() {
+      _frozen = true;
+    }
+
+    /**
+     * Throws if this item is frozen. Every mutator calls this before changing anything.
+     */
+    protected void checkNotFrozen() {
+      if (_frozen) {
+        throw new UnsupportedOperationException("This item belongs to a frozen document and can't be changed.");
+      }
+    }
+
     /**
      * Returns the parent of this item, or null if there isn't one.
      * 
@@ -79,7 +164,50 @@ public class XML {
      * @param writer the writer to write to
      * @param indent the current indentation
      */
-    public abstract void write(PrintWriter writer, int indent);
+    public void write(PrintWriter writer, int indent) {
+      write(writer, indent, XML.Profile.PRETTY);
+    }
+
+    /**
+     * Writes this item to the given writer with a certain indentation, formatted with the
+     * given profile.
+     * 
+     * @param writer the writer to write to
+     * @param indent the current indentation
+     * @param profile the profile to format with
+     */
+    public void write(PrintWriter writer, int indent, XML.Profile profile) {
+      XML.Operation operation = XML.Operation.start(XML.Operation.WRITE);
+      XML.Output output = new XML.Output(writer).setProfile(profile);
+      try {
+        write(output, indent);
+        output.flush();
+        XML.Operation.succeed(operation, this, output.length());
+      }
+      catch (RuntimeException e) {
+        XML.Operation.fail(operation, e);
+        throw e;
+      }
+      catch (Error e) {
+        XML.Operation.fail(operation, e);
+        throw e;
+      }
+      finally {
+        output.release();
+        XML.Operation.finish(operation);
+      }
+    }
+
+    /**
+     * Writes this item to the given output with a certain indentation, formatted with the
+     * profile of the output. This is the method subclasses implement; it replaces the abstract
+     * write(PrintWriter, int) of earlier versions, which now wraps the writer in an output
+     * and calls this.
+     * 
+     * @param output the output to write to
+     * @param indent the current indentation
+     */
+    public abstract void write(XML.Output output, int indent);
 
     /**
      * Visits this item and any of its children (if the visitor allows).
@@ -89,46 +217,23 @@ public class XML {
     public abstract void visit(XML.Visitor visitor);
 
     /**
-     * Writes the given escaped String to the writer.
+     * Walks this item and any of its children with the given walker (see XML.Walker).
      * 
-     * @param value the string value to escape
-     * @param writer the writer to write to
+     * @param walker the walker to walk with
+     * @return false if the walker stopped the walk, true otherwise
      */
-    protected void writeEscapedString(String value, PrintWriter writer) {
-      if (value != null) {
-        int length = value.length();
-        for (int i = 0; i < length; i++) {
-          char c = value.charAt(i);
-          switch (c) {
-          case '<':
-            writer.print("&lt;");
-            break;
-          case '>':
-            writer.print("&gt;");
-            break;
-          case '&':
-            writer.print("&amp;");
-            break;
-          case '"':
-            writer.print("&quot;");
-            break;
-          default:
-            writer.print(c);
-          }
-        }
-      }
+    public boolean walk(XML.Walker walker) {
+      return walker.enter(this) != XML.Walker.STOP;
     }
 
     /**
-     * Writes an indentation to the writer.
+     * Writes an indentation to the output.
      * 
      * @param indent the indentation to write
-     * @param writer the writer to write to
+     * @param output the output to write to
      */
-    protected void writeIndent(int indent, PrintWriter writer) {
-      for (int i = 0; i < indent; i++) {
-        writer.print("  ");
-      }
+    protected void writeIndent(int indent, XML.Output output) {
+      output.indent(indent);
     }
 
     /**
@@ -138,10 +243,36 @@ public class XML {
      */
     @Override
     public String toString() {
-      StringWriter sw = new StringWriter();
-      PrintWriter pw = new PrintWriter(sw, true);
-      write(pw, 0);
-      return sw.toString();
+      return toString(XML.Profile.PRETTY);
+    }
+
+    /**
+     * Generates a representation of this item formatted with the given profile.
+     * 
+     * @param profile the profile to format with
+     * @return a representation of this item
+     */
+    public String toString(XML.Profile profile) {
+      XML.Operation operation = XML.Operation.start(XML.Operation.WRITE);
+      XML.Output output = new XML.Output().setProfile(profile);
+      try {
+        write(output, 0);
+        String string = output.toString();
+        XML.Operation.succeed(operation, this, string.length());
+        return string;
+      }
+      catch (RuntimeException e) {
+        XML.Operation.fail(operation, e);
+        throw e;
+      }
+      catch (Error e) {
+        XML.Operation.fail(operation, e);
+        throw e;
+      }
+      finally {
+        output.release();
+        XML.Operation.finish(operation);
+      }
     }
   }
 
@@ -180,6 +311,7 @@ public class XML {
      * @param version the version of this document
      */
     public void setVersion(String version) {
+      checkNotFrozen();
       _version = version;
     }
 
@@ -198,6 +330,7 @@ public class XML {
      * @param encoding the encoding for this document
      */
     public void setEncoding(String encoding) {
+      checkNotFrozen();
       _encoding = encoding;
     }
 
@@ -207,20 +340,23 @@ public class XML {
     }
 
     @Override
-    public void write(PrintWriter writer, int indent) {
-      writer.print("<?xml");
+    public void write(XML.Output output, int indent) {
+      if (output.profile().isCanonical()) {
+        return;
+      }
+      output.print("<?xml");
       if (_version != null) {
-        writer.print(" version=\"");
-        writer.print(_version);
-        writer.print("\"");
+        output.print(" version=\"");
+        output.print(_version);
+        output.print("\"");
       }
       if (_encoding != null) {
-        writer.print(" encoding=\"");
-        writer.print(_encoding);
-        writer.print("\"");
+        output.print(" encoding=\"");
+        output.print(_encoding);
+        output.print("\"");
       }
-      writer.print("?>");
-      writer.println();
+      output.print("?>");
+      output.println();
     }
   }
 
@@ -240,12 +376,15 @@ public class XML {
     private XML.E _root;
     private XML.Declaration _declaration;
     private List<XML.Item> _children;
+    private XML.NameIndex _nameIndex;
+    private volatile String _string;
+    private volatile byte[] _bytes;
 
     /**
      * Constructs a new Document.
      */
     public Doc() {
-      _children = new LinkedList<XML.Item>();
+      _children = new ArrayList<XML.Item>(2);
       setDeclaration(new XML.Declaration("1.0", "UTF-8"));
     }
 
@@ -275,6 +414,7 @@ public class XML {
      * @param declaration the declaration for this document
      */
     public void setDeclaration(XML.Declaration declaration) {
+      checkNotFrozen();
       if (_declaration != null) {
         remove(_declaration);
       }
@@ -330,9 +470,12 @@ public class XML {
      * @param root the new root element
      */
     public void setRoot(XML.E root) {
+      checkNotFrozen();
+      elementsChanged();
       if (_root != null) {
         if (root != null) {
           int rootIndex = _children.indexOf(_root);
+          root.setParent(this);
           _children.set(rootIndex, root);
         }
         else {
@@ -364,6 +507,10 @@ public class XML {
      * @param child the child to remove
      */
     public void remove(XML.Item child) {
+      checkNotFrozen();
+      if (child instanceof XML.E) {
+        elementsChanged();
+      }
       _children.remove(child);
     }
 
@@ -373,10 +520,52 @@ public class XML {
      * @param child the child to add
      */
     protected void _add(XML.Item child) {
+      checkNotFrozen();
+      if (child instanceof XML.E) {
+        elementsChanged();
+      }
       child.setParent(this);
       _children.add(child);
     }
 
+    /**
+     * Turns the document-wide element name index on or off. When a document is indexed,
+     * descendents(name) on any of its elements is answered from an index of the elements of
+     * each name (in document order) instead of walking the subtree. The index is built the
+     * first time it is needed, and then updated as elements are added, removed and renamed.
+     * 
+     * @param indexed whether or not this document should be indexed
+     */
+    public void setIndexed(boolean indexed) {
+      checkNotFrozen();
+      if (indexed && _nameIndex == null) {
+        _nameIndex = new XML.NameIndex(this);
+      }
+      else if (!indexed && _nameIndex != null) {
+        _nameIndex.deactivate();
+        _nameIndex = null;
+      }
+    }
+
+    /**
+     * Returns whether or not this document has a document-wide element name index.
+     * 
+     * @return whether or not this document is indexed
+     */
+    public boolean isIndexed() {
+      return _nameIndex != null;
+    }
+
+    /**
+     * Throws away the name index of this document (if there is one), so it is rebuilt on the
+     * next lookup. This is called when the root element changes.
+     */
+    protected void elementsChanged() {
+      if (_nameIndex != null) {
+        _nameIndex.invalidate();
+      }
+    }
+
     /**
      * Adds a new child to this document. No validation is performed of these items.
      * 
@@ -406,11 +595,277 @@ public class XML {
       return _children;
     }
 
+    /**
+     * <p>
+     * Returns an immutable snapshot of this document. The snapshot is a deep copy, so later
+     * changes to this document don't show through, and every mutator of the snapshot and
+     * its items throws an UnsupportedOperationException. Children and attributes are held
+     * in exact-size unmodifiable lists, and the attribute, child and (if this document is
+     * indexed) name indexes are built up front, so reading a snapshot never writes to it.
+     * </p>
+     * 
+     * <p>
+     * Once it has been safely published (through a final or volatile field, a concurrent
+     * collection, an executor, etc.), a snapshot can be read by any number of threads without
+     * locking. A snapshot also caches its pretty printed toString() and writeTo(..) output.
+     * Freezing a document that is already frozen returns it.
+     * </p>
+     * 
+     * @return an immutable snapshot of this document
+     */
+    public XML.Doc freeze() {
+      if (isFrozen()) {
+        return this;
+      }
+      XML.Doc doc = new XML.Doc();
+      doc.setDeclaration(null);
+      List<XML.E> sources = new ArrayList<XML.E>();
+      List<XML.E> copies = new ArrayList<XML.E>();
+      for (XML.Item child : _children) {
+        if (child instanceof XML.E) {
+          XML.E copy = new XML.E(((XML.E) child)._name);
+          sources.add((XML.E) child);
+          copies.add(copy);
+          doc.add(copy);
+        }
+        else if (child instanceof XML.Declaration) {
+          XML.Declaration declaration = (XML.Declaration) child;
+          doc.add(new XML.Declaration(declaration.version(), declaration.encoding())).markFrozen();
+        }
+        else {
+          doc.add(XML.Doc.copyContent(child)).markFrozen();
+        }
+      }
+      XML.Doc.freeze(sources, copies);
+      if (isIndexed()) {
+        doc.setIndexed(true);
+        doc._nameIndex.build();
+      }
+      doc._children = Collections.unmodifiableList(Arrays.asList(doc._children.toArray(new XML.Item[doc._children.size()])));
+      doc.markFrozen();
+      return doc;
+    }
+
+    /**
+     * Returns a cursor on the root element of a frozen snapshot of this document (see freeze()),
+     * for making edited versions of it that share everything they don't change (see XML.Cursor).
+     * 
+     * @return a cursor on the root element of this document
+     * @throws IllegalStateException if this document doesn't have a root element
+     */
+    public XML.Cursor cursor() {
+      if (_root == null) {
+        throw new IllegalStateException("This document does not have a root element.");
+      }
+      return new XML.Cursor(freeze());
+    }
+
+    /**
+     * Fills in each of the given (empty) copies with frozen copies of the attributes and
+     * children of its source element, and freezes it. The lists are used as the work list of
+     * the copy, so they are empty when this returns.
+     * 
+     * @param sources the elements to copy
+     * @param copies the empty copies of the elements, with the same names
+     */
+    private static void freeze(List<XML.E> sources, List<XML.E> copies) {
+      while (!sources.isEmpty()) {
+        XML.E source = sources.remove(sources.size() - 1);
+        XML.E copy = copies.remove(copies.size() - 1);
+        if (source._attributes != null) {
+          XML.Attr[] attributes = new XML.Attr[source._attributes.size()];
+          for (int i = 0; i < attributes.length; i++) {
+            XML.Attr attribute = source._attributes.get(i);
+            attributes[i] = new XML.Attr(attribute._name, attribute._value);
+            attributes[i]._element = copy;
+          }
+          copy._attributes = Collections.unmodifiableList(Arrays.asList(attributes));
+        }
+        List<XML.Node> sourceChildren = source.children();
+        if (sourceChildren != null) {
+          XML.Node[] children = new XML.Node[sourceChildren.size()];
+          for (int i = 0; i < children.length; i++) {
+            XML.Node child = sourceChildren.get(i);
+            if (child instanceof XML.E) {
+              children[i] = new XML.E(((XML.E) child)._name);
+              sources.add((XML.E) child);
+              copies.add((XML.E) children[i]);
+              children[i].setParent(copy);
+            }
+            else {
+              children[i] = XML.Doc.copyContent(child);
+              children[i].setParent(copy);
+              children[i].markFrozen();
+            }
+          }
+          copy._children = Collections.unmodifiableList(Arrays.asList(children));
+        }
+        copy.buildIndexes();
+        copy.markFrozen();
+      }
+    }
+
+    private static XML.Content copyContent(XML.Item item) {
+      if (item instanceof XML.Text) {
+        return new XML.Text(((XML.Text) item).text());
+      }
+      else if (item instanceof XML.CDATA) {
+        return new XML.CDATA(((XML.CDATA) item).text());
+      }
+      else if (item instanceof XML.Comment) {
+        return new XML.Comment(((XML.Comment) item).text());
+      }
+      throw new IllegalArgumentException("Unable to freeze the item " + item + " (" + item.getClass().getName() + ").");
+    }
+
     @Override
-    public void write(PrintWriter writer, int indent) {
+    public void write(XML.Output output, int indent) {
       for (XML.Item item : _children) {
-        item.write(writer, indent);
+        item.write(output, indent);
+      }
+    }
+
+    /**
+     * Writes this document to the given stream, encoded with the encoding of its declaration
+     * (or UTF-8 if it doesn't have one). Characters the encoding can't represent are written
+     * as character references in text and attribute values (CDATA sections are split around
+     * them). The stream is not flushed or closed.
+     * 
+     * @param stream the stream to write to
+     * @throws IllegalArgumentException if a name, comment or processing instruction has a
+     * character the encoding can't represent, or anything has an unpaired surrogate
+     */
+    public void writeTo(OutputStream stream) {
+      writeTo(stream, XML.Profile.PRETTY);
+    }
+
+    /**
+     * Writes this document to the given stream like writeTo(OutputStream), formatted with the
+     * given profile.
+     * 
+     * @param stream the stream to write to
+     * @param profile the profile to format with
+     */
+    public void writeTo(OutputStream stream, XML.Profile profile) {
+      if (isFrozen() && profile == XML.Profile.PRETTY) {
+        try {
+          stream.write(bytes());
+        }
+        catch (IOException e) {
+          throw new IllegalStateException("Failed to write to the output.", e);
+        }
+        return;
+      }
+      writeTo(new XML.Output(stream, encoding()).setProfile(profile));
+    }
+
+    /**
+     * Writes this document to the given channel, encoded with the encoding of its declaration
+     * (or UTF-8 if it doesn't have one). Characters the encoding can't represent are written
+     * as character references in text and attribute values (CDATA sections are split around
+     * them). The channel is not closed.
+     * 
+     * @param channel the channel to write to
+     * @throws IllegalArgumentException if a name, comment or processing instruction has a
+     * character the encoding can't represent, or anything has an unpaired surrogate
+     */
+    public void writeTo(WritableByteChannel channel) {
+      writeTo(channel, XML.Profile.PRETTY);
+    }
+
+    /**
+     * Writes this document to the given channel like writeTo(WritableByteChannel), formatted
+     * with the given profile.
+     * 
+     * @param channel the channel to write to
+     * @param profile the profile to format with
+     */
+    public void writeTo(WritableByteChannel channel, XML.Profile profile) {
+      if (isFrozen() && profile == XML.Profile.PRETTY) {
+        try {
+          ByteBuffer buffer = ByteBuffer.wrap(bytes());
+          while (buffer.hasRemaining()) {
+            channel.write(buffer);
+          }
+        }
+        catch (IOException e) {
+          throw new IllegalStateException("Failed to write to the output.", e);
+        }
+        return;
+      }
+      writeTo(new XML.Output(channel, encoding()).setProfile(profile));
+    }
+
+    /**
+     * Writes this document to the given stream in the binary XISS format, which can be read
+     * back with XML.readBinary much faster than XML text can be parsed. The stream is not
+     * flushed or closed.
+     * 
+     * @param stream the stream to write to
+     */
+    public void writeBinary(OutputStream stream) {
+      try {
+        new XML.Binary(stream).write(this);
+      }
+      catch (IOException e) {
+        throw new IllegalStateException("Failed to write the binary document.", e);
+      }
+    }
+
+    private void writeTo(XML.Output output) {
+      XML.Operation operation = XML.Operation.start(XML.Operation.WRITE);
+      try {
+        write(output, 0);
+        output.flush();
+        XML.Operation.succeed(operation, this, output.length());
+      }
+      catch (RuntimeException e) {
+        XML.Operation.fail(operation, e);
+        throw e;
+      }
+      catch (Error e) {
+        XML.Operation.fail(operation, e);
+        throw e;
       }
+      finally {
+        output.release();
+        XML.Operation.finish(operation);
+      }
+    }
+
+    /**
+     * Returns the pretty printed bytes of this (frozen) document, encoding them the first
+     * time they are needed.
+     * 
+     * @return the pretty printed bytes of this document
+     */
+    private byte[] bytes() {
+      byte[] bytes = _bytes;
+      if (bytes == null) {
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        writeTo(new XML.Output(stream, encoding()).setProfile(XML.Profile.PRETTY));
+        bytes = stream.toByteArray();
+        _bytes = bytes;
+      }
+      return bytes;
+    }
+
+    @Override
+    public String toString(XML.Profile profile) {
+      if (!isFrozen() || profile != XML.Profile.PRETTY) {
+        return super.toString(profile);
+      }
+      String string = _string;
+      if (string == null) {
+        string = super.toString(profile);
+        _string = string;
+      }
+      return string;
+    }
+
+    private String encoding() {
+      String encoding = (_declaration == null) ? null : _declaration.encoding();
+      return (encoding == null) ? "UTF-8" : encoding;
     }
 
     @Override
@@ -422,9 +877,24 @@ public class XML {
       }
     }
 
+    @Override
+    public boolean walk(XML.Walker walker) {
+      int signal = walker.enter(this);
+      if (signal == XML.Walker.CONTINUE) {
+        for (XML.Item item : _children) {
+          if (!item.walk(walker)) {
+            return false;
+          }
+        }
+        signal = walker.leave(this);
+      }
+      return signal != XML.Walker.STOP;
+    }
+
     public org.w3c.dom.Document w3c() {
+      XML.Operation operation = XML.Operation.start(XML.Operation.W3C);
       try {
-        org.w3c.dom.Document doc = DocumentBuilderFactory.newInstance().newDocumentBuilder().newDocument();
+        org.w3c.dom.Document doc = XML.Parser.DEFAULT.documentBuilder().newDocument();
         if (_children != null) {
           for (XML.Item child : _children) {
             if (child instanceof XML.Node) {
@@ -433,11 +903,16 @@ public class XML {
             }
           }
         }
+        XML.Operation.succeed(operation, this, -1);
         return doc;
       }
       catch (Throwable t) {
+        XML.Operation.fail(operation, t);
         throw new IllegalArgumentException("Failed to create a W3C Document from the this Doc.", t);
       }
+      finally {
+        XML.Operation.finish(operation);
+      }
     }
   }
 
@@ -482,6 +957,7 @@ public class XML {
      * @param text text text of this node
      */
     public void setText(String text) {
+      checkNotFrozen();
       _text = text;
     }
 
@@ -491,17 +967,18 @@ public class XML {
     }
 
     /**
-     * Writes the text of this node to the writer.
+     * Writes the text of this node to the output. This replaces writeText(PrintWriter) of
+     * earlier versions.
      * 
-     * @param writer the writer to write to
+     * @param output the output to write to
      */
-    protected abstract void writeText(PrintWriter writer);
+    protected abstract void writeText(XML.Output output);
 
     @Override
-    public void write(PrintWriter writer, int indent) {
+    public void write(XML.Output output, int indent) {
       if (_text != null) {
-        writeIndent(indent, writer);
-        writeText(writer);
+        writeIndent(indent, output);
+        writeText(output);
       }
     }
   }
@@ -522,8 +999,8 @@ public class XML {
     }
 
     @Override
-    protected void writeText(PrintWriter writer) {
-      writeEscapedString(text(), writer);
+    protected void writeText(XML.Output output) {
+      output.escapeText(text());
     }
 
     @Override
@@ -544,10 +1021,12 @@ public class XML {
     }
 
     @Override
-    protected void writeText(PrintWriter writer) {
-      writer.print("<![CDATA[");
-      writer.print(text());
-      writer.println("]]>");
+    protected void writeText(XML.Output output) {
+      if (output.profile().isCanonical()) {
+        output.escapeText(text());
+        return;
+      }
+      output.cdata(text()).println();
     }
 
     @Override
@@ -568,10 +1047,13 @@ public class XML {
     }
 
     @Override
-    protected void writeText(PrintWriter writer) {
-      writer.print("<!-- ");
-      writer.print(text());
-      writer.println(" -->");
+    protected void writeText(XML.Output output) {
+      if (output.profile().isCanonical()) {
+        return;
+      }
+      output.print("<!-- ");
+      output.print(text());
+      output.println(" -->");
     }
 
     @Override
@@ -589,6 +1071,7 @@ public class XML {
   public static class Attr {
     private String _name;
     private String _value;
+    private XML.E _element;
 
     /**
      * Constructs a new attribute.
@@ -616,7 +1099,11 @@ public class XML {
      * @param name the name of this attribute
      */
     public void setName(String name) {
+      checkNotFrozen();
       _name = name;
+      if (_element != null) {
+        _element._attributeIndex = null;
+      }
     }
 
     /**
@@ -634,8 +1121,24 @@ public class XML {
      * @param value the value of this attribute
      */
     public void setValue(String value) {
+      checkNotFrozen();
       _value = value;
     }
+
+    /**
+     * Returns whether or not this attribute belongs to a frozen document.
+     * 
+     * @return whether or not this attribute is frozen
+     */
+    public boolean isFrozen() {
+      return _element != null && _element.isFrozen();
+    }
+
+    private void checkNotFrozen() {
+      if (_element != null) {
+        _element.checkNotFrozen();
+      }
+    }
   }
 
   /**
@@ -645,9 +1148,23 @@ public class XML {
    * @author mschrag
    */
   public static class E extends XML.Node {
+    /**
+     * Elements with more attributes than this look their attributes up in a hash index.
+     */
+    protected static final int ATTRIBUTE_INDEX_THRESHOLD = 8;
+
+    /**
+     * Elements with more children than this look their children up by name in a hash index.
+     */
+    protected static final int CHILD_INDEX_THRESHOLD = 8;
+
     private String _name;
-    private List<Node> _children;
-    private List<Attr> _attributes;
+    private List<XML.Node> _children;
+    private List<XML.Attr> _attributes;
+    private Map<String, XML.Attr> _attributeIndex;
+    private Map<String, List<XML.E>> _childIndex;
+    private XML.NameIndex.Span _span;
+    private XML.Deferred _deferred;
 
     /**
      * Constructs a new element.
@@ -675,7 +1192,15 @@ public class XML {
      * @param name the name of this element
      */
     public void setName(String name) {
+      checkNotFrozen();
+      String oldName = _name;
       _name = name;
+      if (parent() instanceof XML.E) {
+        ((XML.E) parent())._childIndex = null;
+      }
+      if (_span != null) {
+        _span._index.renamed(this, oldName);
+      }
     }
 
     /**
@@ -687,13 +1212,72 @@ public class XML {
       return _name;
     }
 
+    /**
+     * Returns whether or not this element has the given name. Names that come from the same
+     * symbol table are the same instance, so this is usually just an identity check.
+     * 
+     * @param name the name to check
+     * @return whether or not this element has the given name
+     */
+    public boolean hasName(String name) {
+      return _name == name || _name.equals(name);
+    }
+
     @Override
-    public void visit(XML.Visitor visitor) {
-      if (visitor.visit(this) && _children != null) {
-        for (XML.Node node : _children) {
-          node.visit(visitor);
+    public void visit(final XML.Visitor visitor) {
+      materialize();
+      walk(new XML.Walker() {
+        public int enter(XML.Item item) {
+          return visitor.visit(item) ? XML.Walker.CONTINUE : XML.Walker.SKIP;
+        }
+
+        public int leave(XML.Item item) {
+          return XML.Walker.CONTINUE;
+        }
+      });
+    }
+
+    @Override
+    public boolean walk(XML.Walker walker) {
+      int signal = walker.enter(this);
+      if (signal != XML.Walker.CONTINUE) {
+        return signal != XML.Walker.STOP;
+      }
+      // the elements being walked, and the index of the next child of each
+      XML.E[] elements = new XML.E[16];
+      int[] positions = new int[16];
+      int top = 0;
+      materialize();
+      elements[0] = this;
+      while (top >= 0) {
+        XML.E e = elements[top];
+        int position = positions[top];
+        if (e._children != null && position < e._children.size()) {
+          positions[top] = position + 1;
+          XML.Node node = e._children.get(position);
+          signal = walker.enter(node);
+          if (signal == XML.Walker.STOP) {
+            return false;
+          }
+          if (signal == XML.Walker.CONTINUE && node instanceof XML.E) {
+            XML.E child = (XML.E) node;
+            child.materialize();
+            if (++top == elements.length) {
+              elements = Arrays.copyOf(elements, top * 2);
+              positions = Arrays.copyOf(positions, top * 2);
+            }
+            elements[top] = child;
+            positions[top] = 0;
+          }
+        }
+        else {
+          elements[top--] = null;
+          if (walker.leave(e) == XML.Walker.STOP) {
+            return false;
+          }
         }
       }
+      return true;
     }
 
     /**
@@ -734,10 +1318,15 @@ public class XML {
      * @return this element
      */
     public XML.E add(XML.Attr attribute) {
+      checkNotFrozen();
       if (_attributes == null) {
-        _attributes = new LinkedList<XML.Attr>();
+        _attributes = new ArrayList<XML.Attr>(1);
       }
+      attribute._element = this;
       _attributes.add(attribute);
+      if (_attributeIndex != null && !_attributeIndex.containsKey(attribute._name)) {
+        _attributeIndex.put(attribute._name, attribute);
+      }
       return this;
     }
 
@@ -749,8 +1338,19 @@ public class XML {
      */
     public XML.Attr getAttr(String attributeName) {
       if (_attributes != null) {
+        if (_attributeIndex == null && _attributes.size() > E.ATTRIBUTE_INDEX_THRESHOLD) {
+          _attributeIndex = new HashMap<String, XML.Attr>(_attributes.size() * 2);
+          for (XML.Attr attribute : _attributes) {
+            if (!_attributeIndex.containsKey(attribute._name)) {
+              _attributeIndex.put(attribute._name, attribute);
+            }
+          }
+        }
+        if (_attributeIndex != null) {
+          return _attributeIndex.get(attributeName);
+        }
         for (XML.Attr attribute : _attributes) {
-          if (attribute._name.equals(attributeName)) {
+          if (attribute._name == attributeName || attribute._name.equals(attributeName)) {
             return attribute;
           }
         }
@@ -778,7 +1378,21 @@ public class XML {
      * @param attribute the attribute to remove
      */
     public void remove(XML.Attr attribute) {
+      checkNotFrozen();
       _attributes.remove(attribute);
+      attribute._element = null;
+      if (_attributes.size() <= E.ATTRIBUTE_INDEX_THRESHOLD) {
+        _attributeIndex = null;
+      }
+      else if (_attributeIndex != null && _attributeIndex.get(attribute._name) == attribute) {
+        _attributeIndex.remove(attribute._name);
+        for (XML.Attr duplicate : _attributes) {
+          if (duplicate._name.equals(attribute._name)) {
+            _attributeIndex.put(duplicate._name, duplicate);
+            break;
+          }
+        }
+      }
       if (_attributes.size() == 0) {
         _attributes = null;
       }
@@ -865,7 +1479,8 @@ public class XML {
     }
 
     /**
-     * Returns the attributes for this element.
+     * Returns the attributes for this element. Use the add, set and remove methods to change
+     * the attributes rather than changing this list directly, so that lookups stay in sync.
      * 
      * @return the attributes for this element
      */
@@ -882,6 +1497,8 @@ public class XML {
      * @return this element
      */
     public XML.E setText(String text) {
+      checkNotFrozen();
+      materialize();
       if (_children != null) {
         if (_children.size() == 1) {
           XML.Node node = _children.get(0);
@@ -910,6 +1527,7 @@ public class XML {
      */
     public XML.Text textNode() {
     	XML.Text textNode = null;
+      materialize();
       if (_children != null) {
         if (_children.size() == 1) {
           XML.Node node = _children.get(0);
@@ -940,11 +1558,13 @@ public class XML {
     }
 
     /**
-     * Returns the children nodes of this element.
+     * Returns the children nodes of this element. Use the add and remove methods to change
+     * the children rather than changing this list directly, so that lookups stay in sync.
      * 
      * @return the children nodes of this element
      */
     public List<XML.Node> children() {
+      materialize();
       return _children;
     }
 
@@ -1044,9 +1664,18 @@ public class XML {
      */
     public XML.E child(String name) {
       XML.E matchingElement = null;
-      if (_children != null) {
+      List<XML.E> indexedChildren = indexedChildren(name);
+      if (indexedChildren != null) {
+        if (indexedChildren.size() > 1) {
+          throw new IllegalStateException("There was more than one child named '" + name + "'.");
+        }
+        if (indexedChildren.size() == 1) {
+          matchingElement = indexedChildren.get(0);
+        }
+      }
+      else if (_children != null) {
         for (XML.Node node : _children) {
-          if (node instanceof XML.E && ((XML.E) node)._name.equals(name)) {
+          if (node instanceof XML.E && ((XML.E) node).hasName(name)) {
             if (matchingElement == null) {
               matchingElement = (XML.E) node;
             }
@@ -1068,10 +1697,14 @@ public class XML {
      * list if there aren't any
      */
     public List<XML.E> children(String name) {
-      List<XML.E> children = new LinkedList<XML.E>();
+      List<XML.E> indexedChildren = indexedChildren(name);
+      if (indexedChildren != null) {
+        return new ArrayList<XML.E>(indexedChildren);
+      }
+      List<XML.E> children = new ArrayList<XML.E>();
       if (_children != null) {
         for (XML.Node node : _children) {
-          if (node instanceof XML.E && ((XML.E) node)._name.equals(name)) {
+          if (node instanceof XML.E && ((XML.E) node).hasName(name)) {
             children.add((XML.E) node);
           }
         }
@@ -1080,18 +1713,94 @@ public class XML {
     }
 
     /**
-     * Returns a set of the text of the descendent elements of this element that have the given name, or an empty
-     * list if there aren't any.
-     *  
-     * @param name the name of the descendent elements to look up
-     * @return a set of the text of the descendents of this element that have the given name, or an empty
-     * set if there aren't any
+     * Returns the direct children of this element that have the given name from the child name
+     * index, or null if this element doesn't have enough children to be indexed. The index is
+     * built the first time it is needed and kept up to date by add, remove and setName.
+     * 
+     * @param name the name of the children elements to look up
+     * @return the indexed children with the given name, or null if this element isn't indexed
      */
-    public Set<String> descendentsText(String name) {
-      Set<XML.E> descendents = descendents(name);
-      Set<String> descendentsText = new LinkedHashSet<String>();
-      for (XML.E descendent : descendents) {
-        descendentsText.add(descendent.text());
+    protected List<XML.E> indexedChildren(String name) {
+      materialize();
+      if (_childIndex == null) {
+        if (_children == null || _children.size() <= E.CHILD_INDEX_THRESHOLD) {
+          return null;
+        }
+        _childIndex = new HashMap<String, List<XML.E>>();
+        for (XML.Node node : _children) {
+          if (node instanceof XML.E) {
+            indexChild((XML.E) node);
+          }
+        }
+      }
+      List<XML.E> children = _childIndex.get(name);
+      if (children == null) {
+        children = Collections.emptyList();
+      }
+      return children;
+    }
+
+    /**
+     * Defers the children of this element (which must not have any yet) until they are first
+     * needed.
+     * 
+     * @param deferred the deferred content of this element
+     */
+    protected void defer(XML.Deferred deferred) {
+      _deferred = deferred;
+    }
+
+    /**
+     * Builds the children of this element if they were deferred by a lazy parse and haven't
+     * been built yet.
+     */
+    protected void materialize() {
+      XML.Deferred deferred = _deferred;
+      if (deferred != null) {
+        _deferred = null;
+        // building deferred children doesn't change the elements of the document
+        XML.NameIndex.Span span = _span;
+        _span = null;
+        try {
+          deferred.build(this);
+        }
+        finally {
+          _span = span;
+        }
+      }
+    }
+
+    /**
+     * Builds the attribute and child name indexes of this element now (if it has enough
+     * attributes or children to be indexed) rather than on the first lookup.
+     */
+    protected void buildIndexes() {
+      getAttr("");
+      indexedChildren("");
+    }
+
+    private void indexChild(XML.E child) {
+      List<XML.E> children = _childIndex.get(child._name);
+      if (children == null) {
+        children = new ArrayList<XML.E>(1);
+        _childIndex.put(child._name, children);
+      }
+      children.add(child);
+    }
+
+    /**
+     * Returns a set of the text of the descendent elements of this element that have the given name, or an empty
+     * list if there aren't any.
+     *  
+     * @param name the name of the descendent elements to look up
+     * @return a set of the text of the descendents of this element that have the given name, or an empty
+     * set if there aren't any
+     */
+    public Set<String> descendentsText(String name) {
+      Set<XML.E> descendents = descendents(name);
+      Set<String> descendentsText = new LinkedHashSet<String>();
+      for (XML.E descendent : descendents) {
+        descendentsText.add(descendent.text());
       }
       return descendentsText;
     }
@@ -1105,11 +1814,23 @@ public class XML {
      * set if there aren't any
      */
     public Set<XML.E> descendents(final String name) {
+      materialize();
+      XML.NameIndex nameIndex = (_span != null) ? _span._index : null;
+      if (nameIndex == null) {
+        XML.Doc doc = doc();
+        nameIndex = (doc != null) ? doc._nameIndex : null;
+      }
+      if (nameIndex != null) {
+        List<XML.E> indexedDescendents = nameIndex.descendents(this, name);
+        if (indexedDescendents != null) {
+          return new LinkedHashSet<XML.E>(indexedDescendents);
+        }
+      }
       final Set<XML.E> descendents = new LinkedHashSet<XML.E>();
       if (_children != null) {
         XML.Visitor visitor = new XML.Visitor() {
           public boolean visit(Item item) {
-            if (item instanceof XML.E && ((XML.E) item)._name.equals(name)) {
+            if (item instanceof XML.E && ((XML.E) item).hasName(name)) {
               descendents.add((XML.E) item);
             }
             return true;
@@ -1123,6 +1844,44 @@ public class XML {
       return descendents;
     }
 
+    /**
+     * Returns the first descendent element of this element (in document order) that has the
+     * given name, or null if there isn't one. Unlike descendents(name), this stops walking the
+     * element as soon as it finds a match.
+     *  
+     * @param name the name of the descendent element to look up
+     * @return the first descendent of this element with the given name, or null
+     */
+    public XML.E descendent(final String name) {
+      materialize();
+      XML.NameIndex nameIndex = (_span != null) ? _span._index : null;
+      if (nameIndex == null) {
+        XML.Doc doc = doc();
+        nameIndex = (doc != null) ? doc._nameIndex : null;
+      }
+      if (nameIndex != null) {
+        List<XML.E> indexedDescendents = nameIndex.descendents(this, name);
+        if (indexedDescendents != null) {
+          return indexedDescendents.isEmpty() ? null : indexedDescendents.get(0);
+        }
+      }
+      final XML.E[] descendent = new XML.E[1];
+      walk(new XML.Walker() {
+        public int enter(XML.Item item) {
+          if (item != XML.E.this && item instanceof XML.E && ((XML.E) item).hasName(name)) {
+            descendent[0] = (XML.E) item;
+            return XML.Walker.STOP;
+          }
+          return XML.Walker.CONTINUE;
+        }
+
+        public int leave(XML.Item item) {
+          return XML.Walker.CONTINUE;
+        }
+      });
+      return descendent[0];
+    }
+
     /**
      * Creates and appends a new element to this element.
      *  
@@ -1160,129 +1919,8006 @@ public class XML {
      * @param cdata the cdata value to append
      * @return the new cdata node
      */
-    public XML.CDATA cdata(String cdata) {
-      return add(XML.cdata(cdata));
+    public XML.CDATA cdata(String cdata) {
+      return add(XML.cdata(cdata));
+    }
+
+    /**
+     * Creates and appends a new comment node to this element.
+     * 
+     * @param comment the comment value to append
+     * @return the new comment node
+     */
+    public XML.Comment comment(String comment) {
+      return add(XML.comment(comment));
+    }
+
+    /**
+     * Removes the given node from this element.
+     * 
+     * @param child the child node to remove
+     */
+    public void remove(XML.Node child) {
+      checkNotFrozen();
+      materialize();
+      if (_children != null) {
+        if (_children.remove(child) && child instanceof XML.E && ((XML.E) child)._span != null) {
+          ((XML.E) child)._span._index.removed((XML.E) child);
+        }
+        if (_childIndex != null && child instanceof XML.E) {
+          if (_children.size() <= E.CHILD_INDEX_THRESHOLD) {
+            _childIndex = null;
+          }
+          else {
+            List<XML.E> children = _childIndex.get(((XML.E) child)._name);
+            if (children != null) {
+              children.remove(child);
+            }
+          }
+        }
+        if (_children.size() == 0) {
+          _children = null;
+        }
+      }
+    }
+
+    /**
+     * Adds a new node to this element.
+     * 
+     * @param <T> the type of the node to add
+     * @param child the child to add
+     * @return the added child
+     */
+    public <T extends XML.Node> T add(T child) {
+      checkNotFrozen();
+      materialize();
+      child.setParent(this);
+      if (_children == null) {
+        _children = new ArrayList<XML.Node>(1);
+      }
+      _children.add(child);
+      if (child instanceof XML.E) {
+        if (_span != null) {
+          _span._index.added(this, (XML.E) child);
+        }
+        if (_childIndex != null) {
+          indexChild((XML.E) child);
+        }
+      }
+      return child;
+    }
+
+    /**
+     * Makes room for the given number of attributes and children, so that adding them does
+     * not need to grow the underlying storage.
+     * 
+     * @param attributeCount the number of attributes to make room for
+     * @param childCount the number of children to make room for
+     */
+    protected void ensureCapacity(int attributeCount, int childCount) {
+      checkNotFrozen();
+      materialize();
+      if (attributeCount > 0) {
+        if (_attributes == null) {
+          _attributes = new ArrayList<XML.Attr>(attributeCount);
+        }
+        else {
+          ((ArrayList<XML.Attr>) _attributes).ensureCapacity(_attributes.size() + attributeCount);
+        }
+      }
+      if (childCount > 0) {
+        if (_children == null) {
+          _children = new ArrayList<XML.Node>(childCount);
+        }
+        else {
+          ((ArrayList<XML.Node>) _children).ensureCapacity(_children.size() + childCount);
+        }
+      }
+    }
+
+    /**
+     * Writes the attributes of this element to the output.
+     * 
+     * @param output the output to write attributes to
+     */
+    protected void writeAttributes(XML.Output output) {
+      if (_attributes != null) {
+        List<XML.Attr> attributes = _attributes;
+        if (output.profile().isCanonical() && attributes.size() > 1) {
+          attributes = new ArrayList<XML.Attr>(attributes);
+          Collections.sort(attributes, XML.Profile.CANONICAL_ORDER);
+        }
+        for (XML.Attr attribute : attributes) {
+          output.print(" ");
+          output.print(attribute.name());
+          output.print("=\"");
+          output.escapeAttribute(attribute.value());
+          output.print("\"");
+        }
+      }
+    }
+
+    @Override
+    public void write(final XML.Output output, final int indent) {
+      walk(new XML.Walker() {
+        private int _depth = indent;
+
+        public int enter(XML.Item item) {
+          // subclasses of E write themselves
+          if (item != XML.E.this && item.getClass() != XML.E.class) {
+            item.write(output, _depth);
+            return XML.Walker.SKIP;
+          }
+          if (!((XML.E) item).writeStart(output, _depth)) {
+            return XML.Walker.SKIP;
+          }
+          _depth++;
+          return XML.Walker.CONTINUE;
+        }
+
+        public int leave(XML.Item item) {
+          XML.E e = (XML.E) item;
+          e.writeIndent(--_depth, output);
+          output.print("</");
+          output.print(e._name);
+          output.println(">");
+          return XML.Walker.CONTINUE;
+        }
+      });
+    }
+
+    /**
+     * Writes the start of this element, and returns whether or not its children still have to
+     * be written (followed by its end tag). Empty elements and elements with only text are
+     * written completely.
+     * 
+     * @param output the output to write to
+     * @param indent the current indentation
+     * @return true if the children and end tag of this element still have to be written
+     */
+    private boolean writeStart(XML.Output output, int indent) {
+      materialize();
+      writeIndent(indent, output);
+      output.print("<");
+      output.print(_name);
+      writeAttributes(output);
+      if (_children == null || _children.size() == 0) {
+        output.endEmpty(_name).println();
+        return false;
+      }
+      output.print(">");
+      if (_children.size() == 1 && _children.get(0) instanceof XML.Text) {
+        _children.get(0).write(output, 0);
+        output.print("</");
+        output.print(_name);
+        output.println(">");
+        return false;
+      }
+      output.println();
+      return true;
+    }
+
+    @Override
+    public org.w3c.dom.Node w3c(final Document doc) {
+      // the W3C elements of the elements being converted. W3C elements are added to their
+      // parents once all of their own children have been added, while they are still detached
+      // (DOMs check that a node isn't being added to one of its own descendents, which is slow
+      // in deep trees).
+      final List<Element> w3cElements = new ArrayList<Element>();
+      walk(new XML.Walker() {
+        public int enter(XML.Item item) {
+          // subclasses of E convert themselves
+          if (item != XML.E.this && item.getClass() != XML.E.class) {
+            w3cElements.get(w3cElements.size() - 1).appendChild(((XML.Node) item).w3c(doc));
+            return XML.Walker.SKIP;
+          }
+          w3cElements.add(((XML.E) item).w3cElement(doc));
+          return XML.Walker.CONTINUE;
+        }
+
+        public int leave(XML.Item item) {
+          if (w3cElements.size() > 1) {
+            Element w3cElement = w3cElements.remove(w3cElements.size() - 1);
+            w3cElements.get(w3cElements.size() - 1).appendChild(w3cElement);
+          }
+          return XML.Walker.CONTINUE;
+        }
+      });
+      return w3cElements.get(0);
+    }
+
+    private Element w3cElement(Document doc) {
+      materialize();
+      Element e = doc.createElement(_name);
+      if (_attributes != null) {
+        for (XML.Attr attribute : _attributes) {
+          e.setAttribute(attribute.name(), attribute.value());
+        }
+      }
+      return e;
+    }
+  }
+
+  /**
+   * NameIndex is the document-wide element name index of an indexed XML.Doc. It keeps the
+   * elements of each name in document order, so descendents(name) can be answered without
+   * walking the subtree. Each element of the document has a span: a start and an end label
+   * that are ordered like the start and end tags of the elements, so the descendents of an
+   * element are the elements whose start labels fall inside its span.
+   * 
+   * The index is built on the first lookup and then follows the elements that are added,
+   * removed and renamed. An added element takes its labels from the gap between the last
+   * child element of its parent and the end of its parent, so no other element is relabeled.
+   * Only when that gap runs out, or the root element changes, is the index rebuilt on the
+   * next lookup.
+   * 
+   * @author mschrag
+   */
+  protected static class NameIndex {
+    // labels are spread over [0, LABELS] when the index is built, and added elements are
+    // labeled at most SPACING apart, so that there is room left after them
+    private static final long LABELS = 1L << 61;
+    private static final long SPACING = 1L << 20;
+
+    private XML.Doc _doc;
+    private boolean _active;
+    private boolean _built;
+    private int _generation;
+    private Map<String, NameIndex.Entry> _entries;
+
+    /**
+     * Constructs a new NameIndex.
+     * 
+     * @param doc the document to index
+     */
+    public NameIndex(XML.Doc doc) {
+      _doc = doc;
+      _active = true;
+    }
+
+    /**
+     * Throws away the contents of this index, so it will be rebuilt on the next lookup.
+     */
+    public void invalidate() {
+      _built = false;
+      _entries = null;
+      _generation++;
+    }
+
+    /**
+     * Turns this index off.
+     */
+    public void deactivate() {
+      invalidate();
+      _active = false;
+    }
+
+    /**
+     * Returns the descendents of the given element with the given name in document order,
+     * or null if this index can't answer for the element (because it isn't in the document).
+     * 
+     * @param e the element to look up the descendents of
+     * @param name the name of the descendents to look up
+     * @return the descendents of the element with the given name, or null
+     */
+    public List<XML.E> descendents(XML.E e, String name) {
+      if (!_active) {
+        return null;
+      }
+      if (!_built) {
+        build();
+      }
+      NameIndex.Span span = span(e);
+      if (span == null) {
+        return null;
+      }
+      List<XML.E> descendents = new ArrayList<XML.E>();
+      NameIndex.Entry entry = _entries.get(name);
+      if (entry != null) {
+        for (int i = entry.after(span._start); i < entry._size && entry._starts[i] < span._end; i++) {
+          descendents.add(entry._elements[i]);
+        }
+      }
+      return descendents;
+    }
+
+    /**
+     * Rebuilds this index from the elements of the document.
+     */
+    protected void build() {
+      invalidate();
+      _entries = new HashMap<String, NameIndex.Entry>();
+      XML.E root = _doc.root();
+      if (root != null) {
+        label(root, 0, NameIndex.LABELS / (2L * count(root) + 2));
+      }
+      _built = true;
+    }
+
+    /**
+     * Indexes an element (and its descendents) that was just added as the last child of the
+     * given parent.
+     * 
+     * @param parent the parent the element was added to
+     * @param child the added element
+     */
+    public void added(XML.E parent, XML.E child) {
+      NameIndex.Span parentSpan = span(parent);
+      if (!_built || parentSpan == null) {
+        return;
+      }
+      long before = parentSpan._start;
+      for (int i = parent._children.size() - 2; i >= 0; i--) {
+        XML.Node sibling = parent._children.get(i);
+        if (sibling instanceof XML.E && span((XML.E) sibling) != null) {
+          before = ((XML.E) sibling)._span._end;
+          break;
+        }
+      }
+      long spacing = Math.min(NameIndex.SPACING, (parentSpan._end - before) / (4L * count(child) + 2));
+      // there may be no room left for the labels of the element, or it (or one of its
+      // descendents) may already be somewhere else in the document
+      if (spacing < 2 || !label(child, before, spacing)) {
+        invalidate();
+      }
+    }
+
+    /**
+     * Removes an element (and its descendents) that was just removed from its parent.
+     * 
+     * @param child the removed element
+     */
+    public void removed(XML.E child) {
+      if (!_built || span(child) == null) {
+        return;
+      }
+      child.walk(new XML.Walker() {
+        public int enter(XML.Item item) {
+          if (!(item instanceof XML.E)) {
+            return XML.Walker.SKIP;
+          }
+          XML.E e = (XML.E) item;
+          if (span(e) != null) {
+            unlist(e, e.name());
+            e._span = null;
+          }
+          return XML.Walker.CONTINUE;
+        }
+
+        public int leave(XML.Item item) {
+          return XML.Walker.CONTINUE;
+        }
+      });
+    }
+
+    /**
+     * Moves an element that was just renamed to the list of its new name.
+     * 
+     * @param e the renamed element
+     * @param oldName the previous name of the element
+     */
+    public void renamed(XML.E e, String oldName) {
+      if (_built && span(e) != null) {
+        unlist(e, oldName);
+        list(e);
+      }
+    }
+
+    private NameIndex.Span span(XML.E e) {
+      NameIndex.Span span = e._span;
+      return (span != null && span._index == this && span._generation == _generation) ? span : null;
+    }
+
+    private int count(XML.E root) {
+      final int[] count = new int[1];
+      root.walk(new XML.Walker() {
+        public int enter(XML.Item item) {
+          if (!(item instanceof XML.E)) {
+            return XML.Walker.SKIP;
+          }
+          count[0]++;
+          return XML.Walker.CONTINUE;
+        }
+
+        public int leave(XML.Item item) {
+          return XML.Walker.CONTINUE;
+        }
+      });
+      return count[0];
+    }
+
+    /**
+     * Labels the elements of the given subtree in document order, spacing apart labels that
+     * start after the given label, and lists them under their names. Returns false if some of
+     * the elements were already labeled (and were left alone).
+     */
+    private boolean label(XML.E root, final long after, final long spacing) {
+      final boolean[] labeled = { true };
+      root.walk(new XML.Walker() {
+        private long _label = after;
+        private final List<XML.E> _path = new ArrayList<XML.E>();
+        private final List<NameIndex.Span> _spans = new ArrayList<NameIndex.Span>();
+        // the depth of the subtree being walked that is shared with another document, or 0
+        private int _shared;
+
+        public int enter(XML.Item item) {
+          if (!(item instanceof XML.E)) {
+            return XML.Walker.SKIP;
+          }
+          XML.E e = (XML.E) item;
+          if (span(e) != null) {
+            labeled[0] = false;
+            return XML.Walker.SKIP;
+          }
+          // an element whose parent is somewhere else belongs to the document a cursor edit
+          // shares it with, so it (and everything below it) keeps that document's span
+          if (_shared == 0 && !_path.isEmpty() && ((XML.Item) e)._parent != _path.get(_path.size() - 1)) {
+            _shared = _path.size() + 1;
+          }
+          _label += spacing;
+          NameIndex.Span span = new NameIndex.Span(NameIndex.this, _generation, _label);
+          if (_shared == 0) {
+            e._span = span;
+          }
+          _path.add(e);
+          _spans.add(span);
+          list(e, span._start);
+          return XML.Walker.CONTINUE;
+        }
+
+        public int leave(XML.Item item) {
+          _label += spacing;
+          _spans.remove(_spans.size() - 1)._end = _label;
+          if (_shared == _path.size()) {
+            _shared = 0;
+          }
+          _path.remove(_path.size() - 1);
+          return XML.Walker.CONTINUE;
+        }
+      });
+      return labeled[0];
+    }
+
+    private void list(XML.E e) {
+      list(e, e._span._start);
+    }
+
+    private void list(XML.E e, long start) {
+      NameIndex.Entry entry = _entries.get(e.name());
+      if (entry == null) {
+        entry = new NameIndex.Entry();
+        _entries.put(e.name(), entry);
+      }
+      entry.insert(e, start);
+    }
+
+    private void unlist(XML.E e, String name) {
+      NameIndex.Entry entry = _entries.get(name);
+      entry.remove(e);
+      if (entry._size == 0) {
+        _entries.remove(name);
+      }
+    }
+
+    private static class Span {
+      private final XML.NameIndex _index;
+      private final int _generation;
+      private final long _start;
+      private long _end;
+
+      public Span(XML.NameIndex index, int generation, long start) {
+        _index = index;
+        _generation = generation;
+        _start = start;
+      }
+    }
+
+    private static class Entry {
+      // the start labels are kept here too, because an element that is shared by the
+      // documents of cursor edits only holds the span of one of their indexes
+      private XML.E[] _elements = new XML.E[4];
+      private long[] _starts = new long[4];
+      private int _size;
+
+      /**
+       * Returns the position of the first element that starts after the given label.
+       */
+      public int after(long label) {
+        int low = 0;
+        int high = _size;
+        while (low < high) {
+          int middle = (low + high) >>> 1;
+          if (_starts[middle] <= label) {
+            low = middle + 1;
+          }
+          else {
+            high = middle;
+          }
+        }
+        return low;
+      }
+
+      public void insert(XML.E e, long start) {
+        int position = after(start);
+        if (_size == _elements.length) {
+          _elements = Arrays.copyOf(_elements, _size * 2);
+          _starts = Arrays.copyOf(_starts, _size * 2);
+        }
+        System.arraycopy(_elements, position, _elements, position + 1, _size - position);
+        System.arraycopy(_starts, position, _starts, position + 1, _size - position);
+        _elements[position] = e;
+        _starts[position] = start;
+        _size++;
+      }
+
+      public void remove(XML.E e) {
+        int position = after(e._span._start) - 1;
+        System.arraycopy(_elements, position + 1, _elements, position, _size - position - 1);
+        System.arraycopy(_starts, position + 1, _starts, position, _size - position - 1);
+        _elements[--_size] = null;
+      }
+    }
+  }
+
+  /**
+   * Deferred is the content of an element of a lazily parsed document (see Parser.setLazy)
+   * that hasn't been built yet: the range of the retained characters of the document that
+   * holds the content and the end tag of the element.
+   * 
+   * @author mschrag
+   */
+  protected static class Deferred {
+    private final XML.Deferred.Source _source;
+    private final int _start;
+    private final int _end;
+
+    /**
+     * Constructs a new Deferred.
+     * 
+     * @param source the source of the document
+     * @param start the offset of the content of the element
+     * @param end the offset after the end tag of the element
+     */
+    public Deferred(XML.Deferred.Source source, int start, int end) {
+      _source = source;
+      _start = start;
+      _end = end;
+    }
+
+    /**
+     * Builds the direct children of the given element from this content (deferring theirs).
+     * 
+     * @param e the element to build the children of
+     */
+    public void build(XML.E e) {
+      XML.Tokenizer tokenizer = _source._tokenizer;
+      tokenizer.resume(_source._chars, _start, _end, e);
+      try {
+        _source._parser.e(e, tokenizer, _source);
+      }
+      catch (Throwable t) {
+        throw new IllegalArgumentException("Failed to parse the content of the element '" + e.name() + "'.", t);
+      }
+    }
+
+    /**
+     * Source is what a lazily parsed document keeps to build its deferred content with: the
+     * characters of the document, the parser that parsed it and a tokenizer of its own.
+     * 
+     * @author mschrag
+     */
+    protected static class Source {
+      private final char[] _chars;
+      private final XML.Parser _parser;
+      private final XML.Tokenizer _tokenizer;
+
+      /**
+       * Constructs a new Source.
+       * 
+       * @param chars the characters of the document
+       * @param parser the parser that parsed the document
+       * @param tokenizer the tokenizer to build deferred content with
+       */
+      public Source(char[] chars, XML.Parser parser, XML.Tokenizer tokenizer) {
+        _chars = chars;
+        _parser = parser;
+        _tokenizer = tokenizer;
+      }
+    }
+  }
+
+  /**
+   * <p>
+   * Cursor edits a frozen document persistently: every edit returns a new cursor, and doc()
+   * returns a new frozen document that shares every element the edits didn't touch with the
+   * original. Only the edited elements and their ancestors are copied, so making a variant of
+   * a big document costs about as much as the path from the root to each change, and the
+   * original document is never changed.
+   * </p>
+   * 
+   * <p>
+   * Because the elements are shared, an untouched element only knows the parent (and
+   * document) it was first created in, so parent() and doc() of a shared element can point
+   * into another version. The cursor remembers the path it took from the root instead (as a
+   * zipper), so use the cursor's parent() to move up while editing. The edited elements a
+   * cursor returns from e() are detached drafts without a parent; doc() copies them into the
+   * new document (once per cursor) with their parents set. Like frozen documents, cursors are
+   * immutable and can be shared between threads.
+   * </p>
+   * 
+   * <pre>
+   * XML.Doc template = XML.doc(file).freeze();
+   * XML.Cursor tenant = template.cursor().descendent("tenant").set("id", "42");
+   * XML.Doc variant = tenant.child("name").setText("Acme").doc();
+   * </pre>
+   * 
+   * @author mschrag
+   */
+  public static class Cursor {
+    private final XML.Doc _doc;
+    private final XML.Cursor _parent;
+    private final int _index;
+    private final XML.E _e;
+    private final boolean _changed;
+    private XML.Doc _edited;
+
+    /**
+     * Constructs a new Cursor on the root element of the given frozen document.
+     * 
+     * @param doc the frozen document to edit
+     */
+    protected Cursor(XML.Doc doc) {
+      this(doc, null, -1, doc.root(), false);
+      if (!doc.isFrozen()) {
+        throw new IllegalArgumentException("Only frozen documents can be edited with a cursor.");
+      }
+      if (_e == null) {
+        throw new IllegalArgumentException("Unable to edit a document without a root element.");
+      }
+    }
+
+    private Cursor(XML.Doc doc, XML.Cursor parent, int index, XML.E e, boolean changed) {
+      _doc = doc;
+      _parent = parent;
+      _index = index;
+      _e = e;
+      _changed = changed;
+    }
+
+    /**
+     * Returns the element this cursor is on. If it has been edited, this is a detached, frozen
+     * draft of the element (see doc()).
+     * 
+     * @return the element this cursor is on
+     */
+    public XML.E e() {
+      return _e;
+    }
+
+    /**
+     * Returns whether or not this cursor has edits that aren't in the document it started from.
+     * 
+     * @return whether or not this cursor has edits
+     */
+    public boolean isChanged() {
+      return _changed || (_parent != null && _parent.isChanged());
+    }
+
+    /**
+     * Returns a cursor on the parent element of this cursor's element (with the edits made
+     * below it), or null if this cursor is on the root element.
+     * 
+     * @return a cursor on the parent element, or null
+     */
+    public XML.Cursor parent() {
+      if (_parent == null || !_changed) {
+        return _parent;
+      }
+      XML.Node[] children = _parent._e._children.toArray(new XML.Node[_parent._e._children.size()]);
+      children[_index] = _e;
+      return _parent.edit(_parent._e._name, _parent._e._attributes, children);
+    }
+
+    /**
+     * Returns a cursor on the root element (with all of the edits made so far).
+     * 
+     * @return a cursor on the root element
+     */
+    public XML.Cursor root() {
+      XML.Cursor cursor = this;
+      while (cursor._parent != null) {
+        cursor = cursor.parent();
+      }
+      return cursor;
+    }
+
+    /**
+     * Returns the edited document, a frozen document that shares everything but the edited
+     * elements and their ancestors with the document this cursor started from (or that
+     * document itself if nothing was edited). The edited document has copies of the
+     * declaration and the comments of that document, and a name index if it has one. The
+     * document is built the first time this is called, and the same document is returned
+     * after that.
+     * 
+     * @return the edited document
+     */
+    public synchronized XML.Doc doc() {
+      if (_edited == null) {
+        XML.Cursor root = root();
+        if (!root._changed) {
+          _edited = root._doc;
+        }
+        else {
+          XML.Doc doc = new XML.Doc();
+          XML.E rootElement = Cursor.copyDrafts(root._e, doc);
+          XML.Item[] items = root._doc._children.toArray(new XML.Item[root._doc._children.size()]);
+          doc._declaration = null;
+          for (int i = 0; i < items.length; i++) {
+            if (items[i] == root._doc._root) {
+              items[i] = rootElement;
+            }
+            else {
+              if (items[i] instanceof XML.Declaration) {
+                XML.Declaration declaration = (XML.Declaration) items[i];
+                doc._declaration = new XML.Declaration(declaration.version(), declaration.encoding());
+                items[i] = doc._declaration;
+              }
+              else {
+                items[i] = XML.Doc.copyContent(items[i]);
+              }
+              items[i]._parent = doc;
+              items[i].markFrozen();
+            }
+          }
+          doc._root = rootElement;
+          doc._children = Collections.unmodifiableList(Arrays.asList(items));
+          if (root._doc.isIndexed()) {
+            doc.setIndexed(true);
+            doc._nameIndex.build();
+          }
+          doc.markFrozen();
+          _edited = doc;
+        }
+      }
+      return _edited;
+    }
+
+    /**
+     * Returns a cursor on the child element with the given name, or null if there isn't one.
+     * 
+     * @param name the name of the child element
+     * @return a cursor on the child element, or null if there isn't one
+     * @throws IllegalStateException if there is more than one child element with the name
+     */
+    public XML.Cursor child(String name) {
+      XML.E child = _e.child(name);
+      return (child == null) ? null : new XML.Cursor(_doc, this, _e._children.indexOf(child), child, false);
+    }
+
+    /**
+     * Returns cursors on each of the child elements with the given name.
+     * 
+     * @param name the name of the child elements
+     * @return cursors on the child elements
+     */
+    public List<XML.Cursor> children(String name) {
+      List<XML.Cursor> children = new ArrayList<XML.Cursor>();
+      if (_e._children != null) {
+        for (int i = 0; i < _e._children.size(); i++) {
+          XML.Node child = _e._children.get(i);
+          if (child instanceof XML.E && ((XML.E) child).hasName(name)) {
+            children.add(new XML.Cursor(_doc, this, i, (XML.E) child, false));
+          }
+        }
+      }
+      return children;
+    }
+
+    /**
+     * Returns a cursor on the first descendent element (in document order) with the given
+     * name, or null if there isn't one.
+     * 
+     * @param name the name of the descendent element
+     * @return a cursor on the descendent element, or null if there isn't one
+     */
+    public XML.Cursor descendent(final String name) {
+      // the path from this cursor's element to the element being searched
+      final List<XML.E> path = new ArrayList<XML.E>();
+      _e.walk(new XML.Walker() {
+        public int enter(XML.Item item) {
+          if (!(item instanceof XML.E)) {
+            return XML.Walker.SKIP;
+          }
+          path.add((XML.E) item);
+          return (path.size() > 1 && ((XML.E) item).hasName(name)) ? XML.Walker.STOP : XML.Walker.CONTINUE;
+        }
+
+        public int leave(XML.Item item) {
+          path.remove(path.size() - 1);
+          return XML.Walker.CONTINUE;
+        }
+      });
+      if (path.isEmpty()) {
+        return null;
+      }
+      XML.Cursor cursor = this;
+      for (int i = 1; i < path.size(); i++) {
+        List<XML.Node> siblings = path.get(i - 1)._children;
+        int index = 0;
+        while (siblings.get(index) != path.get(i)) {
+          index++;
+        }
+        cursor = new XML.Cursor(_doc, cursor, index, path.get(i), false);
+      }
+      return cursor;
+    }
+
+    /**
+     * Returns a cursor on a copy of this cursor's element with the attribute of the given name
+     * set to the given value (like E.set).
+     * 
+     * @param name the name of the attribute
+     * @param value the value of the attribute
+     * @return a cursor on the edited element
+     */
+    public XML.Cursor set(String name, String value) {
+      List<XML.Attr> attributes = new ArrayList<XML.Attr>();
+      if (_e._attributes != null) {
+        for (XML.Attr attribute : _e._attributes) {
+          if (!attribute._name.equals(name)) {
+            attributes.add(attribute);
+          }
+        }
+      }
+      attributes.add(new XML.Attr(name, value));
+      return edit(_e._name, attributes, children());
+    }
+
+    /**
+     * Returns a cursor on a copy of this cursor's element without the attribute of the given
+     * name.
+     * 
+     * @param attributeName the name of the attribute to remove
+     * @return a cursor on the edited element
+     */
+    public XML.Cursor remove(String attributeName) {
+      List<XML.Attr> attributes = new ArrayList<XML.Attr>();
+      if (_e._attributes != null) {
+        for (XML.Attr attribute : _e._attributes) {
+          if (!attribute._name.equals(attributeName)) {
+            attributes.add(attribute);
+          }
+        }
+      }
+      return edit(_e._name, attributes.isEmpty() ? null : attributes, children());
+    }
+
+    /**
+     * Returns a cursor on a copy of this cursor's element with the given name.
+     * 
+     * @param name the new name of the element
+     * @return a cursor on the edited element
+     */
+    public XML.Cursor setName(String name) {
+      return edit(name, _e._attributes, children());
+    }
+
+    /**
+     * Returns a cursor on a copy of this cursor's element with its children replaced by the
+     * given text.
+     * 
+     * @param text the new text of the element
+     * @return a cursor on the edited element
+     */
+    public XML.Cursor setText(String text) {
+      return edit(_e._name, _e._attributes, new XML.Node[] { new XML.Text(text) });
+    }
+
+    /**
+     * Returns a cursor on a copy of this cursor's element with (a frozen copy of) the given
+     * node added as its last child.
+     * 
+     * @param node the node to add
+     * @return a cursor on the edited element
+     */
+    public XML.Cursor add(XML.Node node) {
+      XML.Node[] children = (_e._children == null) ? new XML.Node[1] : _e._children.toArray(new XML.Node[_e._children.size() + 1]);
+      children[children.length - 1] = node;
+      return edit(_e._name, _e._attributes, children);
+    }
+
+    /**
+     * Returns a cursor on (a frozen copy of) the given element, in place of this cursor's
+     * element.
+     * 
+     * @param e the replacement element
+     * @return a cursor on the replacement element
+     */
+    public XML.Cursor replace(XML.E e) {
+      return new XML.Cursor(_doc, _parent, _index, Cursor.frozen(e), true);
+    }
+
+    /**
+     * Returns a cursor on a copy of the parent of this cursor's element without this cursor's
+     * element.
+     * 
+     * @return a cursor on the edited parent element
+     * @throws IllegalStateException if this cursor is on the root element
+     */
+    public XML.Cursor remove() {
+      if (_parent == null) {
+        throw new IllegalStateException("The root element of a document can't be removed.");
+      }
+      List<XML.Node> children = new ArrayList<XML.Node>(_parent._e._children);
+      children.remove(_index);
+      return _parent.edit(_parent._e._name, _parent._e._attributes, children.isEmpty() ? null : children.toArray(new XML.Node[children.size()]));
+    }
+
+    private XML.Node[] children() {
+      return (_e._children == null) ? null : _e._children.toArray(new XML.Node[_e._children.size()]);
+    }
+
+    /**
+     * Returns a cursor on a new draft element in place of this cursor's element. New
+     * attributes are adopted by the draft, children that aren't frozen yet are copied into
+     * drafts and adopted, and the rest are shared.
+     */
+    private XML.Cursor edit(String name, List<XML.Attr> attributes, XML.Node[] children) {
+      XML.E e = new XML.E(name);
+      ((XML.Item) e)._draft = true;
+      if (attributes != null) {
+        if (attributes == _e._attributes) {
+          e._attributes = attributes;
+          e._attributeIndex = _e._attributeIndex;
+        }
+        else {
+          for (XML.Attr attribute : attributes) {
+            if (attribute._element == null) {
+              attribute._element = e;
+            }
+          }
+          e._attributes = Collections.unmodifiableList(Arrays.asList(attributes.toArray(new XML.Attr[attributes.size()])));
+        }
+      }
+      if (children != null) {
+        for (int i = 0; i < children.length; i++) {
+          if (!children[i].isFrozen()) {
+            if (children[i] instanceof XML.E) {
+              children[i] = Cursor.frozen((XML.E) children[i]);
+            }
+            else {
+              children[i] = XML.Doc.copyContent(children[i]);
+              ((XML.Item) children[i])._draft = true;
+              children[i].markFrozen();
+            }
+            ((XML.Item) children[i])._parent = e;
+          }
+        }
+        e._children = Collections.unmodifiableList(Arrays.asList(children));
+      }
+      e.buildIndexes();
+      e.markFrozen();
+      return new XML.Cursor(_doc, _parent, _index, e, true);
+    }
+
+    /**
+     * Returns the given element if it is frozen, or else a frozen copy of it. Only the copy
+     * of the element itself is a draft, so the documents it ends up in copy it again (to set
+     * its parent) and share everything below it.
+     */
+    private static XML.E frozen(XML.E e) {
+      if (e.isFrozen()) {
+        return e;
+      }
+      XML.E copy = new XML.E(e._name);
+      List<XML.E> sources = new ArrayList<XML.E>();
+      List<XML.E> copies = new ArrayList<XML.E>();
+      sources.add(e);
+      copies.add(copy);
+      XML.Doc.freeze(sources, copies);
+      ((XML.Item) copy)._draft = true;
+      return copy;
+    }
+
+    /**
+     * Returns a frozen copy of the given draft element with the given parent, in which every
+     * draft below it is copied too (with its parent set before it is frozen), and everything
+     * else is shared.
+     */
+    private static XML.E copyDrafts(XML.E draft, XML.Item parent) {
+      XML.E copy = new XML.E(draft._name);
+      ((XML.Item) copy)._parent = parent;
+      List<XML.E> drafts = new ArrayList<XML.E>();
+      List<XML.E> copies = new ArrayList<XML.E>();
+      drafts.add(draft);
+      copies.add(copy);
+      while (!drafts.isEmpty()) {
+        XML.E source = drafts.remove(drafts.size() - 1);
+        XML.E target = copies.remove(copies.size() - 1);
+        if (source._attributes != null) {
+          XML.Attr[] attributes = new XML.Attr[source._attributes.size()];
+          for (int i = 0; i < attributes.length; i++) {
+            XML.Attr attribute = source._attributes.get(i);
+            attributes[i] = new XML.Attr(attribute._name, attribute._value);
+            attributes[i]._element = target;
+          }
+          target._attributes = Collections.unmodifiableList(Arrays.asList(attributes));
+        }
+        if (source._children != null) {
+          XML.Node[] children = source._children.toArray(new XML.Node[source._children.size()]);
+          for (int i = 0; i < children.length; i++) {
+            XML.Node child = children[i];
+            if (((XML.Item) child)._draft) {
+              if (child instanceof XML.E) {
+                children[i] = new XML.E(((XML.E) child)._name);
+                drafts.add((XML.E) child);
+                copies.add((XML.E) children[i]);
+              }
+              else {
+                children[i] = XML.Doc.copyContent(child);
+                children[i].markFrozen();
+              }
+              ((XML.Item) children[i])._parent = target;
+            }
+          }
+          target._children = Collections.unmodifiableList(Arrays.asList(children));
+        }
+        target.buildIndexes();
+        target.markFrozen();
+      }
+      return copy;
+    }
+  }
+
+  /**
+   * Visitor is an interface that can be passed to the visit
+   * method of any XML.Item to walk the DOM.
+   * 
+   * @author mschrag
+   */
+  public static interface Visitor {
+    /**
+     * Called by the visit method of each item.
+     * 
+     * @param item the item being visited
+     * @return true if the children of the given item should be visited, false if it should skip the children
+     */
+    public boolean visit(XML.Item item);
+  }
+
+  /**
+   * <p>
+   * Walker walks a tree of items in document order, like a Visitor, but is told both when it
+   * enters an item and when it leaves a document or element (after its children), and can skip
+   * the children of an item or stop the walk altogether. Walks use an explicit stack, so they
+   * work on documents of any depth.
+   * </p>
+   *
+   * <pre>
+   * boolean finished = doc.walk(new XML.Walker() {
+   *   public int enter(XML.Item item) {
+   *     return (item instanceof XML.E &amp;&amp; ((XML.E) item).hasName("secret")) ? XML.Walker.SKIP : XML.Walker.CONTINUE;
+   *   }
+   *
+   *   public int leave(XML.Item item) {
+   *     return XML.Walker.CONTINUE;
+   *   }
+   * });
+   * </pre>
+   *
+   * @author mschrag
+   */
+  public static interface Walker {
+    /**
+     * Keep walking.
+     */
+    public static final int CONTINUE = 0;
+
+    /**
+     * Don't walk the children of the item that was just entered (and don't leave it).
+     */
+    public static final int SKIP = 1;
+
+    /**
+     * Stop the walk.
+     */
+    public static final int STOP = 2;
+
+    /**
+     * Called when the walk enters an item, before its children.
+     * 
+     * @param item the item being entered
+     * @return CONTINUE, SKIP or STOP
+     */
+    public int enter(XML.Item item);
+
+    /**
+     * Called when the walk leaves a document or element that it entered, after its children.
+     * 
+     * @param item the item being left
+     * @return CONTINUE or STOP
+     */
+    public int leave(XML.Item item);
+  }
+
+  /**
+   * <p>
+   * Profile controls how items are formatted when they are written. PRETTY (the default)
+   * indents each level by two spaces and puts elements on their own lines, COMPACT writes no
+   * whitespace that isn't part of the document, and pretty(..) indents by any amount.
+   * </p>
+   * 
+   * <p>
+   * CANONICAL follows the rules of Canonical XML (without comments): no declaration or
+   * comments, no added whitespace, CDATA written as text, empty elements written with an end
+   * tag, attributes sorted by name (namespace declarations first), and the canonical escaping
+   * of text and attribute values. Namespace URIs are not resolved, so prefixed attributes are
+   * sorted by their qualified names.
+   * </p>
+   * 
+   * <pre>
+   * out.write(doc.toString(XML.Profile.COMPACT));
+   * doc.writeTo(stream, XML.Profile.pretty(4));
+   * </pre>
+   * 
+   * @author mschrag
+   */
+  public static class Profile {
+    /**
+     * Indents by two spaces per level, with platform line separators.
+     */
+    public static final XML.Profile PRETTY = new XML.Profile("  ", System.getProperty("line.separator"), false);
+
+    /**
+     * Writes no whitespace that isn't part of the document.
+     */
+    public static final XML.Profile COMPACT = new XML.Profile("", "", false);
+
+    /**
+     * Writes Canonical XML (without comments).
+     */
+    public static final XML.Profile CANONICAL = new XML.Profile("", "", true);
+
+    protected static final Comparator<XML.Attr> CANONICAL_ORDER = new Comparator<XML.Attr>() {
+      public int compare(XML.Attr attr1, XML.Attr attr2) {
+        boolean namespace1 = Profile.isNamespaceDeclaration(attr1.name());
+        boolean namespace2 = Profile.isNamespaceDeclaration(attr2.name());
+        if (namespace1 != namespace2) {
+          return namespace1 ? -1 : 1;
+        }
+        return attr1.name().compareTo(attr2.name());
+      }
+    };
+
+    private String _indent;
+    private String _newline;
+    private boolean _canonical;
+
+    /**
+     * Constructs a new pretty printing Profile.
+     * 
+     * @param indent the string to write for each level of indentation
+     * @param newline the line separator
+     */
+    public Profile(String indent, String newline) {
+      this(indent, newline, false);
+    }
+
+    private Profile(String indent, String newline, boolean canonical) {
+      _indent = indent;
+      _newline = newline;
+      _canonical = canonical;
+    }
+
+    /**
+     * Returns a pretty printing profile that indents by the given number of spaces per level.
+     * 
+     * @param indent the number of spaces to indent each level by
+     * @return a pretty printing profile
+     */
+    public static XML.Profile pretty(int indent) {
+      if (indent == 2) {
+        return Profile.PRETTY;
+      }
+      StringBuilder indentation = new StringBuilder();
+      for (int i = 0; i < indent; i++) {
+        indentation.append(' ');
+      }
+      return new XML.Profile(indentation.toString(), Profile.PRETTY.newline());
+    }
+
+    /**
+     * Returns the string that is written for each level of indentation.
+     * 
+     * @return the indentation of this profile
+     */
+    public String indent() {
+      return _indent;
+    }
+
+    /**
+     * Returns the line separator of this profile.
+     * 
+     * @return the line separator of this profile
+     */
+    public String newline() {
+      return _newline;
+    }
+
+    /**
+     * Returns whether or not this profile writes Canonical XML.
+     * 
+     * @return whether or not this profile is canonical
+     */
+    public boolean isCanonical() {
+      return _canonical;
+    }
+
+    private static boolean isNamespaceDeclaration(String name) {
+      return name.equals("xmlns") || name.startsWith("xmlns:");
+    }
+  }
+
+  /**
+   * <p>
+   * Output is the buffer that items are written into. It is unsynchronized and copies runs of
+   * characters into its buffer in bulk (escaping only the characters that need it), and then
+   * hands the buffer to the underlying writer in large blocks, so writing a document takes one
+   * writer lock per block rather than one per character.
+   * </p>
+   * 
+   * <p>
+   * An Output without a writer just collects everything that is written into it, which is
+   * how toString() is implemented. An Output can also encode straight to a stream or channel
+   * through a pooled byte buffer; UTF-8, ASCII and ISO-8859-1 are encoded by hand, and other
+   * encodings go through a CharsetEncoder. Characters that the encoding can't represent are
+   * written as character references by escapeText, escapeAttribute and cdata; anywhere else
+   * (names, comments) they fail the write, as do unpaired surrogates.
+   * </p>
+   * 
+   * @author mschrag
+   */
+  public static class Output {
+    private static final String[] ESCAPES = new String['>' + 1];
+    private static final String[] CANONICAL_TEXT_ESCAPES = new String['>' + 1];
+    private static final String[] CANONICAL_ATTRIBUTE_ESCAPES = new String['>' + 1];
+    private static final ThreadLocal<char[]> BUFFERS = new ThreadLocal<char[]>();
+    private static final ThreadLocal<ByteBuffer> BYTE_BUFFERS = new ThreadLocal<ByteBuffer>();
+    private static final int UTF_8 = 0;
+    private static final int SINGLE_BYTE = 1;
+    private static final int ENCODER = 2;
+
+    static {
+      Output.ESCAPES['<'] = "&lt;";
+      Output.ESCAPES['>'] = "&gt;";
+      Output.ESCAPES['&'] = "&amp;";
+      Output.ESCAPES['"'] = "&quot;";
+      Output.CANONICAL_TEXT_ESCAPES['<'] = "&lt;";
+      Output.CANONICAL_TEXT_ESCAPES['>'] = "&gt;";
+      Output.CANONICAL_TEXT_ESCAPES['&'] = "&amp;";
+      Output.CANONICAL_TEXT_ESCAPES['\r'] = "&#xD;";
+      Output.CANONICAL_ATTRIBUTE_ESCAPES['<'] = "&lt;";
+      Output.CANONICAL_ATTRIBUTE_ESCAPES['&'] = "&amp;";
+      Output.CANONICAL_ATTRIBUTE_ESCAPES['"'] = "&quot;";
+      Output.CANONICAL_ATTRIBUTE_ESCAPES['\t'] = "&#x9;";
+      Output.CANONICAL_ATTRIBUTE_ESCAPES['\n'] = "&#xA;";
+      Output.CANONICAL_ATTRIBUTE_ESCAPES['\r'] = "&#xD;";
+    }
+
+    private java.io.Writer _writer;
+    private char[] _buffer;
+    private int _length;
+    private long _drained;
+    private XML.Profile _profile;
+
+    private OutputStream _stream;
+    private WritableByteChannel _channel;
+    private ByteBuffer _bytes;
+    private int _encoding;
+    private int _maxChar;
+    private CharsetEncoder _encoder;
+    private CharsetEncoder _probe;
+    private String _charset;
+
+    /**
+     * Constructs a new Output that collects everything written to it.
+     */
+    public Output() {
+      this(null);
+    }
+
+    /**
+     * Constructs a new Output that writes to the given writer.
+     * 
+     * @param writer the writer to write to
+     */
+    public Output(java.io.Writer writer) {
+      _writer = writer;
+      _profile = XML.Profile.PRETTY;
+      _buffer = Output.BUFFERS.get();
+      if (_buffer == null) {
+        _buffer = new char[8192];
+      }
+      else {
+        Output.BUFFERS.set(null);
+      }
+    }
+
+    /**
+     * Constructs a new Output that encodes to the given stream.
+     * 
+     * @param stream the stream to write to
+     * @param encoding the name of the encoding to write with
+     * @throws IllegalArgumentException if the encoding is not supported
+     */
+    public Output(OutputStream stream, String encoding) {
+      this((java.io.Writer) null);
+      _stream = stream;
+      setEncoding(encoding);
+    }
+
+    /**
+     * Constructs a new Output that encodes to the given channel.
+     * 
+     * @param channel the channel to write to
+     * @param encoding the name of the encoding to write with
+     * @throws IllegalArgumentException if the encoding is not supported
+     */
+    public Output(WritableByteChannel channel, String encoding) {
+      this((java.io.Writer) null);
+      _channel = channel;
+      setEncoding(encoding);
+    }
+
+    /**
+     * Sets the profile that items written to this output are formatted with.
+     * 
+     * @param profile the profile to format with
+     * @return this output
+     */
+    public XML.Output setProfile(XML.Profile profile) {
+      _profile = profile;
+      return this;
+    }
+
+    /**
+     * Returns the profile that items written to this output are formatted with.
+     * 
+     * @return the profile of this output
+     */
+    public XML.Profile profile() {
+      return _profile;
+    }
+
+    private void setEncoding(String encoding) {
+      Charset charset = Charset.forName(encoding);
+      String name = charset.name();
+      _charset = name;
+      if (name.equals("UTF-8")) {
+        _encoding = Output.UTF_8;
+      }
+      else if (name.equals("US-ASCII")) {
+        _encoding = Output.SINGLE_BYTE;
+        _maxChar = 0x7F;
+      }
+      else if (name.equals("ISO-8859-1")) {
+        _encoding = Output.SINGLE_BYTE;
+        _maxChar = 0xFF;
+      }
+      else {
+        _encoding = Output.ENCODER;
+        _encoder = charset.newEncoder();
+        _encoder.onMalformedInput(CodingErrorAction.REPORT);
+        _encoder.onUnmappableCharacter(CodingErrorAction.REPORT);
+        _probe = charset.newEncoder();
+      }
+      _bytes = Output.BYTE_BUFFERS.get();
+      if (_bytes == null) {
+        _bytes = ByteBuffer.allocate(16384);
+      }
+      else {
+        Output.BYTE_BUFFERS.set(null);
+        _bytes.clear();
+      }
+    }
+
+    /**
+     * Writes the given string.
+     * 
+     * @param value the string to write
+     * @return this output
+     */
+    public XML.Output print(String value) {
+      if (value == null) {
+        value = "null";
+      }
+      return print(value, 0, value.length());
+    }
+
+    /**
+     * Writes a range of the given string.
+     * 
+     * @param value the string to write
+     * @param start the index of the first character to write
+     * @param end the index after the last character to write
+     * @return this output
+     */
+    public XML.Output print(String value, int start, int end) {
+      while (start < end) {
+        if (_length == _buffer.length) {
+          drain();
+        }
+        int count = Math.min(end - start, _buffer.length - _length);
+        value.getChars(start, start + count, _buffer, _length);
+        _length += count;
+        start += count;
+      }
+      return this;
+    }
+
+    /**
+     * Writes the given character.
+     * 
+     * @param c the character to write
+     * @return this output
+     */
+    public XML.Output print(char c) {
+      if (_length == _buffer.length) {
+        drain();
+      }
+      _buffer[_length++] = c;
+      return this;
+    }
+
+    /**
+     * Writes a line separator.
+     * 
+     * @return this output
+     */
+    public XML.Output println() {
+      String newline = _profile.newline();
+      return print(newline, 0, newline.length());
+    }
+
+    /**
+     * Writes the given string followed by a line separator.
+     * 
+     * @param value the string to write
+     * @return this output
+     */
+    public XML.Output println(String value) {
+      return print(value).println();
+    }
+
+    /**
+     * Writes an indentation.
+     * 
+     * @param indent the indentation to write
+     * @return this output
+     */
+    public XML.Output indent(int indent) {
+      String indentation = _profile.indent();
+      if (indentation.length() > 0) {
+        for (int i = 0; i < indent; i++) {
+          print(indentation, 0, indentation.length());
+        }
+      }
+      return this;
+    }
+
+    /**
+     * Writes the end of the start tag of an element that has no children. This is " /&gt;"
+     * when pretty printing, "/&gt;" when compact, and a separate end tag when canonical.
+     * 
+     * @param name the name of the element
+     * @return this output
+     */
+    public XML.Output endEmpty(String name) {
+      if (_profile.isCanonical()) {
+        print("></");
+        print(name);
+        print('>');
+      }
+      else if (_profile.indent().length() == 0 && _profile.newline().length() == 0) {
+        print("/>", 0, 2);
+      }
+      else {
+        print(" />", 0, 3);
+      }
+      return this;
+    }
+
+    /**
+     * Writes the given string, escaping &lt;, &gt;, &amp; and &quot;. Runs of characters that
+     * do not need escaping are copied in bulk.
+     * 
+     * @param value the string to write (null writes nothing)
+     * @return this output
+     */
+    public XML.Output escape(String value) {
+      return escape(value, Output.ESCAPES);
+    }
+
+    /**
+     * Writes the given text content, escaped for the profile of this output.
+     * 
+     * @param value the text to write (null writes nothing)
+     * @return this output
+     */
+    public XML.Output escapeText(String value) {
+      return escape(value, _profile.isCanonical() ? Output.CANONICAL_TEXT_ESCAPES : Output.ESCAPES);
+    }
+
+    /**
+     * Writes the given attribute value, escaped for the profile of this output.
+     * 
+     * @param value the attribute value to write (null writes nothing)
+     * @return this output
+     */
+    public XML.Output escapeAttribute(String value) {
+      return escape(value, _profile.isCanonical() ? Output.CANONICAL_ATTRIBUTE_ESCAPES : Output.ESCAPES);
+    }
+
+    private XML.Output escape(String value, String[] escapes) {
+      if (value != null) {
+        int length = value.length();
+        int start = 0;
+        for (int i = 0; i < length; i++) {
+          char c = value.charAt(i);
+          String escaped;
+          if (c <= '>') {
+            if ((escaped = escapes[c]) != null) {
+              print(value, start, i);
+              print(escaped, 0, escaped.length());
+              start = i + 1;
+            }
+          }
+          else if (c >= 0x80 && isRestricted()) {
+            int codePoint = value.codePointAt(i);
+            int count = Character.charCount(codePoint);
+            if (!isEncodable(codePoint)) {
+              print(value, start, i);
+              print("&#").print(String.valueOf(codePoint)).print(';');
+              start = i + count;
+            }
+            i += count - 1;
+          }
+        }
+        print(value, start, length);
+      }
+      return this;
+    }
+
+    /**
+     * Writes the given text as a CDATA section. Characters the encoding of this output can't
+     * represent are written as character references between two CDATA sections, since
+     * references aren't expanded inside of one.
+     * 
+     * @param value the text of the CDATA section (null writes an empty section)
+     * @return this output
+     */
+    public XML.Output cdata(String value) {
+      print("<![CDATA[", 0, 9);
+      if (value != null) {
+        int length = value.length();
+        int start = 0;
+        if (isRestricted()) {
+          for (int i = 0; i < length; i++) {
+            if (value.charAt(i) >= 0x80) {
+              int codePoint = value.codePointAt(i);
+              int count = Character.charCount(codePoint);
+              if (!isEncodable(codePoint)) {
+                print(value, start, i);
+                print("]]>&#").print(String.valueOf(codePoint)).print(";<![CDATA[");
+                start = i + count;
+              }
+              i += count - 1;
+            }
+          }
+        }
+        print(value, start, length);
+      }
+      return print("]]>", 0, 3);
+    }
+
+    /**
+     * Returns whether or not this output encodes to an encoding that can't represent every
+     * character.
+     */
+    private boolean isRestricted() {
+      return _bytes != null && _encoding != Output.UTF_8;
+    }
+
+    /**
+     * Returns whether or not the encoding of this output can represent the given (non-ASCII)
+     * character. Unpaired surrogates are reported as encodable so that encoding them fails.
+     */
+    private boolean isEncodable(int codePoint) {
+      if (codePoint >= Character.MIN_SURROGATE && codePoint <= Character.MAX_SURROGATE) {
+        return true;
+      }
+      else if (_encoding == Output.SINGLE_BYTE) {
+        return codePoint <= _maxChar;
+      }
+      return _probe.canEncode(new String(Character.toChars(codePoint)));
+    }
+
+    /**
+     * Writes any buffered characters to the underlying writer (without flushing the writer itself).
+     */
+    public void flush() {
+      if (_writer != null && _length > 0) {
+        drain();
+      }
+      else if (_bytes != null) {
+        encode(true);
+      }
+    }
+
+    /**
+     * Returns the number of characters that have been written to this output so far.
+     * 
+     * @return the number of characters written to this output
+     */
+    public long length() {
+      return _drained + _length;
+    }
+
+    /**
+     * Returns the buffer of this output to be reused by the next Output created on this thread.
+     * The output cannot be used after it has been released.
+     */
+    public void release() {
+      if (_buffer != null && _buffer.length <= 65536) {
+        Output.BUFFERS.set(_buffer);
+      }
+      _buffer = null;
+      if (_bytes != null) {
+        Output.BYTE_BUFFERS.set(_bytes);
+        _bytes = null;
+      }
+    }
+
+    private void drain() {
+      if (_bytes != null) {
+        encode(false);
+      }
+      else if (_writer == null) {
+        char[] buffer = new char[_buffer.length * 2];
+        System.arraycopy(_buffer, 0, buffer, 0, _length);
+        _buffer = buffer;
+      }
+      else {
+        try {
+          _writer.write(_buffer, 0, _length);
+        }
+        catch (IOException e) {
+          throw new IllegalStateException("Failed to write to the writer.", e);
+        }
+        _drained += _length;
+        _length = 0;
+      }
+    }
+
+    /**
+     * Encodes the buffered characters into the byte buffer, writing it out whenever it fills
+     * up. A high surrogate at the end of the characters is kept for the next call unless this
+     * is the last one.
+     */
+    private void encode(boolean endOfInput) {
+      char[] buffer = _buffer;
+      int length = _length;
+      if (!endOfInput && length > 0 && Character.isHighSurrogate(buffer[length - 1])) {
+        length--;
+      }
+      if (_encoding == Output.ENCODER) {
+        encodeWithEncoder(length, endOfInput);
+      }
+      else {
+        byte[] bytes = _bytes.array();
+        int position = _bytes.position();
+        int limit = bytes.length - 12;
+        for (int i = 0; i < length; i++) {
+          if (position > limit) {
+            _bytes.position(position);
+            writeBytes();
+            position = 0;
+          }
+          char c = buffer[i];
+          if (c < 0x80) {
+            bytes[position++] = (byte) c;
+          }
+          else if (_encoding == Output.SINGLE_BYTE) {
+            if (c <= _maxChar) {
+              bytes[position++] = (byte) c;
+            }
+            else {
+              int codePoint = c;
+              if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(buffer[i + 1])) {
+                codePoint = Character.toCodePoint(c, buffer[i + 1]);
+              }
+              throw unencodable(codePoint);
+            }
+          }
+          else if (c < 0x800) {
+            bytes[position++] = (byte) (0xC0 | (c >> 6));
+            bytes[position++] = (byte) (0x80 | (c & 0x3F));
+          }
+          else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(buffer[i + 1])) {
+            int codePoint = Character.toCodePoint(c, buffer[++i]);
+            bytes[position++] = (byte) (0xF0 | (codePoint >> 18));
+            bytes[position++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+            bytes[position++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+            bytes[position++] = (byte) (0x80 | (codePoint & 0x3F));
+          }
+          else if (c >= Character.MIN_SURROGATE && c <= Character.MAX_SURROGATE) {
+            throw unencodable(c);
+          }
+          else {
+            bytes[position++] = (byte) (0xE0 | (c >> 12));
+            bytes[position++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+            bytes[position++] = (byte) (0x80 | (c & 0x3F));
+          }
+        }
+        _bytes.position(position);
+      }
+      System.arraycopy(buffer, length, buffer, 0, _length - length);
+      _length -= length;
+      _drained += length;
+      writeBytes();
+    }
+
+    private void encodeWithEncoder(int length, boolean endOfInput) {
+      CharBuffer chars = CharBuffer.wrap(_buffer, 0, length);
+      while (true) {
+        CoderResult result = _encoder.encode(chars, _bytes, endOfInput);
+        if (result.isUnderflow()) {
+          if (endOfInput) {
+            while (_encoder.flush(_bytes).isOverflow()) {
+              writeBytes();
+            }
+            _encoder.reset();
+          }
+          break;
+        }
+        else if (result.isOverflow()) {
+          writeBytes();
+        }
+        else {
+          _encoder.reset();
+          int codePoint = chars.get();
+          if (result.length() == 2 && Character.isHighSurrogate((char) codePoint)) {
+            codePoint = Character.toCodePoint((char) codePoint, chars.get());
+          }
+          throw unencodable(codePoint);
+        }
+      }
+    }
+
+    /**
+     * Returns the exception for a character that can't be encoded where it was written (a
+     * name, comment or processing instruction, or an unpaired surrogate anywhere).
+     */
+    private IllegalArgumentException unencodable(int codePoint) {
+      String hex = Integer.toHexString(codePoint).toUpperCase();
+      if (codePoint >= Character.MIN_SURROGATE && codePoint <= Character.MAX_SURROGATE) {
+        return new IllegalArgumentException("Unable to write the unpaired surrogate U+" + hex + ".");
+      }
+      return new IllegalArgumentException("Unable to write the character U+" + hex + " in " + _charset + " outside of text, attribute values and CDATA sections.");
+    }
+
+    private void writeBytes() {
+      try {
+        _bytes.flip();
+        if (_stream != null) {
+          _stream.write(_bytes.array(), _bytes.arrayOffset(), _bytes.limit());
+        }
+        else {
+          while (_bytes.hasRemaining()) {
+            _channel.write(_bytes);
+          }
+        }
+        _bytes.clear();
+      }
+      catch (IOException e) {
+        throw new IllegalStateException("Failed to write to the output.", e);
+      }
+    }
+
+    /**
+     * Returns everything that has been written to this output (if it was created without a writer).
+     * 
+     * @return everything that has been written to this output
+     */
+    @Override
+    public String toString() {
+      return new String(_buffer, 0, _length);
+    }
+  }
+
+  /**
+   * <p>
+   * Writer writes XML straight to an output as you go, without building a tree first. It uses
+   * the same escaping and pretty-printing rules as XML.E.write, so a document written with a
+   * Writer looks exactly like the equivalent XML.Doc printed with toString(). You can also
+   * hand it already-built items to mix the builder API with constant-memory output.
+   * </p>
+   *
+   * <pre>
+   * XML.Writer writer = new XML.Writer(out);
+   * writer.declaration("1.0", "UTF-8");
+   * writer.start("people");
+   * for (Person person : people) {
+   *   writer.start("person").attr("id", person.id());
+   *   writer.add(XML.e("name", person.name()));
+   *   writer.end();
+   * }
+   * writer.end();
+   * writer.close();
+   * </pre>
+   *
+   * @author mschrag
+   */
+  public static class Writer {
+    private static final int START_TAG = 0;
+    private static final int TEXT = 1;
+    private static final int CONTENT = 2;
+
+    private java.io.Writer _writer;
+    private XML.Output _output;
+    private XML.E[] _elements;
+    private int[] _states;
+    private int _depth;
+    private XML.Text _text;
+
+    /**
+     * Constructs a new Writer.
+     *
+     * @param writer the writer to write to
+     */
+    public Writer(java.io.Writer writer) {
+      this(writer, XML.Profile.PRETTY);
+    }
+
+    /**
+     * Constructs a new Writer that formats with the given profile.
+     *
+     * @param writer the writer to write to
+     * @param profile the profile to format with
+     */
+    public Writer(java.io.Writer writer, XML.Profile profile) {
+      _writer = writer;
+      _output = new XML.Output(writer).setProfile(profile);
+      _elements = new XML.E[16];
+      _states = new int[16];
+    }
+
+    /**
+     * Writes an XML declaration. This must be the first thing written.
+     *
+     * @param version the version of the declaration
+     * @param encoding the encoding of the declaration
+     * @return this writer
+     */
+    public XML.Writer declaration(String version, String encoding) {
+      if (_depth > 0) {
+        throw new IllegalStateException("A declaration can only be written outside of the root element.");
+      }
+      XML.declaration(version, encoding).write(_output, 0);
+      return this;
+    }
+
+    /**
+     * Starts a new element. Attributes for the element can be written until anything else is
+     * written to it.
+     *
+     * @param name the name of the element
+     * @return this writer
+     */
+    public XML.Writer start(String name) {
+      content();
+      XML.E e = XML.e(name);
+      e.writeIndent(_depth, _output);
+      _output.print("<");
+      _output.print(name);
+      if (_depth == _elements.length) {
+        XML.E[] elements = new XML.E[_depth * 2];
+        System.arraycopy(_elements, 0, elements, 0, _depth);
+        _elements = elements;
+        int[] states = new int[_depth * 2];
+        System.arraycopy(_states, 0, states, 0, _depth);
+        _states = states;
+      }
+      _elements[_depth] = e;
+      _states[_depth] = Writer.START_TAG;
+      _depth++;
+      return this;
+    }
+
+    /**
+     * Sets an attribute of the element that was just started.
+     *
+     * @param name the name of the attribute
+     * @param value the value of the attribute
+     * @return this writer
+     */
+    public XML.Writer attr(String name, String value) {
+      if (_depth == 0 || _states[_depth - 1] != Writer.START_TAG) {
+        throw new IllegalStateException("Attributes can only be written right after an element is started.");
+      }
+      _elements[_depth - 1].set(name, value);
+      return this;
+    }
+
+    /**
+     * Writes a text node.
+     *
+     * @param text the text to write
+     * @return this writer
+     */
+    public XML.Writer text(String text) {
+      return add(XML.text(text));
+    }
+
+    /**
+     * Writes a CDATA section.
+     *
+     * @param cdata the cdata to write
+     * @return this writer
+     */
+    public XML.Writer cdata(String cdata) {
+      return add(XML.cdata(cdata));
+    }
+
+    /**
+     * Writes a comment.
+     *
+     * @param comment the comment to write
+     * @return this writer
+     */
+    public XML.Writer comment(String comment) {
+      return add(XML.comment(comment));
+    }
+
+    /**
+     * Writes an already-built item (an element with all of its children, for instance) at
+     * the current position.
+     *
+     * @param item the item to write
+     * @return this writer
+     */
+    public XML.Writer add(XML.Item item) {
+      if (item instanceof XML.Text && _depth > 0 && _states[_depth - 1] == Writer.START_TAG) {
+        _text = (XML.Text) item;
+        _states[_depth - 1] = Writer.TEXT;
+      }
+      else {
+        content();
+        item.write(_output, _depth);
+      }
+      return this;
+    }
+
+    /**
+     * Ends the most recently started element.
+     *
+     * @return this writer
+     */
+    public XML.Writer end() {
+      if (_depth == 0) {
+        throw new IllegalStateException("There is no element to end.");
+      }
+      _depth--;
+      XML.E e = _elements[_depth];
+      _elements[_depth] = null;
+      if (_states[_depth] == Writer.START_TAG) {
+        e.writeAttributes(_output);
+        _output.endEmpty(e.name()).println();
+      }
+      else {
+        if (_states[_depth] == Writer.TEXT) {
+          e.writeAttributes(_output);
+          _output.print(">");
+          _text.write(_output, 0);
+          _text = null;
+        }
+        else {
+          e.writeIndent(_depth, _output);
+        }
+        _output.print("</");
+        _output.print(e.name());
+        _output.println(">");
+      }
+      return this;
+    }
+
+    /**
+     * Flushes the underlying writer.
+     */
+    public void flush() {
+      _output.flush();
+      try {
+        _writer.flush();
+      }
+      catch (IOException e) {
+        throw new IllegalStateException("Failed to flush the writer.", e);
+      }
+    }
+
+    /**
+     * Ends any elements that are still open and closes the underlying writer.
+     */
+    public void close() {
+      while (_depth > 0) {
+        end();
+      }
+      _output.flush();
+      _output.release();
+      try {
+        _writer.close();
+      }
+      catch (IOException e) {
+        throw new IllegalStateException("Failed to close the writer.", e);
+      }
+    }
+
+    /**
+     * Finishes the start tag of the current element (if it hasn't been already) so that
+     * another child can be written into it.
+     */
+    protected void content() {
+      if (_depth > 0 && _states[_depth - 1] != Writer.CONTENT) {
+        _elements[_depth - 1].writeAttributes(_output);
+        _output.print(">");
+        _output.println();
+        if (_states[_depth - 1] == Writer.TEXT) {
+          _text.write(_output, _depth);
+          _text = null;
+        }
+        _states[_depth - 1] = Writer.CONTENT;
+      }
+    }
+  }
+
+  /**
+   * <p>
+   * ElementIterator streams the elements with a given name out of a document one at a time.
+   * Each element is fully built (with all of its descendents) before it is returned, but
+   * nothing else in the document is kept, so memory is bounded by the size of one element
+   * no matter how big the document is.
+   * </p>
+   *
+   * <pre>
+   * for (XML.E address : XML.stream(reader, "address")) {
+   *   String city = address.childText("city");
+   * }
+   * </pre>
+   *
+   * @author mschrag
+   */
+  public static class ElementIterator implements Iterator<XML.E>, Iterable<XML.E> {
+    private XML.Parser _parser;
+    private XML.Tokenizer _tokenizer;
+    private String _name;
+    private Closeable _closeable;
+    private XML.E _next;
+
+    /**
+     * Constructs a new ElementIterator.
+     *
+     * @param tokenizer the tokenizer to read from
+     * @param name the name of the elements to return
+     * @param closeable the input to close when the iterator is done (or null to leave it open)
+     */
+    public ElementIterator(XML.Tokenizer tokenizer, String name, Closeable closeable) {
+      this(XML.Parser.DEFAULT, tokenizer, name, closeable);
+    }
+
+    /**
+     * Constructs a new ElementIterator that builds elements with the options of the given parser.
+     *
+     * @param parser the parser whose options to build elements with
+     * @param tokenizer the tokenizer to read from
+     * @param name the name of the elements to return
+     * @param closeable the input to close when the iterator is done (or null to leave it open)
+     */
+    public ElementIterator(XML.Parser parser, XML.Tokenizer tokenizer, String name, Closeable closeable) {
+      _parser = parser;
+      _tokenizer = tokenizer;
+      _name = tokenizer.symbols().intern(name);
+      _closeable = closeable;
+    }
+
+    public Iterator<XML.E> iterator() {
+      return this;
+    }
+
+    public boolean hasNext() {
+      if (_next == null && _tokenizer != null) {
+        try {
+          int event;
+          while (_next == null && (event = _tokenizer.next()) != XML.Tokenizer.END_DOCUMENT) {
+            if (event == XML.Tokenizer.START_ELEMENT && _name == _tokenizer.name()) {
+              _next = _parser.e(_tokenizer);
+            }
+          }
+          if (_next == null) {
+            close();
+          }
+        }
+        catch (Throwable t) {
+          close();
+          throw new IllegalArgumentException("Failed to parse an element named '" + _name + "' from the provided input.", t);
+        }
+      }
+      return _next != null;
+    }
+
+    public XML.E next() {
+      if (!hasNext()) {
+        throw new NoSuchElementException();
+      }
+      XML.E next = _next;
+      _next = null;
+      return next;
+    }
+
+    public void remove() {
+      throw new UnsupportedOperationException("You cannot remove elements from an ElementIterator.");
+    }
+
+    /**
+     * Stops iterating and closes the underlying input if this iterator owns it. This is called
+     * automatically when the end of the document is reached.
+     */
+    public void close() {
+      _tokenizer = null;
+      _next = null;
+      if (_closeable != null) {
+        try {
+          _closeable.close();
+        }
+        catch (IOException e) {
+          // ignore failures closing the input
+        }
+        _closeable = null;
+      }
+    }
+  }
+
+  /**
+   * <p>
+   * Symbols is a table of element and attribute names. Every name the tokenizer reads goes
+   * through a Symbols table, so a name that is repeated throughout a document is only
+   * allocated once, and elements and attributes with equal names share the same String
+   * instance (which makes name comparisons mostly identity checks).
+   * </p>
+   * 
+   * <p>
+   * Each tokenizer gets its own table by default. A table can be given a parent table
+   * (typically Symbols.shared()) to share names across parses; the parent is only consulted
+   * the first time a table sees a name. The shared table stops adding names once it holds
+   * SHARED_LIMIT of them, so documents with endless distinct names can't grow it without
+   * bound; names after that are only shared within each parse.
+   * </p>
+   * 
+   * @author mschrag
+   */
+  public static class Symbols {
+    /**
+     * The most names the global table (see shared()) holds.
+     */
+    public static final int SHARED_LIMIT = 1 << 16;
+
+    private static final XML.Symbols SHARED = new XML.Symbols(null, Symbols.SHARED_LIMIT) {
+      @Override
+      public synchronized String intern(char[] chars, int offset, int length) {
+        return super.intern(chars, offset, length);
+      }
+
+      @Override
+      public synchronized String intern(String name) {
+        return super.intern(name);
+      }
+    };
+
+    private XML.Symbols _parent;
+    private String[] _names;
+    private int[] _hashes;
+    private int _count;
+    private int _limit;
+
+    /**
+     * Constructs a new Symbols table.
+     */
+    public Symbols() {
+      this(null);
+    }
+
+    /**
+     * Constructs a new Symbols table that gets names it hasn't seen yet from the given parent.
+     * 
+     * @param parent the parent table (or null)
+     */
+    public Symbols(XML.Symbols parent) {
+      this(parent, Integer.MAX_VALUE);
+    }
+
+    private Symbols(XML.Symbols parent, int limit) {
+      _parent = parent;
+      _names = new String[64];
+      _hashes = new int[64];
+      _limit = limit;
+    }
+
+    /**
+     * Returns the global Symbols table. The global table is synchronized, so it is safe to
+     * use as the parent of the tables of many concurrent parsers. It holds at most
+     * SHARED_LIMIT names; once it is full, names it hasn't seen are returned without being
+     * added.
+     * 
+     * @return the global Symbols table
+     */
+    public static XML.Symbols shared() {
+      return Symbols.SHARED;
+    }
+
+    /**
+     * Returns the shared instance of the name in the given range of characters, without
+     * allocating a String if the name is already in this table.
+     * 
+     * @param chars the characters of the name
+     * @param offset the index of the first character of the name
+     * @param length the length of the name
+     * @return the shared instance of the name
+     */
+    public String intern(char[] chars, int offset, int length) {
+      int hash = 0;
+      for (int i = offset; i < offset + length; i++) {
+        hash = 31 * hash + chars[i];
+      }
+      int mask = _names.length - 1;
+      int index = (hash ^ (hash >>> 16)) & mask;
+      String name;
+      while ((name = _names[index]) != null) {
+        if (_hashes[index] == hash && name.length() == length) {
+          int i = 0;
+          while (i < length && name.charAt(i) == chars[offset + i]) {
+            i++;
+          }
+          if (i == length) {
+            return name;
+          }
+        }
+        index = (index + 1) & mask;
+      }
+      name = (_parent != null) ? _parent.intern(chars, offset, length) : new String(chars, offset, length);
+      if (_count < _limit) {
+        add(index, name, hash);
+      }
+      return name;
+    }
+
+    /**
+     * Returns the shared instance of the given name.
+     * 
+     * @param name the name to look up
+     * @return the shared instance of the name
+     */
+    public String intern(String name) {
+      int hash = name.hashCode();
+      int mask = _names.length - 1;
+      int index = (hash ^ (hash >>> 16)) & mask;
+      String existingName;
+      while ((existingName = _names[index]) != null) {
+        if (existingName == name || (_hashes[index] == hash && existingName.equals(name))) {
+          return existingName;
+        }
+        index = (index + 1) & mask;
+      }
+      if (_parent != null) {
+        name = _parent.intern(name);
+      }
+      if (_count < _limit) {
+        add(index, name, hash);
+      }
+      return name;
+    }
+
+    /**
+     * Returns the number of names in this table (not counting the names of its parent).
+     * 
+     * @return the number of names in this table
+     */
+    public int size() {
+      return _count;
+    }
+
+    private void add(int index, String name, int hash) {
+      _names[index] = name;
+      _hashes[index] = hash;
+      _count++;
+      if (_count * 2 > _names.length) {
+        String[] names = _names;
+        int[] hashes = _hashes;
+        _names = new String[names.length * 2];
+        _hashes = new int[names.length * 2];
+        int mask = _names.length - 1;
+        for (int i = 0; i < names.length; i++) {
+          if (names[i] != null) {
+            int newIndex = (hashes[i] ^ (hashes[i] >>> 16)) & mask;
+            while (_names[newIndex] != null) {
+              newIndex = (newIndex + 1) & mask;
+            }
+            _names[newIndex] = names[i];
+            _hashes[newIndex] = hashes[i];
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * <p>
+   * Parser holds the options XISS parses documents with: whether whitespace-only text and
+   * comments are kept, whether CDATA sections are merged into the surrounding text, whether
+   * namespace prefixes are checked, and limits on the depth, attribute count, attribute value
+   * length and text length of a document (to protect against hostile input).
+   * </p>
+   * 
+   * <p>
+   * A Parser is configured once and can then be shared between threads. Each thread reuses
+   * its own tokenizer (and its buffers) from one parse to the next, and its own W3C
+   * DocumentBuilder, so repeated parses don't pay to set those up again. The static
+   * XML.doc(..) methods use a default parser.
+   * </p>
+   * 
+   * <pre>
+   * private static final XML.Parser PARSER = XML.parser().setIgnoringWhitespace(true).setMaxDepth(64);
+   * ...
+   * XML.Doc doc = PARSER.doc(request.getReader());
+   * </pre>
+   * 
+   * @author mschrag
+   */
+  public static class Parser {
+    protected static final XML.Parser DEFAULT = new XML.Parser();
+    protected static final int MAX_REUSED_SYMBOLS = 4096;
+
+    private boolean _ignoringWhitespace;
+    private boolean _ignoringComments;
+    private boolean _coalescing;
+    private boolean _namespaceAware;
+    private boolean _lazy;
+    private int _maxDepth;
+    private int _maxAttributes;
+    private int _maxAttributeLength;
+    private int _maxTextLength;
+    private XML.Symbols _symbols;
+
+    private volatile boolean _used;
+    private final ThreadLocal<XML.Tokenizer> _tokenizers;
+    private final ThreadLocal<DocumentBuilder> _documentBuilders;
+    private DocumentBuilderFactory _documentBuilderFactory;
+
+    /**
+     * Constructs a new Parser with the default options.
+     */
+    public Parser() {
+      _maxDepth = Integer.MAX_VALUE;
+      _maxAttributes = Integer.MAX_VALUE;
+      _maxAttributeLength = Integer.MAX_VALUE;
+      _maxTextLength = Integer.MAX_VALUE;
+      _tokenizers = new ThreadLocal<XML.Tokenizer>();
+      _documentBuilders = new ThreadLocal<DocumentBuilder>();
+    }
+
+    /**
+     * Sets whether or not text that is only whitespace is left out of parsed documents.
+     * 
+     * @param ignoringWhitespace whether or not to leave out whitespace-only text
+     * @return this parser
+     */
+    public XML.Parser setIgnoringWhitespace(boolean ignoringWhitespace) {
+      checkNotUsed();
+      _ignoringWhitespace = ignoringWhitespace;
+      return this;
+    }
+
+    /**
+     * Returns whether or not text that is only whitespace is left out of parsed documents.
+     * 
+     * @return whether or not whitespace-only text is left out
+     */
+    public boolean isIgnoringWhitespace() {
+      return _ignoringWhitespace;
+    }
+
+    /**
+     * Sets whether or not comments are left out of parsed documents.
+     * 
+     * @param ignoringComments whether or not to leave out comments
+     * @return this parser
+     */
+    public XML.Parser setIgnoringComments(boolean ignoringComments) {
+      checkNotUsed();
+      _ignoringComments = ignoringComments;
+      return this;
+    }
+
+    /**
+     * Returns whether or not comments are left out of parsed documents.
+     * 
+     * @return whether or not comments are left out
+     */
+    public boolean isIgnoringComments() {
+      return _ignoringComments;
+    }
+
+    /**
+     * Sets whether or not CDATA sections are turned into text and merged with the text around
+     * them.
+     * 
+     * @param coalescing whether or not to merge CDATA sections into text
+     * @return this parser
+     */
+    public XML.Parser setCoalescing(boolean coalescing) {
+      checkNotUsed();
+      _coalescing = coalescing;
+      return this;
+    }
+
+    /**
+     * Returns whether or not CDATA sections are turned into text and merged with the text
+     * around them.
+     * 
+     * @return whether or not CDATA sections are merged into text
+     */
+    public boolean isCoalescing() {
+      return _coalescing;
+    }
+
+    /**
+     * Sets whether or not namespace prefixes are checked. When they are, a document that uses
+     * a prefix that isn't declared (or a name that isn't a valid qualified name) fails to
+     * parse. Names are kept as they are written either way.
+     * 
+     * @param namespaceAware whether or not to check namespace prefixes
+     * @return this parser
+     */
+    public XML.Parser setNamespaceAware(boolean namespaceAware) {
+      checkNotUsed();
+      _namespaceAware = namespaceAware;
+      return this;
+    }
+
+    /**
+     * Returns whether or not namespace prefixes are checked.
+     * 
+     * @return whether or not namespace prefixes are checked
+     */
+    public boolean isNamespaceAware() {
+      return _namespaceAware;
+    }
+
+    /**
+     * <p>
+     * Sets whether or not documents are parsed lazily. A lazy parse keeps the characters of
+     * the document and only builds the root element and its children up front. The content of
+     * every other element is skipped (its markup is only checked for balance) and its children
+     * are built the first time they are reached through children(), child(..), visit(..),
+     * write(..) or any other method that needs them.
+     * </p>
+     * 
+     * <p>
+     * This is much cheaper for documents that are mostly left unread, but the characters of
+     * the document are kept until the whole document is garbage, and errors in deferred
+     * content only show up (as an IllegalArgumentException) when that content is built. Unlike
+     * other documents, a lazily parsed document changes when it is read, so it must not be
+     * read from several threads at once (freeze() it first to share it).
+     * </p>
+     * 
+     * @param lazy whether or not to parse documents lazily
+     * @return this parser
+     */
+    public XML.Parser setLazy(boolean lazy) {
+      checkNotUsed();
+      _lazy = lazy;
+      return this;
+    }
+
+    /**
+     * Returns whether or not documents are parsed lazily.
+     * 
+     * @return whether or not documents are parsed lazily
+     */
+    public boolean isLazy() {
+      return _lazy;
+    }
+
+    /**
+     * Sets the deepest that elements can be nested in a parsed document.
+     * 
+     * @param maxDepth the maximum depth of elements
+     * @return this parser
+     */
+    public XML.Parser setMaxDepth(int maxDepth) {
+      checkNotUsed();
+      _maxDepth = maxDepth;
+      return this;
+    }
+
+    /**
+     * Returns the deepest that elements can be nested in a parsed document.
+     * 
+     * @return the maximum depth of elements
+     */
+    public int maxDepth() {
+      return _maxDepth;
+    }
+
+    /**
+     * Sets the most attributes an element can have in a parsed document.
+     * 
+     * @param maxAttributes the maximum number of attributes of an element
+     * @return this parser
+     */
+    public XML.Parser setMaxAttributes(int maxAttributes) {
+      checkNotUsed();
+      _maxAttributes = maxAttributes;
+      return this;
+    }
+
+    /**
+     * Returns the most attributes an element can have in a parsed document.
+     * 
+     * @return the maximum number of attributes of an element
+     */
+    public int maxAttributes() {
+      return _maxAttributes;
+    }
+
+    /**
+     * Sets the longest that an attribute value can be in a parsed document.
+     * 
+     * @param maxAttributeLength the maximum number of characters of an attribute value
+     * @return this parser
+     */
+    public XML.Parser setMaxAttributeLength(int maxAttributeLength) {
+      checkNotUsed();
+      _maxAttributeLength = maxAttributeLength;
+      return this;
+    }
+
+    /**
+     * Returns the longest that an attribute value can be in a parsed document.
+     * 
+     * @return the maximum number of characters of an attribute value
+     */
+    public int maxAttributeLength() {
+      return _maxAttributeLength;
+    }
+
+    /**
+     * Sets the longest that a text node, CDATA section or comment can be in a parsed document.
+     * 
+     * @param maxTextLength the maximum number of characters of text
+     * @return this parser
+     */
+    public XML.Parser setMaxTextLength(int maxTextLength) {
+      checkNotUsed();
+      _maxTextLength = maxTextLength;
+      return this;
+    }
+
+    /**
+     * Returns the longest that a text node, CDATA section or comment can be in a parsed
+     * document.
+     * 
+     * @return the maximum number of characters of text
+     */
+    public int maxTextLength() {
+      return _maxTextLength;
+    }
+
+    /**
+     * Sets the symbol table that the names of parsed documents are shared through (for
+     * instance Symbols.shared()). The table must be safe to use from many threads.
+     * 
+     * @param symbols the symbol table to share names through (or null)
+     * @return this parser
+     */
+    public XML.Parser setSymbols(XML.Symbols symbols) {
+      checkNotUsed();
+      _symbols = symbols;
+      return this;
+    }
+
+    /**
+     * Returns the symbol table that the names of parsed documents are shared through.
+     * 
+     * @return the shared symbol table (or null)
+     */
+    public XML.Symbols symbols() {
+      return _symbols;
+    }
+
+    /**
+     * Parses a document from the given string.
+     * 
+     * @param documentString the string to parse as XML
+     * @return a new parsed document
+     */
+    public XML.Doc doc(String documentString) {
+      XML.Operation operation = XML.Operation.start(XML.Operation.PARSE);
+      try {
+        XML.Doc doc;
+        if (documentString == null || documentString.trim().length() == 0) {
+          doc = XML.doc();
+        }
+        else if (_lazy) {
+          doc = parseLazily(documentString.toCharArray(), documentString.length());
+        }
+        else {
+          doc = parse(new StringReader(documentString));
+        }
+        XML.Operation.succeed(operation, doc, (documentString == null) ? 0 : documentString.length());
+        return doc;
+      }
+      catch (Throwable t) {
+        XML.Operation.fail(operation, t);
+        throw new IllegalArgumentException("Failed to parse a document from the provided string.", t);
+      }
+      finally {
+        XML.Operation.finish(operation);
+      }
+    }
+
+    /**
+     * Parses a document from the given reader.
+     * 
+     * @param reader the reader to parse from
+     * @return a new parsed document
+     */
+    public XML.Doc doc(Reader reader) {
+      XML.Operation operation = XML.Operation.start(XML.Operation.PARSE);
+      try {
+        XML.Doc doc = parse(reader);
+        XML.Operation.succeed(operation, doc, -1);
+        return doc;
+      }
+      catch (Throwable t) {
+        XML.Operation.fail(operation, t);
+        throw new IllegalArgumentException("Failed to parse a document from the provided reader.", t);
+      }
+      finally {
+        XML.Operation.finish(operation);
+      }
+    }
+
+    /**
+     * Parses a document from the given file.
+     * 
+     * @param file the file to parse from
+     * @return a new parsed document
+     */
+    public XML.Doc doc(File file) {
+      return doc(file.toPath());
+    }
+
+    /**
+     * Parses a document from the file at the given path. The file is read like doc(File)
+     * reads it (see Tokenizer.reader(Path)).
+     * 
+     * @param path the path of the file to parse from
+     * @return a new parsed document
+     */
+    public XML.Doc doc(java.nio.file.Path path) {
+      XML.Operation operation = XML.Operation.start(XML.Operation.PARSE);
+      try {
+        XML.Doc doc;
+        long length;
+        Reader reader = XML.Tokenizer.reader(path);
+        try {
+          length = java.nio.file.Files.size(path);
+          if (_lazy) {
+            // UTF-8 and single byte files never decode to more characters than they have bytes
+            doc = parseLazily(reader, (int) Math.min(length + 1, Integer.MAX_VALUE - 8));
+          }
+          else {
+            doc = parse(reader);
+          }
+        }
+        finally {
+          reader.close();
+        }
+        XML.Operation.succeed(operation, doc, length);
+        return doc;
+      }
+      catch (Throwable t) {
+        XML.Operation.fail(operation, t);
+        throw new IllegalArgumentException("Failed to parse a document from the provided file.", t);
+      }
+      finally {
+        XML.Operation.finish(operation);
+      }
+    }
+
+    /**
+     * Parses a tape from the given string (see XML.Tape).
+     * 
+     * @param documentString the string to parse as XML
+     * @return a new parsed tape
+     */
+    public XML.Tape tape(String documentString) {
+      try {
+        return parseTape(new StringReader(documentString));
+      }
+      catch (Throwable t) {
+        throw new IllegalArgumentException("Failed to parse a tape from the provided string.", t);
+      }
+    }
+
+    /**
+     * Parses a tape from the given reader (see XML.Tape).
+     * 
+     * @param reader the reader to parse from
+     * @return a new parsed tape
+     */
+    public XML.Tape tape(Reader reader) {
+      try {
+        return parseTape(reader);
+      }
+      catch (Throwable t) {
+        throw new IllegalArgumentException("Failed to parse a tape from the provided reader.", t);
+      }
+    }
+
+    /**
+     * Parses a tape from the given file (see XML.Tape).
+     * 
+     * @param file the file to parse from
+     * @return a new parsed tape
+     */
+    public XML.Tape tape(File file) {
+      try {
+        Reader reader = XML.Tokenizer.reader(file);
+        try {
+          return parseTape(reader);
+        }
+        finally {
+          reader.close();
+        }
+      }
+      catch (Throwable t) {
+        throw new IllegalArgumentException("Failed to parse a tape from the provided file.", t);
+      }
+    }
+
+    /**
+     * Returns a new extractor that pulls typed columns out of the records matched by the given
+     * record path, reading documents with this parser (see XML.Columns).
+     * 
+     * @param recordPath the path of the record elements
+     * @return a new column extractor
+     */
+    public XML.Columns columns(String recordPath) {
+      return new XML.Columns(this, recordPath);
+    }
+
+    /**
+     * Parses each of the given files on the given executor (see XML.Batch), with at most two
+     * parses per processor submitted to it at a time. The executor is left running.
+     * 
+     * @param files the files to parse
+     * @param executor the executor to parse on
+     * @return the batch of parses
+     */
+    public XML.Batch parseAll(Collection<File> files, Executor executor) {
+      return parseAll(files, executor, 2 * Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Parses each of the given files on the given executor (see XML.Batch), submitting at most
+     * the given number of parses to it at a time. The executor is left running.
+     * 
+     * @param files the files to parse
+     * @param executor the executor to parse on
+     * @param maxInFlight the maximum number of parses submitted to the executor at a time
+     * @return the batch of parses
+     */
+    public XML.Batch parseAll(Collection<File> files, Executor executor, int maxInFlight) {
+      return new XML.Batch(this, files, executor, maxInFlight, false);
+    }
+
+    /**
+     * Parses each of the given files on a new pool of the given number of threads (see
+     * XML.Batch). The threads stop once every file has been parsed.
+     * 
+     * @param files the files to parse
+     * @param threads the number of threads to parse with
+     * @return the batch of parses
+     */
+    public XML.Batch parseAll(Collection<File> files, int threads) {
+      ExecutorService executor = XML.Batch.executor(threads);
+      try {
+        return new XML.Batch(this, files, executor, 2 * threads, true);
+      }
+      catch (RuntimeException e) {
+        executor.shutdown();
+        throw e;
+      }
+    }
+
+    /**
+     * Returns an iterator over every element with the given name in the document read from
+     * the given reader (see XML.stream).
+     * 
+     * @param reader the reader to parse from
+     * @param elementName the name of the elements to return
+     * @return an iterator over the matching elements
+     */
+    public XML.ElementIterator stream(Reader reader, String elementName) {
+      return new XML.ElementIterator(this, tokenizer(reader), elementName, null);
+    }
+
+    /**
+     * Returns an iterator over every element with the given name in the document read from
+     * the given file (see XML.stream).
+     * 
+     * @param file the file to parse from
+     * @param elementName the name of the elements to return
+     * @return an iterator over the matching elements
+     */
+    public XML.ElementIterator stream(File file, String elementName) {
+      try {
+        Reader reader = XML.Tokenizer.reader(file);
+        return new XML.ElementIterator(this, tokenizer(reader), elementName, reader);
+      }
+      catch (Throwable t) {
+        throw new IllegalArgumentException("Failed to open the provided file.", t);
+      }
+    }
+
+    /**
+     * Returns a W3C DocumentBuilder with the options of this parser for the current thread.
+     * The builder is reused by later calls on the same thread, so it should not be kept or
+     * handed to another thread.
+     * 
+     * @return a DocumentBuilder for the current thread
+     */
+    public DocumentBuilder documentBuilder() {
+      _used = true;
+      DocumentBuilder documentBuilder = _documentBuilders.get();
+      if (documentBuilder == null) {
+        synchronized (this) {
+          if (_documentBuilderFactory == null) {
+            DocumentBuilderFactory documentBuilderFactory = DocumentBuilderFactory.newInstance();
+            documentBuilderFactory.setNamespaceAware(_namespaceAware);
+            documentBuilderFactory.setCoalescing(_coalescing);
+            documentBuilderFactory.setIgnoringComments(_ignoringComments);
+            _documentBuilderFactory = documentBuilderFactory;
+          }
+          try {
+            documentBuilder = _documentBuilderFactory.newDocumentBuilder();
+          }
+          catch (ParserConfigurationException e) {
+            throw new IllegalStateException("Failed to create a DocumentBuilder.", e);
+          }
+        }
+        _documentBuilders.set(documentBuilder);
+      }
+      else {
+        documentBuilder.reset();
+      }
+      return documentBuilder;
+    }
+
+    /**
+     * Builds an XML.Doc from the remaining events of the given tokenizer. Comments outside of
+     * the root element are not kept.
+     * 
+     * @param tokenizer the tokenizer to read from
+     * @return the parsed document
+     * @throws IOException if the input cannot be read
+     * @throws SAXException if the input is not well-formed
+     */
+    protected XML.Doc doc(XML.Tokenizer tokenizer) throws IOException, SAXException {
+      XML.Doc doc = XML.doc();
+      int event;
+      while ((event = tokenizer.next()) != XML.Tokenizer.END_DOCUMENT) {
+        if (event == XML.Tokenizer.START_ELEMENT) {
+          doc.setRoot(e(tokenizer));
+        }
+      }
+      return doc;
+    }
+
+    /**
+     * Builds an XML.E from the current START_ELEMENT of the given tokenizer, consuming events
+     * up to and including its matching END_ELEMENT.
+     * 
+     * @param tokenizer the tokenizer to read from
+     * @return the parsed element
+     * @throws IOException if the input cannot be read
+     * @throws SAXException if the input is not well-formed
+     */
+    protected XML.E e(XML.Tokenizer tokenizer) throws IOException, SAXException {
+      return e(tokenizer.element(), tokenizer, null);
+    }
+
+    /**
+     * Adds the content of the given element from the given tokenizer, consuming events up to
+     * and including its END_ELEMENT. When a lazy source is given, only the direct children of
+     * the element are built, and the content of each child element is skipped and deferred.
+     * 
+     * @param root the element whose START_ELEMENT was just read
+     * @param tokenizer the tokenizer to read from
+     * @param source the source of a lazily parsed document, or null to build every descendent
+     * @return the element
+     * @throws IOException if the input cannot be read
+     * @throws SAXException if the input is not well-formed
+     */
+    protected XML.E e(XML.E root, XML.Tokenizer tokenizer, XML.Deferred.Source source) throws IOException, SAXException {
+      XML.E current = root;
+      StringBuilder coalesced = null;
+      while (current != null) {
+        int event = tokenizer.next();
+        if (event == XML.Tokenizer.COMMENT && _ignoringComments) {
+          continue;
+        }
+        if (_coalescing) {
+          if (event == XML.Tokenizer.TEXT || event == XML.Tokenizer.CDATA) {
+            if (coalesced == null) {
+              coalesced = new StringBuilder();
+            }
+            coalesced.append(tokenizer.textChars(), 0, tokenizer.textLength());
+            continue;
+          }
+          if (coalesced != null && coalesced.length() > 0) {
+            String text = coalesced.toString();
+            if (!_ignoringWhitespace || text.trim().length() > 0) {
+              current.text(text);
+            }
+            coalesced.setLength(0);
+          }
+        }
+        switch (event) {
+        case XML.Tokenizer.START_ELEMENT:
+          if (source == null) {
+            current = current.add(tokenizer.element());
+          }
+          else {
+            XML.E child = current.add(tokenizer.element());
+            int start = tokenizer.position();
+            tokenizer.skipContent();
+            boolean empty = (tokenizer.position() == start);
+            tokenizer.next();
+            if (!empty) {
+              child.defer(new XML.Deferred(source, start, tokenizer.position()));
+            }
+          }
+          break;
+        case XML.Tokenizer.END_ELEMENT:
+          current = (current == root) ? null : (XML.E) current.parent();
+          break;
+        case XML.Tokenizer.TEXT:
+          if (!_ignoringWhitespace || !isWhitespace(tokenizer.textChars(), tokenizer.textLength())) {
+            current.text(tokenizer.text());
+          }
+          break;
+        case XML.Tokenizer.CDATA:
+          current.cdata(tokenizer.text());
+          break;
+        case XML.Tokenizer.COMMENT:
+          current.comment(tokenizer.text());
+          break;
+        default:
+          throw tokenizer.error("Premature end of file.");
+        }
+      }
+      return root;
+    }
+
+    /**
+     * Builds an XML.Tape from the remaining events of the given tokenizer, applying the same
+     * options as doc(..). Comments outside of the root element are not kept. Tapes are never
+     * parsed lazily.
+     * 
+     * @param tokenizer the tokenizer to read from
+     * @return the parsed tape
+     * @throws IOException if the input cannot be read
+     * @throws SAXException if the input is not well-formed
+     */
+    protected XML.Tape tape(XML.Tokenizer tokenizer) throws IOException, SAXException {
+      XML.Tape tape = new XML.Tape();
+      StringBuilder coalesced = null;
+      int event;
+      while ((event = tokenizer.next()) != XML.Tokenizer.END_DOCUMENT) {
+        if (tokenizer.depth() == 0 && event != XML.Tokenizer.END_ELEMENT) {
+          continue;
+        }
+        if (event == XML.Tokenizer.COMMENT && _ignoringComments) {
+          continue;
+        }
+        if (_coalescing) {
+          if (event == XML.Tokenizer.TEXT || event == XML.Tokenizer.CDATA) {
+            if (coalesced == null) {
+              coalesced = new StringBuilder();
+            }
+            coalesced.append(tokenizer.textChars(), 0, tokenizer.textLength());
+            continue;
+          }
+          if (coalesced != null && coalesced.length() > 0) {
+            String text = coalesced.toString();
+            if (!_ignoringWhitespace || text.trim().length() > 0) {
+              tape.content(XML.Tape.TEXT, text.toCharArray(), text.length());
+            }
+            coalesced.setLength(0);
+          }
+        }
+        switch (event) {
+        case XML.Tokenizer.START_ELEMENT:
+          tape.start(tokenizer);
+          break;
+        case XML.Tokenizer.END_ELEMENT:
+          tape.end();
+          break;
+        case XML.Tokenizer.TEXT:
+          if (!_ignoringWhitespace || !isWhitespace(tokenizer.textChars(), tokenizer.textLength())) {
+            tape.content(XML.Tape.TEXT, tokenizer.textChars(), tokenizer.textLength());
+          }
+          break;
+        case XML.Tokenizer.CDATA:
+          tape.content(XML.Tape.CDATA, tokenizer.textChars(), tokenizer.textLength());
+          break;
+        case XML.Tokenizer.COMMENT:
+          tape.content(XML.Tape.COMMENT, tokenizer.textChars(), tokenizer.textLength());
+          break;
+        default:
+          throw tokenizer.error("Premature end of file.");
+        }
+      }
+      tape.trim();
+      return tape;
+    }
+
+    private XML.Doc parse(Reader reader) throws IOException, SAXException {
+      if (_lazy) {
+        return parseLazily(reader, 8192);
+      }
+      XML.Tokenizer tokenizer = takeTokenizer(reader);
+      try {
+        return doc(tokenizer);
+      }
+      finally {
+        releaseTokenizer(tokenizer);
+      }
+    }
+
+    private XML.Tape parseTape(Reader reader) throws IOException, SAXException {
+      XML.Tokenizer tokenizer = takeTokenizer(reader);
+      try {
+        return tape(tokenizer);
+      }
+      finally {
+        releaseTokenizer(tokenizer);
+      }
+    }
+
+    private XML.Tokenizer takeTokenizer(Reader reader) {
+      XML.Tokenizer tokenizer = _tokenizers.get();
+      if (tokenizer == null || tokenizer.symbols().size() > Parser.MAX_REUSED_SYMBOLS) {
+        tokenizer = tokenizer(reader);
+      }
+      else {
+        // take the tokenizer while it's in use, in case the reader parses on this thread too
+        _tokenizers.set(null);
+        tokenizer.reset(reader);
+      }
+      return tokenizer;
+    }
+
+    private void releaseTokenizer(XML.Tokenizer tokenizer) {
+      tokenizer.reset(null);
+      _tokenizers.set(tokenizer);
+    }
+
+    private XML.Doc parseLazily(Reader reader, int capacity) throws IOException, SAXException {
+      char[] chars = new char[Math.max(capacity, 16)];
+      int length = 0;
+      int count;
+      while ((count = reader.read(chars, length, chars.length - length)) != -1) {
+        length += count;
+        if (length == chars.length) {
+          chars = Arrays.copyOf(chars, length * 2);
+        }
+      }
+      return parseLazily(chars, length);
+    }
+
+    private XML.Doc parseLazily(char[] chars, int length) throws IOException, SAXException {
+      // a lazy document keeps its own tokenizer (and symbol table) to build deferred content with
+      XML.Tokenizer tokenizer = tokenizer(null);
+      tokenizer.reset(chars, 0, length);
+      XML.Deferred.Source source = new XML.Deferred.Source(chars, this, tokenizer);
+      XML.Doc doc = XML.doc();
+      int event;
+      while ((event = tokenizer.next()) != XML.Tokenizer.END_DOCUMENT) {
+        if (event == XML.Tokenizer.START_ELEMENT) {
+          doc.setRoot(e(tokenizer.element(), tokenizer, source));
+        }
+      }
+      return doc;
+    }
+
+    private XML.Tokenizer tokenizer(Reader reader) {
+      _used = true;
+      XML.Tokenizer tokenizer = new XML.Tokenizer(reader, new XML.Symbols(_symbols));
+      tokenizer.configure(this);
+      return tokenizer;
+    }
+
+    private void checkNotUsed() {
+      if (_used) {
+        throw new IllegalStateException("You cannot change the options of a parser after it has been used.");
+      }
+    }
+
+    private static boolean isWhitespace(char[] chars, int length) {
+      for (int i = 0; i < length; i++) {
+        char c = chars[i];
+        if (c != ' ' && c != '\t' && c != '\n' && c != '\r') {
+          return false;
+        }
+      }
+      return true;
+    }
+  }
+
+  /**
+   * <p>
+   * Utf8Reader decodes UTF-8 straight out of a ByteBuffer (typically a mapped file) into the
+   * characters it is asked for. It doesn't go through a CharsetDecoder or any intermediate
+   * buffer, and runs of ASCII (most of the markup of a typical document) are copied a byte at
+   * a time. A byte order mark at the start of the buffer is skipped, and malformed input
+   * fails with a MalformedInputException.
+   * </p>
+   * 
+   * @author mschrag
+   */
+  public static class Utf8Reader extends Reader {
+    private ByteBuffer _bytes;
+    private char _pending;
+
+    /**
+     * Constructs a new Utf8Reader.
+     * 
+     * @param bytes the UTF-8 bytes to read, from their position to their limit
+     */
+    public Utf8Reader(ByteBuffer bytes) {
+      _bytes = bytes;
+      int position = bytes.position();
+      if (bytes.remaining() >= 3 && (bytes.get(position) & 0xFF) == 0xEF && (bytes.get(position + 1) & 0xFF) == 0xBB && (bytes.get(position + 2) & 0xFF) == 0xBF) {
+        bytes.position(position + 3);
+      }
+    }
+
+    @Override
+    public int read(char[] chars, int offset, int length) throws IOException {
+      if (_bytes == null) {
+        throw new IOException("This reader is closed.");
+      }
+      if (length == 0) {
+        return 0;
+      }
+      int end = offset + length;
+      int count = offset;
+      if (_pending != 0 && count < end) {
+        chars[count++] = _pending;
+        _pending = 0;
+      }
+      ByteBuffer bytes = _bytes;
+      int position = bytes.position();
+      int limit = bytes.limit();
+      while (count < end && position < limit) {
+        int b = bytes.get(position);
+        if (b >= 0) {
+          chars[count++] = (char) b;
+          position++;
+          continue;
+        }
+        int size;
+        int codePoint;
+        if ((b & 0xE0) == 0xC0) {
+          size = 2;
+          codePoint = b & 0x1F;
+        }
+        else if ((b & 0xF0) == 0xE0) {
+          size = 3;
+          codePoint = b & 0x0F;
+        }
+        else if ((b & 0xF8) == 0xF0) {
+          size = 4;
+          codePoint = b & 0x07;
+        }
+        else {
+          throw new MalformedInputException(1);
+        }
+        if (position + size > limit) {
+          throw new MalformedInputException(limit - position);
+        }
+        for (int i = 1; i < size; i++) {
+          int continuation = bytes.get(position + i);
+          if ((continuation & 0xC0) != 0x80) {
+            throw new MalformedInputException(i);
+          }
+          codePoint = (codePoint << 6) | (continuation & 0x3F);
+        }
+        if ((size == 2 && codePoint < 0x80) || (size == 3 && (codePoint < 0x800 || (codePoint >= 0xD800 && codePoint <= 0xDFFF))) || (size == 4 && (codePoint < 0x10000 || codePoint > 0x10FFFF))) {
+          throw new MalformedInputException(size);
+        }
+        position += size;
+        if (size == 4) {
+          codePoint -= 0x10000;
+          chars[count++] = (char) (0xD800 + (codePoint >>> 10));
+          char low = (char) (0xDC00 + (codePoint & 0x3FF));
+          if (count < end) {
+            chars[count++] = low;
+          }
+          else {
+            _pending = low;
+          }
+        }
+        else {
+          chars[count++] = (char) codePoint;
+        }
+      }
+      bytes.position(position);
+      return (count == offset) ? -1 : count - offset;
+    }
+
+    @Override
+    public void close() {
+      _bytes = null;
+    }
+  }
+
+  /**
+   * <p>
+   * Tokenizer is a pull tokenizer that reads XML markup straight from characters and hands
+   * back one event at a time. XISS uses it to build XML.E trees directly while it reads, so
+   * a parsed document is never materialized as a W3C DOM first.
+   * </p>
+   *
+   * <p>
+   * Tokenizer handles elements, attributes, text, CDATA sections, comments, the predefined
+   * entities and character references. The XML declaration, processing instructions and the
+   * DOCTYPE are skipped (entities declared in an internal DTD subset are not supported).
+   * </p>
+   *
+   * @author mschrag
+   */
+  protected static class Tokenizer {
+    public static final int END_DOCUMENT = 0;
+    public static final int START_ELEMENT = 1;
+    public static final int END_ELEMENT = 2;
+    public static final int TEXT = 3;
+    public static final int CDATA = 4;
+    public static final int COMMENT = 5;
+
+    /**
+     * Files at least this big are mapped instead of read into memory by reader(File).
+     */
+    protected static final int MAP_THRESHOLD = 1024 * 1024;
+
+    private Reader _reader;
+    private char[] _buffer;
+    private boolean _retained;
+    private int _position;
+    private int _limit;
+    private int _line;
+    private int _column;
+
+    private XML.Symbols _symbols;
+    private String _name;
+    private char[] _nameChars;
+    private char[] _text;
+    private int _textLength;
+
+    private int _attributeCount;
+    private String[] _attributeNames;
+    private int[] _attributeEnds;
+    private char[] _attributeChars;
+
+    private String[] _elements;
+    private int _depth;
+    private int _baseDepth;
+    private boolean _emptyElement;
+    private boolean _rootSeen;
+
+    private int _maxDepth;
+    private int _maxAttributes;
+    private int _maxAttributeLength;
+    private int _maxTextLength;
+    private boolean _namespaceAware;
+    private String[] _prefixes;
+    private int _prefixCount;
+    private int[] _prefixCounts;
+
+    /**
+     * Constructs a new Tokenizer with its own symbol table.
+     *
+     * @param reader the reader to tokenize
+     */
+    public Tokenizer(Reader reader) {
+      this(reader, new XML.Symbols());
+    }
+
+    /**
+     * Constructs a new Tokenizer.
+     *
+     * @param reader the reader to tokenize
+     * @param symbols the symbol table to intern element and attribute names with
+     */
+    public Tokenizer(Reader reader, XML.Symbols symbols) {
+      _reader = reader;
+      _symbols = symbols;
+      _buffer = new char[8192];
+      _nameChars = new char[32];
+      _text = new char[256];
+      _attributeNames = new String[8];
+      _attributeEnds = new int[8];
+      _attributeChars = new char[256];
+      _elements = new String[16];
+      _maxDepth = Integer.MAX_VALUE;
+      _maxAttributes = Integer.MAX_VALUE;
+      _maxAttributeLength = Integer.MAX_VALUE;
+      _maxTextLength = Integer.MAX_VALUE;
+    }
+
+    /**
+     * Applies the limits and the namespace checking of the given parser to this tokenizer.
+     *
+     * @param parser the parser to configure this tokenizer from
+     */
+    protected void configure(XML.Parser parser) {
+      _maxDepth = parser.maxDepth();
+      _maxAttributes = parser.maxAttributes();
+      _maxAttributeLength = parser.maxAttributeLength();
+      _maxTextLength = parser.maxTextLength();
+      _namespaceAware = parser.isNamespaceAware();
+      if (_namespaceAware && _prefixes == null) {
+        _prefixes = new String[8];
+        _prefixCounts = new int[16];
+      }
+    }
+
+    /**
+     * Resets this tokenizer to read a new document from the given reader. The buffers and the
+     * symbol table of this tokenizer are kept (unless a large document made the buffers grow).
+     *
+     * @param reader the reader to tokenize (or null to just release the current reader)
+     */
+    protected void reset(Reader reader) {
+      if (_retained && reader != null) {
+        _buffer = new char[8192];
+        _retained = false;
+      }
+      _reader = reader;
+      _position = 0;
+      _limit = 0;
+      _line = 0;
+      _column = 0;
+      _name = null;
+      _textLength = 0;
+      _attributeCount = 0;
+      _depth = 0;
+      _baseDepth = 0;
+      _emptyElement = false;
+      _rootSeen = false;
+      _prefixCount = 0;
+      if (_text.length > 65536) {
+        _text = new char[256];
+      }
+      if (_attributeChars.length > 65536) {
+        _attributeChars = new char[256];
+      }
+      if (_elements.length > 1024) {
+        _elements = new String[16];
+      }
+      Arrays.fill(_elements, null);
+      Arrays.fill(_attributeNames, null);
+    }
+
+    /**
+     * Resets this tokenizer to read the given range of characters. The characters are used as
+     * the buffer of this tokenizer (they are not copied), so positions are offsets into them
+     * and content can be skipped with skipContent() and tokenized again later.
+     *
+     * @param chars the characters to tokenize
+     * @param start the offset of the first character to tokenize
+     * @param end the offset after the last character to tokenize
+     */
+    protected void reset(char[] chars, int start, int end) {
+      reset((Reader) null);
+      _buffer = chars;
+      _retained = true;
+      _position = start;
+      _limit = end;
+    }
+
+    /**
+     * Resets this tokenizer to read the content and the end tag of the given element from a
+     * range of characters that was skipped with skipContent(). The tokenizer picks up as if it
+     * had just read the start tag of the element: the depth limit counts the ancestors of the
+     * element, and the namespace prefixes they declare are in scope.
+     *
+     * @param chars the characters the element was read from
+     * @param start the offset of the content of the element
+     * @param end the offset after the end tag of the element
+     * @param e the element to read the content of
+     */
+    protected void resume(char[] chars, int start, int end, XML.E e) {
+      reset(chars, start, end);
+      _elements[0] = e.name();
+      _depth = 1;
+      _rootSeen = true;
+      for (XML.Item parent = e.parent(); parent instanceof XML.E; parent = parent.parent()) {
+        _baseDepth++;
+      }
+      if (_namespaceAware) {
+        _prefixCounts[0] = 0;
+        for (XML.Item item = e; item instanceof XML.E; item = item.parent()) {
+          List<XML.Attr> attributes = ((XML.E) item).attributes();
+          if (attributes != null) {
+            for (XML.Attr attribute : attributes) {
+              if (attribute.name().startsWith("xmlns:")) {
+                if (_prefixCount == _prefixes.length) {
+                  _prefixes = Arrays.copyOf(_prefixes, _prefixCount * 2);
+                }
+                _prefixes[_prefixCount++] = attribute.name().substring(6);
+              }
+            }
+          }
+        }
+      }
+    }
+
+    /**
+     * Returns a reader for the given stream, detecting the encoding from the byte order mark
+     * or the encoding of the XML declaration (defaulting to UTF-8).
+     *
+     * @param stream the stream to read
+     * @return a reader for the given stream
+     * @throws IOException if the stream cannot be read
+     */
+    public static Reader reader(InputStream stream) throws IOException {
+      BufferedInputStream in = new BufferedInputStream(stream, 8192);
+      in.mark(1024);
+      byte[] prolog = new byte[1024];
+      int length = 0;
+      int count;
+      while (length < prolog.length && (count = in.read(prolog, length, prolog.length - length)) > 0) {
+        length += count;
+      }
+      in.reset();
+      String encoding = Tokenizer.encoding(prolog, length);
+      if (length >= 3 && (prolog[0] & 0xFF) == 0xEF && (prolog[1] & 0xFF) == 0xBB && (prolog[2] & 0xFF) == 0xBF) {
+        in.skip(3);
+      }
+      return new InputStreamReader(in, encoding);
+    }
+
+    /**
+     * Returns a reader for the given file, detecting its encoding like reader(InputStream).
+     * UTF-8 (and ASCII) files are read into memory, or mapped if they are large, and decoded
+     * straight into the buffer of the tokenizer, so no stream, byte buffer or decoder is
+     * involved. Files in other encodings are read through an InputStreamReader.
+     *
+     * @param file the file to read
+     * @return a reader for the given file
+     * @throws IOException if the file cannot be read
+     */
+    public static Reader reader(File file) throws IOException {
+      return Tokenizer.reader(file.toPath());
+    }
+
+    /**
+     * Returns a reader for the file at the given path, like reader(File).
+     *
+     * @param path the path of the file to read
+     * @return a reader for the file
+     * @throws IOException if the file cannot be read
+     */
+    public static Reader reader(java.nio.file.Path path) throws IOException {
+      FileChannel channel = FileChannel.open(path);
+      try {
+        long size = channel.size();
+        if (size <= Integer.MAX_VALUE) {
+          ByteBuffer bytes;
+          if (size >= Tokenizer.MAP_THRESHOLD) {
+            bytes = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+          }
+          else {
+            bytes = ByteBuffer.allocate((int) size);
+            while (bytes.hasRemaining() && channel.read(bytes) >= 0) {
+              // keep reading
+            }
+            bytes.flip();
+          }
+          byte[] prolog = new byte[Math.min(1024, bytes.remaining())];
+          bytes.duplicate().get(prolog);
+          String encoding = Tokenizer.encoding(prolog, prolog.length);
+          if (encoding.equalsIgnoreCase("UTF-8") || encoding.equalsIgnoreCase("UTF8") || encoding.equalsIgnoreCase("US-ASCII")) {
+            return new XML.Utf8Reader(bytes);
+          }
+          if (bytes.hasArray()) {
+            return Tokenizer.reader(new ByteArrayInputStream(bytes.array(), 0, bytes.limit()));
+          }
+        }
+        Reader reader = Tokenizer.reader(Channels.newInputStream(channel));
+        channel = null;
+        return reader;
+      }
+      finally {
+        if (channel != null) {
+          channel.close();
+        }
+      }
+    }
+
+    /**
+     * Returns the encoding of a document from its first bytes, using the byte order mark or
+     * the encoding of the XML declaration (defaulting to UTF-8).
+     */
+    private static String encoding(byte[] prolog, int length) throws IOException {
+      String encoding = "UTF-8";
+      if (length >= 2 && (prolog[0] & 0xFF) == 0xFE && (prolog[1] & 0xFF) == 0xFF) {
+        encoding = "UTF-16";
+      }
+      else if (length >= 2 && (prolog[0] & 0xFF) == 0xFF && (prolog[1] & 0xFF) == 0xFE) {
+        encoding = "UTF-16";
+      }
+      else if (length >= 4 && prolog[0] == 0 && prolog[1] == '<' && prolog[2] == 0 && prolog[3] == '?') {
+        encoding = "UTF-16BE";
+      }
+      else if (length >= 4 && prolog[0] == '<' && prolog[1] == 0 && prolog[2] == '?' && prolog[3] == 0) {
+        encoding = "UTF-16LE";
+      }
+      else if (length >= 5 && prolog[0] == '<' && prolog[1] == '?' && prolog[2] == 'x' && prolog[3] == 'm' && prolog[4] == 'l') {
+        String declaration = new String(prolog, 0, length, "ISO-8859-1");
+        int end = declaration.indexOf("?>");
+        if (end != -1) {
+          declaration = declaration.substring(0, end);
+          int encodingIndex = declaration.indexOf("encoding");
+          if (encodingIndex != -1) {
+            int equalsIndex = declaration.indexOf('=', encodingIndex);
+            if (equalsIndex != -1) {
+              String value = declaration.substring(equalsIndex + 1).trim();
+              if (value.length() > 1) {
+                int valueEnd = value.indexOf(value.charAt(0), 1);
+                if (valueEnd != -1) {
+                  encoding = value.substring(1, valueEnd);
+                }
+              }
+            }
+          }
+        }
+      }
+      return encoding;
+    }
+
+    /**
+     * Reads the next event from the input.
+     *
+     * @return the type of the next event (START_ELEMENT, END_ELEMENT, TEXT, CDATA, COMMENT or END_DOCUMENT)
+     * @throws IOException if the input cannot be read
+     * @throws SAXException if the input is not well-formed
+     */
+    public int next() throws IOException, SAXException {
+      if (_emptyElement) {
+        _emptyElement = false;
+        _depth--;
+        if (_namespaceAware) {
+          _prefixCount = _prefixCounts[_depth];
+        }
+        return Tokenizer.END_ELEMENT;
+      }
+      while (true) {
+        int c = peek();
+        if (c == -1) {
+          if (_depth > 0) {
+            throw error("The element type \"" + _elements[_depth - 1] + "\" must be terminated by the matching end-tag \"</" + _elements[_depth - 1] + ">\".");
+          }
+          if (!_rootSeen) {
+            throw error("Premature end of file.");
+          }
+          return Tokenizer.END_DOCUMENT;
+        }
+        if (c == '<') {
+          _position++;
+          c = read();
+          if (c == '/') {
+            readEndTag();
+            return Tokenizer.END_ELEMENT;
+          }
+          else if (c == '!') {
+            c = read();
+            if (c == '-') {
+              expect('-');
+              readComment();
+              checkTextLength();
+              return Tokenizer.COMMENT;
+            }
+            else if (c == '[' && _depth > 0) {
+              expect("CDATA[");
+              readCData();
+              checkTextLength();
+              return Tokenizer.CDATA;
+            }
+            else if (c == 'D' && !_rootSeen) {
+              expect("OCTYPE");
+              skipDoctype();
+            }
+            else {
+              throw error("The markup in the document is not well-formed.");
+            }
+          }
+          else if (c == '?') {
+            skipProcessingInstruction();
+          }
+          else {
+            if (c != -1) {
+              _position--;
+            }
+            readStartTag();
+            return Tokenizer.START_ELEMENT;
+          }
+        }
+        else if (_depth == 0) {
+          if (!isWhitespace(c)) {
+            throw error("Content is not allowed outside of the root element.");
+          }
+          _position++;
+        }
+        else {
+          readText();
+          checkTextLength();
+          return Tokenizer.TEXT;
+        }
+      }
+    }
+
+    /**
+     * Returns the symbol table this tokenizer interns names with.
+     *
+     * @return the symbol table of this tokenizer
+     */
+    public XML.Symbols symbols() {
+      return _symbols;
+    }
+
+    /**
+     * Returns the name of the current START_ELEMENT or END_ELEMENT.
+     *
+     * @return the name of the current element
+     */
+    public String name() {
+      return _name;
+    }
+
+    /**
+     * Returns the current depth of the tokenizer (1 inside the root element).
+     *
+     * @return the current depth of the tokenizer
+     */
+    public int depth() {
+      return _depth;
+    }
+
+    /**
+     * Returns the offset of the next character this tokenizer will read in its buffer. After
+     * reset(char[], int, int) this is an offset into the characters being tokenized.
+     *
+     * @return the position of this tokenizer in its buffer
+     */
+    protected int position() {
+      return _position;
+    }
+
+    /**
+     * Skips the content of the current START_ELEMENT without tokenizing it, leaving this
+     * tokenizer in front of the end tag of the element (so the next event is its END_ELEMENT).
+     * The skipped markup is only checked for balance, so it is not known to be well-formed
+     * until it is tokenized. This only works on characters passed to reset(char[], int, int).
+     *
+     * @throws SAXException if the element is not terminated
+     */
+    protected void skipContent() throws SAXException {
+      if (!_retained) {
+        throw new IllegalStateException("Content can only be skipped in retained characters.");
+      }
+      if (_emptyElement) {
+        return;
+      }
+      char[] buffer = _buffer;
+      int limit = _limit;
+      int i = _position;
+      int depth = 0;
+      while (i != -1) {
+        while (i < limit && buffer[i] != '<') {
+          i++;
+        }
+        if (i + 1 >= limit) {
+          break;
+        }
+        char c = buffer[i + 1];
+        if (c == '/') {
+          if (depth == 0) {
+            _position = i;
+            return;
+          }
+          depth--;
+          i = skipPast(buffer, i + 2, limit, ">");
+        }
+        else if (c == '!') {
+          i = skipPast(buffer, i + 2, limit, (i + 2 < limit && buffer[i + 2] == '-') ? "-->" : "]]>");
+        }
+        else if (c == '?') {
+          i = skipPast(buffer, i + 2, limit, "?>");
+        }
+        else {
+          char quote = 0;
+          for (i++; i < limit && (quote != 0 || buffer[i] != '>'); i++) {
+            c = buffer[i];
+            if (quote != 0) {
+              if (c == quote) {
+                quote = 0;
+              }
+            }
+            else if (c == '"' || c == '\'') {
+              quote = c;
+            }
+          }
+          if (i == limit) {
+            break;
+          }
+          if (buffer[i - 1] != '/') {
+            depth++;
+          }
+          i++;
+        }
+      }
+      _position = limit;
+      throw error("The element type \"" + _elements[_depth - 1] + "\" must be terminated by the matching end-tag \"</" + _elements[_depth - 1] + ">\".");
+    }
+
+    private static int skipPast(char[] buffer, int offset, int limit, String terminator) {
+      int length = terminator.length();
+      for (int i = offset; i <= limit - length; i++) {
+        int matched = 0;
+        while (matched < length && buffer[i + matched] == terminator.charAt(matched)) {
+          matched++;
+        }
+        if (matched == length) {
+          return i + length;
+        }
+      }
+      return -1;
+    }
+
+    /**
+     * Returns the text of the current TEXT, CDATA or COMMENT.
+     *
+     * @return the text of the current event
+     */
+    public String text() {
+      return new String(_text, 0, _textLength);
+    }
+
+    /**
+     * Returns the buffer holding the characters of the current TEXT, CDATA or COMMENT. The
+     * buffer is reused, so it is only valid until the next call to next().
+     *
+     * @return the buffer holding the text of the current event
+     */
+    public char[] textChars() {
+      return _text;
+    }
+
+    /**
+     * Returns the number of characters of the current TEXT, CDATA or COMMENT.
+     *
+     * @return the number of characters of the current event
+     */
+    public int textLength() {
+      return _textLength;
+    }
+
+    /**
+     * Returns the number of attributes of the current START_ELEMENT.
+     *
+     * @return the number of attributes of the current element
+     */
+    public int attributeCount() {
+      return _attributeCount;
+    }
+
+    /**
+     * Returns the name of the attribute at the given index of the current START_ELEMENT.
+     *
+     * @param index the index of the attribute
+     * @return the name of the attribute
+     */
+    public String attributeName(int index) {
+      return _attributeNames[index];
+    }
+
+    /**
+     * Returns the value of the attribute at the given index of the current START_ELEMENT.
+     *
+     * @param index the index of the attribute
+     * @return the value of the attribute
+     */
+    public String attributeValue(int index) {
+      int start = (index == 0) ? 0 : _attributeEnds[index - 1];
+      return new String(_attributeChars, start, _attributeEnds[index] - start);
+    }
+
+    /**
+     * Builds an XML.Doc from the remaining events of the input.
+     *
+     * @return the parsed document
+     * @throws IOException if the input cannot be read
+     * @throws SAXException if the input is not well-formed
+     */
+    public XML.Doc doc() throws IOException, SAXException {
+      return XML.Parser.DEFAULT.doc(this);
+    }
+
+    /**
+     * Builds an XML.E from the current START_ELEMENT, consuming events up to and including
+     * its matching END_ELEMENT.
+     *
+     * @return the parsed element
+     * @throws IOException if the input cannot be read
+     * @throws SAXException if the input is not well-formed
+     */
+    public XML.E e() throws IOException, SAXException {
+      return XML.Parser.DEFAULT.e(this);
+    }
+
+    /**
+     * Creates an element (without children) for the current START_ELEMENT.
+     *
+     * @return a new element
+     */
+    protected XML.E element() {
+      XML.E e = XML.e(_name);
+      e.ensureCapacity(_attributeCount, 0);
+      for (int i = 0; i < _attributeCount; i++) {
+        e.add(new XML.Attr(_attributeNames[i], attributeValue(i)));
+      }
+      return e;
+    }
+
+    private void readStartTag() throws IOException, SAXException {
+      if (_depth == 0 && _rootSeen) {
+        throw error("The markup in the document following the root element must be well-formed.");
+      }
+      _name = readName();
+      _attributeCount = 0;
+      while (true) {
+        boolean whitespace = skipWhitespace();
+        int c = read();
+        if (c == '>') {
+          break;
+        }
+        else if (c == '/') {
+          expect('>');
+          _emptyElement = true;
+          break;
+        }
+        else if (c == -1) {
+          throw error("XML document structures must start and end within the same entity.");
+        }
+        else if (!whitespace) {
+          throw error("Element type \"" + _name + "\" must be followed by either attribute specifications, \">\" or \"/>\".");
+        }
+        _position--;
+        readAttribute();
+      }
+      if (_baseDepth + _depth >= _maxDepth) {
+        throw error("The element \"" + _name + "\" is nested deeper than the limit of " + _maxDepth + " elements.");
+      }
+      if (_namespaceAware) {
+        checkNamespaces();
+      }
+      if (_depth == _elements.length) {
+        String[] elements = new String[_depth * 2];
+        System.arraycopy(_elements, 0, elements, 0, _depth);
+        _elements = elements;
+      }
+      _elements[_depth++] = _name;
+      _rootSeen = true;
+    }
+
+    private void readAttribute() throws IOException, SAXException {
+      if (_attributeCount >= _maxAttributes) {
+        throw error("Element type \"" + _name + "\" has more than the limit of " + _maxAttributes + " attributes.");
+      }
+      String name = readName();
+      for (int i = 0; i < _attributeCount; i++) {
+        if (_attributeNames[i] == name) {
+          throw error("Attribute \"" + name + "\" was already specified for element \"" + _name + "\".");
+        }
+      }
+      skipWhitespace();
+      expect('=');
+      skipWhitespace();
+      int quote = read();
+      if (quote != '"' && quote != '\'') {
+        throw error("Open quote is expected for attribute \"" + name + "\" associated with an element type \"" + _name + "\".");
+      }
+      if (_attributeCount == _attributeNames.length) {
+        String[] attributeNames = new String[_attributeCount * 2];
+        System.arraycopy(_attributeNames, 0, attributeNames, 0, _attributeCount);
+        _attributeNames = attributeNames;
+        int[] attributeEnds = new int[_attributeCount * 2];
+        System.arraycopy(_attributeEnds, 0, attributeEnds, 0, _attributeCount);
+        _attributeEnds = attributeEnds;
+      }
+      int start = (_attributeCount == 0) ? 0 : _attributeEnds[_attributeCount - 1];
+      int length = start;
+      while (true) {
+        int c = read();
+        if (c == quote) {
+          break;
+        }
+        else if (c == -1) {
+          throw error("XML document structures must start and end within the same entity.");
+        }
+        else if (c == '<') {
+          throw error("The value of attribute \"" + name + "\" must not contain the '<' character.");
+        }
+        else if (c == '&') {
+          int codePoint = readReference();
+          char[] chars = Character.toChars(codePoint);
+          if (chars.length == 2) {
+            length = appendAttributeChar(chars[0], length);
+          }
+          c = chars[chars.length - 1];
+        }
+        else if (c == '\r') {
+          if (peek() == '\n') {
+            _position++;
+          }
+          c = ' ';
+        }
+        else if (c == '\n' || c == '\t') {
+          c = ' ';
+        }
+        length = appendAttributeChar((char) c, length);
+        if (length - start > _maxAttributeLength) {
+          throw error("The value of attribute \"" + name + "\" is longer than the limit of " + _maxAttributeLength + " characters.");
+        }
+      }
+      _attributeNames[_attributeCount] = name;
+      _attributeEnds[_attributeCount] = length;
+      _attributeCount++;
+    }
+
+    private int appendAttributeChar(char c, int length) {
+      if (length == _attributeChars.length) {
+        char[] attributeChars = new char[length * 2];
+        System.arraycopy(_attributeChars, 0, attributeChars, 0, length);
+        _attributeChars = attributeChars;
+      }
+      _attributeChars[length] = c;
+      return length + 1;
+    }
+
+    private void checkNamespaces() throws SAXException {
+      if (_depth == _prefixCounts.length) {
+        int[] prefixCounts = new int[_depth * 2];
+        System.arraycopy(_prefixCounts, 0, prefixCounts, 0, _depth);
+        _prefixCounts = prefixCounts;
+      }
+      _prefixCounts[_depth] = _prefixCount;
+      for (int i = 0; i < _attributeCount; i++) {
+        String name = _attributeNames[i];
+        if (name.startsWith("xmlns:")) {
+          if (_prefixCount == _prefixes.length) {
+            String[] prefixes = new String[_prefixCount * 2];
+            System.arraycopy(_prefixes, 0, prefixes, 0, _prefixCount);
+            _prefixes = prefixes;
+          }
+          _prefixes[_prefixCount++] = name.substring(6);
+        }
+      }
+      checkPrefix(_name, null);
+      for (int i = 0; i < _attributeCount; i++) {
+        String name = _attributeNames[i];
+        if (name != "xmlns" && !name.startsWith("xmlns:")) {
+          checkPrefix(name, _name);
+        }
+      }
+    }
+
+    private void checkPrefix(String name, String elementName) throws SAXException {
+      int colon = name.indexOf(':');
+      if (colon == -1) {
+        return;
+      }
+      if (colon == 0 || colon == name.length() - 1 || name.indexOf(':', colon + 1) != -1) {
+        throw error("The name \"" + name + "\" is not a valid qualified name.");
+      }
+      String prefix = name.substring(0, colon);
+      if (prefix.equals("xml")) {
+        return;
+      }
+      for (int i = _prefixCount - 1; i >= 0; i--) {
+        if (prefix.equals(_prefixes[i])) {
+          return;
+        }
+      }
+      if (elementName == null) {
+        throw error("The prefix \"" + prefix + "\" for element \"" + name + "\" is not bound.");
+      }
+      throw error("The prefix \"" + prefix + "\" for attribute \"" + name + "\" associated with an element type \"" + elementName + "\" is not bound.");
+    }
+
+    private void checkTextLength() throws SAXException {
+      if (_textLength > _maxTextLength) {
+        throw error("The text is longer than the limit of " + _maxTextLength + " characters.");
+      }
+    }
+
+    private void readEndTag() throws IOException, SAXException {
+      String name = readName();
+      skipWhitespace();
+      expect('>');
+      if (_depth == 0 || (_elements[_depth - 1] != name && !_elements[_depth - 1].equals(name))) {
+        String expected = (_depth == 0) ? name : _elements[_depth - 1];
+        throw error("The element type \"" + expected + "\" must be terminated by the matching end-tag \"</" + expected + ">\".");
+      }
+      _depth--;
+      if (_namespaceAware) {
+        _prefixCount = _prefixCounts[_depth];
+      }
+      _name = name;
+    }
+
+    private String readName() throws IOException, SAXException {
+      char[] buffer = _buffer;
+      int start = _position;
+      int position = start;
+      while (position < _limit && isNameChar(buffer[position])) {
+        position++;
+      }
+      if (position < _limit && position > start && isNameStart(buffer[start]) && isNameEnd(buffer[position])) {
+        _position = position;
+        return _symbols.intern(buffer, start, position - start);
+      }
+      int length = 0;
+      while (true) {
+        int c = peek();
+        if (c == -1 || isNameEnd(c)) {
+          break;
+        }
+        if (length == 0 ? !isNameStart(c) : !isNameChar(c)) {
+          throw error("The character '" + (char) c + "' is not allowed in a name.");
+        }
+        if (length == _nameChars.length) {
+          char[] nameChars = new char[length * 2];
+          System.arraycopy(_nameChars, 0, nameChars, 0, length);
+          _nameChars = nameChars;
+        }
+        _nameChars[length++] = (char) c;
+        _position++;
+      }
+      if (length == 0) {
+        throw error("A name was expected.");
+      }
+      return _symbols.intern(_nameChars, 0, length);
+    }
+
+    private void readText() throws IOException, SAXException {
+      _textLength = 0;
+      while (_position < _limit || fill()) {
+        char[] buffer = _buffer;
+        int limit = _limit;
+        int start = _position;
+        int position = start;
+        char c = 0;
+        while (position < limit && (c = buffer[position]) != '<' && c != '&' && c != '\r') {
+          position++;
+        }
+        appendText(buffer, start, position - start);
+        _position = position;
+        if (position < limit) {
+          if (c == '<') {
+            break;
+          }
+          _position++;
+          if (c == '&') {
+            appendText(readReference());
+          }
+          else {
+            appendText('\n');
+            if (peek() == '\n') {
+              _position++;
+            }
+          }
+        }
+      }
+    }
+
+    private void readComment() throws IOException, SAXException {
+      _textLength = 0;
+      while (true) {
+        int c = read();
+        if (c == '-' && peek() == '-') {
+          _position++;
+          if (read() != '>') {
+            throw error("The string \"--\" is not permitted within comments.");
+          }
+          break;
+        }
+        appendContent(c);
+      }
+    }
+
+    private void readCData() throws IOException, SAXException {
+      _textLength = 0;
+      int brackets = 0;
+      while (true) {
+        int c = read();
+        if (c == ']') {
+          brackets++;
+        }
+        else if (c == '>' && brackets >= 2) {
+          _textLength -= 2;
+          break;
+        }
+        else {
+          brackets = 0;
+        }
+        appendContent(c);
+      }
+    }
+
+    private void appendContent(int c) throws IOException, SAXException {
+      if (c == -1) {
+        throw error("XML document structures must start and end within the same entity.");
+      }
+      else if (c == '\r') {
+        if (peek() == '\n') {
+          _position++;
+        }
+        c = '\n';
+      }
+      appendText((char) c);
+    }
+
+    private void skipProcessingInstruction() throws IOException, SAXException {
+      int c = read();
+      while (true) {
+        if (c == -1) {
+          throw error("XML document structures must start and end within the same entity.");
+        }
+        int previous = c;
+        c = read();
+        if (previous == '?' && c == '>') {
+          break;
+        }
+      }
+    }
+
+    private void skipDoctype() throws IOException, SAXException {
+      int quote = 0;
+      int brackets = 0;
+      while (true) {
+        int c = read();
+        if (c == -1) {
+          throw error("XML document structures must start and end within the same entity.");
+        }
+        else if (quote != 0) {
+          if (c == quote) {
+            quote = 0;
+          }
+        }
+        else if (c == '"' || c == '\'') {
+          quote = c;
+        }
+        else if (c == '[') {
+          brackets++;
+        }
+        else if (c == ']') {
+          brackets--;
+        }
+        else if (c == '>' && brackets == 0) {
+          break;
+        }
+      }
+    }
+
+    private int readReference() throws IOException, SAXException {
+      int c = read();
+      if (c == '#') {
+        int radix = 10;
+        c = read();
+        if (c == 'x') {
+          radix = 16;
+          c = read();
+        }
+        int codePoint = 0;
+        int digits = 0;
+        while (c != ';') {
+          int digit = (c == -1) ? -1 : Character.digit((char) c, radix);
+          if (digit < 0 || codePoint > 0x10FFFF) {
+            throw error("A character reference must end with the ';' delimiter.");
+          }
+          codePoint = codePoint * radix + digit;
+          digits++;
+          c = read();
+        }
+        if (digits == 0 || codePoint == 0 || codePoint > 0x10FFFF || (codePoint >= 0xD800 && codePoint <= 0xDFFF)) {
+          throw error("The character reference is not a legal XML character.");
+        }
+        return codePoint;
+      }
+      StringBuilder name = new StringBuilder();
+      while (c != ';') {
+        if (c == -1 || isWhitespace(c) || c == '<' || c == '&' || name.length() > 8) {
+          throw error("The entity name must immediately follow the '&' in the entity reference.");
+        }
+        name.append((char) c);
+        c = read();
+      }
+      String entity = name.toString();
+      if ("lt".equals(entity)) {
+        return '<';
+      }
+      else if ("gt".equals(entity)) {
+        return '>';
+      }
+      else if ("amp".equals(entity)) {
+        return '&';
+      }
+      else if ("quot".equals(entity)) {
+        return '"';
+      }
+      else if ("apos".equals(entity)) {
+        return '\'';
+      }
+      throw error("The entity \"" + entity + "\" was referenced, but not declared.");
+    }
+
+    private void appendText(int codePoint) throws SAXException {
+      if (codePoint > 0xFFFF) {
+        char[] chars = Character.toChars(codePoint);
+        appendText(chars, 0, chars.length);
+      }
+      else {
+        appendText((char) codePoint);
+      }
+    }
+
+    private void appendText(char c) throws SAXException {
+      if (_textLength == _text.length) {
+        growText(1);
+      }
+      _text[_textLength++] = c;
+    }
+
+    private void appendText(char[] chars, int offset, int length) throws SAXException {
+      if (_textLength + length > _text.length) {
+        growText(length);
+      }
+      System.arraycopy(chars, offset, _text, _textLength, length);
+      _textLength += length;
+    }
+
+    private void growText(int length) throws SAXException {
+      if (_textLength + length > _maxTextLength) {
+        throw error("The text is longer than the limit of " + _maxTextLength + " characters.");
+      }
+      char[] text = new char[Math.max(_text.length * 2, _textLength + length)];
+      System.arraycopy(_text, 0, text, 0, _textLength);
+      _text = text;
+    }
+
+    private void expect(char expected) throws IOException, SAXException {
+      if (read() != expected) {
+        throw error("The character '" + expected + "' was expected.");
+      }
+    }
+
+    private void expect(String expected) throws IOException, SAXException {
+      for (int i = 0; i < expected.length(); i++) {
+        expect(expected.charAt(i));
+      }
+    }
+
+    private boolean skipWhitespace() throws IOException {
+      boolean skipped = false;
+      int c;
+      while ((c = peek()) != -1 && isWhitespace(c)) {
+        _position++;
+        skipped = true;
+      }
+      return skipped;
+    }
+
+    private int peek() throws IOException {
+      if (_position == _limit && !fill()) {
+        return -1;
+      }
+      return _buffer[_position];
+    }
+
+    private int read() throws IOException {
+      if (_position == _limit && !fill()) {
+        return -1;
+      }
+      return _buffer[_position++];
+    }
+
+    private boolean fill() throws IOException {
+      if (_reader == null) {
+        return false;
+      }
+      for (int i = 0; i < _limit; i++) {
+        if (_buffer[i] == '\n') {
+          _line++;
+          _column = 0;
+        }
+        else {
+          _column++;
+        }
+      }
+      _position = 0;
+      _limit = 0;
+      int count;
+      while ((count = _reader.read(_buffer, 0, _buffer.length)) == 0) {
+        // keep reading until we get characters or the end of the stream
+      }
+      if (count == -1) {
+        _reader = null;
+        return false;
+      }
+      _limit = count;
+      return true;
+    }
+
+    /**
+     * Returns a parse exception for the current position of the tokenizer.
+     *
+     * @param message the error message
+     * @return a parse exception for the current position of the tokenizer
+     */
+    protected SAXParseException error(String message) {
+      int line = _line;
+      int column = _column;
+      for (int i = 0; i < _position && i < _limit; i++) {
+        if (_buffer[i] == '\n') {
+          line++;
+          column = 0;
+        }
+        else {
+          column++;
+        }
+      }
+      return new SAXParseException(message, null, null, line + 1, column + 1);
+    }
+
+    private static boolean isWhitespace(int c) {
+      return c == ' ' || c == '\n' || c == '\t' || c == '\r';
+    }
+
+    private static boolean isNameStart(int c) {
+      return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || c == '_' || c == ':' || c >= 0x80;
+    }
+
+    private static boolean isNameChar(int c) {
+      return isNameStart(c) || (c >= '0' && c <= '9') || c == '-' || c == '.';
+    }
+
+    private static boolean isNameEnd(int c) {
+      return isWhitespace(c) || c == '>' || c == '/' || c == '=' || c == ';';
+    }
+  }
+
+  /**
+   * <p>
+   * Path is a compiled path expression (a small subset of XPath) that selects elements or
+   * values directly from an XML.Doc or XML.E. A Path is compiled once and is immutable, so
+   * it can be kept in a static field and shared between threads.
+   * </p>
+   * 
+   * <p>
+   * Paths are made of steps separated by / (children) or // (descendents). A step is an
+   * element name, * (any element), . (the current element) or .. (the parent), followed by
+   * any number of predicates: [2] and [last()] (position), [@attr] and [@attr='value']
+   * (attributes), and [child] and [child='text'] (children). The last step of a path can
+   * also be @attr or text(), to select values instead of elements. A path that starts with
+   * / (or //) is evaluated from the document, so use .//name for the descendents of the
+   * current element. As in XPath, //. selects an element and all of its descendents, and //..
+   * the parents of those. Child and descendent steps use the child name index and the document
+   * name index when they are available.
+   * </p>
+   * 
+   * <pre>
+   * XML.Path cities = XML.path("/people/person[@type='customer']/address[1]/city/text()");
+   * List&lt;String&gt; names = cities.values(doc);
+   * </pre>
+   * 
+   * @author mschrag
+   */
+  public static class Path {
+    private static final int CHILD = 0;
+    private static final int DESCENDENT = 1;
+    private static final int SELF = 2;
+    private static final int PARENT = 3;
+    private static final int ATTRIBUTE = 4;
+    private static final int TEXT = 5;
+    private static final int DESCENDENT_OR_SELF = 6;
+
+    private static final int POSITION = 0;
+    private static final int LAST = 1;
+    private static final int HAS_ATTRIBUTE = 2;
+    private static final int HAS_CHILD = 3;
+
+    private final String _expression;
+    private final boolean _absolute;
+    private final Path.Step[] _steps;
+
+    /**
+     * Compiles a new Path.
+     * 
+     * @param expression the path expression to compile
+     * @throws IllegalArgumentException if the expression is not a valid path
+     */
+    public Path(String expression) {
+      _expression = expression;
+      Path.Parser parser = new Path.Parser(expression);
+      _absolute = expression.startsWith("/");
+      _steps = parser.steps();
+    }
+
+    /**
+     * Returns whether or not this path selects values (it ends with @attr or text()) rather than elements.
+     * 
+     * @return whether or not this path selects values
+     */
+    public boolean selectsValues() {
+      int axis = _steps[_steps.length - 1]._axis;
+      return axis == Path.ATTRIBUTE || axis == Path.TEXT;
+    }
+
+    /**
+     * Returns the elements selected by this path from the given document or element.
+     * 
+     * @param context the document or element to evaluate this path from
+     * @return the selected elements (in the order they were found), or an empty list if there aren't any
+     */
+    public List<XML.E> select(XML.Item context) {
+      if (selectsValues()) {
+        throw new IllegalStateException("The path '" + _expression + "' selects values, not elements.");
+      }
+      List<XML.E> elements = new ArrayList<XML.E>();
+      for (XML.Item item : evaluate(context, _steps.length)) {
+        if (item instanceof XML.E) {
+          elements.add((XML.E) item);
+        }
+      }
+      return elements;
+    }
+
+    /**
+     * Returns the first element selected by this path from the given document or element.
+     * 
+     * @param context the document or element to evaluate this path from
+     * @return the first selected element, or null if there isn't one
+     */
+    public XML.E first(XML.Item context) {
+      List<XML.E> elements = select(context);
+      return elements.isEmpty() ? null : elements.get(0);
+    }
+
+    /**
+     * Returns the values selected by this path from the given document or element. If the path
+     * selects elements, the text of each element is returned.
+     * 
+     * @param context the document or element to evaluate this path from
+     * @return the selected values, or an empty list if there aren't any
+     */
+    public List<String> values(XML.Item context) {
+      List<String> values = new ArrayList<String>();
+      Path.Step last = _steps[_steps.length - 1];
+      if (last._axis == Path.ATTRIBUTE) {
+        for (XML.Item item : evaluate(context, _steps.length - 1)) {
+          if (item instanceof XML.E) {
+            String value = ((XML.E) item).get(last._name);
+            if (value != null) {
+              values.add(value);
+            }
+          }
+        }
+      }
+      else if (last._axis == Path.TEXT) {
+        for (XML.Item item : evaluate(context, _steps.length - 1)) {
+          if (item instanceof XML.E && ((XML.E) item).children() != null) {
+            for (XML.Node node : ((XML.E) item).children()) {
+              if (node instanceof XML.Text || node instanceof XML.CDATA) {
+                values.add(((XML.Content) node).text());
+              }
+            }
+          }
+        }
+      }
+      else {
+        for (XML.E e : select(context)) {
+          values.add(e.text());
+        }
+      }
+      return values;
+    }
+
+    /**
+     * Returns the first value selected by this path from the given document or element.
+     * 
+     * @param context the document or element to evaluate this path from
+     * @return the first selected value, or null if there isn't one
+     */
+    public String value(XML.Item context) {
+      List<String> values = values(context);
+      return values.isEmpty() ? null : values.get(0);
+    }
+
+    private List<XML.Item> evaluate(XML.Item context, int stepCount) {
+      List<XML.Item> items = new ArrayList<XML.Item>(1);
+      XML.E detachedRoot = null;
+      if (_absolute) {
+        XML.Item root = context;
+        while (root.parent() != null) {
+          root = root.parent();
+        }
+        if (root instanceof XML.E) {
+          detachedRoot = (XML.E) root;
+        }
+        items.add(root);
+      }
+      else {
+        items.add(context);
+      }
+      for (int i = 0; i < stepCount; i++) {
+        Path.Step step = _steps[i];
+        Set<XML.Item> selected = new LinkedHashSet<XML.Item>();
+        for (XML.Item item : items) {
+          if (item == detachedRoot && i == 0) {
+            step.select(detachedRoot, true, selected);
+          }
+          else {
+            step.select(item, false, selected);
+          }
+        }
+        items = new ArrayList<XML.Item>(selected);
+      }
+      return items;
+    }
+
+    /**
+     * Returns the expression this path was compiled from.
+     * 
+     * @return the expression of this path
+     */
+    @Override
+    public String toString() {
+      return _expression;
+    }
+
+    private static class Step {
+      private final int _axis;
+      private final String _name;
+      private final Path.Predicate[] _predicates;
+
+      public Step(int axis, String name, Path.Predicate[] predicates) {
+        _axis = axis;
+        _name = name;
+        _predicates = predicates;
+      }
+
+      /**
+       * Adds the items this step selects from the given item to the selected set. If
+       * detachedRoot is true, the item is the top of a tree that isn't in a document, and it
+       * is treated as the only child of an imaginary document.
+       */
+      public void select(XML.Item item, boolean detachedRoot, Set<XML.Item> selected) {
+        if (_axis == Path.SELF) {
+          filter(Collections.singletonList(item), selected);
+        }
+        else if (_axis == Path.PARENT) {
+          if (item.parent() != null) {
+            filter(Collections.singletonList(item.parent()), selected);
+          }
+        }
+        else if (_axis == Path.CHILD) {
+          List<XML.E> children;
+          if (detachedRoot) {
+            children = Collections.singletonList((XML.E) item);
+          }
+          else if (item instanceof XML.Doc) {
+            XML.E root = ((XML.Doc) item).root();
+            children = (root == null) ? Collections.<XML.E>emptyList() : Collections.singletonList(root);
+          }
+          else if (_name != null) {
+            children = ((XML.E) item).children(_name);
+          }
+          else {
+            children = Path.elements(((XML.E) item).children());
+          }
+          filter(matching(children), selected);
+        }
+        else if (_axis == Path.DESCENDENT_OR_SELF) {
+          List<XML.E> descendents = new ArrayList<XML.E>();
+          XML.E root = (item instanceof XML.Doc) ? ((XML.Doc) item).root() : (XML.E) item;
+          if (root != null) {
+            if (item instanceof XML.Doc) {
+              descendents.add(root);
+            }
+            Path.addDescendents(root, descendents);
+          }
+          selected.add(item);
+          selected.addAll(descendents);
+        }
+        else if (_axis == Path.DESCENDENT) {
+          List<XML.E> descendents = new ArrayList<XML.E>();
+          XML.E root = (item instanceof XML.Doc) ? ((XML.Doc) item).root() : (XML.E) item;
+          if (root != null) {
+            if (item instanceof XML.Doc || detachedRoot) {
+              descendents.add(root);
+            }
+            if (_name != null) {
+              descendents.addAll(root.descendents(_name));
+            }
+            else {
+              Path.addDescendents(root, descendents);
+            }
+          }
+          Map<XML.Item, List<XML.E>> siblings = new LinkedHashMap<XML.Item, List<XML.E>>();
+          for (XML.E e : matching(descendents)) {
+            List<XML.E> group = siblings.get(e.parent());
+            if (group == null) {
+              group = new ArrayList<XML.E>();
+              siblings.put(e.parent(), group);
+            }
+            group.add(e);
+          }
+          for (List<XML.E> group : siblings.values()) {
+            filter(group, selected);
+          }
+        }
+      }
+
+      private List<XML.E> matching(List<XML.E> elements) {
+        if (_name == null) {
+          return elements;
+        }
+        List<XML.E> matching = new ArrayList<XML.E>(elements.size());
+        for (XML.E e : elements) {
+          if (e.hasName(_name)) {
+            matching.add(e);
+          }
+        }
+        return matching;
+      }
+
+      private void filter(List<? extends XML.Item> items, Set<XML.Item> selected) {
+        List<? extends XML.Item> filtered = items;
+        for (Path.Predicate predicate : _predicates) {
+          filtered = predicate.filter(filtered);
+        }
+        selected.addAll(filtered);
+      }
+    }
+
+    private static class Predicate {
+      private final int _type;
+      private final int _position;
+      private final String _name;
+      private final String _value;
+
+      public Predicate(int type, int position, String name, String value) {
+        _type = type;
+        _position = position;
+        _name = name;
+        _value = value;
+      }
+
+      public List<? extends XML.Item> filter(List<? extends XML.Item> items) {
+        if (_type == Path.POSITION) {
+          return (_position <= items.size()) ? Collections.singletonList(items.get(_position - 1)) : Collections.<XML.Item>emptyList();
+        }
+        else if (_type == Path.LAST) {
+          return items.isEmpty() ? items : Collections.singletonList(items.get(items.size() - 1));
+        }
+        List<XML.Item> filtered = new ArrayList<XML.Item>();
+        for (XML.Item item : items) {
+          if (item instanceof XML.E && matches((XML.E) item)) {
+            filtered.add(item);
+          }
+        }
+        return filtered;
+      }
+
+      private boolean matches(XML.E e) {
+        if (_type == Path.HAS_ATTRIBUTE) {
+          String value = e.get(_name);
+          return value != null && (_value == null || _value.equals(value));
+        }
+        for (XML.E child : e.children(_name)) {
+          if (_value == null || _value.equals(child.text())) {
+            return true;
+          }
+        }
+        return false;
+      }
+    }
+
+    private static List<XML.E> elements(List<XML.Node> nodes) {
+      List<XML.E> elements = new ArrayList<XML.E>();
+      if (nodes != null) {
+        for (XML.Node node : nodes) {
+          if (node instanceof XML.E) {
+            elements.add((XML.E) node);
+          }
+        }
+      }
+      return elements;
+    }
+
+    private static void addDescendents(XML.E e, List<XML.E> descendents) {
+      List<XML.E> stack = new ArrayList<XML.E>();
+      List<XML.E> children = Path.elements(e.children());
+      for (int i = children.size() - 1; i >= 0; i--) {
+        stack.add(children.get(i));
+      }
+      while (!stack.isEmpty()) {
+        XML.E descendent = stack.remove(stack.size() - 1);
+        descendents.add(descendent);
+        children = Path.elements(descendent.children());
+        for (int i = children.size() - 1; i >= 0; i--) {
+          stack.add(children.get(i));
+        }
+      }
+    }
+
+    private static class Parser {
+      private final String _expression;
+      private int _position;
+
+      public Parser(String expression) {
+        _expression = expression;
+      }
+
+      public Path.Step[] steps() {
+        List<Path.Step> steps = new ArrayList<Path.Step>();
+        if (_expression.length() == 0) {
+          throw error("a path can't be empty");
+        }
+        int axis = Path.CHILD;
+        if (_expression.startsWith("//")) {
+          axis = Path.DESCENDENT;
+          _position = 2;
+        }
+        else if (_expression.startsWith("/")) {
+          _position = 1;
+        }
+        while (true) {
+          if (axis == Path.DESCENDENT && peek() == '.') {
+            // "//." and "//.." are the self or parent step of every descendent-or-self
+            steps.add(new Path.Step(Path.DESCENDENT_OR_SELF, null, new Path.Predicate[0]));
+            axis = Path.CHILD;
+          }
+          steps.add(step(axis));
+          if (_position == _expression.length()) {
+            break;
+          }
+          int lastAxis = steps.get(steps.size() - 1)._axis;
+          if (lastAxis == Path.ATTRIBUTE || lastAxis == Path.TEXT) {
+            throw error("@attr and text() can only be the last step");
+          }
+          expect('/');
+          axis = Path.CHILD;
+          if (peek() == '/') {
+            _position++;
+            axis = Path.DESCENDENT;
+          }
+        }
+        return steps.toArray(new Path.Step[steps.size()]);
+      }
+
+      private Path.Step step(int axis) {
+        if (_expression.startsWith("..", _position)) {
+          _position += 2;
+          return new Path.Step(Path.PARENT, null, predicates());
+        }
+        else if (peek() == '.') {
+          _position++;
+          return new Path.Step(Path.SELF, null, predicates());
+        }
+        else if (peek() == '@') {
+          _position++;
+          return new Path.Step(Path.ATTRIBUTE, name(), new Path.Predicate[0]);
+        }
+        else if (peek() == '*') {
+          _position++;
+          return new Path.Step(axis, null, predicates());
+        }
+        else if (_expression.startsWith("text()", _position)) {
+          _position += 6;
+          return new Path.Step(Path.TEXT, null, new Path.Predicate[0]);
+        }
+        return new Path.Step(axis, name(), predicates());
+      }
+
+      private Path.Predicate[] predicates() {
+        List<Path.Predicate> predicates = new ArrayList<Path.Predicate>();
+        while (peek() == '[') {
+          _position++;
+          Path.Predicate predicate;
+          if (Character.isDigit(peek())) {
+            int start = _position;
+            while (Character.isDigit(peek())) {
+              _position++;
+            }
+            int position = Integer.parseInt(_expression.substring(start, _position));
+            if (position < 1) {
+              throw error("positions start at 1");
+            }
+            predicate = new Path.Predicate(Path.POSITION, position, null, null);
+          }
+          else if (_expression.startsWith("last()", _position)) {
+            _position += 6;
+            predicate = new Path.Predicate(Path.LAST, 0, null, null);
+          }
+          else {
+            int type = Path.HAS_CHILD;
+            if (peek() == '@') {
+              _position++;
+              type = Path.HAS_ATTRIBUTE;
+            }
+            String name = name();
+            String value = null;
+            if (peek() == '=') {
+              _position++;
+              char quote = peek();
+              if (quote != '\'' && quote != '"') {
+                throw error("expected a quoted value");
+              }
+              int end = _expression.indexOf(quote, _position + 1);
+              if (end == -1) {
+                throw error("unterminated value");
+              }
+              value = _expression.substring(_position + 1, end);
+              _position = end + 1;
+            }
+            predicate = new Path.Predicate(type, 0, name, value);
+          }
+          expect(']');
+          predicates.add(predicate);
+        }
+        return predicates.toArray(new Path.Predicate[predicates.size()]);
+      }
+
+      private String name() {
+        int start = _position;
+        while (_position < _expression.length() && "/[]=@'\"*() ".indexOf(_expression.charAt(_position)) == -1) {
+          _position++;
+        }
+        if (_position == start) {
+          throw error("expected a name");
+        }
+        return _expression.substring(start, _position);
+      }
+
+      private char peek() {
+        return (_position < _expression.length()) ? _expression.charAt(_position) : 0;
+      }
+
+      private void expect(char c) {
+        if (peek() != c) {
+          throw error("expected '" + c + "'");
+        }
+        _position++;
+      }
+
+      private IllegalArgumentException error(String message) {
+        return new IllegalArgumentException("Invalid path '" + _expression + "' at position " + _position + ": " + message + ".");
+      }
+    }
+  }
+
+  /**
+   * <p>
+   * Tape is a compact, read-only form of a parsed document for reading huge documents. Instead
+   * of an object per element, attribute and text node, the tree is kept in a handful of
+   * primitive arrays (tapes) with one entry per node in document order: its kind, its name (as
+   * an index into a name table), its parent, first child and next sibling, and the offset and
+   * length of its text in one shared character pool. Attributes are kept in tapes of their
+   * own the same way. A tape is a few large arrays rather than millions of small objects, so
+   * it takes a fraction of the memory of an XML.Doc and costs the garbage collector almost
+   * nothing to keep around.
+   * </p>
+   *
+   * <p>
+   * Tape.View is a flyweight over one node of a tape with the navigation methods of XML.E
+   * (child, children, text, get, childText, childInt, descendents, ...). Views are created as
+   * they are needed and compare equal when they are views of the same node. A tape never
+   * changes after it has been parsed, so it can be read from any number of threads. Use
+   * View.e() or doc() to turn a part of a tape (or all of it) into regular XISS elements.
+   * </p>
+   *
+   * <pre>
+   * XML.Tape tape = XML.tape(new File("orders.xml"));
+   * for (XML.Tape.View order : tape.root().children("order")) {
+   *   total += order.childInt("quantity", 0);
+   * }
+   * </pre>
+   *
+   * @author mschrag
+   */
+  public static class Tape {
+    public static final byte ELEMENT = 1;
+    public static final byte TEXT = 2;
+    public static final byte CDATA = 3;
+    public static final byte COMMENT = 4;
+
+    private int _size;
+    private byte[] _kinds;
+    private int[] _names;
+    private int[] _parents;
+    private int[] _firstChildren;
+    private int[] _nextSiblings;
+    // the text of content nodes, or the first attribute and the attribute count of elements
+    private int[] _offsets;
+    private int[] _lengths;
+
+    private int _attributeCount;
+    private int[] _attributeNames;
+    private int[] _attributeOffsets;
+    private int[] _attributeLengths;
+
+    private char[] _chars;
+    private int _charCount;
+
+    private String[] _symbols;
+    private int _symbolCount;
+    private Map<String, Integer> _symbolIds;
+
+    private int[] _open;
+    private int[] _lastChildren;
+    private int _depth;
+
+    /**
+     * Constructs a new empty Tape. Tapes are filled by Parser.tape(..).
+     */
+    protected Tape() {
+      _kinds = new byte[64];
+      _names = new int[64];
+      _parents = new int[64];
+      _firstChildren = new int[64];
+      _nextSiblings = new int[64];
+      _offsets = new int[64];
+      _lengths = new int[64];
+      _attributeNames = new int[16];
+      _attributeOffsets = new int[16];
+      _attributeLengths = new int[16];
+      _chars = new char[1024];
+      _symbols = new String[16];
+      _symbolIds = new HashMap<String, Integer>();
+      _open = new int[16];
+      _lastChildren = new int[16];
+    }
+
+    /**
+     * Appends an element for the current START_ELEMENT of the given tokenizer.
+     *
+     * @param tokenizer the tokenizer to read the name and attributes from
+     */
+    protected void start(XML.Tokenizer tokenizer) {
+      int node = append(Tape.ELEMENT, symbol(tokenizer._name));
+      int attributeCount = tokenizer._attributeCount;
+      _offsets[node] = _attributeCount;
+      _lengths[node] = attributeCount;
+      if (_attributeCount + attributeCount > _attributeNames.length) {
+        int capacity = Math.max(_attributeNames.length * 2, _attributeCount + attributeCount);
+        _attributeNames = Arrays.copyOf(_attributeNames, capacity);
+        _attributeOffsets = Arrays.copyOf(_attributeOffsets, capacity);
+        _attributeLengths = Arrays.copyOf(_attributeLengths, capacity);
+      }
+      int start = 0;
+      for (int i = 0; i < attributeCount; i++) {
+        int end = tokenizer._attributeEnds[i];
+        _attributeNames[_attributeCount] = symbol(tokenizer._attributeNames[i]);
+        _attributeOffsets[_attributeCount] = pool(tokenizer._attributeChars, start, end - start);
+        _attributeLengths[_attributeCount] = end - start;
+        _attributeCount++;
+        start = end;
+      }
+      if (_depth == _open.length) {
+        _open = Arrays.copyOf(_open, _depth * 2);
+        _lastChildren = Arrays.copyOf(_lastChildren, _depth * 2);
+      }
+      _open[_depth] = node;
+      _lastChildren[_depth] = -1;
+      _depth++;
+    }
+
+    /**
+     * Closes the current element.
+     */
+    protected void end() {
+      _depth--;
+    }
+
+    /**
+     * Appends a content node to the current element.
+     *
+     * @param kind the kind of the node (TEXT, CDATA or COMMENT)
+     * @param chars the buffer holding the text of the node
+     * @param length the length of the text of the node
+     */
+    protected void content(byte kind, char[] chars, int length) {
+      int node = append(kind, -1);
+      _offsets[node] = pool(chars, 0, length);
+      _lengths[node] = length;
+    }
+
+    /**
+     * Shrinks the tapes of this tape to its size.
+     */
+    protected void trim() {
+      _kinds = Arrays.copyOf(_kinds, _size);
+      _names = Arrays.copyOf(_names, _size);
+      _parents = Arrays.copyOf(_parents, _size);
+      _firstChildren = Arrays.copyOf(_firstChildren, _size);
+      _nextSiblings = Arrays.copyOf(_nextSiblings, _size);
+      _offsets = Arrays.copyOf(_offsets, _size);
+      _lengths = Arrays.copyOf(_lengths, _size);
+      _attributeNames = Arrays.copyOf(_attributeNames, _attributeCount);
+      _attributeOffsets = Arrays.copyOf(_attributeOffsets, _attributeCount);
+      _attributeLengths = Arrays.copyOf(_attributeLengths, _attributeCount);
+      _chars = Arrays.copyOf(_chars, _charCount);
+      _open = null;
+      _lastChildren = null;
+    }
+
+    private int append(byte kind, int name) {
+      if (_size == _kinds.length) {
+        int capacity = _size * 2;
+        _kinds = Arrays.copyOf(_kinds, capacity);
+        _names = Arrays.copyOf(_names, capacity);
+        _parents = Arrays.copyOf(_parents, capacity);
+        _firstChildren = Arrays.copyOf(_firstChildren, capacity);
+        _nextSiblings = Arrays.copyOf(_nextSiblings, capacity);
+        _offsets = Arrays.copyOf(_offsets, capacity);
+        _lengths = Arrays.copyOf(_lengths, capacity);
+      }
+      int node = _size++;
+      _kinds[node] = kind;
+      _names[node] = name;
+      _firstChildren[node] = -1;
+      _nextSiblings[node] = -1;
+      if (_depth == 0) {
+        _parents[node] = -1;
+      }
+      else {
+        int parent = _open[_depth - 1];
+        _parents[node] = parent;
+        if (_lastChildren[_depth - 1] == -1) {
+          _firstChildren[parent] = node;
+        }
+        else {
+          _nextSiblings[_lastChildren[_depth - 1]] = node;
+        }
+        _lastChildren[_depth - 1] = node;
+      }
+      return node;
+    }
+
+    private int symbol(String name) {
+      Integer id = _symbolIds.get(name);
+      if (id == null) {
+        if (_symbolCount == _symbols.length) {
+          _symbols = Arrays.copyOf(_symbols, _symbolCount * 2);
+        }
+        id = Integer.valueOf(_symbolCount);
+        _symbols[_symbolCount++] = name;
+        _symbolIds.put(name, id);
+      }
+      return id.intValue();
+    }
+
+    private int pool(char[] chars, int offset, int length) {
+      if (_charCount + length > _chars.length) {
+        _chars = Arrays.copyOf(_chars, Math.max(_chars.length * 2, _charCount + length));
+      }
+      int start = _charCount;
+      System.arraycopy(chars, offset, _chars, start, length);
+      _charCount += length;
+      return start;
+    }
+
+    /**
+     * Returns the number of nodes (elements, text, CDATA and comments) in this tape.
+     *
+     * @return the number of nodes in this tape
+     */
+    public int size() {
+      return _size;
+    }
+
+    /**
+     * Returns a view of the root element of this tape, or null if it is empty.
+     *
+     * @return the root element of this tape
+     */
+    public XML.Tape.View root() {
+      return (_size == 0) ? null : new XML.Tape.View(this, 0);
+    }
+
+    /**
+     * Builds a regular XML.Doc from this tape.
+     *
+     * @return a new document with the content of this tape
+     */
+    public XML.Doc doc() {
+      XML.Doc doc = XML.doc();
+      if (_size > 0) {
+        doc.setRoot(root().e());
+      }
+      return doc;
+    }
+
+    /**
+     * Returns the id of the given name in the name table of this tape, or -1 if no element or
+     * attribute of this tape has that name.
+     *
+     * @param name the name to look up
+     * @return the id of the name, or -1
+     */
+    protected int symbolId(String name) {
+      Integer id = _symbolIds.get(name);
+      return (id == null) ? -1 : id.intValue();
+    }
+
+    /**
+     * View is a flyweight view of one node of a tape, with the navigation methods of XML.E.
+     *
+     * @author mschrag
+     */
+    public static class View {
+      private final XML.Tape _tape;
+      private final int _node;
+
+      /**
+       * Constructs a new View.
+       *
+       * @param tape the tape to view
+       * @param node the index of the node to view
+       */
+      protected View(XML.Tape tape, int node) {
+        _tape = tape;
+        _node = node;
+      }
+
+      /**
+       * Returns the index of the node of this view in its tape (its position in document order).
+       *
+       * @return the index of the node of this view
+       */
+      public int index() {
+        return _node;
+      }
+
+      /**
+       * Returns the kind of this node (ELEMENT, TEXT, CDATA or COMMENT).
+       *
+       * @return the kind of this node
+       */
+      public byte kind() {
+        return _tape._kinds[_node];
+      }
+
+      /**
+       * Returns whether or not this node is an element.
+       *
+       * @return whether or not this node is an element
+       */
+      public boolean isElement() {
+        return _tape._kinds[_node] == Tape.ELEMENT;
+      }
+
+      /**
+       * Returns the name of this element, or null if this node isn't an element.
+       *
+       * @return the name of this element
+       */
+      public String name() {
+        int name = _tape._names[_node];
+        return (name == -1) ? null : _tape._symbols[name];
+      }
+
+      /**
+       * Returns whether or not this element has the given name.
+       *
+       * @param name the name to check
+       * @return whether or not this element has the given name
+       */
+      public boolean hasName(String name) {
+        int id = _tape.symbolId(name);
+        return id != -1 && _tape._names[_node] == id;
+      }
+
+      /**
+       * Returns a view of the parent element of this node, or null if this is the root.
+       *
+       * @return the parent of this node
+       */
+      public XML.Tape.View parent() {
+        int parent = _tape._parents[_node];
+        return (parent == -1) ? null : new XML.Tape.View(_tape, parent);
+      }
+
+      /**
+       * Returns the value of the attribute with the given name, or null if there isn't one.
+       *
+       * @param attributeName the name of the attribute to look up
+       * @return the value of the attribute with the given name, or null if there isn't one
+       */
+      public String get(String attributeName) {
+        int attribute = attribute(attributeName);
+        return (attribute == -1) ? null : new String(_tape._chars, _tape._attributeOffsets[attribute], _tape._attributeLengths[attribute]);
+      }
+
+      /**
+       * Returns the int value of the attribute with the given name, or defaultValue if there isn't one.
+       *
+       * @param attributeName the name of the attribute to look up
+       * @param defaultValue the default value to return if there is no attribute
+       * @return the int value of the attribute with the given name
+       */
+      public int getInt(String attributeName, int defaultValue) {
+        String text = get(attributeName);
+        return (text == null) ? defaultValue : Integer.parseInt(text);
+      }
+
+      /**
+       * Returns the float value of the attribute with the given name, or defaultValue if there isn't one.
+       *
+       * @param attributeName the name of the attribute to look up
+       * @param defaultValue the default value to return if there is no attribute
+       * @return the float value of the attribute with the given name
+       */
+      public float getFloat(String attributeName, float defaultValue) {
+        String text = get(attributeName);
+        return (text == null) ? defaultValue : Float.parseFloat(text);
+      }
+
+      /**
+       * Returns the boolean value of the attribute with the given name, or defaultValue if there isn't one.
+       *
+       * @param attributeName the name of the attribute to look up
+       * @param defaultValue the default value to return if there is no attribute
+       * @return the boolean value of the attribute with the given name
+       */
+      public boolean getBoolean(String attributeName, boolean defaultValue) {
+        String text = get(attributeName);
+        return (text == null) ? defaultValue : Boolean.parseBoolean(text);
+      }
+
+      /**
+       * Returns the enum value of the attribute with the given name, or defaultValue if there isn't one.
+       *
+       * @param <T> the enum type
+       * @param attributeName the name of the attribute to look up
+       * @param enumClass the class of the enum to return
+       * @param defaultValue the default value to return if there is no attribute
+       * @return the enum value of the attribute with the given name
+       */
+      public <T extends Enum<T>> T getEnum(String attributeName, Class<T> enumClass, T defaultValue) {
+        String text = get(attributeName);
+        return (text == null) ? defaultValue : Enum.valueOf(enumClass, text);
+      }
+
+      /**
+       * Returns the attributes of this element (as new detached attributes), or null if there
+       * aren't any.
+       *
+       * @return the attributes of this element
+       */
+      public List<XML.Attr> attributes() {
+        if (!isElement() || _tape._lengths[_node] == 0) {
+          return null;
+        }
+        int first = _tape._offsets[_node];
+        List<XML.Attr> attributes = new ArrayList<XML.Attr>(_tape._lengths[_node]);
+        for (int attribute = first; attribute < first + _tape._lengths[_node]; attribute++) {
+          attributes.add(new XML.Attr(_tape._symbols[_tape._attributeNames[attribute]], new String(_tape._chars, _tape._attributeOffsets[attribute], _tape._attributeLengths[attribute])));
+        }
+        return attributes;
+      }
+
+      /**
+       * Returns the text of this node. For an element, this is the text of its only child, or
+       * null if it doesn't have any children. If the element has a non-text child, this will
+       * throw an exception.
+       *
+       * @return the text of this node
+       */
+      public String text() {
+        int node = _node;
+        if (isElement()) {
+          node = _tape._firstChildren[_node];
+          if (node == -1) {
+            return null;
+          }
+          if (_tape._nextSiblings[node] != -1) {
+            throw new IllegalStateException("There was more than one child of this element: " + this);
+          }
+          if (_tape._kinds[node] != Tape.TEXT) {
+            throw new IllegalStateException("There was only a non-text child of this element: " + new XML.Tape.View(_tape, node));
+          }
+        }
+        return new String(_tape._chars, _tape._offsets[node], _tape._lengths[node]);
+      }
+
+      /**
+       * Returns views of the children of this element, or null if it doesn't have any.
+       *
+       * @return the children of this element
+       */
+      public List<XML.Tape.View> children() {
+        int child = isElement() ? _tape._firstChildren[_node] : -1;
+        if (child == -1) {
+          return null;
+        }
+        List<XML.Tape.View> children = new ArrayList<XML.Tape.View>();
+        for (; child != -1; child = _tape._nextSiblings[child]) {
+          children.add(new XML.Tape.View(_tape, child));
+        }
+        return children;
+      }
+
+      /**
+       * Returns the child element with the given name, or null if there isn't one. If there is
+       * more than one, this will throw an exception.
+       *
+       * @param name the name of the child element to look up
+       * @return the child element with the given name
+       */
+      public XML.Tape.View child(String name) {
+        int id = _tape.symbolId(name);
+        int match = -1;
+        if (id != -1 && isElement()) {
+          for (int child = _tape._firstChildren[_node]; child != -1; child = _tape._nextSiblings[child]) {
+            if (_tape._names[child] == id) {
+              if (match != -1) {
+                throw new IllegalStateException("There was more than one child named '" + name + "'.");
+              }
+              match = child;
+            }
+          }
+        }
+        return (match == -1) ? null : new XML.Tape.View(_tape, match);
+      }
+
+      /**
+       * Returns the child elements with the given name, or an empty list if there aren't any.
+       *
+       * @param name the name of the child elements to look up
+       * @return the child elements with the given name
+       */
+      public List<XML.Tape.View> children(String name) {
+        int id = _tape.symbolId(name);
+        List<XML.Tape.View> children = new ArrayList<XML.Tape.View>();
+        if (id != -1 && isElement()) {
+          for (int child = _tape._firstChildren[_node]; child != -1; child = _tape._nextSiblings[child]) {
+            if (_tape._names[child] == id) {
+              children.add(new XML.Tape.View(_tape, child));
+            }
+          }
+        }
+        return children;
+      }
+
+      /**
+       * Returns the text of the child element with the given name, or null if there isn't one.
+       *
+       * @param name the name of the child element to look up
+       * @return the text of the child element with the given name
+       */
+      public String childText(String name) {
+        XML.Tape.View child = child(name);
+        return (child != null) ? child.text() : null;
+      }
+
+      /**
+       * Returns the int value of the child element with the given name, or defaultValue if
+       * there isn't one (or it is empty).
+       *
+       * @param name the name of the child element to look up
+       * @param defaultValue the default value
+       * @return the int value of the child element with the given name
+       */
+      public int childInt(String name, int defaultValue) {
+        String text = childText(name);
+        return (text == null) ? defaultValue : Integer.parseInt(text);
+      }
+
+      /**
+       * Returns the float value of the child element with the given name, or defaultValue if
+       * there isn't one (or it is empty).
+       *
+       * @param name the name of the child element to look up
+       * @param defaultValue the default value
+       * @return the float value of the child element with the given name
+       */
+      public float childFloat(String name, float defaultValue) {
+        String text = childText(name);
+        return (text == null) ? defaultValue : Float.parseFloat(text);
+      }
+
+      /**
+       * Returns the boolean value of the child element with the given name, or defaultValue if
+       * there isn't one (or it is empty).
+       *
+       * @param name the name of the child element to look up
+       * @param defaultValue the default value
+       * @return the boolean value of the child element with the given name
+       */
+      public boolean childBoolean(String name, boolean defaultValue) {
+        String text = childText(name);
+        return (text == null) ? defaultValue : Boolean.parseBoolean(text);
+      }
+
+      /**
+       * Returns the enum value of the child element with the given name, or defaultValue if
+       * there isn't one (or it is empty).
+       *
+       * @param <T> the enum type
+       * @param name the name of the child element to look up
+       * @param enumClass the class of the enum to return
+       * @param defaultValue the default value
+       * @return the enum value of the child element with the given name
+       */
+      public <T extends Enum<T>> T childEnum(String name, Class<T> enumClass, T defaultValue) {
+        String text = childText(name);
+        return (text == null) ? defaultValue : Enum.valueOf(enumClass, text);
+      }
+
+      /**
+       * Returns the descendent elements of this element that have the given name, in document
+       * order. The descendents of a node are the nodes after it on the tape up to its next
+       * sibling (or the next sibling of the nearest ancestor that has one), so this is a scan of
+       * the name tape rather than a walk of the tree.
+       *
+       * @param name the name of the descendent elements to look up
+       * @return the descendent elements with the given name
+       */
+      public List<XML.Tape.View> descendents(String name) {
+        int id = _tape.symbolId(name);
+        List<XML.Tape.View> descendents = new ArrayList<XML.Tape.View>();
+        if (id != -1) {
+          int end = end();
+          int[] names = _tape._names;
+          for (int node = _node + 1; node < end; node++) {
+            if (names[node] == id) {
+              descendents.add(new XML.Tape.View(_tape, node));
+            }
+          }
+        }
+        return descendents;
+      }
+
+      /**
+       * Returns the text of the descendent elements of this element that have the given name.
+       *
+       * @param name the name of the descendent elements to look up
+       * @return the text of the descendent elements with the given name
+       */
+      public Set<String> descendentsText(String name) {
+        Set<String> descendentsText = new LinkedHashSet<String>();
+        for (XML.Tape.View descendent : descendents(name)) {
+          descendentsText.add(descendent.text());
+        }
+        return descendentsText;
+      }
+
+      /**
+       * Builds a regular (detached) XML.E from this element and its descendents.
+       *
+       * @return a new element with the content of this element
+       */
+      public XML.E e() {
+        if (!isElement()) {
+          throw new IllegalStateException("Only elements can be turned into an XML.E: " + this);
+        }
+        XML.Tape tape = _tape;
+        int end = end();
+        XML.E root = null;
+        XML.E[] elements = new XML.E[16];
+        int[] nodes = new int[16];
+        int depth = 0;
+        for (int node = _node; node < end; node++) {
+          while (depth > 0 && nodes[depth - 1] != tape._parents[node]) {
+            depth--;
+          }
+          byte kind = tape._kinds[node];
+          if (kind == Tape.ELEMENT) {
+            XML.E e = new XML.E(tape._symbols[tape._names[node]]);
+            int first = tape._offsets[node];
+            int count = tape._lengths[node];
+            e.ensureCapacity(count, 0);
+            for (int attribute = first; attribute < first + count; attribute++) {
+              e.add(new XML.Attr(tape._symbols[tape._attributeNames[attribute]], new String(tape._chars, tape._attributeOffsets[attribute], tape._attributeLengths[attribute])));
+            }
+            if (depth == 0) {
+              root = e;
+            }
+            else {
+              elements[depth - 1].add(e);
+            }
+            if (depth == elements.length) {
+              elements = Arrays.copyOf(elements, depth * 2);
+              nodes = Arrays.copyOf(nodes, depth * 2);
+            }
+            elements[depth] = e;
+            nodes[depth] = node;
+            depth++;
+          }
+          else {
+            String text = new String(tape._chars, tape._offsets[node], tape._lengths[node]);
+            if (kind == Tape.TEXT) {
+              elements[depth - 1].text(text);
+            }
+            else if (kind == Tape.CDATA) {
+              elements[depth - 1].cdata(text);
+            }
+            else {
+              elements[depth - 1].comment(text);
+            }
+          }
+        }
+        return root;
+      }
+
+      private int end() {
+        for (int node = _node; node != -1; node = _tape._parents[node]) {
+          int next = _tape._nextSiblings[node];
+          if (next != -1) {
+            return next;
+          }
+        }
+        return _tape._size;
+      }
+
+      private int attribute(String attributeName) {
+        int id = _tape.symbolId(attributeName);
+        if (id != -1 && isElement()) {
+          int first = _tape._offsets[_node];
+          int end = first + _tape._lengths[_node];
+          for (int attribute = first; attribute < end; attribute++) {
+            if (_tape._attributeNames[attribute] == id) {
+              return attribute;
+            }
+          }
+        }
+        return -1;
+      }
+
+      @Override
+      public boolean equals(Object obj) {
+        return obj instanceof XML.Tape.View && ((XML.Tape.View) obj)._tape == _tape && ((XML.Tape.View) obj)._node == _node;
+      }
+
+      @Override
+      public int hashCode() {
+        return System.identityHashCode(_tape) * 31 + _node;
+      }
+
+      @Override
+      public String toString() {
+        return isElement() ? e().toString() : text();
+      }
+    }
+  }
+
+  /**
+   * <p>
+   * Columns pulls typed columns out of the repeated records of a document in one pass. It
+   * reads straight from the tokenizer without building any elements: for every record (an
+   * element matched by the record path) it parses each field from the characters of its text
+   * into an int, long, double, boolean or enum ordinal column, without creating a String for
+   * the text or looking the field up among the children of the record. A field is either the
+   * text of a direct child element of the record ("price") or an attribute of the record
+   * ("@id"). A record that doesn't have a field (or has it empty) gets the default value of
+   * the column.
+   * </p>
+   *
+   * <p>
+   * The record path is a '/' separated list of element names that must match the end of the
+   * path to a record ("row" matches every row element, "table/row" only rows in a table), or
+   * all of it when it starts with a '/'. Records are not nested: elements inside a record are
+   * never records themselves.
+   * </p>
+   *
+   * <p>
+   * Columns are declared once and the extractor can then be shared between threads, like a
+   * Parser (columns can't be declared after it has been used). Numbers are parsed like
+   * Integer.parseInt, Long.parseLong and Double.parseDouble, except that surrounding whitespace
+   * is ignored; booleans are parsed like Boolean.parseBoolean and enums like Enum.valueOf.
+   * </p>
+   *
+   * <pre>
+   * XML.Columns.Table rows = XML.columns("row").intColumn("qty", 0).doubleColumn("price", 0).read(file);
+   * int[] quantities = rows.ints("qty");
+   * double[] prices = rows.doubles("price");
+   * </pre>
+   *
+   * @author mschrag
+   */
+  public static class Columns {
+    private static final int INT = 1;
+    private static final int LONG = 2;
+    private static final int DOUBLE = 3;
+    private static final int BOOLEAN = 4;
+    private static final int ENUM = 5;
+
+    private static final double[] POWERS_OF_TEN = { 1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11, 1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22 };
+
+    private final XML.Parser _parser;
+    private final boolean _absolute;
+    private final String[] _path;
+    private final List<Columns.Column> _columns;
+    private volatile boolean _used;
+
+    /**
+     * Constructs a new Columns extractor.
+     *
+     * @param parser the parser to read documents with
+     * @param recordPath the path of the record elements
+     */
+    public Columns(XML.Parser parser, String recordPath) {
+      _parser = parser;
+      _absolute = recordPath.startsWith("/");
+      _path = (_absolute ? recordPath.substring(1) : recordPath).split("/");
+      for (String name : _path) {
+        if (name.length() == 0) {
+          throw new IllegalArgumentException("Invalid record path '" + recordPath + "'.");
+        }
+      }
+      _columns = new ArrayList<Columns.Column>();
+    }
+
+    /**
+     * Adds an int column.
+     *
+     * @param field the child element name (or "@" and the attribute name) of the field
+     * @param defaultValue the value for records that don't have the field
+     * @return this extractor
+     */
+    public XML.Columns intColumn(String field, int defaultValue) {
+      return add(new Columns.Column(field, Columns.INT, defaultValue, null));
+    }
+
+    /**
+     * Adds a long column.
+     *
+     * @param field the child element name (or "@" and the attribute name) of the field
+     * @param defaultValue the value for records that don't have the field
+     * @return this extractor
+     */
+    public XML.Columns longColumn(String field, long defaultValue) {
+      return add(new Columns.Column(field, Columns.LONG, defaultValue, null));
+    }
+
+    /**
+     * Adds a double column.
+     *
+     * @param field the child element name (or "@" and the attribute name) of the field
+     * @param defaultValue the value for records that don't have the field
+     * @return this extractor
+     */
+    public XML.Columns doubleColumn(String field, double defaultValue) {
+      return add(new Columns.Column(field, Columns.DOUBLE, Double.doubleToRawLongBits(defaultValue), null));
+    }
+
+    /**
+     * Adds a boolean column.
+     *
+     * @param field the child element name (or "@" and the attribute name) of the field
+     * @param defaultValue the value for records that don't have the field
+     * @return this extractor
+     */
+    public XML.Columns booleanColumn(String field, boolean defaultValue) {
+      return add(new Columns.Column(field, Columns.BOOLEAN, defaultValue ? 1 : 0, null));
+    }
+
+    /**
+     * Adds an enum column, which holds the ordinals of the enum values of the field.
+     *
+     * @param <T> the enum type
+     * @param field the child element name (or "@" and the attribute name) of the field
+     * @param enumClass the class of the enum of the field
+     * @param defaultValue the value for records that don't have the field (its ordinal is -1 if this is null)
+     * @return this extractor
+     */
+    public <T extends Enum<T>> XML.Columns enumColumn(String field, Class<T> enumClass, T defaultValue) {
+      T[] constants = enumClass.getEnumConstants();
+      char[][] names = new char[constants.length][];
+      for (int i = 0; i < constants.length; i++) {
+        names[i] = constants[i].name().toCharArray();
+      }
+      Columns.Column column = new Columns.Column(field, Columns.ENUM, (defaultValue == null) ? -1 : defaultValue.ordinal(), names);
+      column._enumClass = enumClass;
+      return add(column);
+    }
+
+    /**
+     * Reads the columns of the records of the given string.
+     *
+     * @param documentString the string to parse as XML
+     * @return the columns of the records
+     */
+    public XML.Columns.Table read(String documentString) {
+      try {
+        return read(new StringReader(documentString), false);
+      }
+      catch (Throwable t) {
+        throw new IllegalArgumentException("Failed to read columns from the provided string.", t);
+      }
+    }
+
+    /**
+     * Reads the columns of the records read from the given reader.
+     *
+     * @param reader the reader to parse from
+     * @return the columns of the records
+     */
+    public XML.Columns.Table read(Reader reader) {
+      try {
+        return read(reader, false);
+      }
+      catch (Throwable t) {
+        throw new IllegalArgumentException("Failed to read columns from the provided reader.", t);
+      }
+    }
+
+    /**
+     * Reads the columns of the records of the given file.
+     *
+     * @param file the file to parse from
+     * @return the columns of the records
+     */
+    public XML.Columns.Table read(File file) {
+      try {
+        return read(XML.Tokenizer.reader(file), true);
+      }
+      catch (Throwable t) {
+        throw new IllegalArgumentException("Failed to read columns from the provided file.", t);
+      }
+    }
+
+    private XML.Columns.Table read(Reader reader, boolean close) throws IOException, SAXException {
+      _used = true;
+      XML.Tokenizer tokenizer = _parser.takeTokenizer(reader);
+      try {
+        return read(tokenizer);
+      }
+      finally {
+        _parser.releaseTokenizer(tokenizer);
+        if (close) {
+          reader.close();
+        }
+      }
+    }
+
+    /**
+     * Reads the columns of the records from the remaining events of the given tokenizer.
+     *
+     * @param tokenizer the tokenizer to read from
+     * @return the columns of the records
+     * @throws IOException if the input cannot be read
+     * @throws SAXException if the input is not well-formed, or a field can't be parsed
+     */
+    protected XML.Columns.Table read(XML.Tokenizer tokenizer) throws IOException, SAXException {
+      XML.Symbols symbols = tokenizer.symbols();
+      String[] path = new String[_path.length];
+      for (int i = 0; i < path.length; i++) {
+        path[i] = symbols.intern(_path[i]);
+      }
+      int columnCount = _columns.size();
+      Columns.Column[] columns = _columns.toArray(new Columns.Column[columnCount]);
+      String[] names = new String[columnCount];
+      for (int i = 0; i < columnCount; i++) {
+        names[i] = symbols.intern(columns[i]._name);
+      }
+
+      XML.Columns.Table table = new XML.Columns.Table(columns);
+      boolean[] seen = new boolean[columnCount];
+      char[] text = new char[64];
+      int textLength = 0;
+      int recordDepth = -1;
+      int field = -1;
+      int event;
+      while ((event = tokenizer.next()) != XML.Tokenizer.END_DOCUMENT) {
+        switch (event) {
+        case XML.Tokenizer.START_ELEMENT:
+          if (recordDepth == -1) {
+            if (matches(tokenizer, path)) {
+              recordDepth = tokenizer.depth();
+              table.addRow();
+              Arrays.fill(seen, false);
+              for (int i = 0; i < columnCount; i++) {
+                if (columns[i]._attribute) {
+                  for (int attribute = 0; attribute < tokenizer._attributeCount; attribute++) {
+                    if (tokenizer._attributeNames[attribute] == names[i]) {
+                      int start = (attribute == 0) ? 0 : tokenizer._attributeEnds[attribute - 1];
+                      table.set(i, tokenizer._attributeChars, start, tokenizer._attributeEnds[attribute] - start);
+                    }
+                  }
+                }
+              }
+            }
+          }
+          else if (field != -1) {
+            throw tokenizer.error("The field \"" + columns[field]._field + "\" must only contain text.");
+          }
+          else if (tokenizer.depth() == recordDepth + 1) {
+            String name = tokenizer.name();
+            for (int i = 0; i < columnCount; i++) {
+              if (names[i] == name && !columns[i]._attribute) {
+                if (seen[i]) {
+                  throw tokenizer.error("There was more than one field \"" + name + "\" in a record.");
+                }
+                seen[i] = true;
+                field = i;
+                textLength = 0;
+                break;
+              }
+            }
+          }
+          break;
+        case XML.Tokenizer.TEXT:
+        case XML.Tokenizer.CDATA:
+          if (field != -1) {
+            int length = tokenizer.textLength();
+            if (textLength + length > text.length) {
+              text = Arrays.copyOf(text, Math.max(text.length * 2, textLength + length));
+            }
+            System.arraycopy(tokenizer.textChars(), 0, text, textLength, length);
+            textLength += length;
+          }
+          break;
+        case XML.Tokenizer.END_ELEMENT:
+          if (field != -1) {
+            table.set(field, text, 0, textLength);
+            field = -1;
+          }
+          else if (tokenizer.depth() < recordDepth) {
+            recordDepth = -1;
+          }
+          break;
+        default:
+          break;
+        }
+      }
+      table.trim();
+      return table;
+    }
+
+    private boolean matches(XML.Tokenizer tokenizer, String[] path) {
+      int depth = tokenizer._depth;
+      if (depth < path.length || (_absolute && depth != path.length)) {
+        return false;
+      }
+      String[] elements = tokenizer._elements;
+      for (int i = path.length - 1, element = depth - 1; i >= 0; i--, element--) {
+        if (elements[element] != path[i]) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    private XML.Columns add(Columns.Column column) {
+      if (_used) {
+        throw new IllegalStateException("You cannot add columns after the extractor has been used.");
+      }
+      for (Columns.Column existing : _columns) {
+        if (existing._field.equals(column._field)) {
+          throw new IllegalArgumentException("There is already a column for the field '" + column._field + "'.");
+        }
+      }
+      _columns.add(column);
+      return this;
+    }
+
+    /**
+     * Parses an int from the given characters like Integer.parseInt (ignoring surrounding
+     * whitespace).
+     *
+     * @param chars the characters to parse
+     * @param offset the offset of the first character
+     * @param length the number of characters
+     * @return the parsed int
+     */
+    public static int parseInt(char[] chars, int offset, int length) {
+      long value = Columns.parseLong(chars, offset, length);
+      if (value < Integer.MIN_VALUE || value > Integer.MAX_VALUE) {
+        throw Columns.numberFormatException(chars, offset, length);
+      }
+      return (int) value;
+    }
+
+    /**
+     * Parses a long from the given characters like Long.parseLong (ignoring surrounding
+     * whitespace).
+     *
+     * @param chars the characters to parse
+     * @param offset the offset of the first character
+     * @param length the number of characters
+     * @return the parsed long
+     */
+    public static long parseLong(char[] chars, int offset, int length) {
+      int start = Columns.trimStart(chars, offset, length);
+      int end = Columns.trimEnd(chars, start, offset + length);
+      int i = start;
+      boolean negative = false;
+      if (i < end && (chars[i] == '-' || chars[i] == '+')) {
+        negative = (chars[i] == '-');
+        i++;
+      }
+      if (i == end) {
+        throw Columns.numberFormatException(chars, offset, length);
+      }
+      // accumulate negatively, since the negative range is one bigger than the positive range
+      long limit = negative ? Long.MIN_VALUE : -Long.MAX_VALUE;
+      long multiplyLimit = limit / 10;
+      long value = 0;
+      for (; i < end; i++) {
+        int digit = chars[i] - '0';
+        if (digit < 0 || digit > 9 || value < multiplyLimit) {
+          throw Columns.numberFormatException(chars, offset, length);
+        }
+        value *= 10;
+        if (value < limit + digit) {
+          throw Columns.numberFormatException(chars, offset, length);
+        }
+        value -= digit;
+      }
+      return negative ? value : -value;
+    }
+
+    /**
+     * Parses a double from the given characters like Double.parseDouble (ignoring surrounding
+     * whitespace). Plain decimal numbers with up to 15 significant digits and a small exponent
+     * are converted exactly without creating a String; anything else falls back to
+     * Double.parseDouble.
+     *
+     * @param chars the characters to parse
+     * @param offset the offset of the first character
+     * @param length the number of characters
+     * @return the parsed double
+     */
+    public static double parseDouble(char[] chars, int offset, int length) {
+      int start = Columns.trimStart(chars, offset, length);
+      int end = Columns.trimEnd(chars, start, offset + length);
+      int i = start;
+      boolean negative = false;
+      if (i < end && (chars[i] == '-' || chars[i] == '+')) {
+        negative = (chars[i] == '-');
+        i++;
+      }
+      long mantissa = 0;
+      int significantDigits = 0;
+      int digits = 0;
+      int exponent = 0;
+      boolean point = false;
+      for (; i < end; i++) {
+        char c = chars[i];
+        if (c >= '0' && c <= '9') {
+          digits++;
+          if (mantissa != 0 || c != '0') {
+            significantDigits++;
+          }
+          mantissa = mantissa * 10 + (c - '0');
+          if (point) {
+            exponent--;
+          }
+        }
+        else if (c == '.' && !point) {
+          point = true;
+        }
+        else {
+          break;
+        }
+      }
+      if (i < end && digits > 0 && (chars[i] == 'e' || chars[i] == 'E')) {
+        i++;
+        boolean negativeExponent = false;
+        if (i < end && (chars[i] == '-' || chars[i] == '+')) {
+          negativeExponent = (chars[i] == '-');
+          i++;
+        }
+        int exponentDigits = 0;
+        int explicitExponent = 0;
+        for (; i < end && chars[i] >= '0' && chars[i] <= '9'; i++) {
+          if (explicitExponent < 10000) {
+            explicitExponent = explicitExponent * 10 + (chars[i] - '0');
+          }
+          exponentDigits++;
+        }
+        if (exponentDigits == 0) {
+          digits = 0;
+        }
+        exponent += negativeExponent ? -explicitExponent : explicitExponent;
+      }
+      if (i != end || digits == 0 || significantDigits > 15 || exponent < -22 || exponent > 22) {
+        return Double.parseDouble(new String(chars, start, end - start));
+      }
+      double value = (double) mantissa;
+      value = (exponent < 0) ? value / Columns.POWERS_OF_TEN[-exponent] : value * Columns.POWERS_OF_TEN[exponent];
+      return negative ? -value : value;
+    }
+
+    /**
+     * Parses a boolean from the given characters like Boolean.parseBoolean (ignoring
+     * surrounding whitespace).
+     *
+     * @param chars the characters to parse
+     * @param offset the offset of the first character
+     * @param length the number of characters
+     * @return the parsed boolean
+     */
+    public static boolean parseBoolean(char[] chars, int offset, int length) {
+      int start = Columns.trimStart(chars, offset, length);
+      int end = Columns.trimEnd(chars, start, offset + length);
+      return end - start == 4 && (chars[start] | 0x20) == 't' && (chars[start + 1] | 0x20) == 'r' && (chars[start + 2] | 0x20) == 'u' && (chars[start + 3] | 0x20) == 'e';
+    }
+
+    private static int trimStart(char[] chars, int offset, int length) {
+      int start = offset;
+      int end = offset + length;
+      while (start < end && (chars[start] == ' ' || chars[start] == '\t' || chars[start] == '\n' || chars[start] == '\r')) {
+        start++;
+      }
+      return start;
+    }
+
+    private static int trimEnd(char[] chars, int start, int end) {
+      while (end > start && (chars[end - 1] == ' ' || chars[end - 1] == '\t' || chars[end - 1] == '\n' || chars[end - 1] == '\r')) {
+        end--;
+      }
+      return end;
+    }
+
+    private static NumberFormatException numberFormatException(char[] chars, int offset, int length) {
+      return new NumberFormatException("For input string: \"" + new String(chars, offset, length) + "\"");
+    }
+
+    /**
+     * Column is the declaration of one column.
+     */
+    private static class Column {
+      private final String _field;
+      private final String _name;
+      private final boolean _attribute;
+      private final int _type;
+      private final long _defaultValue;
+      private final char[][] _enumNames;
+      private Class<?> _enumClass;
+
+      public Column(String field, int type, long defaultValue, char[][] enumNames) {
+        _field = field;
+        _attribute = field.startsWith("@");
+        _name = _attribute ? field.substring(1) : field;
+        _type = type;
+        _defaultValue = defaultValue;
+        _enumNames = enumNames;
+      }
+    }
+
+    /**
+     * Table holds the columns read from a document, one value per record in document order.
+     *
+     * @author mschrag
+     */
+    public static class Table {
+      private final Columns.Column[] _columns;
+      private final Object[] _values;
+      private int _size;
+      private int _capacity;
+
+      /**
+       * Constructs a new empty Table.
+       *
+       * @param columns the columns of the table
+       */
+      protected Table(Columns.Column[] columns) {
+        _columns = columns;
+        _values = new Object[columns.length];
+        _capacity = 16;
+        for (int i = 0; i < columns.length; i++) {
+          _values[i] = newArray(columns[i]._type, _capacity);
+        }
+      }
+
+      /**
+       * Returns the number of records that were read.
+       *
+       * @return the number of records
+       */
+      public int size() {
+        return _size;
+      }
+
+      /**
+       * Returns the int column for the given field.
+       *
+       * @param field the field of the column
+       * @return the values of the column
+       */
+      public int[] ints(String field) {
+        return (int[]) values(field, Columns.INT);
+      }
+
+      /**
+       * Returns the long column for the given field.
+       *
+       * @param field the field of the column
+       * @return the values of the column
+       */
+      public long[] longs(String field) {
+        return (long[]) values(field, Columns.LONG);
+      }
+
+      /**
+       * Returns the double column for the given field.
+       *
+       * @param field the field of the column
+       * @return the values of the column
+       */
+      public double[] doubles(String field) {
+        return (double[]) values(field, Columns.DOUBLE);
+      }
+
+      /**
+       * Returns the boolean column for the given field.
+       *
+       * @param field the field of the column
+       * @return the values of the column
+       */
+      public boolean[] booleans(String field) {
+        return (boolean[]) values(field, Columns.BOOLEAN);
+      }
+
+      /**
+       * Returns the enum column for the given field, as the ordinals of its values (-1 for a
+       * null default value).
+       *
+       * @param field the field of the column
+       * @return the ordinals of the values of the column
+       */
+      public int[] ordinals(String field) {
+        return (int[]) values(field, Columns.ENUM);
+      }
+
+      private Object values(String field, int type) {
+        for (int i = 0; i < _columns.length; i++) {
+          if (_columns[i]._field.equals(field)) {
+            if (_columns[i]._type != type) {
+              throw new IllegalArgumentException("The column for the field '" + field + "' has a different type.");
+            }
+            return _values[i];
+          }
+        }
+        throw new IllegalArgumentException("There is no column for the field '" + field + "'.");
+      }
+
+      /**
+       * Adds a record with the default value of every column.
+       */
+      protected void addRow() {
+        if (_size == _capacity) {
+          _capacity *= 2;
+          for (int i = 0; i < _columns.length; i++) {
+            _values[i] = copyOf(_values[i], _capacity);
+          }
+        }
+        for (int i = 0; i < _columns.length; i++) {
+          Columns.Column column = _columns[i];
+          switch (column._type) {
+          case Columns.INT:
+          case Columns.ENUM:
+            ((int[]) _values[i])[_size] = (int) column._defaultValue;
+            break;
+          case Columns.LONG:
+            ((long[]) _values[i])[_size] = column._defaultValue;
+            break;
+          case Columns.DOUBLE:
+            ((double[]) _values[i])[_size] = Double.longBitsToDouble(column._defaultValue);
+            break;
+          default:
+            ((boolean[]) _values[i])[_size] = (column._defaultValue != 0);
+            break;
+          }
+        }
+        _size++;
+      }
+
+      /**
+       * Sets the given column of the last record from the given characters. Empty text leaves
+       * the default value.
+       *
+       * @param index the index of the column
+       * @param chars the characters of the field
+       * @param offset the offset of the field in the characters
+       * @param length the length of the field
+       */
+      protected void set(int index, char[] chars, int offset, int length) {
+        if (length == 0) {
+          return;
+        }
+        Columns.Column column = _columns[index];
+        int row = _size - 1;
+        switch (column._type) {
+        case Columns.INT:
+          ((int[]) _values[index])[row] = Columns.parseInt(chars, offset, length);
+          break;
+        case Columns.LONG:
+          ((long[]) _values[index])[row] = Columns.parseLong(chars, offset, length);
+          break;
+        case Columns.DOUBLE:
+          ((double[]) _values[index])[row] = Columns.parseDouble(chars, offset, length);
+          break;
+        case Columns.BOOLEAN:
+          ((boolean[]) _values[index])[row] = Columns.parseBoolean(chars, offset, length);
+          break;
+        default:
+          ((int[]) _values[index])[row] = ordinal(column, chars, offset, length);
+          break;
+        }
+      }
+
+      /**
+       * Shrinks the columns of this table to its size.
+       */
+      protected void trim() {
+        for (int i = 0; i < _columns.length; i++) {
+          _values[i] = copyOf(_values[i], _size);
+        }
+        _capacity = _size;
+      }
+
+      private static int ordinal(Columns.Column column, char[] chars, int offset, int length) {
+        int start = Columns.trimStart(chars, offset, length);
+        int end = Columns.trimEnd(chars, start, offset + length);
+        char[][] names = column._enumNames;
+        for (int ordinal = 0; ordinal < names.length; ordinal++) {
+          char[] name = names[ordinal];
+          if (name.length == end - start) {
+            int i = 0;
+            while (i < name.length && name[i] == chars[start + i]) {
+              i++;
+            }
+            if (i == name.length) {
+              return ordinal;
+            }
+          }
+        }
+        throw new IllegalArgumentException("No enum constant " + column._enumClass.getName() + "." + new String(chars, start, end - start));
+      }
+
+      private static Object newArray(int type, int capacity) {
+        switch (type) {
+        case Columns.LONG:
+          return new long[capacity];
+        case Columns.DOUBLE:
+          return new double[capacity];
+        case Columns.BOOLEAN:
+          return new boolean[capacity];
+        default:
+          return new int[capacity];
+        }
+      }
+
+      private static Object copyOf(Object values, int length) {
+        if (values instanceof int[]) {
+          return Arrays.copyOf((int[]) values, length);
+        }
+        else if (values instanceof long[]) {
+          return Arrays.copyOf((long[]) values, length);
+        }
+        else if (values instanceof double[]) {
+          return Arrays.copyOf((double[]) values, length);
+        }
+        return Arrays.copyOf((boolean[]) values, length);
+      }
+    }
+  }
+
+  /**
+   * <p>
+   * Batch parses a collection of files on an executor. Each file is parsed with XML.Parser's
+   * doc(File), so every thread of the executor keeps reusing the same tokenizer and buffers
+   * from one file to the next, and a file that fails to parse is reported in its result
+   * instead of stopping the rest of the batch.
+   * </p>
+   *
+   * <p>
+   * Results can be taken as they complete with take(), or all at once in the order of the
+   * files with results(). futures() returns the underlying futures in the order of the files.
+   * Only a bounded number of parses are submitted to the executor at a time, and the batch
+   * lets go of each result as it is taken, so a take() loop over tens of thousands of files
+   * only keeps the documents that have been parsed but not taken yet.
+   * </p>
+   *
+   * <pre>
+   * XML.Batch batch = XML.parseAll(files);
+   * XML.Batch.Result result;
+   * while ((result = batch.take()) != null) {
+   *   if (result.isFailed()) {
+   *     log(result.file(), result.failure());
+   *   }
+   *   else {
+   *     ingest(result.doc());
+   *   }
+   * }
+   * </pre>
+   *
+   * @author mschrag
+   */
+  public static class Batch {
+    private static final AtomicInteger THREADS = new AtomicInteger();
+
+    private final List<File> _files;
+    private final Batch.Parse[] _parses;
+    private final BlockingQueue<Batch.Parse> _completed;
+    private final Executor _executor;
+    private final ExecutorService _owned;
+    private int _submitted;
+    private int _pending;
+    private boolean _submitting;
+    private int _taken;
+
+    /**
+     * Constructs a new Batch, which parses each of the given files on the given executor,
+     * with at most the given number of parses submitted to it at a time.
+     *
+     * @param parser the parser to parse with
+     * @param files the files to parse
+     * @param executor the executor to parse on
+     * @param maxInFlight the maximum number of parses submitted to the executor at a time
+     * @param owned whether the batch shuts the executor down once every parse has been submitted
+     */
+    protected Batch(final XML.Parser parser, Collection<File> files, Executor executor, int maxInFlight, boolean owned) {
+      if (maxInFlight < 1) {
+        throw new IllegalArgumentException("A batch needs at least one parse in flight, not " + maxInFlight + ".");
+      }
+      _files = new ArrayList<File>(files);
+      _executor = executor;
+      _owned = owned ? (ExecutorService) executor : null;
+      _completed = new LinkedBlockingQueue<Batch.Parse>();
+      _parses = new Batch.Parse[_files.size()];
+      for (int i = 0; i < _parses.length; i++) {
+        final int index = i;
+        final File file = _files.get(i);
+        _parses[i] = new Batch.Parse(index, new Callable<XML.Batch.Result>() {
+          public XML.Batch.Result call() {
+            try {
+              return new XML.Batch.Result(index, file, parser.doc(file), null);
+            }
+            catch (Throwable t) {
+              return new XML.Batch.Result(index, file, null, t);
+            }
+          }
+        });
+      }
+      if (_parses.length == 0 && _owned != null) {
+        _owned.shutdown();
+      }
+      submit(maxInFlight);
+    }
+
+    /**
+     * Returns a new executor with the given number of daemon threads.
+     *
+     * @param threads the number of threads to parse with
+     * @return a new executor
+     */
+    protected static ExecutorService executor(int threads) {
+      if (threads < 1) {
+        throw new IllegalArgumentException("A batch needs at least one thread, not " + threads + ".");
+      }
+      return Executors.newFixedThreadPool(threads, new ThreadFactory() {
+        public Thread newThread(Runnable runnable) {
+          Thread thread = new Thread(runnable, "XML.Batch-" + Batch.THREADS.incrementAndGet());
+          thread.setDaemon(true);
+          return thread;
+        }
+      });
+    }
+
+    /**
+     * Submits the given number of parses to the executor (or as many as are left). A parse the
+     * executor rejects fails with the RejectedExecutionException, and the one after it is
+     * submitted instead. Only one thread submits at a time: if another thread is already
+     * submitting (or this one is, because the executor ran a parse inline and it asked for
+     * the next one), the parses are only counted, and that thread submits them once it is
+     * done with its own, so executors that run tasks on the calling thread don't grow the
+     * stack by a parse per file.
+     *
+     * @param count the number of parses to submit
+     */
+    private void submit(int count) {
+      synchronized (this) {
+        _pending += count;
+        if (_submitting) {
+          return;
+        }
+        _submitting = true;
+      }
+      boolean submitting = true;
+      try {
+        while (true) {
+          Batch.Parse parse;
+          boolean last;
+          synchronized (this) {
+            if (_pending == 0 || _submitted == _parses.length) {
+              _pending = 0;
+              _submitting = submitting = false;
+              return;
+            }
+            _pending--;
+            parse = _parses[_submitted++];
+            last = (_submitted == _parses.length);
+          }
+          try {
+            _executor.execute(parse);
+          }
+          catch (RejectedExecutionException e) {
+            parse.reject(e);
+            synchronized (this) {
+              _pending++;
+            }
+          }
+          finally {
+            if (last && _owned != null) {
+              _owned.shutdown();
+            }
+          }
+        }
+      }
+      finally {
+        if (submitting) {
+          synchronized (this) {
+            _submitting = false;
+          }
+        }
+      }
+    }
+
+    /**
+     * Returns the number of files in this batch.
+     *
+     * @return the number of files in this batch
+     */
+    public int size() {
+      return _parses.length;
+    }
+
+    /**
+     * Returns the futures of the results that haven't been taken yet, in the order of the
+     * files.
+     *
+     * @return the futures of the results that haven't been taken
+     */
+    public synchronized List<Future<XML.Batch.Result>> futures() {
+      List<Future<XML.Batch.Result>> futures = new ArrayList<Future<XML.Batch.Result>>(_parses.length - _taken);
+      for (Batch.Parse parse : _parses) {
+        if (parse != null) {
+          futures.add(parse);
+        }
+      }
+      return futures;
+    }
+
+    /**
+     * Waits for and returns the next result to complete, or null if every result has already
+     * been taken. The batch lets go of a result once it has been taken.
+     *
+     * @return the next completed result, or null if there are no more results
+     * @throws InterruptedException if the thread is interrupted while waiting
+     */
+    public XML.Batch.Result take() throws InterruptedException {
+      synchronized (this) {
+        if (_taken == _parses.length) {
+          return null;
+        }
+        _taken++;
+      }
+      Batch.Parse parse;
+      try {
+        parse = _completed.take();
+      }
+      catch (InterruptedException e) {
+        synchronized (this) {
+          _taken--;
+        }
+        throw e;
+      }
+      synchronized (this) {
+        _parses[parse._index] = null;
+      }
+      return result(parse);
+    }
+
+    /**
+     * Waits for every file whose result hasn't been taken to be parsed, and returns those
+     * results in the order of the files. This doesn't take the results, so it can be called
+     * alongside take(), but results that were already taken are left out.
+     *
+     * @return the results of the batch that haven't been taken
+     * @throws InterruptedException if the thread is interrupted while waiting
+     */
+    public List<XML.Batch.Result> results() throws InterruptedException {
+      List<XML.Batch.Result> results = new ArrayList<XML.Batch.Result>();
+      for (Future<XML.Batch.Result> future : futures()) {
+        results.add(result((Batch.Parse) future));
+      }
+      return results;
+    }
+
+    /**
+     * Cancels the parses that haven't started yet. Their results fail with a
+     * CancellationException.
+     */
+    public void cancel() {
+      for (Future<XML.Batch.Result> future : futures()) {
+        future.cancel(false);
+      }
+    }
+
+    private XML.Batch.Result result(Batch.Parse parse) throws InterruptedException {
+      try {
+        return parse.get();
+      }
+      catch (CancellationException e) {
+        return new XML.Batch.Result(parse._index, _files.get(parse._index), null, e);
+      }
+      catch (ExecutionException e) {
+        // the parses catch everything they throw, so this only happens when one was rejected
+        return new XML.Batch.Result(parse._index, _files.get(parse._index), null, e.getCause());
+      }
+    }
+
+    /**
+     * Parse is the task of parsing one file of a batch. It queues itself up to be taken when
+     * it completes (or is cancelled), and submits the next parse of the batch once it has run.
+     */
+    private class Parse extends FutureTask<XML.Batch.Result> {
+      private final int _index;
+
+      public Parse(int index, Callable<XML.Batch.Result> callable) {
+        super(callable);
+        _index = index;
+      }
+
+      @Override
+      public void run() {
+        try {
+          super.run();
+        }
+        finally {
+          submit(1);
+        }
+      }
+
+      @Override
+      protected void done() {
+        _completed.add(this);
+      }
+
+      protected void reject(RejectedExecutionException e) {
+        setException(e);
+      }
+    }
+
+    /**
+     * Result is the outcome of parsing one file of a batch: either a document or the failure
+     * that stopped it.
+     *
+     * @author mschrag
+     */
+    public static class Result {
+      private final int _index;
+      private final File _file;
+      private final XML.Doc _doc;
+      private final Throwable _failure;
+
+      /**
+       * Constructs a new Result.
+       *
+       * @param index the index of the file in the batch
+       * @param file the file that was parsed
+       * @param doc the parsed document (null if the parse failed)
+       * @param failure the failure (null if the parse succeeded)
+       */
+      protected Result(int index, File file, XML.Doc doc, Throwable failure) {
+        _index = index;
+        _file = file;
+        _doc = doc;
+        _failure = failure;
+      }
+
+      /**
+       * Returns the index of the file in the batch.
+       *
+       * @return the index of the file in the batch
+       */
+      public int index() {
+        return _index;
+      }
+
+      /**
+       * Returns the file that was parsed.
+       *
+       * @return the file that was parsed
+       */
+      public File file() {
+        return _file;
+      }
+
+      /**
+       * Returns the parsed document, or null if the parse failed.
+       *
+       * @return the parsed document
+       */
+      public XML.Doc doc() {
+        return _doc;
+      }
+
+      /**
+       * Returns the failure of the parse, or null if it succeeded.
+       *
+       * @return the failure of the parse
+       */
+      public Throwable failure() {
+        return _failure;
+      }
+
+      /**
+       * Returns whether or not the parse failed.
+       *
+       * @return whether or not the parse failed
+       */
+      public boolean isFailed() {
+        return _failure != null;
+      }
+    }
+  }
+
+  /**
+   * <p>
+   * Bind marks the classes and fields an XML.Binder maps to and from elements. On a class, it
+   * names the element the class is written as (the simple name of the class, starting with a
+   * lowercase letter, by default). On a field, it says where the value of the field comes from,
+   * using the same syntax as XML.Path: "name" is the child element with that name, "@name" is
+   * the attribute with that name, and "text()" is the text of the element itself. A field with
+   * an empty Bind is bound to the child element with the name of the field.
+   * </p>
+   *
+   * <pre>
+   * &#64;XML.Bind("person")
+   * public class Person {
+   *   &#64;XML.Bind("@id") private int id;
+   *   &#64;XML.Bind("first-name") private String firstName;
+   *   &#64;XML.Bind("address") private List&lt;Address&gt; addresses;
+   * }
+   * </pre>
+   *
+   * @author mschrag
+   */
+  @Retention(RetentionPolicy.RUNTIME)
+  @Target( { ElementType.TYPE, ElementType.FIELD })
+  public static @interface Bind {
+    /**
+     * Returns the element name (on a class) or the path of the value (on a field).
+     *
+     * @return the name or path of this binding
+     */
+    String value() default "";
+  }
+
+  /**
+   * <p>
+   * Binder maps elements to objects of a class and back, following the XML.Bind annotations of
+   * the fields of the class. The annotations are read once, into a plan of the bound fields and
+   * how each one is converted, and the binder for a class is cached, so binding costs little
+   * more than the equivalent calls to get(..), childText(..) and friends.
+   * </p>
+   *
+   * <p>
+   * Fields can be Strings, primitives (and their wrappers), enums, other classes (bound to a
+   * child element with their own binder), and Lists of any of these (bound to every child
+   * element with the name). Values that are missing from an element are left alone when it is
+   * read, and null values are left out when an object is written. Bound classes need a
+   * constructor without arguments (which doesn't have to be public). Binders are thread-safe.
+   * </p>
+   *
+   * <pre>
+   * XML.Binder&lt;Person&gt; binder = XML.binder(Person.class);
+   * Person person = binder.read(doc.root());
+   * XML.E e = binder.write(person);
+   * </pre>
+   *
+   * @param <T> the bound class
+   * @author mschrag
+   */
+  public static class Binder<T> {
+    private static final Map<Class<?>, XML.Binder<?>> BINDERS = new ConcurrentHashMap<Class<?>, XML.Binder<?>>();
+
+    private final Class<T> _type;
+    private final String _name;
+    private final Constructor<T> _constructor;
+    private final Binder.Property[] _properties;
+
+    /**
+     * Constructs a new Binder, reading the bindings of the given class.
+     *
+     * @param type the class to bind
+     */
+    protected Binder(Class<T> type) {
+      _type = type;
+      XML.Bind bind = type.getAnnotation(XML.Bind.class);
+      if (bind != null && bind.value().length() > 0) {
+        _name = bind.value();
+      }
+      else {
+        _name = Character.toLowerCase(type.getSimpleName().charAt(0)) + type.getSimpleName().substring(1);
+      }
+      try {
+        _constructor = type.getDeclaredConstructor();
+        _constructor.setAccessible(true);
+      }
+      catch (NoSuchMethodException e) {
+        throw new IllegalArgumentException("Unable to bind " + type.getName() + " because it doesn't have a constructor without arguments.", e);
+      }
+      List<Class<?>> hierarchy = new ArrayList<Class<?>>();
+      for (Class<?> c = type; c != null && c != Object.class; c = c.getSuperclass()) {
+        hierarchy.add(0, c);
+      }
+      List<Binder.Property> properties = new ArrayList<Binder.Property>();
+      for (Class<?> c : hierarchy) {
+        for (Field field : c.getDeclaredFields()) {
+          XML.Bind fieldBind = field.getAnnotation(XML.Bind.class);
+          if (fieldBind != null) {
+            if (Modifier.isStatic(field.getModifiers()) || Modifier.isFinal(field.getModifiers())) {
+              throw new IllegalArgumentException("Unable to bind the static or final field " + c.getName() + "." + field.getName() + ".");
+            }
+            field.setAccessible(true);
+            properties.add(new Binder.Property(field, fieldBind.value()));
+          }
+        }
+      }
+      _properties = properties.toArray(new Binder.Property[properties.size()]);
+    }
+
+    /**
+     * Returns the (cached) binder for the given class.
+     *
+     * @param <T> the bound class
+     * @param type the class to bind
+     * @return the binder for the class
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> XML.Binder<T> forClass(Class<T> type) {
+      XML.Binder<T> binder = (XML.Binder<T>) Binder.BINDERS.get(type);
+      if (binder == null) {
+        binder = new XML.Binder<T>(type);
+        Binder.BINDERS.put(type, binder);
+      }
+      return binder;
+    }
+
+    /**
+     * Returns the name of the elements objects are written as.
+     *
+     * @return the element name of the bound class
+     */
+    public String name() {
+      return _name;
+    }
+
+    /**
+     * Creates an object from the given element.
+     *
+     * @param e the element to read
+     * @return a new object with the values of the element
+     */
+    public T read(XML.E e) {
+      try {
+        T object = _constructor.newInstance();
+        for (Binder.Property property : _properties) {
+          property.read(object, e);
+        }
+        return object;
+      }
+      catch (IllegalArgumentException ex) {
+        throw ex;
+      }
+      catch (Throwable t) {
+        throw new IllegalArgumentException("Failed to bind the element '" + e.name() + "' to " + _type.getName() + ".", t);
+      }
+    }
+
+    /**
+     * Creates an object from each of the given elements.
+     *
+     * @param elements the elements to read
+     * @return a new list of objects with the values of the elements
+     */
+    public List<T> read(List<XML.E> elements) {
+      List<T> objects = new ArrayList<T>(elements.size());
+      for (XML.E e : elements) {
+        objects.add(read(e));
+      }
+      return objects;
+    }
+
+    /**
+     * Writes the given object as a new element.
+     *
+     * @param object the object to write
+     * @return a new element with the values of the object
+     */
+    public XML.E write(T object) {
+      return write(object, _name);
+    }
+
+    /**
+     * Writes the given object as a new element with the given name.
+     *
+     * @param object the object to write
+     * @param name the name of the element
+     * @return a new element with the values of the object
+     */
+    public XML.E write(T object, String name) {
+      XML.E e = XML.e(name);
+      try {
+        for (Binder.Property property : _properties) {
+          property.write(object, e);
+        }
+      }
+      catch (RuntimeException ex) {
+        throw ex;
+      }
+      catch (Error ex) {
+        throw ex;
+      }
+      catch (Throwable t) {
+        throw new IllegalStateException("Failed to write " + _type.getName() + " as an element.", t);
+      }
+      return e;
+    }
+
+    /**
+     * Property is the plan for one bound field: where its value comes from, how it is
+     * converted, and the method handles that read and write the field (primitive fields are
+     * written through a setter of their own type, so their values are never boxed).
+     */
+    private static class Property {
+      private static final int ATTRIBUTE = 1;
+      private static final int CHILD = 2;
+      private static final int TEXT = 3;
+
+      private static final int STRING = 1;
+      private static final int INT = 2;
+      private static final int LONG = 3;
+      private static final int FLOAT = 4;
+      private static final int DOUBLE = 5;
+      private static final int BOOLEAN = 6;
+      private static final int ENUM = 7;
+      private static final int BOUND = 8;
+
+      private final Field _field;
+      private final MethodHandle _getter;
+      private final MethodHandle _setter;
+      private final int _source;
+      private final String _name;
+      private final boolean _list;
+      private final Class<?> _valueType;
+      private final int _conversion;
+      private final boolean _primitive;
+      private volatile XML.Binder<Object> _binder;
+
+      public Property(Field field, String path) {
+        _field = field;
+        if (path.length() == 0) {
+          _source = Property.CHILD;
+          _name = field.getName();
+        }
+        else if (path.equals("text()")) {
+          _source = Property.TEXT;
+          _name = null;
+        }
+        else if (path.startsWith("@")) {
+          _source = Property.ATTRIBUTE;
+          _name = path.substring(1);
+        }
+        else {
+          _source = Property.CHILD;
+          _name = path;
+        }
+        Class<?> type = field.getType();
+        try {
+          MethodHandles.Lookup lookup = MethodHandles.lookup();
+          _getter = lookup.unreflectGetter(field).asType(MethodType.methodType(Object.class, Object.class));
+          _setter = lookup.unreflectSetter(field).asType(MethodType.methodType(void.class, Object.class, type.isPrimitive() ? type : Object.class));
+        }
+        catch (IllegalAccessException e) {
+          throw new IllegalArgumentException("Unable to bind the field " + field + " because it can't be accessed.", e);
+        }
+        _list = List.class.isAssignableFrom(type) || type == Collection.class || type == Iterable.class;
+        if (_list) {
+          Type genericType = field.getGenericType();
+          Type[] arguments = (genericType instanceof ParameterizedType) ? ((ParameterizedType) genericType).getActualTypeArguments() : null;
+          if (!type.isAssignableFrom(ArrayList.class) || arguments == null || arguments.length != 1 || !(arguments[0] instanceof Class) || _source != Property.CHILD) {
+            throw new IllegalArgumentException("Unable to bind the field " + field + " (lists must be of a class, and bound to child elements).");
+          }
+          type = (Class<?>) arguments[0];
+        }
+        _valueType = type;
+        _primitive = type.isPrimitive();
+        if (type == String.class) {
+          _conversion = Property.STRING;
+        }
+        else if (type == int.class || type == Integer.class) {
+          _conversion = Property.INT;
+        }
+        else if (type == long.class || type == Long.class) {
+          _conversion = Property.LONG;
+        }
+        else if (type == float.class || type == Float.class) {
+          _conversion = Property.FLOAT;
+        }
+        else if (type == double.class || type == Double.class) {
+          _conversion = Property.DOUBLE;
+        }
+        else if (type == boolean.class || type == Boolean.class) {
+          _conversion = Property.BOOLEAN;
+        }
+        else if (type.isEnum()) {
+          _conversion = Property.ENUM;
+        }
+        else if (_source == Property.CHILD && !type.isPrimitive() && !type.isArray() && !type.isInterface()) {
+          _conversion = Property.BOUND;
+        }
+        else {
+          throw new IllegalArgumentException("Unable to bind the field " + field + " (" + type.getName() + " can't be bound to " + path + ").");
+        }
+      }
+
+      public void read(Object object, XML.E e) throws Throwable {
+        if (_source == Property.ATTRIBUTE) {
+          String text = e.get(_name);
+          if (text != null) {
+            set(object, e, text);
+          }
+        }
+        else if (_source == Property.TEXT) {
+          String text = e.text();
+          if (text != null) {
+            set(object, e, text);
+          }
+        }
+        else if (_list) {
+          List<XML.E> children = e.children(_name);
+          List<Object> values = new ArrayList<Object>(children.size());
+          for (XML.E child : children) {
+            values.add((_conversion == Property.BOUND) ? binder().read(child) : convert(child, child.text()));
+          }
+          _setter.invokeExact(object, (Object) values);
+        }
+        else {
+          XML.E child = e.child(_name);
+          if (child != null) {
+            if (_conversion == Property.BOUND) {
+              _setter.invokeExact(object, binder().read(child));
+            }
+            else {
+              String text = child.text();
+              if (text != null) {
+                set(object, child, text);
+              }
+            }
+          }
+        }
+      }
+
+      public void write(Object object, XML.E e) throws Throwable {
+        Object value = (Object) _getter.invokeExact(object);
+        if (value == null) {
+          return;
+        }
+        if (_source == Property.ATTRIBUTE) {
+          e.set(_name, text(value));
+        }
+        else if (_source == Property.TEXT) {
+          e.setText(text(value));
+        }
+        else if (_list) {
+          for (Object item : (Iterable<?>) value) {
+            if (item != null) {
+              writeChild(item, e);
+            }
+          }
+        }
+        else {
+          writeChild(value, e);
+        }
+      }
+
+      private void writeChild(Object value, XML.E e) {
+        if (_conversion == Property.BOUND) {
+          e.add(binder().write(value, _name));
+        }
+        else {
+          e.e(_name, text(value));
+        }
+      }
+
+      private void set(Object object, XML.E e, String text) throws Throwable {
+        if (!_primitive) {
+          _setter.invokeExact(object, convert(e, text));
+          return;
+        }
+        try {
+          switch (_conversion) {
+          case Property.INT:
+            _setter.invokeExact(object, Integer.parseInt(text));
+            break;
+          case Property.LONG:
+            _setter.invokeExact(object, Long.parseLong(text));
+            break;
+          case Property.FLOAT:
+            _setter.invokeExact(object, Float.parseFloat(text));
+            break;
+          case Property.DOUBLE:
+            _setter.invokeExact(object, Double.parseDouble(text));
+            break;
+          default:
+            _setter.invokeExact(object, Boolean.parseBoolean(text));
+            break;
+          }
+        }
+        catch (NumberFormatException ex) {
+          throw failed(e, text, ex);
+        }
+      }
+
+      @SuppressWarnings({ "unchecked", "rawtypes" })
+      private Object convert(XML.E e, String text) {
+        if (text == null) {
+          return null;
+        }
+        try {
+          switch (_conversion) {
+          case Property.INT:
+            return Integer.valueOf(text);
+          case Property.LONG:
+            return Long.valueOf(text);
+          case Property.FLOAT:
+            return Float.valueOf(text);
+          case Property.DOUBLE:
+            return Double.valueOf(text);
+          case Property.BOOLEAN:
+            return Boolean.valueOf(text);
+          case Property.ENUM:
+            return Enum.valueOf((Class) _valueType, text);
+          default:
+            return text;
+          }
+        }
+        catch (IllegalArgumentException ex) {
+          throw failed(e, text, ex);
+        }
+      }
+
+      private IllegalArgumentException failed(XML.E e, String text, IllegalArgumentException cause) {
+        return new IllegalArgumentException("Failed to bind '" + text + "' of the element '" + e.name() + "' to the field " + _field.getName() + ".", cause);
+      }
+
+      private String text(Object value) {
+        return (value instanceof Enum) ? ((Enum<?>) value).name() : String.valueOf(value);
+      }
+
+      @SuppressWarnings("unchecked")
+      private XML.Binder<Object> binder() {
+        // looked up on first use, so classes can refer to each other (or themselves)
+        XML.Binder<Object> binder = _binder;
+        if (binder == null) {
+          binder = (XML.Binder<Object>) XML.Binder.forClass(_valueType);
+          _binder = binder;
+        }
+        return binder;
+      }
+    }
+  }
+
+  /**
+   * Listener is notified of every parse, write and W3C conversion of a document, for example to
+   * forward them to a metrics system or to a profiler (see XML.Operation). Listeners are called
+   * on the thread that runs the operation, so they should be quick and thread-safe. Anything a
+   * listener throws is dropped, so a broken listener never fails an operation (and a listener
+   * whose started call throws isn't told that the operation finished).
+   *
+   * @author mschrag
+   */
+  public static interface Listener {
+    /**
+     * Called before an operation starts. Only the kind and the start time of the operation
+     * are known at this point.
+     *
+     * @param operation the operation that is starting
+     * @return a context to pass back to finished (or null)
+     */
+    public Object started(XML.Operation operation);
+
+    /**
+     * Called after an operation has finished (or failed). The counts of the operation can only
+     * be read while this is called.
+     *
+     * @param operation the operation that finished
+     * @param context the context returned by started
+     */
+    public void finished(XML.Operation operation, Object context);
+  }
+
+  /**
+   * <p>
+   * Operation describes one parse (XML.doc and XML.Parser's doc methods), write (toString,
+   * write and writeTo) or W3C conversion (Doc.w3c) of a document, as it is reported to the
+   * registered XML.Listeners. When no listener is registered, the only cost of the reporting
+   * is one volatile read per operation.
+   * </p>
+   *
+   * <p>
+   * Besides the duration of the operation, an operation knows the number of characters it
+   * read or wrote (or bytes, for a file), and the number of elements, the number of attributes
+   * and the maximum depth of the document. The counts are only worked out if a listener asks
+   * for them, and the elements of a lazily parsed document that haven't been built yet are
+   * not counted.
+   * </p>
+   *
+   * <pre>
+   * XML.Operation.addListener(new XML.Listener() {
+   *   public Object started(XML.Operation operation) {
+   *     return null;
+   *   }
+   *
+   *   public void finished(XML.Operation operation, Object context) {
+   *     metrics.timer(operation.name()).record(operation.duration(), TimeUnit.NANOSECONDS);
+   *   }
+   * });
+   * </pre>
+   *
+   * @author mschrag
+   */
+  public static class Operation {
+    public static final int PARSE = 1;
+    public static final int WRITE = 2;
+    public static final int W3C = 3;
+
+    private static final String[] NAMES = { null, "parse", "write", "w3c" };
+    private static final Object FAILED = new Object();
+    private static volatile XML.Listener[] LISTENERS = new XML.Listener[0];
+
+    private final int _kind;
+    private final XML.Listener[] _listeners;
+    private final Object[] _contexts;
+    private final long _startTime;
+    private long _duration;
+    private long _size;
+    private Throwable _failure;
+    private boolean _finished;
+
+    private XML.Item _item;
+    private boolean _counted;
+    private int _elements;
+    private int _attributes;
+    private int _maxDepth;
+
+    /**
+     * Constructs a new Operation, and tells the given listeners that it has started.
+     *
+     * @param kind the kind of operation (PARSE, WRITE or W3C)
+     * @param listeners the listeners to report to
+     */
+    protected Operation(int kind, XML.Listener[] listeners) {
+      _kind = kind;
+      _listeners = listeners;
+      _contexts = new Object[listeners.length];
+      _size = -1;
+      _startTime = System.nanoTime();
+      for (int i = 0; i < listeners.length; i++) {
+        try {
+          _contexts[i] = listeners[i].started(this);
+        }
+        catch (Throwable t) {
+          // a broken listener must not fail the operation; it just isn't told that it finished
+          _contexts[i] = Operation.FAILED;
+        }
+      }
+    }
+
+    /**
+     * Registers a listener to be told about every operation.
+     *
+     * @param listener the listener to add
+     */
+    public static synchronized void addListener(XML.Listener listener) {
+      XML.Listener[] listeners = Arrays.copyOf(Operation.LISTENERS, Operation.LISTENERS.length + 1);
+      listeners[listeners.length - 1] = listener;
+      Operation.LISTENERS = listeners;
+    }
+
+    /**
+     * Unregisters a listener.
+     *
+     * @param listener the listener to remove
+     */
+    public static synchronized void removeListener(XML.Listener listener) {
+      List<XML.Listener> listeners = new ArrayList<XML.Listener>(Arrays.asList(Operation.LISTENERS));
+      listeners.remove(listener);
+      Operation.LISTENERS = listeners.toArray(new XML.Listener[listeners.size()]);
+    }
+
+    /**
+     * Starts an operation of the given kind, or returns null if there are no listeners to
+     * report it to.
+     *
+     * @param kind the kind of operation
+     * @return the new operation, or null if there are no listeners
+     */
+    protected static XML.Operation start(int kind) {
+      XML.Listener[] listeners = Operation.LISTENERS;
+      return (listeners.length == 0) ? null : new XML.Operation(kind, listeners);
+    }
+
+    /**
+     * Records that the given operation (if it isn't null) succeeded. Its listeners are told
+     * when it finishes.
+     *
+     * @param operation the operation that succeeded (or null)
+     * @param item the document or item that was processed
+     * @param size the number of characters or bytes that were processed (or -1 if it isn't known)
+     */
+    protected static void succeed(XML.Operation operation, XML.Item item, long size) {
+      if (operation != null) {
+        operation._item = item;
+        operation._size = size;
+      }
+    }
+
+    /**
+     * Records that the given operation (if it isn't null) failed. Its listeners are told when
+     * it finishes.
+     *
+     * @param operation the operation that failed (or null)
+     * @param failure the failure of the operation
+     */
+    protected static void fail(XML.Operation operation, Throwable failure) {
+      if (operation != null) {
+        operation._item = null;
+        operation._failure = failure;
+      }
+    }
+
+    /**
+     * Finishes the given operation (if it isn't null and hasn't finished yet), reporting it to
+     * its listeners. This is called from a finally block, and it never throws: anything a
+     * listener throws is dropped.
+     *
+     * @param operation the operation to finish (or null)
+     */
+    protected static void finish(XML.Operation operation) {
+      if (operation != null && !operation._finished) {
+        operation._finished = true;
+        operation._duration = System.nanoTime() - operation._startTime;
+        for (int i = 0; i < operation._listeners.length; i++) {
+          if (operation._contexts[i] != Operation.FAILED) {
+            try {
+              operation._listeners[i].finished(operation, operation._contexts[i]);
+            }
+            catch (Throwable t) {
+              // a broken listener must not fail the operation
+            }
+          }
+        }
+        operation._item = null;
+      }
+    }
+
+    /**
+     * Returns the kind of this operation (PARSE, WRITE or W3C).
+     *
+     * @return the kind of this operation
+     */
+    public int kind() {
+      return _kind;
+    }
+
+    /**
+     * Returns the name of the kind of this operation ("parse", "write" or "w3c").
+     *
+     * @return the name of this operation
+     */
+    public String name() {
+      return Operation.NAMES[_kind];
+    }
+
+    /**
+     * Returns the System.nanoTime() at which this operation started.
+     *
+     * @return the start time of this operation
+     */
+    public long startTime() {
+      return _startTime;
+    }
+
+    /**
+     * Returns the number of nanoseconds this operation took.
+     *
+     * @return the duration of this operation
+     */
+    public long duration() {
+      return _duration;
+    }
+
+    /**
+     * Returns the number of characters (or bytes, when parsing a file) this operation read or
+     * wrote, or -1 if it isn't known.
+     *
+     * @return the size of the input or output of this operation
+     */
+    public long size() {
+      return _size;
+    }
+
+    /**
+     * Returns the failure of this operation, or null if it succeeded.
+     *
+     * @return the failure of this operation
+     */
+    public Throwable failure() {
+      return _failure;
+    }
+
+    /**
+     * Returns the number of elements in the document (or item) of this operation.
+     *
+     * @return the number of elements
+     */
+    public int elements() {
+      count();
+      return _elements;
+    }
+
+    /**
+     * Returns the number of attributes in the document (or item) of this operation.
+     *
+     * @return the number of attributes
+     */
+    public int attributes() {
+      count();
+      return _attributes;
+    }
+
+    /**
+     * Returns the maximum depth of the elements in the document (or item) of this operation
+     * (1 if there is only a root element).
+     *
+     * @return the maximum depth
+     */
+    public int maxDepth() {
+      count();
+      return _maxDepth;
+    }
+
+    private void count() {
+      if (_counted) {
+        return;
+      }
+      _counted = true;
+      XML.E root = null;
+      if (_item instanceof XML.Doc) {
+        root = ((XML.Doc) _item).root();
+      }
+      else if (_item instanceof XML.E) {
+        root = (XML.E) _item;
+      }
+      if (root != null) {
+        root.walk(new XML.Walker() {
+          private int _depth;
+
+          public int enter(XML.Item item) {
+            if (!(item instanceof XML.E)) {
+              return XML.Walker.SKIP;
+            }
+            XML.E e = (XML.E) item;
+            _elements++;
+            _maxDepth = Math.max(_maxDepth, _depth + 1);
+            if (e._attributes != null) {
+              _attributes += e._attributes.size();
+            }
+            // elements that haven't been built by a lazy parse yet aren't counted (or built)
+            if (e._deferred != null) {
+              return XML.Walker.SKIP;
+            }
+            _depth++;
+            return XML.Walker.CONTINUE;
+          }
+
+          public int leave(XML.Item item) {
+            _depth--;
+            return XML.Walker.CONTINUE;
+          }
+        });
+      }
+    }
+  }
+
+  /**
+   * <p>
+   * Binary reads and writes the binary form of an XML.Doc, which is much faster to load than
+   * XML text. Every item type has a one byte tag, numbers are written as variable length
+   * integers, and strings are written as their UTF-8 length followed by their UTF-8 bytes.
+   * Element and attribute names go through a name table (in the spirit of Fast Infoset): the
+   * first time a name appears it is written out and added to the table, and after that it is
+   * written as its index in the table. Short values (attribute values and text of up to 64
+   * characters) go through a value table the same way, so repeated values are only decoded
+   * once and share one String when they are read back.
+   * </p>
+   * 
+   * <p>
+   * After the magic number and the version, the bytes are written in chunks that are each
+   * prefixed with their length, and ended by an empty chunk, so the reader never reads past
+   * the end of the document and the rest of the stream can be read by someone else. (Version
+   * 1 documents, which weren't chunked, are still read, but the reader reads ahead of them.)
+   * </p>
+   * 
+   * <pre>
+   * stream   := 'X' 'I' 'S' 'B' version (length byte{length})* 0
+   * document := item-count item* (the bytes of the chunks, one after the other)
+   * item     := DECLARATION string string
+   *           | ELEMENT name attribute-count (name value)* child-count item*
+   *           | TEXT value | CDATA value | COMMENT value
+   * name     := index (followed by a string if the index is the size of the name table)
+   * value    := 0 (null) | 1 string (not in the value table) | index + 2 (in the value table)
+   * string   := length + 1 (0 for null) followed by that many UTF-8 bytes
+   * </pre>
+   * 
+   * @author mschrag
+   */
+  protected static class Binary {
+    private static final byte[] MAGIC = { 'X', 'I', 'S', 'B' };
+    private static final int VERSION = 2;
+    private static final int UNCHUNKED_VERSION = 1;
+
+    private static final int DECLARATION = 1;
+    private static final int ELEMENT = 2;
+    private static final int TEXT = 3;
+    private static final int CDATA = 4;
+    private static final int COMMENT = 5;
+    private static final int MAX_TABLE_VALUE_LENGTH = 64;
+
+    private OutputStream _out;
+    private InputStream _in;
+    private byte[] _buffer;
+    private int _position;
+    private int _limit;
+    private int _chunk;
+    private char[] _chars;
+    private Map<String, Integer> _nameIndexes;
+    private List<String> _names;
+    private Map<String, Integer> _valueIndexes;
+    private List<String> _values;
+
+    /**
+     * Constructs a new Binary that writes to the given stream.
+     * 
+     * @param out the stream to write to
+     */
+    public Binary(OutputStream out) {
+      _out = out;
+      _buffer = new byte[8192];
+      _nameIndexes = new HashMap<String, Integer>();
+      _valueIndexes = new HashMap<String, Integer>();
     }
 
     /**
-     * Creates and appends a new comment node to this element.
+     * Constructs a new Binary that reads from the given stream.
      * 
-     * @param comment the comment value to append
-     * @return the new comment node
+     * @param in the stream to read from
      */
-    public XML.Comment comment(String comment) {
-      return add(XML.comment(comment));
+    public Binary(InputStream in) {
+      _in = in;
+      _buffer = new byte[8192];
+      _chars = new char[256];
+      _names = new ArrayList<String>();
+      _values = new ArrayList<String>();
     }
 
     /**
-     * Removes the given node from this element.
+     * Writes the given document (and flushes the buffered bytes to the stream).
      * 
-     * @param child the child node to remove
+     * @param doc the document to write
+     * @throws IOException if the stream cannot be written to
      */
-    public void remove(XML.Node child) {
-      if (_children != null) {
-        _children.remove(child);
-        if (_children.size() == 0) {
-          _children = null;
+    public void write(XML.Doc doc) throws IOException {
+      _out.write(Binary.MAGIC);
+      _out.write(Binary.VERSION);
+      List<XML.Item> children = doc.children();
+      writeNumber(children.size());
+      for (XML.Item child : children) {
+        if (child instanceof XML.E) {
+          writeElement((XML.E) child);
+        }
+        else {
+          writeItem(child);
         }
       }
+      flush();
+      _out.write(0);
     }
 
     /**
-     * Adds a new node to this element.
+     * Reads a document.
      * 
-     * @param <T> the type of the node to add
-     * @param child the child to add
-     * @return the added child
+     * @return the document that was read
+     * @throws IOException if the stream cannot be read or is not a binary document
      */
-    public <T extends XML.Node> T add(T child) {
-      child.setParent(this);
-      if (_children == null) {
-        _children = new LinkedList<Node>();
+    public XML.Doc read() throws IOException {
+      for (byte b : Binary.MAGIC) {
+        if (_in.read() != b) {
+          throw new IOException("The stream does not contain a binary XISS document.");
+        }
       }
-      _children.add(child);
-      return child;
+      int version = _in.read();
+      if (version == Binary.UNCHUNKED_VERSION) {
+        _chunk = -1;
+      }
+      else if (version != Binary.VERSION) {
+        throw new IOException("Unsupported binary XISS document version " + version + ".");
+      }
+      XML.Doc doc = XML.doc();
+      doc.setDeclaration(null);
+      int count = readNumber();
+      for (int i = 0; i < count; i++) {
+        int tag = readByte();
+        if (tag == Binary.ELEMENT) {
+          doc.add(readElement());
+        }
+        else {
+          doc.add(readItem(tag));
+        }
+      }
+      if (_chunk != -1 && (_position != _limit || _chunk != 0 || readChunkLength() != 0)) {
+        throw new IOException("The binary XISS document has bytes after its last item.");
+      }
+      return doc;
     }
 
-    /**
-     * Writes the attributes of this element to the writer.
-     * 
-     * @param writer the writer to write attributes to
-     */
-    protected void writeAttributes(PrintWriter writer) {
-      if (_attributes != null) {
-        for (XML.Attr attribute : _attributes) {
-          writer.print(" ");
-          writer.print(attribute.name());
-          writer.print("=\"");
-          writeEscapedString(attribute.value(), writer);
-          writer.print("\"");
+    private void writeElement(XML.E root) throws IOException {
+      final IOException[] failure = new IOException[1];
+      root.walk(new XML.Walker() {
+        public int enter(XML.Item item) {
+          try {
+            if (!(item instanceof XML.E)) {
+              writeItem(item);
+              return XML.Walker.SKIP;
+            }
+            XML.E e = (XML.E) item;
+            writeByte(Binary.ELEMENT);
+            writeName(e.name());
+            List<XML.Attr> attributes = e.attributes();
+            writeNumber(attributes == null ? 0 : attributes.size());
+            if (attributes != null) {
+              for (XML.Attr attribute : attributes) {
+                writeName(attribute.name());
+                writeValue(attribute.value());
+              }
+            }
+            writeNumber(e.children() == null ? 0 : e.children().size());
+            return XML.Walker.CONTINUE;
+          }
+          catch (IOException e) {
+            failure[0] = e;
+            return XML.Walker.STOP;
+          }
+        }
+
+        public int leave(XML.Item item) {
+          return XML.Walker.CONTINUE;
         }
+      });
+      if (failure[0] != null) {
+        throw failure[0];
       }
     }
 
-    @Override
-    public void write(PrintWriter writer, int indent) {
-      writeIndent(indent, writer);
-      if (_children != null && _children.size() > 0) {
-        writer.print("<");
-        writer.print(_name);
-        writeAttributes(writer);
-        writer.print(">");
-        if (_children.size() == 1 && _children.get(0) instanceof XML.Text) {
-          _children.get(0).write(writer, 0);
+    private void writeItem(XML.Item item) throws IOException {
+      if (item instanceof XML.Declaration) {
+        XML.Declaration declaration = (XML.Declaration) item;
+        writeByte(Binary.DECLARATION);
+        writeString(declaration.version());
+        writeString(declaration.encoding());
+      }
+      else if (item instanceof XML.Text) {
+        writeByte(Binary.TEXT);
+        writeValue(((XML.Text) item).text());
+      }
+      else if (item instanceof XML.CDATA) {
+        writeByte(Binary.CDATA);
+        writeValue(((XML.CDATA) item).text());
+      }
+      else if (item instanceof XML.Comment) {
+        writeByte(Binary.COMMENT);
+        writeValue(((XML.Comment) item).text());
+      }
+      else {
+        throw new IllegalArgumentException("Unable to write items of type '" + item.getClass().getName() + "'.");
+      }
+    }
+
+    private XML.E readElement() throws IOException {
+      List<XML.E> elements = new ArrayList<XML.E>();
+      int[] remaining = new int[16];
+      XML.E root = null;
+      XML.E current = null;
+      int depth = 0;
+      int tag = Binary.ELEMENT;
+      while (true) {
+        if (tag == Binary.ELEMENT) {
+          XML.E e = XML.e(readName());
+          int attributeCount = readNumber();
+          e.ensureCapacity(attributeCount, 0);
+          for (int i = 0; i < attributeCount; i++) {
+            e.add(new XML.Attr(readName(), readValue()));
+          }
+          int childCount = readNumber();
+          e.ensureCapacity(0, childCount);
+          if (current == null) {
+            root = e;
+          }
+          else {
+            current.add(e);
+          }
+          if (depth == remaining.length) {
+            int[] newRemaining = new int[depth * 2];
+            System.arraycopy(remaining, 0, newRemaining, 0, depth);
+            remaining = newRemaining;
+          }
+          elements.add(e);
+          remaining[depth++] = childCount;
+          current = e;
+        }
+        else {
+          current.add((XML.Node) readItem(tag));
+        }
+        while (depth > 0 && remaining[depth - 1] == 0) {
+          elements.remove(--depth);
+          current = (depth == 0) ? null : elements.get(depth - 1);
+        }
+        if (depth == 0) {
+          return root;
+        }
+        remaining[depth - 1]--;
+        tag = readByte();
+      }
+    }
+
+    private XML.Item readItem(int tag) throws IOException {
+      switch (tag) {
+      case Binary.DECLARATION:
+        return new XML.Declaration(readString(), readString());
+      case Binary.TEXT:
+        return new XML.Text(readValue());
+      case Binary.CDATA:
+        return new XML.CDATA(readValue());
+      case Binary.COMMENT:
+        return new XML.Comment(readValue());
+      default:
+        throw new IOException("Unknown item tag " + tag + ".");
+      }
+    }
+
+    private void writeName(String name) throws IOException {
+      Integer index = _nameIndexes.get(name);
+      if (index == null) {
+        int newIndex = _nameIndexes.size();
+        _nameIndexes.put(name, Integer.valueOf(newIndex));
+        writeNumber(newIndex);
+        writeString(name);
+      }
+      else {
+        writeNumber(index.intValue());
+      }
+    }
+
+    private String readName() throws IOException {
+      int index = readNumber();
+      if (index < _names.size()) {
+        return _names.get(index);
+      }
+      if (index != _names.size()) {
+        throw new IOException("Invalid name index " + index + ".");
+      }
+      String name = readString();
+      _names.add(name);
+      return name;
+    }
+
+    private void writeValue(String value) throws IOException {
+      if (value == null) {
+        writeNumber(0);
+      }
+      else if (value.length() > Binary.MAX_TABLE_VALUE_LENGTH) {
+        writeNumber(1);
+        writeString(value);
+      }
+      else {
+        Integer index = _valueIndexes.get(value);
+        if (index == null) {
+          _valueIndexes.put(value, Integer.valueOf(_valueIndexes.size()));
+          writeNumber(1);
+          writeString(value);
         }
         else {
-          writer.println();
-          for (XML.Node node : _children) {
-            node.write(writer, indent + 1);
+          writeNumber(index.intValue() + 2);
+        }
+      }
+    }
+
+    private String readValue() throws IOException {
+      int index = readNumber();
+      if (index == 0) {
+        return null;
+      }
+      else if (index == 1) {
+        String value = readString();
+        if (value.length() <= Binary.MAX_TABLE_VALUE_LENGTH) {
+          _values.add(value);
+        }
+        return value;
+      }
+      else if (index - 2 < _values.size()) {
+        return _values.get(index - 2);
+      }
+      throw new IOException("Invalid value index " + index + ".");
+    }
+
+    private void writeString(String value) throws IOException {
+      if (value == null) {
+        writeNumber(0);
+        return;
+      }
+      int length = value.length();
+      int byteLength = length;
+      for (int i = 0; i < length; i++) {
+        char c = value.charAt(i);
+        if (c >= 0x80) {
+          if (c < 0x800) {
+            byteLength++;
+          }
+          else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(value.charAt(i + 1))) {
+            byteLength += 2;
+            i++;
           }
-          writeIndent(indent, writer);
+          else if (c < Character.MIN_SURROGATE || c > Character.MAX_SURROGATE) {
+            byteLength += 2;
+          }
+        }
+      }
+      writeNumber(byteLength + 1);
+      byte[] buffer = _buffer;
+      int position = _position;
+      for (int i = 0; i < length; i++) {
+        if (position > buffer.length - 4) {
+          _position = position;
+          flush();
+          position = 0;
+        }
+        char c = value.charAt(i);
+        if (c < 0x80) {
+          buffer[position++] = (byte) c;
+        }
+        else if (c < 0x800) {
+          buffer[position++] = (byte) (0xC0 | (c >> 6));
+          buffer[position++] = (byte) (0x80 | (c & 0x3F));
+        }
+        else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(value.charAt(i + 1))) {
+          int codePoint = Character.toCodePoint(c, value.charAt(++i));
+          buffer[position++] = (byte) (0xF0 | (codePoint >> 18));
+          buffer[position++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+          buffer[position++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+          buffer[position++] = (byte) (0x80 | (codePoint & 0x3F));
         }
-        writer.print("</");
-        writer.print(_name);
-        writer.println(">");
+        else if (c >= Character.MIN_SURROGATE && c <= Character.MAX_SURROGATE) {
+          buffer[position++] = (byte) '?';
+        }
+        else {
+          buffer[position++] = (byte) (0xE0 | (c >> 12));
+          buffer[position++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+          buffer[position++] = (byte) (0x80 | (c & 0x3F));
+        }
+      }
+      _position = position;
+    }
+
+    private String readString() throws IOException {
+      int length = readNumber() - 1;
+      if (length == -1) {
+        return null;
+      }
+      byte[] bytes;
+      int offset;
+      if (length <= _buffer.length) {
+        ensureAvailable(length);
+        bytes = _buffer;
+        offset = _position;
+        _position += length;
       }
       else {
-        writer.print("<");
-        writer.print(_name);
-        writeAttributes(writer);
-        writer.println(" />");
+        bytes = new byte[length];
+        offset = 0;
+        int count = Math.min(length, _limit - _position);
+        System.arraycopy(_buffer, _position, bytes, 0, count);
+        _position += count;
+        while (count < length) {
+          count += readChunk(bytes, count, length - count);
+        }
+      }
+      if (_chars.length < length) {
+        _chars = new char[Math.max(length, _chars.length * 2)];
+      }
+      char[] chars = _chars;
+      int charCount = 0;
+      int end = offset + length;
+      for (int i = offset; i < end; i++) {
+        int b = bytes[i];
+        if (b >= 0) {
+          chars[charCount++] = (char) b;
+        }
+        else if ((b & 0xE0) == 0xC0) {
+          chars[charCount++] = (char) (((b & 0x1F) << 6) | (bytes[++i] & 0x3F));
+        }
+        else if ((b & 0xF0) == 0xE0) {
+          chars[charCount++] = (char) (((b & 0x0F) << 12) | ((bytes[++i] & 0x3F) << 6) | (bytes[++i] & 0x3F));
+        }
+        else {
+          int codePoint = (((b & 0x07) << 18) | ((bytes[++i] & 0x3F) << 12) | ((bytes[++i] & 0x3F) << 6) | (bytes[++i] & 0x3F)) - 0x10000;
+          chars[charCount++] = (char) (0xD800 + (codePoint >>> 10));
+          chars[charCount++] = (char) (0xDC00 + (codePoint & 0x3FF));
+        }
       }
+      return new String(chars, 0, charCount);
     }
 
-    @Override
-    public org.w3c.dom.Node w3c(Document doc) {
-      Element e = doc.createElement(_name);
-      if (_attributes != null) {
-        for (XML.Attr attribute : _attributes) {
-          e.setAttribute(attribute.name(), attribute.value());
+    private void writeNumber(int value) throws IOException {
+      while ((value & ~0x7F) != 0) {
+        writeByte((value & 0x7F) | 0x80);
+        value >>>= 7;
+      }
+      writeByte(value);
+    }
+
+    private int readNumber() throws IOException {
+      int value = 0;
+      int shift = 0;
+      int b;
+      do {
+        b = readByte();
+        value |= (b & 0x7F) << shift;
+        shift += 7;
+      } while ((b & 0x80) != 0);
+      return value;
+    }
+
+    private void writeByte(int b) throws IOException {
+      if (_position == _buffer.length) {
+        flush();
+      }
+      _buffer[_position++] = (byte) b;
+    }
+
+    private int readByte() throws IOException {
+      if (_position == _limit) {
+        ensureAvailable(1);
+      }
+      return _buffer[_position++] & 0xFF;
+    }
+
+    private void ensureAvailable(int length) throws IOException {
+      if (_limit - _position < length) {
+        System.arraycopy(_buffer, _position, _buffer, 0, _limit - _position);
+        _limit -= _position;
+        _position = 0;
+        while (_limit < length) {
+          _limit += readChunk(_buffer, _limit, _buffer.length - _limit);
         }
       }
-      if (_children != null) {
-        for (XML.Node child : _children) {
-          org.w3c.dom.Node childNode = child.w3c(doc);
-          e.appendChild(childNode);
+    }
+
+    /**
+     * Reads up to the given number of bytes, without reading past the end of the current chunk
+     * (moving on to the next chunk if the current one has been read), and returns how many
+     * were read.
+     */
+    private int readChunk(byte[] bytes, int offset, int length) throws IOException {
+      if (_chunk == 0) {
+        _chunk = readChunkLength();
+        if (_chunk == 0) {
+          throw new EOFException();
         }
       }
-      return e;
+      int read = _in.read(bytes, offset, (_chunk == -1) ? length : Math.min(length, _chunk));
+      if (read == -1) {
+        throw new EOFException();
+      }
+      if (_chunk != -1) {
+        _chunk -= read;
+      }
+      return read;
+    }
+
+    private int readChunkLength() throws IOException {
+      int value = 0;
+      int shift = 0;
+      int b;
+      do {
+        b = _in.read();
+        if (b == -1) {
+          throw new EOFException();
+        }
+        value |= (b & 0x7F) << shift;
+        shift += 7;
+      } while ((b & 0x80) != 0);
+      return value;
     }
-  }
 
-  /**
-   * Visitor is an interface that can be passed to the visit
-   * method of any XML.Item to walk the DOM.
-   * 
-   * @author mschrag
-   */
-  public static interface Visitor {
     /**
-     * Called by the visit method of each item.
-     * 
-     * @param item the item being visited
-     * @return true if the children of the given item should be visited, false if it should skip the children
+     * Writes the buffered bytes to the stream as one chunk.
      */
-    public boolean visit(XML.Item item);
+    private void flush() throws IOException {
+      if (_position > 0) {
+        int length = _position;
+        while ((length & ~0x7F) != 0) {
+          _out.write((length & 0x7F) | 0x80);
+          length >>>= 7;
+        }
+        _out.write(length);
+        _out.write(_buffer, 0, _position);
+        _position = 0;
+      }
+    }
   }
 
   /**
@@ -1301,20 +9937,7 @@ public class XML {
    * @return a new parsed document
    */
   public static XML.Doc doc(String documentString) {
-    try {
-    	XML.Doc doc;
-    	if (documentString == null || documentString.trim().length() == 0) {
-    		doc = XML.doc();
-    	}
-    	else {
-    		Document document = DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(new InputSource(new StringReader(documentString)));
-      	doc = XML.doc(document);
-    	}
-    	return doc;
-    }
-    catch (Throwable t) {
-      throw new IllegalArgumentException("Failed to parse a document from the provided string.", t);
-    }
+    return XML.Parser.DEFAULT.doc(documentString);
   }
 
   /**
@@ -1324,13 +9947,7 @@ public class XML {
    * @return a new parsed document
    */
   public static XML.Doc doc(Reader reader) {
-    try {
-      Document document = DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(new InputSource(reader));
-      return XML.doc(document);
-    }
-    catch (Throwable t) {
-      throw new IllegalArgumentException("Failed to parse a document from the provided reader.", t);
-    }
+    return XML.Parser.DEFAULT.doc(reader);
   }
 
   /**
@@ -1340,15 +9957,148 @@ public class XML {
    * @return a new parsed document
    */
   public static XML.Doc doc(File file) {
+    return XML.Parser.DEFAULT.doc(file);
+  }
+
+  /**
+   * Creates and return a document parsed from the file at the given path.
+   * 
+   * @param path the path of the file to parse from
+   * @return a new parsed document
+   */
+  public static XML.Doc doc(java.nio.file.Path path) {
+    return XML.Parser.DEFAULT.doc(path);
+  }
+
+  /**
+   * Returns an iterator over every element with the given name in the document read from the
+   * given reader. Elements are parsed one at a time as the iterator advances, and the reader
+   * is not closed.
+   *
+   * @param reader the reader to parse from
+   * @param elementName the name of the elements to return
+   * @return an iterator over the matching elements
+   */
+  public static XML.ElementIterator stream(Reader reader, String elementName) {
+    return XML.Parser.DEFAULT.stream(reader, elementName);
+  }
+
+  /**
+   * Returns an iterator over every element with the given name in the document read from the
+   * given file. Elements are parsed one at a time as the iterator advances, and the file is
+   * closed when the iterator reaches the end of the document (or when it is closed).
+   *
+   * @param file the file to parse from
+   * @param elementName the name of the elements to return
+   * @return an iterator over the matching elements
+   */
+  public static XML.ElementIterator stream(File file, String elementName) {
+    return XML.Parser.DEFAULT.stream(file, elementName);
+  }
+
+  /**
+   * Creates and returns a new Parser with the default options. Configure it once and then
+   * share it; it is safe to use from many threads at the same time.
+   * 
+   * @return a new parser
+   */
+  public static XML.Parser parser() {
+    return new XML.Parser();
+  }
+
+  /**
+   * Parses a tape (a compact, read-only form of a document) from the given string.
+   * 
+   * @param documentString the string to parse as XML
+   * @return a new parsed tape
+   */
+  public static XML.Tape tape(String documentString) {
+    return XML.Parser.DEFAULT.tape(documentString);
+  }
+
+  /**
+   * Parses a tape (a compact, read-only form of a document) from the given reader.
+   * 
+   * @param reader the reader to parse from
+   * @return a new parsed tape
+   */
+  public static XML.Tape tape(Reader reader) {
+    return XML.Parser.DEFAULT.tape(reader);
+  }
+
+  /**
+   * Parses a tape (a compact, read-only form of a document) from the given file.
+   * 
+   * @param file the file to parse from
+   * @return a new parsed tape
+   */
+  public static XML.Tape tape(File file) {
+    return XML.Parser.DEFAULT.tape(file);
+  }
+
+  /**
+   * Returns a new extractor that pulls typed columns out of the records matched by the given
+   * record path (see XML.Columns).
+   * 
+   * @param recordPath the path of the record elements
+   * @return a new column extractor
+   */
+  public static XML.Columns columns(String recordPath) {
+    return XML.Parser.DEFAULT.columns(recordPath);
+  }
+
+  /**
+   * Parses each of the given files on a pool of one thread per processor, reporting the
+   * document or the failure of each file without stopping the rest (see XML.Batch).
+   * 
+   * @param files the files to parse
+   * @return the batch of parses
+   */
+  public static XML.Batch parseAll(Collection<File> files) {
+    return XML.Parser.DEFAULT.parseAll(files, Runtime.getRuntime().availableProcessors());
+  }
+
+  /**
+   * Returns the (cached) binder that maps elements to objects of the given class and back
+   * (see XML.Binder).
+   * 
+   * @param <T> the bound class
+   * @param type the class to bind
+   * @return the binder for the class
+   */
+  public static <T> XML.Binder<T> binder(Class<T> type) {
+    return XML.Binder.forClass(type);
+  }
+
+  /**
+   * Reads a document written by Doc.writeBinary from the given stream. The stream is not
+   * closed, and nothing after the end of the document is read from it, so whatever follows
+   * the document can be read from the stream afterwards.
+   * 
+   * @param stream the stream to read from
+   * @return the document that was read
+   */
+  public static XML.Doc readBinary(InputStream stream) {
     try {
-      Document document = DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(file);
-      return XML.doc(document);
+      return new XML.Binary(stream).read();
     }
     catch (Throwable t) {
-      throw new IllegalArgumentException("Failed to parse a document from the provided file.", t);
+      throw new IllegalArgumentException("Failed to read a binary document from the provided stream.", t);
     }
   }
 
+  /**
+   * Compiles a path expression. The returned path can be evaluated against any number of
+   * documents or elements, from any number of threads.
+   * 
+   * @param expression the path expression to compile
+   * @return the compiled path
+   * @throws IllegalArgumentException if the expression is not a valid path
+   */
+  public static XML.Path path(String expression) {
+    return new XML.Path(expression);
+  }
+
   /**
    * Converts a W3C Element into an XML.E.
    * 
@@ -1356,34 +10106,54 @@ public class XML {
    * @return the equivalent XML.E
    */
   public static XML.E e(Element w3cElement) {
-    XML.E e = XML.e(w3cElement.getNodeName());
-    org.w3c.dom.NamedNodeMap attributes = w3cElement.getAttributes();
-    for (int i = 0; i < attributes.getLength(); i++) {
-      org.w3c.dom.Node w3cAttribute = attributes.item(i);
-      String attributeName = w3cAttribute.getNodeName();
-      String attributeValue = w3cAttribute.getNodeValue();
-      e.set(attributeName, attributeValue);
-    }
-    org.w3c.dom.NodeList w3cChildren = w3cElement.getChildNodes();
-    for (int i = 0; i < w3cChildren.getLength(); i++) {
-      org.w3c.dom.Node w3cChild = w3cChildren.item(i);
-      if (w3cChild instanceof org.w3c.dom.Text) {
+    XML.E root = XML.e(w3cElement.getNodeName());
+    XML.copyAttributes(w3cElement, root, w3cElement.getChildNodes());
+    // the W3C element whose children are being converted, its XML.E, and the next child to
+    // convert (the W3C tree links each node to its parent and next sibling, so no stack is
+    // needed to find the way back up)
+    org.w3c.dom.Node w3cParent = w3cElement;
+    XML.E e = root;
+    org.w3c.dom.Node w3cChild = w3cElement.getFirstChild();
+    while (w3cChild != null || w3cParent != w3cElement) {
+      if (w3cChild == null) {
+        w3cChild = w3cParent.getNextSibling();
+        w3cParent = w3cParent.getParentNode();
+        e = (XML.E) e.parent();
+      }
+      else if (w3cChild instanceof org.w3c.dom.Text) {
         e.text(((org.w3c.dom.Text) w3cChild).getNodeValue());
+        w3cChild = w3cChild.getNextSibling();
       }
       else if (w3cChild instanceof org.w3c.dom.CDATASection) {
         e.cdata(((org.w3c.dom.CDATASection) w3cChild).getNodeValue());
+        w3cChild = w3cChild.getNextSibling();
       }
       else if (w3cChild instanceof org.w3c.dom.Comment) {
         e.comment(((org.w3c.dom.Comment) w3cChild).getNodeValue());
+        w3cChild = w3cChild.getNextSibling();
       }
       else if (w3cChild instanceof org.w3c.dom.Element) {
-        e.add(XML.e((org.w3c.dom.Element) w3cChild));
+        e = e.add(XML.e(w3cChild.getNodeName()));
+        XML.copyAttributes((Element) w3cChild, e, w3cChild.getChildNodes());
+        w3cParent = w3cChild;
+        w3cChild = w3cChild.getFirstChild();
       }
       else {
         throw new IllegalArgumentException("Unable to handle nodes of type '" + w3cChild + "'.");
       }
     }
-    return e;
+    return root;
+  }
+
+  private static void copyAttributes(Element w3cElement, XML.E e, org.w3c.dom.NodeList w3cChildren) {
+    org.w3c.dom.NamedNodeMap attributes = w3cElement.getAttributes();
+    e.ensureCapacity(attributes.getLength(), w3cChildren.getLength());
+    for (int i = 0; i < attributes.getLength(); i++) {
+      org.w3c.dom.Node w3cAttribute = attributes.item(i);
+      String attributeName = w3cAttribute.getNodeName();
+      String attributeValue = w3cAttribute.getNodeValue();
+      e.set(attributeName, attributeValue);
+    }
   }
 
   /**
@@ -1444,6 +10214,13 @@ public class XML {
    */
   public static XML.E e(String name, Object... children) {
     XML.E e = XML.e(name);
+    int attributeCount = 0;
+    for (Object child : children) {
+      if (child instanceof XML.Attr) {
+        attributeCount++;
+      }
+    }
+    e.ensureCapacity(attributeCount, children.length - attributeCount);
     for (Object child : children) {
       if (child instanceof String) {
         e.text((String) child);
@@ -0,0 +1,142 @@
+package org.xiss;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+
+public class BatchTest extends TestCase {
+  private List<File> _files;
+
+  @Override
+  protected void setUp() throws Exception {
+    _files = new ArrayList<File>();
+    for (int i = 0; i < 50; i++) {
+      File file = File.createTempFile("xiss", ".xml");
+      FileOutputStream out = new FileOutputStream(file);
+      out.write((i % 10 == 3) ? ("<broken><a></broken>").getBytes("UTF-8") : ("<doc index=\"" + i + "\"><a/></doc>").getBytes("UTF-8"));
+      out.close();
+      _files.add(file);
+    }
+    _files.add(new File(_files.get(0).getParentFile(), "xiss-missing-" + System.nanoTime() + ".xml"));
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    for (File file : _files) {
+      file.delete();
+    }
+  }
+
+  public void testResultsInOrder() throws InterruptedException {
+    XML.Batch batch = XML.parseAll(_files);
+    assertEquals(51, batch.size());
+    List<XML.Batch.Result> results = batch.results();
+    assertEquals(51, results.size());
+    int failures = 0;
+    for (int i = 0; i < results.size(); i++) {
+      XML.Batch.Result result = results.get(i);
+      assertEquals(i, result.index());
+      assertEquals(_files.get(i), result.file());
+      if (i % 10 == 3 || i == 50) {
+        assertTrue(result.isFailed());
+        assertNull(result.doc());
+        assertTrue(result.failure() instanceof IllegalArgumentException);
+        failures++;
+      }
+      else {
+        assertFalse(result.isFailed());
+        assertEquals(i, result.doc().root().getInt("index", -1));
+      }
+    }
+    assertEquals(6, failures);
+    assertEquals(51, batch.futures().size());
+  }
+
+  public void testTakeInCompletionOrder() throws InterruptedException {
+    ExecutorService executor = Executors.newFixedThreadPool(3);
+    try {
+      XML.Batch batch = XML.parser().setLazy(true).parseAll(_files, executor);
+      Set<Integer> indexes = new HashSet<Integer>();
+      XML.Batch.Result result;
+      while ((result = batch.take()) != null) {
+        assertTrue(indexes.add(Integer.valueOf(result.index())));
+      }
+      assertEquals(51, indexes.size());
+      assertNull(batch.take());
+    }
+    finally {
+      executor.shutdown();
+    }
+  }
+
+  public void testBoundedAndReleased() throws InterruptedException {
+    final ExecutorService executor = Executors.newFixedThreadPool(4);
+    final AtomicInteger inFlight = new AtomicInteger();
+    final AtomicInteger maxInFlight = new AtomicInteger();
+    try {
+      XML.Batch batch = XML.parser().parseAll(_files, new Executor() {
+        public void execute(final Runnable command) {
+          maxInFlight.set(Math.max(maxInFlight.get(), inFlight.incrementAndGet()));
+          executor.execute(new Runnable() {
+            public void run() {
+              inFlight.decrementAndGet();
+              command.run();
+            }
+          });
+        }
+      }, 2);
+      int taken = 0;
+      while (batch.take() != null) {
+        taken++;
+        assertEquals(51 - taken, batch.futures().size());
+      }
+      assertEquals(51, taken);
+      assertEquals(51, batch.size());
+      assertTrue(batch.results().isEmpty());
+      assertTrue(maxInFlight.get() <= 2);
+    }
+    finally {
+      executor.shutdown();
+    }
+  }
+
+  public void testDirectExecutor() throws InterruptedException {
+    List<File> files = new ArrayList<File>();
+    for (int i = 0; i < 20000; i++) {
+      files.add(_files.get(i % 2));
+    }
+    XML.Batch batch = XML.parser().parseAll(files, new Executor() {
+      public void execute(Runnable command) {
+        command.run();
+      }
+    });
+    int taken = 0;
+    XML.Batch.Result result;
+    while ((result = batch.take()) != null) {
+      assertEquals(result.index() % 2, result.doc().root().getInt("index", -1));
+      taken++;
+    }
+    assertEquals(20000, taken);
+  }
+
+  public void testRejected() throws InterruptedException {
+    ExecutorService executor = Executors.newFixedThreadPool(1);
+    executor.shutdown();
+    XML.Batch batch = XML.parser().parseAll(_files, executor);
+    List<XML.Batch.Result> results = batch.results();
+    assertEquals(51, results.size());
+    for (XML.Batch.Result result : results) {
+      assertTrue(result.failure() instanceof RejectedExecutionException);
+    }
+  }
+}
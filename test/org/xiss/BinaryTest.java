@@ -0,0 +1,102 @@
+package org.xiss;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import junit.framework.AssertionFailedError;
+import junit.framework.TestCase;
+
+public class BinaryTest extends TestCase {
+  private XML.Doc roundTrip(XML.Doc doc) {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    doc.writeBinary(out);
+    return XML.readBinary(new ByteArrayInputStream(out.toByteArray()));
+  }
+
+  public void testRoundTrip() {
+    XML.Doc doc = XML.doc(
+        XML.comment("people"),
+        XML.e("people",
+            XML.e("person", XML.a("id", "1"), XML.a("type", "customer"),
+                XML.e("name", "Mike \u00e9 \u20ac \uD83D\uDE00"),
+                XML.cdata("<cdata>"),
+                XML.comment("comment"),
+                XML.e("empty")),
+            XML.e("person", XML.a("id", "2"), XML.a("type", "customer"), "mixed", XML.e("name", "Anjo"), "text")
+        )
+    );
+    XML.Doc copy = roundTrip(doc);
+    assertEquals(doc.toString(), copy.toString());
+    assertEquals("UTF-8", copy.declaration().encoding());
+    assertSame(copy.root().children("person").get(0).name(), copy.root().children("person").get(1).name());
+
+    doc.setDeclaration(null);
+    assertNull(roundTrip(doc).declaration());
+    assertEquals(doc.toString(), roundTrip(doc).toString());
+  }
+
+  public void testLargeAndDeep() {
+    StringBuilder text = new StringBuilder();
+    for (int i = 0; i < 5000; i++) {
+      text.append("caf\u00e9 ");
+    }
+    XML.E root = XML.e("root", XML.a("large", text.toString()));
+    XML.E e = root;
+    for (int i = 0; i < 5000; i++) {
+      e = e.e("level" + (i % 10));
+    }
+    e.text(text.toString());
+    XML.Doc doc = XML.doc(root);
+    XML.Doc copy = roundTrip(doc);
+    assertEquals(text.toString(), copy.root().get("large"));
+    XML.E deepest = copy.root();
+    for (int i = 0; i < 5000; i++) {
+      deepest = (XML.E) deepest.children().get(0);
+    }
+    assertEquals(text.toString(), deepest.text());
+  }
+
+  public void testStreamIsNotReadPastTheDocument() throws IOException {
+    StringBuilder text = new StringBuilder();
+    for (int i = 0; i < 20000; i++) {
+      text.append("text ").append(i);
+    }
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    XML.doc(XML.e("first", text.toString())).writeBinary(out);
+    XML.doc(XML.e("second")).writeBinary(out);
+    out.write("trailer".getBytes("UTF-8"));
+    ByteArrayInputStream in = new ByteArrayInputStream(out.toByteArray());
+    assertEquals(text.toString(), XML.readBinary(in).root().text());
+    assertEquals("second", XML.readBinary(in).root().name());
+    byte[] trailer = new byte[7];
+    assertEquals(7, in.read(trailer));
+    assertEquals("trailer", new String(trailer, "UTF-8"));
+    assertEquals(-1, in.read());
+
+    // version 1 documents weren't chunked
+    byte[] version1 = { 'X', 'I', 'S', 'B', 1, 1, 2, 0, 2, 'a', 0, 0 };
+    assertEquals("a", XML.readBinary(new ByteArrayInputStream(version1)).root().name());
+  }
+
+  public void testInvalid() {
+    try {
+      XML.readBinary(new ByteArrayInputStream("<xml/>".getBytes()));
+      throw new AssertionFailedError("should have failed");
+    }
+    catch (IllegalArgumentException e) {
+      // EXPECTED
+    }
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    XML.doc(XML.e("a", XML.e("b"))).writeBinary(out);
+    byte[] truncated = new byte[out.size() - 2];
+    System.arraycopy(out.toByteArray(), 0, truncated, 0, truncated.length);
+    try {
+      XML.readBinary(new ByteArrayInputStream(truncated));
+      throw new AssertionFailedError("should have failed");
+    }
+    catch (IllegalArgumentException e) {
+      // EXPECTED
+    }
+  }
+}
@@ -0,0 +1,145 @@
+package org.xiss;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import junit.framework.AssertionFailedError;
+import junit.framework.TestCase;
+
+public class BinderTest extends TestCase {
+  public static enum Kind {
+    CUSTOMER, VENDOR
+  }
+
+  public static class Named {
+    @XML.Bind("@id")
+    protected int id;
+  }
+
+  @XML.Bind("person")
+  public static class Person extends Named {
+    @XML.Bind("@kind")
+    private Kind kind;
+    @XML.Bind
+    private String name;
+    @XML.Bind("age")
+    private Integer age;
+    @XML.Bind("@active")
+    private boolean active;
+    @XML.Bind("score")
+    private double score;
+    @XML.Bind("address")
+    private List<Address> addresses;
+    @XML.Bind("tag")
+    private List<String> tags;
+    @XML.Bind("manager")
+    private Person manager;
+  }
+
+  public static class Address {
+    @XML.Bind("@location")
+    private String location;
+    @XML.Bind("text()")
+    private String city;
+
+    private Address() {
+    }
+  }
+
+  public static class Broken {
+    @XML.Bind("@values")
+    private List<String> values;
+  }
+
+  public static class Opaque {
+    @XML.Bind("value")
+    private Serializable value;
+  }
+
+  public static class Tags {
+    @XML.Bind("tag")
+    private Collection<String> tags;
+  }
+
+  public static class Numbers {
+    @XML.Bind("@count")
+    private int count;
+  }
+
+  public void testRead() {
+    XML.E e = XML.doc("<person id=\"1\" kind=\"VENDOR\" active=\"true\"><name>Mike</name><score>1.5</score><address location=\"home\">Richmond</address><address location=\"work\">Beverly Hills</address><tag>a</tag><tag>b</tag><manager id=\"2\"><name>Bob</name></manager></person>").root();
+    Person person = XML.binder(Person.class).read(e);
+    assertEquals(1, person.id);
+    assertEquals(Kind.VENDOR, person.kind);
+    assertEquals("Mike", person.name);
+    assertNull(person.age);
+    assertTrue(person.active);
+    assertEquals(1.5, person.score, 0);
+    assertEquals(2, person.addresses.size());
+    assertEquals("home", person.addresses.get(0).location);
+    assertEquals("Beverly Hills", person.addresses.get(1).city);
+    assertEquals(2, person.tags.size());
+    assertEquals("b", person.tags.get(1));
+    assertEquals(2, person.manager.id);
+    assertEquals("Bob", person.manager.name);
+    assertTrue(person.manager.addresses.isEmpty());
+    assertNull(person.manager.manager);
+    assertSame(XML.binder(Person.class), XML.binder(Person.class));
+  }
+
+  public void testWrite() {
+    Person person = new Person();
+    person.id = 1;
+    person.kind = Kind.CUSTOMER;
+    person.name = "Mike & Co";
+    person.age = Integer.valueOf(40);
+    person.addresses = new ArrayList<Address>();
+    Address address = new Address();
+    address.location = "home";
+    address.city = "Richmond";
+    person.addresses.add(address);
+    XML.E e = XML.binder(Person.class).write(person);
+    assertEquals("<person id=\"1\" kind=\"CUSTOMER\" active=\"false\"><name>Mike &amp; Co</name><age>40</age><score>0.0</score><address location=\"home\">Richmond</address></person>", e.toString(XML.Profile.COMPACT));
+
+    Person copy = XML.binder(Person.class).read(XML.doc(e.toString()).root());
+    assertEquals("Mike & Co", copy.name);
+    assertEquals(Integer.valueOf(40), copy.age);
+    assertEquals("Richmond", copy.addresses.get(0).city);
+    assertEquals("address", XML.binder(Address.class).name());
+  }
+
+  public void testInvalidBindings() {
+    try {
+      XML.binder(Broken.class);
+      throw new AssertionFailedError("should have failed");
+    }
+    catch (IllegalArgumentException e) {
+      // EXPECTED
+    }
+    try {
+      XML.binder(Opaque.class);
+      throw new AssertionFailedError("should have failed");
+    }
+    catch (IllegalArgumentException e) {
+      // EXPECTED
+      assertTrue(e.getMessage(), e.getMessage().contains("can't be bound"));
+    }
+    try {
+      XML.binder(Numbers.class).read(XML.doc("<numbers count=\"many\"/>").root());
+      throw new AssertionFailedError("should have failed");
+    }
+    catch (IllegalArgumentException e) {
+      // EXPECTED
+      assertTrue(e.getMessage(), e.getMessage().contains("count"));
+      assertTrue(e.getCause() instanceof NumberFormatException);
+    }
+  }
+
+  public void testCollection() {
+    Tags tags = XML.binder(Tags.class).read(XML.doc("<tags><tag>a</tag><tag>b</tag></tags>").root());
+    assertEquals(2, tags.tags.size());
+    assertEquals("<tags><tag>a</tag><tag>b</tag></tags>", XML.binder(Tags.class).write(tags).toString(XML.Profile.COMPACT));
+  }
+}
@@ -0,0 +1,112 @@
+package org.xiss;
+
+import junit.framework.AssertionFailedError;
+import junit.framework.TestCase;
+
+public class ColumnsTest extends TestCase {
+  public static enum Status {
+    OPEN, CLOSED
+  }
+
+  private static final String ORDERS = "<orders><table><row id=\"1\"><qty>5</qty><price>1.25</price><paid>true</paid><status>OPEN</status><total>12345678901</total></row>"
+      + "<row id=\"2\"><price> -3e2 </price><qty>-7</qty><paid>TRUE</paid><status>CLOSED</status><note><qty>99</qty></note></row>"
+      + "<row><qty><![CDATA[1]]>2</qty><price>0.1</price><paid>no</paid><status/></row></table>"
+      + "<row id=\"4\"><qty>4</qty><price>123456789.123456789</price></row></orders>";
+
+  public void testColumns() {
+    XML.Columns columns = XML.columns("row").intColumn("qty", -1).doubleColumn("price", Double.NaN).booleanColumn("paid", false).enumColumn("status", Status.class, null).longColumn("total", 0).intColumn("@id", 0);
+    XML.Columns.Table table = columns.read(ORDERS);
+    assertEquals(4, table.size());
+    assertEquals(5, table.ints("qty")[0]);
+    assertEquals(-7, table.ints("qty")[1]);
+    assertEquals(12, table.ints("qty")[2]);
+    assertEquals(4, table.ints("qty")[3]);
+    assertEquals(1.25, table.doubles("price")[0], 0);
+    assertEquals(-300.0, table.doubles("price")[1], 0);
+    assertEquals(0.1, table.doubles("price")[2], 0);
+    assertEquals(123456789.123456789, table.doubles("price")[3], 0);
+    assertTrue(table.booleans("paid")[0]);
+    assertTrue(table.booleans("paid")[1]);
+    assertFalse(table.booleans("paid")[2]);
+    assertEquals(Status.OPEN.ordinal(), table.ordinals("status")[0]);
+    assertEquals(Status.CLOSED.ordinal(), table.ordinals("status")[1]);
+    assertEquals(-1, table.ordinals("status")[2]);
+    assertEquals(Status.CLOSED.ordinal(), XML.columns("row").enumColumn("status", Status.class, null).read("<rows><row><status> CLOSED\n</status></row></rows>").ordinals("status")[0]);
+    assertEquals(12345678901L, table.longs("total")[0]);
+    assertEquals(0L, table.longs("total")[1]);
+    assertEquals(1, table.ints("@id")[0]);
+    assertEquals(0, table.ints("@id")[2]);
+    assertEquals(4, table.ints("@id")[3]);
+
+    assertEquals(3, XML.columns("table/row").intColumn("qty", 0).read(ORDERS).size());
+    assertEquals(3, XML.columns("/orders/table/row").intColumn("qty", 0).read(ORDERS).size());
+    assertEquals(0, XML.columns("/table/row").intColumn("qty", 0).read(ORDERS).size());
+
+    try {
+      table.ints("price");
+      throw new AssertionFailedError("should have failed");
+    }
+    catch (IllegalArgumentException e) {
+      // EXPECTED
+    }
+    try {
+      columns.intColumn("other", 0);
+      throw new AssertionFailedError("should have failed");
+    }
+    catch (IllegalStateException e) {
+      // EXPECTED
+    }
+  }
+
+  public void testInvalidFields() {
+    String[] documents = {
+        "<rows><row><qty>1.5</qty></row></rows>",
+        "<rows><row><qty>99999999999</qty></row></rows>",
+        "<rows><row><qty>1</qty><qty>2</qty></row></rows>",
+        "<rows><row><qty><b>1</b></qty></row></rows>",
+        "<rows><row><status>open</status></row></rows>"
+    };
+    for (String document : documents) {
+      try {
+        XML.columns("row").intColumn("qty", 0).enumColumn("status", Status.class, null).read(document);
+        throw new AssertionFailedError("should have failed: " + document);
+      }
+      catch (IllegalArgumentException e) {
+        // EXPECTED
+      }
+    }
+  }
+
+  public void testParseNumbers() {
+    String[] ints = { "0", "-0", "+17", " 42\n", "2147483647", "-2147483648" };
+    for (String value : ints) {
+      assertEquals(Integer.parseInt(value.trim()), XML.Columns.parseInt(value.toCharArray(), 0, value.length()));
+    }
+    String[] badInts = { "", "-", "2147483648", "-2147483649", "1e3", "0x10" };
+    for (String value : badInts) {
+      try {
+        XML.Columns.parseInt(value.toCharArray(), 0, value.length());
+        throw new AssertionFailedError("should have failed: " + value);
+      }
+      catch (NumberFormatException e) {
+        // EXPECTED
+      }
+    }
+    assertEquals(Long.MIN_VALUE, XML.Columns.parseLong("-9223372036854775808".toCharArray(), 0, 20));
+
+    String[] doubles = { "0", "-0.0", "1.", ".5", "3.14159", "1e10", "1E-5", "-2.5e+3", "123456789012345", "1234567890123456789", "0.000000000000000000000000001", "1e300", "4.9e-324", "NaN", "-Infinity", "1.7976931348623157E308", "0.1", "0.30000000000000004" };
+    for (String value : doubles) {
+      assertEquals(value, Double.doubleToLongBits(Double.parseDouble(value)), Double.doubleToLongBits(XML.Columns.parseDouble(value.toCharArray(), 0, value.length())));
+    }
+    String[] badDoubles = { "", "-", "1e", "e5", "1.2.3", "abc" };
+    for (String value : badDoubles) {
+      try {
+        XML.Columns.parseDouble(value.toCharArray(), 0, value.length());
+        throw new AssertionFailedError("should have failed: " + value);
+      }
+      catch (NumberFormatException e) {
+        // EXPECTED
+      }
+    }
+  }
+}
@@ -0,0 +1,164 @@
+package org.xiss;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.AssertionFailedError;
+import junit.framework.TestCase;
+
+public class CursorTest extends TestCase {
+  private static final String PEOPLE = "<people><!-- people --><person id=\"1\"><name>Mike</name><address><city>Richmond</city></address></person><person id=\"2\"><name>Bob</name><address><city>Beverly Hills</city></address></person></people>";
+
+  public void testEdits() {
+    XML.Doc doc = XML.doc(PEOPLE).freeze();
+    String original = doc.toString(XML.Profile.COMPACT);
+    XML.E mike = doc.root().children("person").get(0);
+    XML.E bob = doc.root().children("person").get(1);
+
+    XML.Cursor city = doc.cursor().descendent("city");
+    assertEquals("Richmond", city.e().text());
+    XML.Doc edited = city.setText("Boston").parent().set("zip", "02101").doc();
+    assertNotSame(doc, edited);
+    assertTrue(edited.isFrozen());
+    assertEquals(original, doc.toString(XML.Profile.COMPACT));
+    assertEquals(original.replace("<address><city>Richmond", "<address zip=\"02101\"><city>Boston"), edited.toString(XML.Profile.COMPACT));
+
+    // only the path from the root to the edit is copied
+    List<XML.E> people = edited.root().children("person");
+    assertNotSame(mike, people.get(0));
+    assertSame(mike.child("name"), people.get(0).child("name"));
+    assertSame(bob, people.get(1));
+    assertSame(people.get(0), people.get(0).child("address").parent());
+    assertEquals("02101", edited.root().descendent("address").get("zip"));
+
+    try {
+      edited.root().set("id", "1");
+      throw new AssertionFailedError("should have failed");
+    }
+    catch (UnsupportedOperationException e) {
+      // EXPECTED
+    }
+  }
+
+  public void testParents() {
+    XML.Doc doc = XML.doc(PEOPLE).freeze();
+    XML.Cursor city = doc.cursor().descendent("city").setText("Boston");
+    assertNull(city.e().parent());
+    XML.Cursor address = city.parent();
+    XML.Doc edited = city.doc();
+    assertSame(edited, city.doc());
+    assertNotSame(edited, address.doc());
+
+    XML.E boston = edited.root().descendent("city");
+    assertEquals("Boston", boston.text());
+    assertSame(edited.root().children("person").get(0).child("address"), boston.parent());
+    assertSame(boston, boston.children().get(0).parent());
+    assertSame(edited, boston.doc());
+    assertSame(edited.root(), edited.root().children("person").get(0).parent());
+
+    XML.Doc zipped = address.set("zip", "02101").doc();
+    XML.E zip = zipped.root().descendent("address");
+    assertSame(zip, zip.child("city").parent());
+    assertTrue(zip.getAttr("zip").isFrozen());
+    assertSame(zipped, zip.doc());
+    assertNotSame(boston, zip.child("city"));
+    assertSame(edited, boston.doc());
+  }
+
+  public void testDocumentItems() {
+    XML.Doc doc = XML.doc("<?xml version=\"1.0\" encoding=\"UTF-8\"?><!-- before -->" + PEOPLE);
+    doc.setIndexed(true);
+    doc = doc.freeze();
+    XML.Doc edited = doc.cursor().descendent("city").setText("Boston").doc();
+    assertSame(edited, edited.declaration().parent());
+    assertNotSame(doc.declaration(), edited.declaration());
+    assertTrue(edited.declaration().isFrozen());
+    for (XML.Item item : edited.children()) {
+      assertSame(edited, item.parent());
+    }
+    assertEquals(doc.toString(XML.Profile.COMPACT).replace("Richmond", "Boston"), edited.toString(XML.Profile.COMPACT));
+
+    // the edited document is indexed too, without changing the index of the original
+    assertTrue(edited.isIndexed());
+    List<XML.E> cities = new ArrayList<XML.E>(edited.root().descendents("city"));
+    assertEquals(2, cities.size());
+    assertEquals("Boston", cities.get(0).text());
+    assertSame(doc.root().children("person").get(1).descendent("city"), cities.get(1));
+    assertEquals("Richmond", doc.root().descendents("city").iterator().next().text());
+    assertEquals(1, doc.root().children("person").get(1).descendents("city").size());
+  }
+
+  public void testAddOnce() {
+    XML.Doc doc = XML.doc(PEOPLE).freeze();
+    XML.E person = new XML.E("person");
+    person.add(new XML.E("name", "Jane"));
+    XML.Cursor added = doc.cursor().add(person);
+    XML.E jane = added.doc().root().children("person").get(2);
+    XML.E janeAgain = added.set("count", "3").doc().root().children("person").get(2);
+    assertNotSame(jane, janeAgain);
+    assertSame(jane.child("name"), janeAgain.child("name"));
+  }
+
+  public void testNavigation() {
+    XML.Doc doc = XML.doc(PEOPLE);
+    XML.Cursor root = doc.cursor();
+    assertNull(root.parent());
+    assertFalse(root.isChanged());
+    assertSame(root.e(), root.doc().root());
+
+    List<XML.Cursor> people = root.children("person");
+    assertEquals(2, people.size());
+    XML.Cursor bob = people.get(1).child("name");
+    assertEquals("Bob", bob.e().text());
+    assertSame(root.e(), bob.root().e());
+    assertSame(root.doc(), bob.doc());
+    assertNull(bob.child("missing"));
+    assertNull(root.descendent("missing"));
+
+    XML.Cursor renamed = bob.setName("nickname").setText("Bobby");
+    assertTrue(renamed.isChanged());
+    assertEquals("<nickname>Bobby</nickname>", renamed.e().toString(XML.Profile.COMPACT).trim());
+    XML.E person = renamed.parent().e();
+    assertEquals("2", person.get("id"));
+    assertEquals("Bobby", person.childText("nickname"));
+    assertNull(person.child("name"));
+    assertEquals("Bob", doc.root().children("person").get(1).childText("name"));
+  }
+
+  public void testAddAndRemove() {
+    XML.Doc doc = XML.doc(PEOPLE).freeze();
+    XML.E person = new XML.E("person");
+    person.set("id", "3");
+    person.add(new XML.E("name", "Jane"));
+
+    XML.Doc added = doc.cursor().add(person).doc();
+    assertEquals(3, added.root().children("person").size());
+    XML.E jane = added.root().children("person").get(2);
+    assertNotSame(person, jane);
+    assertTrue(jane.isFrozen());
+    assertFalse(person.isFrozen());
+    assertSame(added.root(), jane.parent());
+    assertEquals("Jane", jane.childText("name"));
+
+    XML.Doc removed = doc.cursor().children("person").get(0).remove().doc();
+    assertEquals(1, removed.root().children("person").size());
+    assertSame(doc.root().children("person").get(1), removed.root().child("person"));
+    assertEquals(2, doc.root().children("person").size());
+
+    XML.Doc replaced = doc.cursor().descendent("address").replace(new XML.E("email", "mike@example.com")).remove("missing").doc();
+    assertEquals("mike@example.com", replaced.root().children("person").get(0).childText("email"));
+    assertNull(replaced.root().children("person").get(0).child("address"));
+
+    XML.Doc unset = doc.cursor().children("person").get(0).remove("id").doc();
+    assertNull(unset.root().children("person").get(0).get("id"));
+    assertEquals("1", doc.root().children("person").get(0).get("id"));
+
+    try {
+      doc.cursor().remove();
+      throw new AssertionFailedError("should have failed");
+    }
+    catch (IllegalStateException e) {
+      // EXPECTED
+    }
+  }
+}
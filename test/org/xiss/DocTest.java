@@ -1,9 +1,14 @@
 package org.xiss;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.StringReader;
 import java.io.StringWriter;
+import java.nio.channels.Channels;
+import java.util.ArrayList;
 import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
 import java.util.Set;
 
 import javax.xml.parsers.DocumentBuilderFactory;
@@ -222,4 +227,175 @@ public class DocTest extends TestCase {
     doc.root("person").set("name", "<M & M>");
     assertEquals("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<person name=\"&lt;M &amp; M&gt;\" />\n", doc.toString());
   }
+
+  public void testIndexed() {
+    XML.Doc doc = XML.doc();
+    doc.setIndexed(true);
+    assertTrue(doc.isIndexed());
+    XML.E people = doc.root("people");
+    XML.E mike = people.e("person");
+    mike.e("city", "Richmond");
+    XML.E bob = people.e("person");
+    bob.e("city", "Beverly Hills");
+    XML.E nested = bob.e("addresses").e("address");
+    nested.e("city", "Nested");
+
+    assertEquals(3, people.descendents("city").size());
+    assertEquals(2, bob.descendents("city").size());
+    assertEquals("[Beverly Hills, Nested]", bob.descendentsText("city").toString());
+    assertEquals(0, nested.child("city").descendents("city").size());
+
+    mike.e("city", "Added");
+    assertEquals("[Richmond, Added, Beverly Hills, Nested]", people.descendentsText("city").toString());
+
+    bob.remove(bob.child("city"));
+    assertEquals("[Richmond, Added, Nested]", people.descendentsText("city").toString());
+
+    nested.child("city").setName("town");
+    assertEquals("[Richmond, Added]", people.descendentsText("city").toString());
+    assertEquals("[Nested]", people.descendentsText("town").toString());
+
+    XML.E detached = XML.e("person", XML.e("city", "Detached"));
+    assertEquals(1, detached.descendents("city").size());
+
+    doc.setIndexed(false);
+    assertFalse(doc.isIndexed());
+    mike.e("city", "Unindexed");
+    assertEquals("[Richmond, Added, Unindexed]", mike.descendentsText("city").toString());
+  }
+
+  public void testIndexedEdits() {
+    XML.Doc doc = XML.doc();
+    doc.setIndexed(true);
+    XML.E root = doc.root("root");
+    List<XML.E> elements = new ArrayList<XML.E>();
+    elements.add(root);
+    List<XML.E> removed = new ArrayList<XML.E>();
+    Random random = new Random(42);
+    for (int i = 0; i < 3000; i++) {
+      XML.E e = elements.get(random.nextInt(elements.size()));
+      int edit = random.nextInt(10);
+      if (edit >= 7 && !isAttached(e)) {
+        edit = 5;
+      }
+      if (edit < 5 || e == root) {
+        elements.add(e.e(random.nextBoolean() ? "a" : "b", String.valueOf(i)));
+      }
+      else if (edit < 7) {
+        e.setName(random.nextBoolean() ? "a" : "b");
+      }
+      else if (edit < 9) {
+        ((XML.E) e.parent()).remove(e);
+        removed.add(e);
+      }
+      else if (!removed.isEmpty()) {
+        e.add(removed.remove(random.nextInt(removed.size())));
+      }
+      XML.E checked = elements.get(random.nextInt(elements.size()));
+      assertDescendents(checked, "a");
+      assertDescendents(root, "b");
+    }
+
+    // nesting deeper and deeper runs out of room between the labels of the elements
+    XML.E deep = root;
+    for (int i = 0; i < 100; i++) {
+      deep = deep.e("a");
+      assertDescendents(root, "a");
+    }
+  }
+
+  private boolean isAttached(XML.E e) {
+    while (e.parent() instanceof XML.E) {
+      if (!((XML.E) e.parent()).children().contains(e)) {
+        return false;
+      }
+      e = (XML.E) e.parent();
+    }
+    return e.parent() instanceof XML.Doc;
+  }
+
+  private void assertDescendents(XML.E e, final String name) {
+    final List<XML.E> expected = new ArrayList<XML.E>();
+    for (XML.Node child : e.children()) {
+      child.visit(new XML.Visitor() {
+        public boolean visit(XML.Item item) {
+          if (item instanceof XML.E && ((XML.E) item).hasName(name)) {
+            expected.add((XML.E) item);
+          }
+          return true;
+        }
+      });
+    }
+    assertEquals(expected, new ArrayList<XML.E>(e.descendents(name)));
+  }
+
+  public void testWriteTo() throws IOException {
+    XML.Doc doc = XML.doc(XML.e("person", XML.a("name", "caf\u00e9 & co"), XML.e("note", "\u20ac \uD83D\uDE00")));
+    ByteArrayOutputStream utf8 = new ByteArrayOutputStream();
+    doc.writeTo(utf8);
+    assertEquals(doc.toString(), new String(utf8.toByteArray(), "UTF-8"));
+
+    doc.setDeclaration(XML.declaration("1.0", "ISO-8859-1"));
+    ByteArrayOutputStream latin1 = new ByteArrayOutputStream();
+    doc.writeTo(Channels.newChannel(latin1));
+    assertEquals(doc.toString().replace("\u20ac", "&#8364;").replace("\uD83D\uDE00", "&#128512;"), new String(latin1.toByteArray(), "ISO-8859-1"));
+    assertEquals("caf\u00e9 & co", XML.doc(new String(latin1.toByteArray(), "ISO-8859-1")).root().get("name"));
+
+    doc.setDeclaration(XML.declaration("1.0", "windows-1252"));
+    ByteArrayOutputStream cp1252 = new ByteArrayOutputStream();
+    doc.writeTo(cp1252);
+    assertEquals(doc.toString().replace("\uD83D\uDE00", "&#128512;"), new String(cp1252.toByteArray(), "windows-1252"));
+
+    StringBuilder large = new StringBuilder();
+    for (int i = 0; i < 10000; i++) {
+      large.append("\u00e9\uD83D\uDE00");
+    }
+    doc.setDeclaration(XML.declaration("1.0", "UTF-8"));
+    doc.root().e("large", large.toString());
+    utf8.reset();
+    doc.writeTo(utf8);
+    assertEquals(doc.toString(), new String(utf8.toByteArray(), "UTF-8"));
+  }
+
+  public void testWriteToUnencodable() throws IOException {
+    XML.Doc doc = XML.doc(XML.e("note", XML.cdata("a\u20acb\uD83D\uDE00")));
+    doc.setDeclaration(XML.declaration("1.0", "ISO-8859-1"));
+    ByteArrayOutputStream latin1 = new ByteArrayOutputStream();
+    doc.writeTo(latin1, XML.Profile.COMPACT);
+    String written = new String(latin1.toByteArray(), "ISO-8859-1");
+    assertTrue(written.contains("<![CDATA[a]]>&#8364;<![CDATA[b]]>&#128512;<![CDATA[]]>"));
+    assertEquals("a\u20acb\uD83D\uDE00", text(XML.doc(written).root()));
+
+    doc.setDeclaration(XML.declaration("1.0", "windows-1252"));
+    ByteArrayOutputStream cp1252 = new ByteArrayOutputStream();
+    doc.writeTo(cp1252, XML.Profile.COMPACT);
+    assertEquals("a\u20acb\uD83D\uDE00", text(XML.doc(new String(cp1252.toByteArray(), "windows-1252")).root()));
+
+    assertUnencodable(XML.doc(XML.e("note", XML.comment("\u20ac"))), "ISO-8859-1");
+    assertUnencodable(XML.doc(XML.e("note", XML.comment("\uD83D\uDE00"))), "windows-1252");
+    assertUnencodable(XML.doc(XML.e("\u00e9\u20ac")), "ISO-8859-1");
+    assertUnencodable(XML.doc(XML.e("note", XML.a("\u20ac", "1"))), "US-ASCII");
+    assertUnencodable(XML.doc(XML.e("note", "\uD83D!")), "UTF-8");
+    assertUnencodable(XML.doc(XML.e("note", XML.a("id", "\uDE00"))), "ISO-8859-1");
+    assertUnencodable(XML.doc(XML.e("note", "\uD83D")), "windows-1252");
+  }
+
+  private String text(XML.E e) {
+    StringBuilder text = new StringBuilder();
+    for (XML.Node node : e.children()) {
+      text.append(((XML.Content) node).text());
+    }
+    return text.toString();
+  }
+
+  private void assertUnencodable(XML.Doc doc, String encoding) {
+    doc.setDeclaration(XML.declaration("1.0", encoding));
+    try {
+      doc.writeTo(new ByteArrayOutputStream());
+      throw new AssertionFailedError("should have failed");
+    }
+    catch (IllegalArgumentException e) {
+      // EXPECTED
+    }
+  }
 }
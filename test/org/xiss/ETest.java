@@ -0,0 +1,101 @@
+package org.xiss;
+
+import java.util.RandomAccess;
+
+import junit.framework.TestCase;
+
+public class ETest extends TestCase {
+  public void testChildren() {
+    XML.E e = XML.e("parent", XML.a("a", "1"), XML.e("first"), XML.text("text"), XML.e("last"));
+    assertTrue(e.children() instanceof RandomAccess);
+    assertEquals(3, e.children().size());
+    assertEquals("first", ((XML.E) e.children().get(0)).name());
+    assertEquals("last", ((XML.E) e.children().get(2)).name());
+    assertEquals(1, e.attributes().size());
+
+    e.remove(e.children().get(1));
+    assertEquals(2, e.children().size());
+    assertEquals("last", ((XML.E) e.children().get(1)).name());
+
+    e.remove(e.children().get(0));
+    e.remove(e.children().get(0));
+    assertNull(e.children());
+  }
+
+  public void testAttributes() {
+    XML.E e = XML.e("e").set("a", "1", "b", "2", "c", "3");
+    e.set("a", "4");
+    assertEquals(3, e.attributes().size());
+    assertEquals("b", e.attributes().get(0).name());
+    assertEquals("4", e.get("a"));
+    e.remove("b");
+    e.remove("c");
+    e.remove("a");
+    assertNull(e.attributes());
+  }
+
+  public void testManyAttributes() {
+    XML.E e = XML.e("e");
+    for (int i = 0; i < 50; i++) {
+      e.set("a" + i, String.valueOf(i));
+    }
+    for (int i = 0; i < 50; i++) {
+      assertEquals(i, e.getInt("a" + i, -1));
+    }
+    assertNull(e.get("missing"));
+
+    e.set("a10", "ten");
+    assertEquals("ten", e.get("a10"));
+    assertEquals("a10", e.attributes().get(49).name());
+
+    e.getAttr("a20").setName("renamed");
+    assertNull(e.get("a20"));
+    assertEquals("20", e.get("renamed"));
+
+    e.add(XML.a("a30", "duplicate"));
+    assertEquals("30", e.get("a30"));
+    e.remove(e.getAttr("a30"));
+    assertEquals("duplicate", e.get("a30"));
+
+    for (int i = 0; i < 45; i++) {
+      e.remove("a" + i);
+    }
+    assertEquals("45", e.get("a45"));
+    assertNull(e.get("a30"));
+    assertEquals("20", e.get("renamed"));
+  }
+
+  public void testChildIndex() {
+    XML.E record = XML.e("record");
+    for (int i = 0; i < 20; i++) {
+      record.e("field" + i, String.valueOf(i));
+    }
+    record.e("repeated", "a");
+    record.e("repeated", "b");
+    for (int i = 0; i < 20; i++) {
+      assertEquals(i, record.childInt("field" + i, -1));
+    }
+    assertNull(record.child("missing"));
+    assertEquals(2, record.children("repeated").size());
+    try {
+      record.child("repeated");
+      fail("should have failed");
+    }
+    catch (IllegalStateException e) {
+      // EXPECTED
+    }
+
+    record.e("added", "new");
+    assertEquals("new", record.childText("added"));
+
+    record.remove(record.child("field3"));
+    assertNull(record.child("field3"));
+
+    record.child("field4").setName("renamed");
+    assertNull(record.child("field4"));
+    assertEquals("4", record.childText("renamed"));
+
+    record.children("repeated").clear();
+    assertEquals(2, record.children("repeated").size());
+  }
+}
@@ -0,0 +1,50 @@
+package org.xiss;
+
+import java.io.StringReader;
+import java.util.LinkedList;
+import java.util.List;
+
+import junit.framework.AssertionFailedError;
+import junit.framework.TestCase;
+
+public class ElementIteratorTest extends TestCase {
+  private static final String ADDRESSES = "<people><person><address location=\"home\"><city>Richmond</city><zip>23233</zip></address></person><!-- skipped --><person><address location=\"work\"><city>Beverly Hills</city><zip>90210</zip></address></person></people>";
+
+  public void testStream() {
+    List<String> cities = new LinkedList<String>();
+    for (XML.E address : XML.stream(new StringReader(ADDRESSES), "address")) {
+      assertNull(address.parent());
+      cities.add(address.childText("city") + " " + address.childInt("zip", 0) + " " + address.get("location"));
+    }
+    assertEquals(2, cities.size());
+    assertEquals("Richmond 23233 home", cities.get(0));
+    assertEquals("Beverly Hills 90210 work", cities.get(1));
+  }
+
+  public void testNoMatches() {
+    XML.ElementIterator iterator = XML.stream(new StringReader(ADDRESSES), "missing");
+    assertFalse(iterator.hasNext());
+    assertFalse(iterator.hasNext());
+  }
+
+  public void testNested() {
+    XML.ElementIterator iterator = XML.stream(new StringReader("<a><b><b/></b><b/></a>"), "b");
+    assertEquals(1, iterator.next().children().size());
+    assertNull(iterator.next().children());
+    assertFalse(iterator.hasNext());
+  }
+
+  public void testMalformed() {
+    XML.ElementIterator iterator = XML.stream(new StringReader("<a><b/><b></a>"), "b");
+    assertTrue(iterator.hasNext());
+    iterator.next();
+    try {
+      iterator.hasNext();
+      throw new AssertionFailedError("should have failed");
+    }
+    catch (IllegalArgumentException e) {
+      // EXPECTED
+    }
+    assertFalse(iterator.hasNext());
+  }
+}
@@ -0,0 +1,114 @@
+package org.xiss;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.AssertionFailedError;
+import junit.framework.TestCase;
+
+public class FreezeTest extends TestCase {
+  private static XML.Doc people() {
+    XML.Doc doc = XML.doc();
+    doc.comment("people");
+    XML.E people = doc.root("people");
+    for (int i = 0; i < 20; i++) {
+      XML.E person = people.e("person").set("id", String.valueOf(i));
+      for (int j = 0; j < 10; j++) {
+        person.set("a" + j, String.valueOf(j));
+      }
+      person.e("name", "Person " + i);
+      person.e("address").e("city", (i % 2 == 0) ? "Richmond" : "Beverly Hills");
+      person.cdata("notes");
+    }
+    return doc;
+  }
+
+  public void testSnapshot() {
+    XML.Doc doc = people();
+    doc.setIndexed(true);
+    XML.Doc frozen = doc.freeze();
+    assertNotSame(doc, frozen);
+    assertSame(frozen, frozen.freeze());
+    assertFalse(doc.isFrozen());
+    assertTrue(frozen.isFrozen());
+    assertTrue(frozen.isIndexed());
+    assertEquals(doc.toString(), frozen.toString());
+    assertSame(frozen.toString(), frozen.toString());
+
+    XML.E person = frozen.root().children("person").get(3);
+    assertTrue(person.isFrozen());
+    assertTrue(person.getAttr("a5").isFrozen());
+    assertSame(frozen.root(), person.parent());
+    assertSame(frozen, person.doc());
+    assertEquals("3", person.get("id"));
+    assertEquals("Person 3", person.childText("name"));
+    assertEquals(20, frozen.root().descendents("city").size());
+    assertEquals(20, XML.path("//person[@id]").select(frozen).size());
+
+    doc.root().children("person").get(0).set("id", "changed");
+    doc.root().e("person");
+    assertEquals("0", frozen.root().children("person").get(0).get("id"));
+    assertEquals(20, frozen.root().children("person").size());
+  }
+
+  public void testMutatorsThrow() {
+    XML.Doc frozen = people().freeze();
+    final XML.E person = frozen.root().children("person").get(0);
+    List<Runnable> mutators = new ArrayList<Runnable>();
+    final XML.Doc doc = frozen;
+    mutators.add(new Runnable() { public void run() { doc.setDeclaration(null); } });
+    mutators.add(new Runnable() { public void run() { doc.declaration().setEncoding("ISO-8859-1"); } });
+    mutators.add(new Runnable() { public void run() { doc.comment("comment"); } });
+    mutators.add(new Runnable() { public void run() { doc.setRoot(null); } });
+    mutators.add(new Runnable() { public void run() { doc.setIndexed(true); } });
+    mutators.add(new Runnable() { public void run() { doc.children().clear(); } });
+    mutators.add(new Runnable() { public void run() { person.setName("renamed"); } });
+    mutators.add(new Runnable() { public void run() { person.set("id", "changed"); } });
+    mutators.add(new Runnable() { public void run() { person.remove("id"); } });
+    mutators.add(new Runnable() { public void run() { person.getAttr("id").setValue("changed"); } });
+    mutators.add(new Runnable() { public void run() { person.e("child"); } });
+    mutators.add(new Runnable() { public void run() { person.remove(person.child("name")); } });
+    mutators.add(new Runnable() { public void run() { person.child("name").setText("changed"); } });
+    mutators.add(new Runnable() { public void run() { person.children().clear(); } });
+    mutators.add(new Runnable() { public void run() { person.attributes().clear(); } });
+    mutators.add(new Runnable() { public void run() { XML.e("other").add(person); } });
+    for (Runnable mutator : mutators) {
+      try {
+        mutator.run();
+        throw new AssertionFailedError("should have failed");
+      }
+      catch (UnsupportedOperationException e) {
+        // EXPECTED
+      }
+    }
+    assertEquals(people().toString(), frozen.toString());
+  }
+
+  public void testConcurrentReads() throws InterruptedException {
+    final XML.Doc frozen = people().freeze();
+    final String expected = people().toString();
+    final AtomicInteger failures = new AtomicInteger();
+    Thread[] threads = new Thread[8];
+    for (int i = 0; i < threads.length; i++) {
+      threads[i] = new Thread() {
+        @Override
+        public void run() {
+          for (int j = 0; j < 50; j++) {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            frozen.writeTo(bytes);
+            if (!frozen.toString().equals(expected) || bytes.size() != expected.length() || frozen.root().descendents("city").size() != 20 || !"9".equals(frozen.root().children("person").get(0).get("a9"))) {
+              failures.incrementAndGet();
+            }
+          }
+        }
+      };
+      threads[i].start();
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    assertEquals(0, failures.get());
+  }
+}
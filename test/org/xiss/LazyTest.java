@@ -0,0 +1,98 @@
+package org.xiss;
+
+import junit.framework.AssertionFailedError;
+import junit.framework.TestCase;
+
+public class LazyTest extends TestCase {
+  private static final String PEOPLE = "<?xml version=\"1.0\"?>\n<people count=\"2\">\n  <!-- people -->\n  <person id=\"1\"><name>Mike &amp; Co</name><address location=\"home\"><city>Richmond</city><![CDATA[<notes>]]></address></person>\n  <person id=\"2\"><name>Bob</name><address location=\"work\"><city a=\"/>\">Beverly Hills</city><?skip?><!-- </address> --></address><empty/><blank></blank></person>\n</people>";
+
+  public void testMatchesEagerParse() {
+    XML.Parser lazy = XML.parser().setLazy(true);
+    assertTrue(lazy.isLazy());
+    XML.Doc doc = lazy.doc(PEOPLE);
+    assertEquals(XML.doc(PEOPLE).toString(), doc.toString());
+
+    XML.Parser lazyIgnoring = XML.parser().setLazy(true).setIgnoringWhitespace(true).setIgnoringComments(true).setCoalescing(true);
+    XML.Parser eagerIgnoring = XML.parser().setIgnoringWhitespace(true).setIgnoringComments(true).setCoalescing(true);
+    assertEquals(eagerIgnoring.doc(PEOPLE).toString(), lazyIgnoring.doc(PEOPLE).toString());
+  }
+
+  public void testNavigation() {
+    XML.Doc doc = XML.parser().setLazy(true).doc(PEOPLE);
+    XML.E people = doc.root();
+    assertEquals("2", people.get("count"));
+    XML.E second = people.children("person").get(1);
+    assertEquals("Bob", second.childText("name"));
+    XML.E city = second.child("address").child("city");
+    assertEquals("Beverly Hills", city.text());
+    assertEquals("/>", city.get("a"));
+    assertSame(doc, city.doc());
+    assertEquals("Richmond", people.children("person").get(0).child("address").childText("city"));
+    assertNull(second.child("empty").children());
+    assertNull(second.child("blank").children());
+
+    XML.E first = people.children("person").get(0);
+    first.e("age", "40");
+    assertEquals("40", first.childText("age"));
+    assertEquals(2, doc.root().descendents("city").size());
+  }
+
+  public void testIndexed() {
+    XML.Doc doc = XML.parser().setLazy(true).doc(PEOPLE);
+    doc.setIndexed(true);
+    assertEquals(2, doc.root().descendents("city").size());
+    assertEquals(2, doc.root().descendents("name").size());
+    XML.Doc frozen = doc.freeze();
+    assertEquals(XML.doc(PEOPLE).toString(), frozen.toString());
+  }
+
+  public void testDeferredErrors() {
+    XML.Doc doc = XML.parser().setLazy(true).doc("<a><b><c></d></b><e/></a>");
+    assertEquals("e", ((XML.E) doc.root().children().get(1)).name());
+    try {
+      doc.root().child("b").children();
+      throw new AssertionFailedError("should have failed");
+    }
+    catch (IllegalArgumentException e) {
+      // EXPECTED
+    }
+
+    try {
+      XML.parser().setLazy(true).doc("<a><b><c></b></a>");
+      throw new AssertionFailedError("should have failed");
+    }
+    catch (IllegalArgumentException e) {
+      // EXPECTED
+    }
+
+    try {
+      XML.parser().setLazy(true).doc("<a><b><c>");
+      throw new AssertionFailedError("should have failed");
+    }
+    catch (IllegalArgumentException e) {
+      // EXPECTED
+    }
+  }
+
+  public void testLimitsAndNamespaces() {
+    XML.Parser parser = XML.parser().setLazy(true).setNamespaceAware(true).setMaxDepth(3);
+    XML.Doc doc = parser.doc("<x:a xmlns:x=\"urn:x\"><x:b><x:c/></x:b><d><e><f/></e></d></x:a>");
+    assertEquals("x:c", ((XML.E) doc.root().child("x:b").children().get(0)).name());
+    try {
+      doc.root().child("d").child("e").children();
+      throw new AssertionFailedError("should have failed");
+    }
+    catch (IllegalArgumentException e) {
+      // EXPECTED
+    }
+
+    doc = parser.doc("<a><b><y:c/></b></a>");
+    try {
+      doc.root().child("b").children();
+      throw new AssertionFailedError("should have failed");
+    }
+    catch (IllegalArgumentException e) {
+      // EXPECTED
+    }
+  }
+}
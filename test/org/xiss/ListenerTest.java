@@ -0,0 +1,124 @@
+package org.xiss;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintWriter;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.AssertionFailedError;
+import junit.framework.TestCase;
+
+public class ListenerTest extends TestCase {
+  private static final String PEOPLE = "<people><person id=\"1\" type=\"customer\"><name>Mike</name><address location=\"home\"><city>Richmond</city></address></person><person id=\"2\"/></people>";
+
+  private List<String> _events;
+  private XML.Listener _listener;
+
+  @Override
+  protected void setUp() {
+    _events = new ArrayList<String>();
+    _listener = new XML.Listener() {
+      public Object started(XML.Operation operation) {
+        return operation.name();
+      }
+
+      public void finished(XML.Operation operation, Object context) {
+        assertEquals(operation.name(), context);
+        assertTrue(operation.duration() >= 0);
+        _events.add(operation.name() + " " + operation.size() + " " + operation.elements() + " " + operation.attributes() + " " + operation.maxDepth() + " " + (operation.failure() != null));
+      }
+    };
+    XML.Operation.addListener(_listener);
+  }
+
+  @Override
+  protected void tearDown() {
+    XML.Operation.removeListener(_listener);
+  }
+
+  public void testOperations() {
+    XML.Doc doc = XML.doc(PEOPLE);
+    assertEquals("parse " + PEOPLE.length() + " 6 4 4 false", _events.get(0));
+    XML.doc(new StringReader(PEOPLE));
+    assertEquals("parse -1 6 4 4 false", _events.get(1));
+
+    String string = doc.toString(XML.Profile.COMPACT);
+    assertEquals("write " + string.length() + " 6 4 4 false", _events.get(2));
+    StringWriter writer = new StringWriter();
+    doc.root().children("person").get(0).write(new PrintWriter(writer), 0);
+    assertEquals("write " + writer.toString().length() + " 4 3 3 false", _events.get(3));
+    ByteArrayOutputStream stream = new ByteArrayOutputStream();
+    doc.writeTo(stream, XML.Profile.COMPACT);
+    assertEquals("write " + stream.size() + " 6 4 4 false", _events.get(4));
+
+    doc.w3c();
+    assertEquals("w3c -1 6 4 4 false", _events.get(5));
+    assertEquals(6, _events.size());
+
+    try {
+      XML.doc("<people><person></people>");
+      throw new AssertionFailedError("should have failed");
+    }
+    catch (IllegalArgumentException e) {
+      // EXPECTED
+    }
+    assertEquals("parse -1 0 0 0 true", _events.get(6));
+
+    XML.Operation.removeListener(_listener);
+    XML.doc(PEOPLE).toString();
+    assertEquals(7, _events.size());
+  }
+
+  public void testBrokenListeners() {
+    XML.Listener broken = new XML.Listener() {
+      public Object started(XML.Operation operation) {
+        if (operation.kind() == XML.Operation.WRITE) {
+          throw new IllegalStateException("started");
+        }
+        return null;
+      }
+
+      public void finished(XML.Operation operation, Object context) {
+        throw new IllegalStateException("finished");
+      }
+    };
+    XML.Operation.addListener(broken);
+    try {
+      XML.Doc doc = XML.doc(PEOPLE);
+      assertEquals("Mike", doc.root().descendent("name").text());
+      assertEquals("parse " + PEOPLE.length() + " 6 4 4 false", _events.get(0));
+      doc.toString();
+      doc.w3c();
+      assertEquals(3, _events.size());
+    }
+    finally {
+      XML.Operation.removeListener(broken);
+    }
+
+    XML.Doc doc = XML.doc(XML.e("people", new XML.Text("Mike") {
+      @Override
+      protected void writeText(XML.Output output) {
+        throw new AssertionFailedError("broken");
+      }
+    }));
+    try {
+      doc.toString();
+      throw new AssertionFailedError("should have failed");
+    }
+    catch (AssertionFailedError e) {
+      assertEquals("broken", e.getMessage());
+    }
+    assertEquals("write -1 0 0 0 true", _events.get(3));
+  }
+
+  public void testLazyCounts() {
+    XML.Doc doc = XML.parser().setLazy(true).doc(PEOPLE);
+    assertEquals("parse " + PEOPLE.length() + " 3 3 2 false", _events.get(0));
+    doc.root().children("person").get(0).children();
+    doc.toString();
+    assertEquals("write", _events.get(1).substring(0, 5));
+    assertEquals(" 6 4 4 false", _events.get(1).substring(_events.get(1).indexOf(' ', 6)));
+  }
+}
@@ -0,0 +1,39 @@
+package org.xiss;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+
+import junit.framework.TestCase;
+
+public class OutputTest extends TestCase {
+  public void testEscape() {
+    XML.Output output = new XML.Output();
+    output.escape("a <b> & \"c\" 'd'").escape(null);
+    assertEquals("a &lt;b&gt; &amp; &quot;c&quot; 'd'", output.toString());
+  }
+
+  public void testLargeValues() {
+    StringBuilder text = new StringBuilder();
+    for (int i = 0; i < 5000; i++) {
+      text.append("<&>");
+    }
+    XML.Output output = new XML.Output();
+    output.escape(text.toString());
+    assertEquals(text.toString().replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;"), output.toString());
+
+    StringWriter sw = new StringWriter();
+    XML.Output writerOutput = new XML.Output(sw);
+    writerOutput.escape(text.toString());
+    writerOutput.flush();
+    assertEquals(output.toString(), sw.toString());
+  }
+
+  public void testWriteMatchesToString() {
+    XML.Doc doc = XML.doc(XML.e("person", XML.a("name", "<M & M>"), XML.e("first-name", "Mike"), XML.comment("comment")));
+    StringWriter sw = new StringWriter();
+    PrintWriter pw = new PrintWriter(sw);
+    doc.write(pw, 0);
+    pw.flush();
+    assertEquals(doc.toString(), sw.toString());
+  }
+}
@@ -0,0 +1,130 @@
+package org.xiss;
+
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import junit.framework.AssertionFailedError;
+import junit.framework.TestCase;
+
+public class ParserTest extends TestCase {
+  private static final String PERSON = "<person>\n  <!-- name -->\n  <name>Mike <![CDATA[<Schrag>]]></name>\n  <city>Richmond</city>\n</person>";
+
+  public void testDefaults() {
+    XML.Doc doc = XML.parser().doc(PERSON);
+    assertEquals(XML.doc(PERSON).toString(), doc.toString());
+    assertEquals(7, doc.root().children().size());
+    assertEquals(2, doc.root().child("name").children().size());
+  }
+
+  public void testOptions() {
+    XML.Parser parser = XML.parser().setIgnoringWhitespace(true).setIgnoringComments(true).setCoalescing(true);
+    XML.E person = parser.doc(PERSON).root();
+    assertEquals(2, person.children().size());
+    assertEquals(1, person.child("name").children().size());
+    assertEquals("Mike <Schrag>", person.childText("name"));
+    assertEquals("Richmond", person.childText("city"));
+    assertTrue(parser.isIgnoringWhitespace());
+    assertTrue(parser.isIgnoringComments());
+    assertTrue(parser.isCoalescing());
+  }
+
+  public void testReuse() {
+    XML.Parser parser = XML.parser();
+    XML.Doc first = parser.doc(PERSON);
+    XML.Doc second = parser.doc(new StringReader(PERSON));
+    assertEquals(first.toString(), second.toString());
+    assertSame(first.root().name(), second.root().name());
+    try {
+      parser.doc("<a><b></a>");
+      throw new AssertionFailedError("should have failed");
+    }
+    catch (IllegalArgumentException e) {
+      // EXPECTED
+    }
+    assertEquals(first.toString(), parser.doc(PERSON).toString());
+  }
+
+  public void testConcurrent() throws Exception {
+    final XML.Parser parser = XML.parser().setIgnoringWhitespace(true);
+    final String expected = parser.doc(PERSON).toString();
+    final List<Throwable> failures = Collections.synchronizedList(new ArrayList<Throwable>());
+    Thread[] threads = new Thread[4];
+    for (int i = 0; i < threads.length; i++) {
+      threads[i] = new Thread() {
+        @Override
+        public void run() {
+          try {
+            for (int j = 0; j < 200; j++) {
+              assertEquals(expected, parser.doc(PERSON).toString());
+              assertNotNull(parser.documentBuilder().newDocument());
+            }
+          }
+          catch (Throwable t) {
+            failures.add(t);
+          }
+        }
+      };
+      threads[i].start();
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    assertTrue(failures.toString(), failures.isEmpty());
+  }
+
+  public void testNamespaces() {
+    XML.Parser parser = XML.parser().setNamespaceAware(true);
+    XML.E b = parser.doc("<a xmlns:x=\"urn:x\"><x:b x:c=\"1\" xml:lang=\"en\"/></a>").root().child("x:b");
+    assertEquals("1", b.get("x:c"));
+    assertNotNull(parser.doc("<a><b xmlns:x='urn:x'><x:c/></b><b xmlns:x='urn:y'/></a>"));
+    assertNotNull(XML.doc("<y:a/>"));
+    String[] documents = { "<y:a/>", "<a y:b='1'/>", "<a><b xmlns:x='urn:x'/><x:c/></a>", "<a:/>" };
+    for (String document : documents) {
+      try {
+        parser.doc(document);
+        throw new AssertionFailedError("should have failed: " + document);
+      }
+      catch (IllegalArgumentException e) {
+        // EXPECTED
+      }
+    }
+  }
+
+  public void testLimits() {
+    XML.Parser parser = XML.parser().setMaxDepth(2).setMaxAttributes(2).setMaxAttributeLength(5).setMaxTextLength(10);
+    assertNotNull(parser.doc("<a x='1' y='&#x1F600;345'><b>0123456789</b></a>"));
+    String[] documents = { "<a><b><c/></b></a>", "<a x='1' y='2' z='3'/>", "<a>01234567890</a>", "<a><![CDATA[01234567890]]></a>", "<a x='012345'/>", "<a x='1' y='01234&amp;'/>" };
+    for (String document : documents) {
+      try {
+        parser.doc(document);
+        throw new AssertionFailedError("should have failed: " + document);
+      }
+      catch (IllegalArgumentException e) {
+        // EXPECTED
+      }
+    }
+    XML.ElementIterator iterator = parser.stream(new StringReader("<a><b/><b><c/></b></a>"), "b");
+    assertNotNull(iterator.next());
+    try {
+      iterator.next();
+      throw new AssertionFailedError("should have failed");
+    }
+    catch (IllegalArgumentException e) {
+      // EXPECTED
+    }
+  }
+
+  public void testConfigureAfterUse() {
+    XML.Parser parser = XML.parser();
+    parser.doc("<a/>");
+    try {
+      parser.setCoalescing(true);
+      throw new AssertionFailedError("should have failed");
+    }
+    catch (IllegalStateException e) {
+      // EXPECTED
+    }
+  }
+}
@@ -0,0 +1,113 @@
+package org.xiss;
+
+import java.util.List;
+
+import junit.framework.AssertionFailedError;
+import junit.framework.TestCase;
+
+public class PathTest extends TestCase {
+  private static final String PEOPLE = "<people>"
+      + "<person type=\"customer\" id=\"1\"><name>Mike</name><address location=\"home\"><city>Richmond</city></address><address location=\"work\"><city>Beverly Hills</city></address></person>"
+      + "<person type=\"employee\" id=\"2\"><name>Anjo</name><address location=\"home\"><city>San Francisco</city></address></person>"
+      + "<person type=\"customer\" id=\"3\"><name>Jane</name></person>"
+      + "</people>";
+
+  public void testChildSteps() {
+    XML.Doc doc = XML.doc(PEOPLE);
+    assertEquals(3, XML.path("/people/person").select(doc).size());
+    assertEquals(3, XML.path("people/person").select(doc).size());
+    assertEquals(3, XML.path("person").select(doc.root()).size());
+    assertEquals(0, XML.path("/person").select(doc).size());
+    assertEquals("Mike", XML.path("/people/person/name").value(doc));
+    assertEquals("people", XML.path("/*").first(doc).name());
+    assertEquals(6, XML.path("/people/*/*").select(doc).size());
+    assertSame(doc.root(), XML.path("person/..").first(doc.root()));
+    assertSame(doc.root(), XML.path(".").first(doc.root()));
+  }
+
+  public void testDescendents() {
+    XML.Doc doc = XML.doc(PEOPLE);
+    List<String> cities = XML.path("//city").values(doc);
+    assertEquals(3, cities.size());
+    assertEquals("Richmond", cities.get(0));
+    assertEquals("San Francisco", cities.get(2));
+    assertEquals(3, XML.path("//city").select(XML.path("person[@id='3']").first(doc.root())).size());
+    assertEquals(2, XML.path(".//city").select(XML.path("person[@id='1']").first(doc.root())).size());
+    assertEquals(1, XML.path("//people").select(doc).size());
+    assertEquals(3, XML.path("/people//address/city").select(doc).size());
+
+    doc.setIndexed(true);
+    assertEquals(3, XML.path("//city").select(doc).size());
+    assertEquals(XML.path("//*").select(doc).size(), 1 + XML.path(".//*").select(doc.root()).size());
+  }
+
+  public void testDescendentOrSelf() {
+    XML.Doc doc = XML.doc("<a><b><c/></b><b/></a>");
+    List<XML.E> parents = XML.path("/a//..").select(doc);
+    assertEquals(2, parents.size());
+    assertSame(doc.root(), parents.get(0));
+    assertSame(doc.root().children().get(0), parents.get(1));
+
+    List<XML.E> selves = XML.path("/a/b//.").select(doc);
+    assertEquals(3, selves.size());
+    assertEquals("b", selves.get(0).name());
+    assertEquals("c", selves.get(1).name());
+    assertSame(doc.root().children().get(1), selves.get(2));
+    assertEquals(4, XML.path("//.").select(doc).size());
+  }
+
+  public void testPredicates() {
+    XML.Doc doc = XML.doc(PEOPLE);
+    assertEquals("Anjo", XML.path("/people/person[2]/name").value(doc));
+    assertEquals("Jane", XML.path("/people/person[last()]/name").value(doc));
+    assertEquals(2, XML.path("/people/person[@type='customer']").select(doc).size());
+    assertEquals("3", XML.path("/people/person[@type='customer'][2]/@id").value(doc));
+    assertEquals(3, XML.path("/people/person[@id]").select(doc).size());
+    assertEquals(2, XML.path("/people/person[address]").select(doc).size());
+    assertEquals("2", XML.path("/people/person[name=\"Anjo\"]/@id").value(doc));
+    assertEquals("Beverly Hills", XML.path("//address[@location='work']/city/text()").value(doc));
+    assertNull(XML.path("/people/person[4]").first(doc));
+
+    List<String> firstCities = XML.path("//address[1]/city").values(doc);
+    assertEquals(2, firstCities.size());
+    assertEquals("Richmond", firstCities.get(0));
+    assertEquals("San Francisco", firstCities.get(1));
+  }
+
+  public void testValues() {
+    XML.Doc doc = XML.doc(PEOPLE);
+    List<String> ids = XML.path("//person/@id").values(doc);
+    assertEquals(3, ids.size());
+    assertEquals("1", ids.get(0));
+    assertTrue(XML.path("//person/@missing").values(doc).isEmpty());
+    assertEquals("Mike", XML.path("person/name/text()").value(doc.root()));
+    assertTrue(XML.path("@id").selectsValues());
+    try {
+      XML.path("//person/@id").select(doc);
+      throw new AssertionFailedError("should have failed");
+    }
+    catch (IllegalStateException e) {
+      // EXPECTED
+    }
+  }
+
+  public void testDetached() {
+    XML.E person = XML.e("person", XML.e("address", XML.e("city", "Richmond")));
+    assertEquals("Richmond", XML.path("/person/address/city").value(person.child("address")));
+    assertEquals("Richmond", XML.path("//city").value(person));
+    assertEquals(1, XML.path("//person").select(person).size());
+  }
+
+  public void testInvalid() {
+    String[] paths = { "", "/people/", "a[", "a[0]", "a[@b=c]", "@a/b", "a]" };
+    for (String path : paths) {
+      try {
+        XML.path(path);
+        throw new AssertionFailedError("should have failed: " + path);
+      }
+      catch (IllegalArgumentException e) {
+        // EXPECTED
+      }
+    }
+  }
+}
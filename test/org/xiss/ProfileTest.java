@@ -0,0 +1,59 @@
+package org.xiss;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StringWriter;
+
+import junit.framework.TestCase;
+
+public class ProfileTest extends TestCase {
+  private XML.Doc person() {
+    return XML.doc(
+        XML.comment("people"),
+        XML.e("person", XML.a("name", "Mike"), XML.a("id", "1"),
+            XML.e("first-name", "Mike"),
+            XML.e("empty"),
+            XML.e("notes", XML.comment("note"), XML.cdata("<b>bold</b>"))
+        )
+    );
+  }
+
+  public void testCompact() throws IOException {
+    XML.Doc doc = person();
+    String compact = doc.toString(XML.Profile.COMPACT);
+    assertEquals("<?xml version=\"1.0\" encoding=\"UTF-8\"?><!-- people --><person name=\"Mike\" id=\"1\"><first-name>Mike</first-name><empty/><notes><!-- note --><![CDATA[<b>bold</b>]]></notes></person>", compact);
+    XML.E parsed = XML.doc(compact).root();
+    assertEquals(3, parsed.children().size());
+    assertEquals("<b>bold</b>", ((XML.CDATA) parsed.child("notes").children().get(1)).text());
+
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    doc.writeTo(bytes, XML.Profile.COMPACT);
+    assertEquals(compact, new String(bytes.toByteArray(), "UTF-8"));
+  }
+
+  public void testPretty() {
+    XML.E e = XML.e("a", XML.e("b", XML.e("c")));
+    String newline = System.getProperty("line.separator");
+    assertEquals(e.toString(), e.toString(XML.Profile.PRETTY));
+    assertEquals("<a>" + newline + "    <b>" + newline + "        <c />" + newline + "    </b>" + newline + "</a>" + newline, e.toString(XML.Profile.pretty(4)));
+    assertEquals("<a>\n\t<b>\n\t\t<c />\n\t</b>\n</a>\n", e.toString(new XML.Profile("\t", "\n")));
+  }
+
+  public void testCanonical() {
+    XML.Doc doc = person();
+    doc.root().set("xmlns", "urn:people");
+    doc.root().e("text", "a\r\nb > c");
+    doc.root().child("empty").set("value", "\"1\"\t<2>\n");
+    assertEquals("<person xmlns=\"urn:people\" id=\"1\" name=\"Mike\"><first-name>Mike</first-name><empty value=\"&quot;1&quot;&#x9;&lt;2>&#xA;\"></empty><notes>&lt;b&gt;bold&lt;/b&gt;</notes><text>a&#xD;\nb &gt; c</text></person>", doc.toString(XML.Profile.CANONICAL));
+  }
+
+  public void testWriter() {
+    StringWriter out = new StringWriter();
+    XML.Writer writer = new XML.Writer(out, XML.Profile.COMPACT);
+    writer.start("person").attr("id", "1");
+    writer.start("empty").end();
+    writer.start("name").text("Mike").end();
+    writer.close();
+    assertEquals("<person id=\"1\"><empty/><name>Mike</name></person>", out.toString());
+  }
+}
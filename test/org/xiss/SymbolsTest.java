@@ -0,0 +1,59 @@
+package org.xiss;
+
+import java.io.StringReader;
+
+import junit.framework.TestCase;
+
+public class SymbolsTest extends TestCase {
+  public void testIntern() {
+    XML.Symbols symbols = new XML.Symbols();
+    String name = symbols.intern("person".toCharArray(), 0, 6);
+    assertEquals("person", name);
+    assertSame(name, symbols.intern("xpersonx".toCharArray(), 1, 6));
+    assertSame(name, symbols.intern(new String("person")));
+    assertNotSame(name, symbols.intern("persons"));
+  }
+
+  public void testGrow() {
+    XML.Symbols symbols = new XML.Symbols();
+    String[] names = new String[1000];
+    for (int i = 0; i < names.length; i++) {
+      names[i] = symbols.intern("name" + i);
+    }
+    for (int i = 0; i < names.length; i++) {
+      assertSame(names[i], symbols.intern(("name" + i).toCharArray(), 0, ("name" + i).length()));
+    }
+  }
+
+  public void testParent() {
+    XML.Symbols parent = new XML.Symbols();
+    String name = new XML.Symbols(parent).intern("person");
+    assertSame(name, new XML.Symbols(parent).intern(new String("person")));
+    assertSame(XML.Symbols.shared().intern(new String("shared")), new XML.Symbols(XML.Symbols.shared()).intern(new String("shared")));
+  }
+
+  public void testSharedIsBounded() {
+    XML.Symbols shared = XML.Symbols.shared();
+    int size = shared.size();
+    XML.path("/paths-" + System.nanoTime() + "/are-not-shared[@" + System.nanoTime() + "]");
+    assertEquals(size, shared.size());
+
+    for (int i = 0; i <= XML.Symbols.SHARED_LIMIT; i++) {
+      shared.intern("bounded" + i);
+    }
+    assertEquals(XML.Symbols.SHARED_LIMIT, shared.size());
+    assertEquals("overflow", shared.intern(new String("overflow")));
+    XML.Symbols symbols = new XML.Symbols(shared);
+    String name = symbols.intern(new String("overflow"));
+    assertSame(name, symbols.intern(new String("overflow")));
+  }
+
+  public void testParsedNamesAreShared() throws Exception {
+    XML.Doc doc = new XML.Tokenizer(new StringReader("<people><person id='1'/><person id='2'/></people>")).doc();
+    XML.E first = (XML.E) doc.root().children().get(0);
+    XML.E second = (XML.E) doc.root().children().get(1);
+    assertSame(first.name(), second.name());
+    assertSame(first.attributes().get(0).name(), second.attributes().get(0).name());
+    assertTrue(first.hasName("person"));
+  }
+}
@@ -0,0 +1,79 @@
+package org.xiss;
+
+import java.util.List;
+
+import junit.framework.AssertionFailedError;
+import junit.framework.TestCase;
+
+public class TapeTest extends TestCase {
+  private static final String PEOPLE = "<people count=\"2\"><!-- people --><person id=\"1\" type=\"customer\"><name>Mike &amp; Co</name><age>40</age><address location=\"home\"><city>Richmond</city></address><![CDATA[<notes>]]></person><person id=\"2\"><name>Bob</name><active>true</active><address location=\"work\"><city>Beverly Hills</city></address><empty/></person></people>";
+
+  public void testMatchesDoc() {
+    assertEquals(XML.doc(PEOPLE).toString(), XML.tape(PEOPLE).doc().toString());
+    XML.Parser parser = XML.parser().setIgnoringComments(true).setCoalescing(true);
+    assertEquals(parser.doc(PEOPLE).toString(), parser.tape(PEOPLE).doc().toString());
+  }
+
+  public void testNavigation() {
+    XML.Tape tape = XML.tape(PEOPLE);
+    XML.Tape.View people = tape.root();
+    assertEquals("people", people.name());
+    assertTrue(people.hasName("people"));
+    assertNull(people.parent());
+    assertEquals(2, people.getInt("count", 0));
+    assertEquals(3, people.children().size());
+    assertEquals(XML.Tape.COMMENT, people.children().get(0).kind());
+    assertEquals(" people ", people.children().get(0).text());
+
+    List<XML.Tape.View> persons = people.children("person");
+    assertEquals(2, persons.size());
+    XML.Tape.View mike = persons.get(0);
+    assertEquals("Mike & Co", mike.childText("name"));
+    assertEquals(40, mike.childInt("age", 0));
+    assertEquals(-1, mike.childInt("missing", -1));
+    assertEquals("customer", mike.get("type"));
+    assertNull(mike.get("missing"));
+    assertEquals(2, mike.attributes().size());
+    assertEquals("home", mike.child("address").get("location"));
+    assertEquals(people, mike.parent());
+    assertEquals(mike, mike.child("address").parent());
+
+    XML.Tape.View bob = persons.get(1);
+    assertTrue(bob.childBoolean("active", false));
+    assertNull(bob.child("empty").text());
+    assertNull(bob.child("empty").children());
+    assertNull(bob.child("empty").attributes());
+
+    assertEquals(2, people.descendents("city").size());
+    assertEquals("Beverly Hills", people.descendents("city").get(1).text());
+    assertEquals(1, mike.descendents("city").size());
+    assertTrue(people.descendents("missing").isEmpty());
+    assertEquals(2, people.descendentsText("name").size());
+    assertEquals(XML.doc(PEOPLE).root().children("person").get(1).toString(), bob.e().toString());
+  }
+
+  public void testText() {
+    XML.Tape tape = XML.tape("<a><b>text</b><c><d/></c><e>1<f/></e></a>");
+    try {
+      tape.root().child("c").text();
+      throw new AssertionFailedError("should have failed");
+    }
+    catch (IllegalStateException e) {
+      // EXPECTED
+    }
+    try {
+      tape.root().child("e").text();
+      throw new AssertionFailedError("should have failed");
+    }
+    catch (IllegalStateException e) {
+      // EXPECTED
+    }
+    try {
+      XML.tape("<a><b></a>");
+      throw new AssertionFailedError("should have failed");
+    }
+    catch (IllegalArgumentException e) {
+      // EXPECTED
+    }
+  }
+}
@@ -0,0 +1,83 @@
+package org.xiss;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.StringReader;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import junit.framework.AssertionFailedError;
+import junit.framework.TestCase;
+
+import org.xml.sax.InputSource;
+
+public class TokenizerTest extends TestCase {
+  public void testEvents() throws Exception {
+    XML.Tokenizer tokenizer = new XML.Tokenizer(new StringReader("<?xml version=\"1.0\"?><a x='1'>text<b/><![CDATA[<c>]]><!--d--></a>"));
+    assertEquals(XML.Tokenizer.START_ELEMENT, tokenizer.next());
+    assertEquals("a", tokenizer.name());
+    assertEquals(1, tokenizer.attributeCount());
+    assertEquals("x", tokenizer.attributeName(0));
+    assertEquals("1", tokenizer.attributeValue(0));
+    assertEquals(XML.Tokenizer.TEXT, tokenizer.next());
+    assertEquals("text", tokenizer.text());
+    assertEquals(XML.Tokenizer.START_ELEMENT, tokenizer.next());
+    assertEquals("b", tokenizer.name());
+    assertEquals(2, tokenizer.depth());
+    assertEquals(XML.Tokenizer.END_ELEMENT, tokenizer.next());
+    assertEquals(1, tokenizer.depth());
+    assertEquals(XML.Tokenizer.CDATA, tokenizer.next());
+    assertEquals("<c>", tokenizer.text());
+    assertEquals(XML.Tokenizer.COMMENT, tokenizer.next());
+    assertEquals("d", tokenizer.text());
+    assertEquals(XML.Tokenizer.END_ELEMENT, tokenizer.next());
+    assertEquals("a", tokenizer.name());
+    assertEquals(XML.Tokenizer.END_DOCUMENT, tokenizer.next());
+  }
+
+  public void testReferences() {
+    XML.Doc doc = XML.doc("<a x=\"&lt;&#65;&#x42;\">&amp;&quot;&apos;&gt;&#x1F600;</a>");
+    assertEquals("<AB", doc.root().get("x"));
+    assertEquals("&\"'>\uD83D\uDE00", doc.root().text());
+  }
+
+  public void testNormalization() {
+    XML.Doc doc = XML.doc("<a x=\"1\t2\r\n3\">line1\r\nline2\rline3</a>");
+    assertEquals("1 2 3", doc.root().get("x"));
+    assertEquals("line1\nline2\nline3", doc.root().text());
+  }
+
+  public void testMatchesW3C() throws Exception {
+    String xml = "<!DOCTYPE person><person><first-name>Mike</first-name>\n  <addresses><address location=\"home\"><!-- home --><city>Richmond</city></address></addresses></person>";
+    XML.Doc w3cDoc = XML.doc(DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(new InputSource(new StringReader(xml))));
+    assertEquals(w3cDoc.toString(), XML.doc(xml).toString());
+    assertEquals(w3cDoc.toString(), XML.doc(new StringReader(xml)).toString());
+  }
+
+  public void testFileEncoding() throws Exception {
+    File file = File.createTempFile("xiss", ".xml");
+    try {
+      FileOutputStream out = new FileOutputStream(file);
+      out.write("<?xml version=\"1.0\" encoding=\"ISO-8859-1\"?><a>caf\u00e9</a>".getBytes("ISO-8859-1"));
+      out.close();
+      assertEquals("caf\u00e9", XML.doc(file).root().text());
+      assertEquals("caf\u00e9", XML.doc(file.toPath()).root().text());
+    }
+    finally {
+      file.delete();
+    }
+  }
+
+  public void testMalformed() {
+    String[] documents = { "<a>", "<a></b>", "<a/><b/>", "<a x='1' x='2'/>", "<a>&foo;</a>", "text<a/>" };
+    for (String document : documents) {
+      try {
+        XML.doc(document);
+        throw new AssertionFailedError("should have failed: " + document);
+      }
+      catch (IllegalArgumentException e) {
+        // EXPECTED
+      }
+    }
+  }
+}
@@ -0,0 +1,82 @@
+package org.xiss;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.charset.MalformedInputException;
+
+import junit.framework.AssertionFailedError;
+import junit.framework.TestCase;
+
+public class Utf8ReaderTest extends TestCase {
+  private static final String TEXT = "ascii caf\u00e9 \u20ac \uD83D\uDE00 end";
+
+  public void testDecode() throws IOException {
+    byte[] bytes = TEXT.getBytes("UTF-8");
+    for (int size = 1; size <= 4; size++) {
+      XML.Utf8Reader reader = new XML.Utf8Reader(ByteBuffer.wrap(bytes));
+      StringBuilder decoded = new StringBuilder();
+      char[] chars = new char[size];
+      int count;
+      while ((count = reader.read(chars, 0, size)) != -1) {
+        decoded.append(chars, 0, count);
+      }
+      assertEquals(TEXT, decoded.toString());
+    }
+  }
+
+  public void testByteOrderMark() throws IOException {
+    byte[] text = "<a/>".getBytes("UTF-8");
+    ByteBuffer bytes = ByteBuffer.allocate(text.length + 3);
+    bytes.put((byte) 0xEF).put((byte) 0xBB).put((byte) 0xBF).put(text).flip();
+    char[] chars = new char[10];
+    assertEquals(4, new XML.Utf8Reader(bytes).read(chars, 0, chars.length));
+    assertEquals("<a/>", new String(chars, 0, 4));
+  }
+
+  public void testMalformed() throws IOException {
+    byte[][] inputs = { { 'a', (byte) 0xC3 }, { (byte) 0xC3, 'a' }, { (byte) 0x80 }, { (byte) 0xC0, (byte) 0x80 }, { (byte) 0xED, (byte) 0xA0, (byte) 0x80 } };
+    for (byte[] input : inputs) {
+      try {
+        new XML.Utf8Reader(ByteBuffer.wrap(input)).read(new char[10], 0, 10);
+        throw new AssertionFailedError("should have failed");
+      }
+      catch (MalformedInputException e) {
+        // EXPECTED
+      }
+    }
+  }
+
+  public void testMappedFile() throws IOException {
+    StringBuilder xml = new StringBuilder("<people>");
+    int count = 0;
+    while (xml.length() < XML.Tokenizer.MAP_THRESHOLD) {
+      xml.append("<person id=\"").append(count++).append("\">").append(TEXT).append("</person>\n");
+    }
+    xml.append("</people>");
+    File file = File.createTempFile("xiss", ".xml");
+    try {
+      FileOutputStream out = new FileOutputStream(file);
+      out.write(xml.toString().getBytes("UTF-8"));
+      out.close();
+      XML.Doc doc = XML.doc(file);
+      assertEquals(XML.doc(xml.toString()).toString(), doc.toString());
+      assertEquals(count, doc.root().children("person").size());
+      assertEquals(doc.toString(), XML.doc(file.toPath()).toString());
+      Reader reader = XML.Tokenizer.reader(file.toPath());
+      assertTrue(reader instanceof XML.Utf8Reader);
+      reader.close();
+      int streamed = 0;
+      for (XML.E person : XML.stream(file, "person")) {
+        assertEquals(TEXT, person.text());
+        streamed++;
+      }
+      assertEquals(count, streamed);
+    }
+    finally {
+      file.delete();
+    }
+  }
+}
@@ -0,0 +1,81 @@
+package org.xiss;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+public class WalkerTest extends TestCase {
+  private static final String PEOPLE = "<people><!-- people --><person id=\"1\"><name>Mike</name><address><city>Richmond</city></address></person><person id=\"2\"><name>Bob</name><address><city>Beverly Hills</city></address></person></people>";
+
+  public void testWalk() {
+    XML.Doc doc = XML.doc(PEOPLE);
+    final List<String> events = new ArrayList<String>();
+    boolean finished = doc.walk(new XML.Walker() {
+      public int enter(XML.Item item) {
+        if (item instanceof XML.E) {
+          XML.E e = (XML.E) item;
+          events.add("+" + e.name());
+          return e.hasName("address") ? XML.Walker.SKIP : XML.Walker.CONTINUE;
+        }
+        events.add(item.getClass().getSimpleName());
+        return XML.Walker.CONTINUE;
+      }
+
+      public int leave(XML.Item item) {
+        events.add("-" + ((item instanceof XML.E) ? ((XML.E) item).name() : "doc"));
+        return XML.Walker.CONTINUE;
+      }
+    });
+    assertTrue(finished);
+    assertEquals("[Doc, Declaration, +people, Comment, +person, +name, Text, -name, +address, -person, +person, +name, Text, -name, +address, -person, -people, -doc]", events.toString());
+
+    events.clear();
+    finished = doc.root().walk(new XML.Walker() {
+      public int enter(XML.Item item) {
+        events.add(String.valueOf(item));
+        return (item instanceof XML.Text) ? XML.Walker.STOP : XML.Walker.CONTINUE;
+      }
+
+      public int leave(XML.Item item) {
+        return XML.Walker.CONTINUE;
+      }
+    });
+    assertFalse(finished);
+    assertEquals(5, events.size());
+
+    assertEquals("Richmond", doc.root().descendent("city").text());
+    assertNull(doc.root().descendent("people"));
+    assertNull(doc.root().descendent("missing"));
+    doc.setIndexed(true);
+    assertEquals("Richmond", doc.root().descendent("city").text());
+  }
+
+  public void testDeepDocuments() {
+    int depth = 100000;
+    StringBuilder xml = new StringBuilder();
+    for (int i = 0; i < depth; i++) {
+      xml.append("<e i=\"").append(i).append("\">");
+    }
+    xml.append("leaf");
+    for (int i = 0; i < depth; i++) {
+      xml.append("</e>");
+    }
+    XML.Doc doc = XML.doc(xml.toString());
+    String compact = doc.toString(XML.Profile.COMPACT);
+    assertEquals(xml.toString(), compact.substring(compact.indexOf("<e")).trim());
+
+    final int[] count = new int[1];
+    doc.visit(new XML.Visitor() {
+      public boolean visit(XML.Item item) {
+        count[0]++;
+        return true;
+      }
+    });
+    assertEquals(depth + 3, count[0]);
+    assertEquals("1", doc.root().descendent("e").get("i"));
+
+    XML.Doc copy = XML.doc(doc.w3c());
+    assertEquals(compact, copy.toString(XML.Profile.COMPACT));
+  }
+}
@@ -0,0 +1,69 @@
+package org.xiss;
+
+import java.io.StringWriter;
+
+import junit.framework.AssertionFailedError;
+import junit.framework.TestCase;
+
+public class WriterTest extends TestCase {
+  public void testMatchesDoc() {
+    XML.Doc doc = XML.doc(
+        XML.comment("This is the structure for a person"),
+        XML.e("person",
+            XML.e("first-name", "Mike"),
+            XML.e("empty"),
+            XML.e("addresses",
+                XML.e("address",
+                    XML.a("location", "<Home>"),
+                    XML.e("city", "Richmond & Co")
+                ),
+                XML.cdata("This is a cdata section! <test> of cdata!")
+            ),
+            XML.e("mixed", "text", XML.e("child"))
+        )
+    );
+
+    StringWriter out = new StringWriter();
+    XML.Writer writer = new XML.Writer(out);
+    writer.declaration("1.0", "UTF-8");
+    writer.comment("This is the structure for a person");
+    writer.start("person");
+    writer.start("first-name").text("Mike").end();
+    writer.start("empty").end();
+    writer.start("addresses");
+    writer.start("address").attr("location", "<Home>");
+    writer.start("city").text("Richmond & Co").end();
+    writer.end();
+    writer.cdata("This is a cdata section! <test> of cdata!");
+    writer.end();
+    writer.start("mixed").text("text").start("child");
+    writer.close();
+
+    assertEquals(doc.toString(), out.toString());
+  }
+
+  public void testAddSubtree() {
+    XML.E address = XML.e("address", XML.e("city", "Richmond"), XML.e("zip", "23233"));
+    StringWriter out = new StringWriter();
+    XML.Writer writer = new XML.Writer(out);
+    writer.start("addresses").add(address).add(address).end();
+    writer.flush();
+
+    XML.E addresses = XML.e("addresses");
+    addresses.add(XML.e("address", XML.e("city", "Richmond"), XML.e("zip", "23233")));
+    addresses.add(XML.e("address", XML.e("city", "Richmond"), XML.e("zip", "23233")));
+    assertEquals(addresses.toString(), out.toString());
+  }
+
+  public void testInvalidAttribute() {
+    XML.Writer writer = new XML.Writer(new StringWriter());
+    writer.start("a").text("text");
+    try {
+      writer.attr("b", "c");
+      throw new AssertionFailedError("should have failed");
+    }
+    catch (IllegalStateException e) {
+      // EXPECTED
+    }
+  }
+}